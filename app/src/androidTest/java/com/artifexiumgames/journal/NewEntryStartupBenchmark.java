@@ -0,0 +1,89 @@
+package com.artifexiumgames.journal;
+
+import android.app.Instrumentation;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.rule.ActivityTestRule;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.Log;
+
+import com.artifexiumgames.journal.Activity.MainActivity;
+import com.artifexiumgames.journal.Fragment.NewEntryFragment;
+import com.artifexiumgames.journal.RichEditText.EditorMetrics;
+import com.artifexiumgames.journal.RichEditText.RichEditText;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Measures the startup of the editor on a device: the time from the creation of a {@link NewEntryFragment}
+ * to its first frame, as {@link EditorMetrics#FIRST_FRAME} records it.
+ * <p>
+ *  The fragment is made again and again in {@link MainActivity}, the first ones only warming up. The
+ *  percentiles are logged, and reported as the status of the instrumentation:
+ * </p>
+ * <pre>
+ *  ./gradlew :app:connectedAndroidTest -Pandroid.testInstrumentationRunnerArguments.class=com.artifexiumgames.journal.NewEntryStartupBenchmark
+ * </pre>
+ */
+@RunWith(AndroidJUnit4.class)
+public class NewEntryStartupBenchmark {
+    private static final String TAG = "NewEntryStartup";
+
+    private static final int WARMUP = 5;
+    private static final int RUNS = 30;
+
+    @Rule
+    public ActivityTestRule<MainActivity> activityRule = new ActivityTestRule<>(MainActivity.class);
+
+    @Test
+    public void firstFrameOfNewEntry() throws Exception {
+        Instrumentation instrumentation = InstrumentationRegistry.getInstrumentation();
+        EditorMetrics metrics = RichEditText.getMetrics();
+        boolean wasEnabled = metrics.isEnabled();
+        metrics.setEnabled(true);
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                showNewEntry(instrumentation);
+            }
+            metrics.reset();
+            for (int i = 0; i < RUNS; i++) {
+                showNewEntry(instrumentation);
+            }
+            EditorMetrics.Stats stats = metrics.getStats(EditorMetrics.FIRST_FRAME);
+            assertEquals(RUNS, stats.getCount());
+
+            Bundle results = new Bundle();
+            results.putLong("firstFrameMedianNanos", stats.getPercentileNanos(0.5));
+            results.putLong("firstFrameP90Nanos", stats.getPercentileNanos(0.9));
+            results.putLong("firstFrameMaxNanos", stats.getMaxNanos());
+            Log.i(TAG, stats.toString());
+            instrumentation.sendStatus(0, results);
+        } finally {
+            metrics.setEnabled(wasEnabled);
+        }
+    }
+
+    /**
+     * Replaces what the activity shows with a new {@link NewEntryFragment}, and waits until it is drawn
+     */
+    private void showNewEntry(Instrumentation instrumentation) throws InterruptedException {
+        EditorMetrics metrics = RichEditText.getMetrics();
+        long recorded = metrics.getStats(EditorMetrics.FIRST_FRAME).getCount();
+        instrumentation.runOnMainSync(new Runnable() {
+            @Override
+            public void run() {
+                activityRule.getActivity().getSupportFragmentManager().beginTransaction()
+                        .replace(R.id.content_main, new NewEntryFragment())
+                        .commitNow();
+            }
+        });
+        for (int waited = 0; metrics.getStats(EditorMetrics.FIRST_FRAME).getCount() == recorded; waited++) {
+            assertTrue("No frame drawn", waited < 500);
+            Thread.sleep(10);
+        }
+    }
+}
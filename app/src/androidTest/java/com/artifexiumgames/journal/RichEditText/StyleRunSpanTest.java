@@ -0,0 +1,94 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.graphics.Typeface;
+import android.support.test.runner.AndroidJUnit4;
+import android.text.TextPaint;
+import android.text.style.CharacterStyle;
+import android.text.style.MetricAffectingSpan;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation test of {@link StyleRunSpan}, which must draw a run as the spans of its styles did, set
+ * by type: the paints it leaves are compared with those of the span stack, on a device as they need the
+ * platform's fonts.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StyleRunSpanTest {
+
+    private static final int[] TYPES = {
+            RichTextCodec.TYPE_BOLD, RichTextCodec.TYPE_ITALIC, RichTextCodec.TYPE_UNDERLINE,
+            RichTextCodec.TYPE_FOREGROUND_COLOR, RichTextCodec.TYPE_SUBSCRIPT, RichTextCodec.TYPE_SUPERSCRIPT,
+            RichTextCodec.TYPE_RELATIVE_SIZE
+    };
+    private static final float[] SIZES = {0.5f, 2f};
+
+    private final RichEditSpanTypes spanTypes = new RichEditSpanTypes();
+
+    @Test
+    public void runsDrawAsTheirSpans() {
+        for (float size : SIZES) {
+            for (int mask = 1; mask < 1 << TYPES.length; mask++) {
+                long style = 0;
+                long colors = 0;
+                CharacterStyle[] spans = new CharacterStyle[Integer.bitCount(mask)];
+                int n = 0;
+                for (int i = 0; i < TYPES.length; i++) {
+                    if ((mask & 1 << i) != 0) {
+                        int attribute = attributeOf(TYPES[i], size);
+                        style |= StyleRunTable.styleOf(TYPES[i], attribute);
+                        colors |= StyleRunTable.colorsOf(TYPES[i], attribute);
+                        spans[n++] = (CharacterStyle) spanTypes.newSpan(TYPES[i], attribute);
+                    }
+                }
+                StyleRunSpan run = new StyleRunSpan(style, colors);
+                String message = "Styles " + Integer.toBinaryString(mask) + " at size " + size;
+
+                TextPaint expected = newPaint();
+                TextPaint actual = newPaint();
+                for (CharacterStyle span : spans) {
+                    if (span instanceof MetricAffectingSpan) {
+                        ((MetricAffectingSpan) span).updateMeasureState(expected);
+                    }
+                }
+                run.updateMeasureState(actual);
+                assertSamePaint(message + ", measured", expected, actual);
+
+                expected = newPaint();
+                actual = newPaint();
+                for (CharacterStyle span : spans) {
+                    span.updateDrawState(expected);
+                }
+                run.updateDrawState(actual);
+                assertSamePaint(message + ", drawn", expected, actual);
+                assertEquals(message, expected.getColor(), actual.getColor());
+                assertEquals(message, expected.isUnderlineText(), actual.isUnderlineText());
+            }
+        }
+    }
+
+    private static int attributeOf(int type, float size) {
+        if (type == RichTextCodec.TYPE_RELATIVE_SIZE) {
+            return Float.floatToIntBits(size);
+        }
+        return type == RichTextCodec.TYPE_FOREGROUND_COLOR ? 0xFF0000FF : 0;
+    }
+
+    private static TextPaint newPaint() {
+        TextPaint paint = new TextPaint();
+        paint.setTextSize(40);
+        paint.setTypeface(Typeface.DEFAULT);
+        return paint;
+    }
+
+    private static void assertSamePaint(String message, TextPaint expected, TextPaint actual) {
+        assertEquals(message, expected.getTextSize(), actual.getTextSize(), 0f);
+        assertEquals(message, expected.baselineShift, actual.baselineShift);
+        assertEquals(message, expected.getTypeface().getStyle(), actual.getTypeface().getStyle());
+        assertEquals(message, expected.isFakeBoldText(), actual.isFakeBoldText());
+        assertEquals(message, expected.getTextSkewX(), actual.getTextSkewX(), 0f);
+    }
+}
@@ -3,12 +3,19 @@ package com.artifexiumgames.journal.Activity;
 import android.content.Intent;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
+import android.text.Editable;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
-import android.widget.TextView;
+import android.widget.EditText;
 import android.widget.Toast;
 
 import com.artifexiumgames.journal.R;
+import com.artifexiumgames.journal.Storage.Journal;
+import com.artifexiumgames.journal.Storage.WrongPasswordException;
+
+import java.io.IOException;
+import java.util.Arrays;
 
 public class LoginActivity extends AppCompatActivity {
 
@@ -25,9 +32,52 @@ public class LoginActivity extends AppCompatActivity {
         });
     }
 
+    /**
+     * Opens the journal with the password typed, away from the UI thread as the key derivation takes
+     * a while on purpose. The first password opening the journal becomes its password.
+     * <p>
+     *  The password is copied out of the field without going through a {@link String}, which could not be
+     *  wiped, and the field is cleared.
+     * </p>
+     */
     private void checkPassword(){
-        if (((TextView) findViewById(R.id.passwordText)).getText().toString().equals("")){ //Hard coding a password is bad code, but it's for my personal use so WHATEVER
-            Toast.makeText(getApplicationContext(), "Login Succesful", Toast.LENGTH_SHORT);
+        Editable typed = ((EditText) findViewById(R.id.passwordText)).getText();
+        final char[] password = new char[typed.length()];
+        typed.getChars(0, password.length, password, 0);
+        typed.clear();
+        final Button loginButton = (Button) findViewById(R.id.loginButton);
+        loginButton.setEnabled(false);
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                IOException error = null;
+                try {
+                    Journal.open(getApplicationContext(), password);
+                } catch (IOException e) {
+                    error = e;
+                } finally {
+                    Arrays.fill(password, '\0');
+                }
+                final IOException result = error;
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        loginButton.setEnabled(true);
+                        onPasswordChecked(result);
+                    }
+                });
+            }
+        }, "Login").start();
+    }
+
+    private void onPasswordChecked(IOException error) {
+        if (error instanceof WrongPasswordException) {
+            Toast.makeText(getApplicationContext(), "Wrong password", Toast.LENGTH_SHORT).show();
+        } else if (error != null) {
+            Log.e("Login", "Could not open the journal", error);
+            Toast.makeText(getApplicationContext(), "Could not open the journal", Toast.LENGTH_SHORT).show();
+        } else {
+            Toast.makeText(getApplicationContext(), "Login Succesful", Toast.LENGTH_SHORT).show();
             startActivity(new Intent(this, MainActivity.class));
         }
     }
@@ -12,10 +12,17 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 
+import com.artifexiumgames.journal.Fragment.GraphFragment;
 import com.artifexiumgames.journal.Fragment.NewEntryFragment;
+import com.artifexiumgames.journal.Fragment.PastEntriesFragment;
+import com.artifexiumgames.journal.BuildConfig;
 import com.artifexiumgames.journal.R;
+import com.artifexiumgames.journal.RichEditText.ColorPalette;
+import com.artifexiumgames.journal.RichEditText.RichEditText;
 
-public class MainActivity extends AppCompatActivity implements NavigationView.OnNavigationItemSelectedListener, NewEntryFragment.NewEntryFragmentListner, View.OnClickListener {
+import java.io.File;
+
+public class MainActivity extends AppCompatActivity implements NavigationView.OnNavigationItemSelectedListener, NewEntryFragment.NewEntryFragmentListner, PastEntriesFragment.PastEntriesFragmentListener, View.OnClickListener {
 
     protected DrawerLayout drawer;
 
@@ -68,7 +75,13 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
         switch (id){
             case R.id.menu_new_entry:
                 NewEntryFragment fragment = new NewEntryFragment();
-                getSupportFragmentManager().beginTransaction().add(R.id.content_main, fragment).commit();
+                getSupportFragmentManager().beginTransaction().replace(R.id.content_main, fragment).commit();
+                break;
+            case R.id.menu_past_entries:
+                getSupportFragmentManager().beginTransaction().replace(R.id.content_main, new PastEntriesFragment()).commit();
+                break;
+            case R.id.menu_view_graph:
+                getSupportFragmentManager().beginTransaction().replace(R.id.content_main, new GraphFragment()).commit();
                 break;
             default:
                 Log.e("Nav Drawer", "Unknown Nav Drawer Item");
@@ -86,7 +99,17 @@ public class MainActivity extends AppCompatActivity implements NavigationView.On
 
     }
 
+    @Override
+    public void onEntrySelected(long entryId) {
+        getSupportFragmentManager().beginTransaction()
+                .replace(R.id.content_main, NewEntryFragment.newInstance(entryId))
+                .addToBackStack(null)
+                .commit();
+    }
+
     private void init(){
+        RichEditText.getMetrics().setEnabled(BuildConfig.DEBUG); //numbers for the bug reports of test builds
+        ColorPalette.getInstance().open(new File(getFilesDir(), ColorPalette.FILE));
         setContentView(R.layout.activity_main);
         Toolbar toolbar = (Toolbar) findViewById(R.id.toolbar);
         setSupportActionBar(toolbar);
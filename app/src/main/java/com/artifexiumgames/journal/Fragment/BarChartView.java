@@ -0,0 +1,93 @@
+package com.artifexiumgames.journal.Fragment;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * A bar chart of a few values, with a label under some of the bars and the largest value on top.
+ * <p>
+ *  Draws only what it is given: the values are the rollups of a fixed number of periods, so drawing
+ *  costs the same however many entries they count.
+ * </p>
+ */
+public class BarChartView extends View {
+
+    /**
+     * A label is drawn under one bar in this many, counted from the last one
+     */
+    protected static final int LABEL_EVERY = 5;
+
+    protected final Paint barPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    protected final Paint textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    protected float density = 1;
+
+    protected long[] values = new long[0];
+    protected String[] labels = new String[0];
+
+    public BarChartView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public BarChartView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    public BarChartView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context);
+    }
+
+    private void init(Context context) {
+        if (context != null && context.getResources() != null) {
+            density = context.getResources().getDisplayMetrics().density;
+        }
+        barPaint.setColor(Color.DKGRAY);
+        textPaint.setColor(Color.BLACK);
+        textPaint.setTextSize(12 * density);
+    }
+
+    /**
+     * Shows new bars
+     *
+     * @param values the height of the bars, not negative, oldest first
+     * @param labels the label of every bar
+     */
+    public void setBars(long[] values, String[] labels) {
+        this.values = values;
+        this.labels = labels;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        int count = values.length;
+        if (count == 0) {
+            return;
+        }
+        long max = 1;
+        for (long value : values) {
+            max = Math.max(max, value);
+        }
+        float textHeight = textPaint.getTextSize();
+        float top = textHeight * 1.5f;
+        float bottom = getHeight() - textHeight * 1.5f;
+        float slot = (float) getWidth() / count;
+        float gap = Math.min(2 * density, slot / 4);
+        for (int i = 0; i < count; i++) {
+            float left = i * slot;
+            float height = (bottom - top) * Math.max(0, values[i]) / max;
+            canvas.drawRect(left + gap, bottom - height, left + slot - gap, bottom, barPaint);
+            if ((count - 1 - i) % LABEL_EVERY == 0) {
+                canvas.drawText(labels[i], left + gap, bottom + textHeight * 1.2f, textPaint);
+            }
+        }
+        canvas.drawText(String.valueOf(max), 0, textHeight, textPaint);
+    }
+}
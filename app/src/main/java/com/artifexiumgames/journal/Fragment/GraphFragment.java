@@ -0,0 +1,238 @@
+package com.artifexiumgames.journal.Fragment;
+
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.RadioGroup;
+import android.widget.TextView;
+import android.widget.Toast;
+
+import com.artifexiumgames.journal.R;
+import com.artifexiumgames.journal.Storage.AnalyticsStore;
+import com.artifexiumgames.journal.Storage.Journal;
+import com.artifexiumgames.journal.Storage.Rollup;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * A {@link Fragment} graphing what was written in the last days, weeks and months, with the totals and
+ * the writing streaks of the journal.
+ * <p>
+ *  Everything shown is read from the {@link AnalyticsStore} on the executor of the journal: a fixed number
+ *  of rollups, whatever the age of the journal. Switching what the bars count only draws them again.
+ *  The verify button makes the rollups again from the entries, and repairs them if they differ.
+ * </p>
+ */
+public class GraphFragment extends Fragment {
+    private static final String TAG = "GraphFragment";
+
+    public static final int DAYS = 30;
+    public static final int WEEKS = 12;
+    public static final int MONTHS = 12;
+
+    private TextView summaryText;
+    private RadioGroup metricGroup;
+    private BarChartView dayChart;
+    private BarChartView weekChart;
+    private BarChartView monthChart;
+    private Button verifyButton;
+
+    /**
+     * The rollups shown, by granularity, and their labels
+     */
+    private Rollup[][] rollups;
+    private String[][] labels;
+
+    public GraphFragment() {
+        // Required empty public constructor
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View v = inflater.inflate(R.layout.fragment_graphs, container, false);
+
+        summaryText = (TextView) v.findViewById(R.id.graphSummary);
+        metricGroup = (RadioGroup) v.findViewById(R.id.graphMetric);
+        dayChart = (BarChartView) v.findViewById(R.id.graphDays);
+        weekChart = (BarChartView) v.findViewById(R.id.graphWeeks);
+        monthChart = (BarChartView) v.findViewById(R.id.graphMonths);
+        verifyButton = (Button) v.findViewById(R.id.graphVerifyButton);
+
+        metricGroup.setOnCheckedChangeListener(new RadioGroup.OnCheckedChangeListener() {
+            @Override
+            public void onCheckedChanged(RadioGroup group, int checkedId) {
+                showCharts();
+            }
+        });
+        verifyButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                verify();
+            }
+        });
+        load();
+        return v;
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        summaryText = null;
+        metricGroup = null;
+        dayChart = null;
+        weekChart = null;
+        monthChart = null;
+        verifyButton = null;
+    }
+
+    /**
+     * Reads the rollups on the executor of the journal, and shows them
+     */
+    private void load() {
+        final AnalyticsStore analytics = Journal.getAnalytics();
+        ExecutorService executor = Journal.getExecutor();
+        if (analytics == null || executor == null) {
+            Log.e(TAG, "The journal is not open");
+            return;
+        }
+        final View view = summaryText;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Rollup[][] read = new Rollup[3][];
+                final String[][] readLabels = new String[3][];
+                final long[] summary;
+                try {
+                    long today = AnalyticsStore.dayOf(System.currentTimeMillis());
+                    int[] counts = {DAYS, WEEKS, MONTHS};
+                    for (int granularity = AnalyticsStore.DAY; granularity <= AnalyticsStore.MONTH; granularity++) {
+                        long last = AnalyticsStore.periodOf(granularity, today);
+                        read[granularity] = analytics.getRollups(granularity, last, counts[granularity]);
+                        readLabels[granularity] = labelsOf(granularity, last, counts[granularity]);
+                    }
+                    Rollup totals = analytics.getTotals();
+                    summary = new long[]{totals.getEntries(), totals.getWords(), analytics.getDaysWritten(),
+                            analytics.getCurrentStreak(today), analytics.getLongestStreak()};
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not read the analytics", e);
+                    return;
+                }
+                view.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (summaryText != view) {
+                            return;
+                        }
+                        rollups = read;
+                        labels = readLabels;
+                        summaryText.setText(getString(R.string.graph_summary, summary[0], summary[1], summary[2],
+                                summary[3], summary[4]));
+                        showCharts();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Makes the rollups again from the entries on the executor of the journal, repairs them if they
+     * differ, and shows them again
+     */
+    private void verify() {
+        ExecutorService executor = Journal.getExecutor();
+        if (executor == null) {
+            Log.e(TAG, "The journal is not open");
+            return;
+        }
+        final View view = verifyButton;
+        verifyButton.setEnabled(false);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                int found = -1;
+                try {
+                    List<String> differences = Journal.verifyAnalytics(true);
+                    for (String difference : differences) {
+                        Log.w(TAG, difference);
+                    }
+                    found = differences.size();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not verify the analytics", e);
+                }
+                final int differences = found;
+                view.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (verifyButton != view) {
+                            return;
+                        }
+                        verifyButton.setEnabled(true);
+                        String message = differences < 0 ? getString(R.string.graph_verify_failed)
+                                : differences == 0 ? getString(R.string.graph_verified_right)
+                                : getResources().getQuantityString(R.plurals.graph_repaired, differences, differences);
+                        Toast.makeText(getContext(), message, Toast.LENGTH_SHORT).show();
+                        if (differences > 0) {
+                            load();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Draws the bars of the metric checked, from the rollups already read
+     */
+    private void showCharts() {
+        if (rollups == null) {
+            return;
+        }
+        int metric = metricGroup.getCheckedRadioButtonId();
+        BarChartView[] charts = {dayChart, weekChart, monthChart};
+        for (int granularity = AnalyticsStore.DAY; granularity <= AnalyticsStore.MONTH; granularity++) {
+            Rollup[] periods = rollups[granularity];
+            long[] values = new long[periods.length];
+            for (int i = 0; i < periods.length; i++) {
+                values[i] = valueOf(periods[i], metric);
+            }
+            charts[granularity].setBars(values, labels[granularity]);
+        }
+    }
+
+    private static long valueOf(Rollup rollup, int metric) {
+        if (metric == R.id.graphMetricEntries) {
+            return rollup.getEntries();
+        } else if (metric == R.id.graphMetricCharacters) {
+            return rollup.getCharacters();
+        } else if (metric == R.id.graphMetricMinutes) {
+            return rollup.getWritingMillis() / 60000;
+        }
+        return rollup.getWords();
+    }
+
+    /**
+     * @return the labels of the {@code count} periods up to {@code last}: the day of the month of a day,
+     * the first day of a week, the month of a month
+     */
+    private static String[] labelsOf(int granularity, long last, int count) {
+        SimpleDateFormat format = new SimpleDateFormat(granularity == AnalyticsStore.DAY ? "d"
+                : granularity == AnalyticsStore.WEEK ? "d/M" : "MMM", Locale.getDefault());
+        format.setTimeZone(TimeZone.getTimeZone("UTC")); //days are already in the time zone of the device
+        String[] labels = new String[count];
+        for (int i = 0; i < count; i++) {
+            long day = AnalyticsStore.firstDayOf(granularity, last - count + 1 + i);
+            labels[i] = format.format(new Date(day * AnalyticsStore.DAY_MILLIS));
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,675 @@
+package com.artifexiumgames.journal.Fragment;
+
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.Layout;
+import android.text.NoCopySpan;
+import android.text.SpanWatcher;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import android.view.KeyEvent;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.artifexiumgames.journal.R;
+import com.artifexiumgames.journal.RichEditText.ParagraphDocument;
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+import com.artifexiumgames.journal.RichEditText.RichEditSpanTypes;
+import com.artifexiumgames.journal.RichEditText.RichEditText;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+import com.artifexiumgames.journal.RichEditText.StyleRunTable;
+
+/**
+ * Shows a very large entry as a list of its paragraphs, each in its own {@link RichEditText}, so that only
+ * the paragraphs on screen are ever laid out.
+ * <p>
+ *  The entry stays a single {@link Editable}, the one saved and autosaved, and its paragraphs are followed
+ *  by a {@link ParagraphDocument}. A paragraph is bound to a row by copying it, with its styles, out of the
+ *  entry. Binding is a load, see {@link RichEditText#setText(CharSequence, android.widget.TextView.BufferType)},
+ *  so it styles nothing, and nothing is copied back from a row until it is edited. Every edit of a row is
+ *  copied back into the entry right away, in O(log b) for b paragraphs plus the length of the row, plus
+ *  what {@link ParagraphDocument} takes to follow an edit adding or removing line breaks:
+ *  <ul>
+ *      <li>the text edited, at the same place in the entry</li>
+ *      <li>then the styles of the row, in place of those of the entry over it; styles changed without
+ *      editing the text, e.g. by the toolbar, are copied once the change is over</li>
+ *  </ul>
+ * </p>
+ * <p>
+ *  A selection goes across paragraphs by growing its row: when a selection reaches the start or the end
+ *  of its row, e.g. by dragging a handle or with shift and the arrow keys, the row takes in the paragraph
+ *  before or after it and keeps the selection, and so on. Within the row, the selection is the one of a
+ *  single editor, for the toolbar, the clipboard and the keyboard alike. Once the selection is a cursor
+ *  again, or the row loses the focus, the row is split back into its paragraphs.
+ * </p>
+ * <p>
+ *  A grown row is not free: it is a single editor over everything selected. Taking in a paragraph copies
+ *  and lays out only that paragraph, but every edit or change of styles of the grown row copies the styles
+ *  of the whole row back, so that selecting s characters, and acting on them, costs O(s), as in a single
+ *  editor; only the length of the entry beyond the selection does not count. Selecting all of an entry
+ *  lays it all out, as the editor of a smaller entry would.
+ * </p>
+ * <p>
+ *  The paragraphs are joined by the keys a single editor would join them with:
+ *  <ul>
+ *      <li>a line break typed or pasted in a row splits it, and the cursor follows to the next row</li>
+ *      <li>backspace at the start of a row, or delete at its end, removes the line break in between,
+ *      whether from a key or from the input method, see {@link RichEditText.OnDeleteAtEdgeListener}</li>
+ *      <li>the arrow keys move on to the row before or after from the edges of a row</li>
+ *  </ul>
+ *  The row with the focus is given to the {@link OnBlockFocusListener}, e.g. to take over the toolbar with
+ *  {@link RichEditText#setAllButtons}.
+ * </p>
+ */
+public class LargeEntryAdapter extends RecyclerView.Adapter<LargeEntryAdapter.BlockViewHolder>
+        implements ParagraphDocument.OnBlocksChangedListener {
+
+    /**
+     * Called when a row of the list gets the focus
+     */
+    public interface OnBlockFocusListener {
+        void onBlockFocused(RichEditText editor);
+    }
+
+    private final Editable document;
+    private final ParagraphDocument paragraphs;
+    private final RecyclerView list;
+    private final OnBlockFocusListener listener;
+    private final RichTextCodec.SpanTypes spanTypes = new RichEditSpanTypes();
+    /**
+     * The row whose edit is being copied into the entry, which already shows it
+     */
+    private BlockViewHolder mirroring;
+    private boolean blocksReplaced;
+    /**
+     * Where to put the cursor, in the entry, once the row it is in is bound; -1 if nowhere
+     */
+    private int focusOffset = -1;
+    private BlockViewHolder focused;
+    /**
+     * The paragraphs of the row a selection has grown over, whose position is the one of the first; none if
+     * {@code expandedFirst < 0}. Every other row is a single paragraph.
+     */
+    private int expandedFirst = -1;
+    private int expandedLast = -1;
+    /**
+     * Splits the grown row back, out of a layout of the list
+     */
+    private final Runnable collapser = new Runnable() {
+        @Override
+        public void run() {
+            collapse();
+        }
+    };
+
+    /**
+     * @param document   the entry, followed by {@code paragraphs}
+     * @param paragraphs the paragraphs of the entry, see {@link ParagraphDocument#attach(Spannable)}
+     * @param list       the list the adapter is set to
+     * @param listener   called when a row gets the focus
+     */
+    public LargeEntryAdapter(Editable document, ParagraphDocument paragraphs, RecyclerView list, OnBlockFocusListener listener) {
+        this.document = document;
+        this.paragraphs = paragraphs;
+        this.list = list;
+        this.listener = listener;
+        paragraphs.setOnBlocksChangedListener(this);
+    }
+
+    @Override
+    public BlockViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_entry_block, parent, false);
+        return new BlockViewHolder((RichEditText) v);
+    }
+
+    @Override
+    public void onBindViewHolder(BlockViewHolder holder, int position) {
+        holder.bind(position);
+    }
+
+    @Override
+    public int getItemCount() {
+        return paragraphs.getBlockCount() - (expandedFirst >= 0 ? expandedLast - expandedFirst : 0);
+    }
+
+    @Override
+    public void onViewRecycled(BlockViewHolder holder) {
+        holder.unbind();
+    }
+
+    /**
+     * Stops following the paragraphs of the entry, once the list is gone
+     */
+    public void close() {
+        paragraphs.setOnBlocksChangedListener(null);
+        list.removeCallbacks(collapser);
+        focused = null;
+    }
+
+    /**
+     * @return the editor of the row with the focus, or null if no row has had it yet
+     */
+    public RichEditText getFocusedEditor() {
+        return focused != null ? focused.editor : null;
+    }
+
+    /**
+     * @return where the selection starts in the entry, or -1 if no row has the focus
+     */
+    public int getSelectionStart() {
+        int position = focused != null ? focused.getAdapterPosition() : RecyclerView.NO_POSITION;
+        return position == RecyclerView.NO_POSITION ? -1 : getRowStart(position) + focused.editor.getSelectionStart();
+    }
+
+    /**
+     * @return where the selection ends in the entry, or -1 if no row has the focus
+     */
+    public int getSelectionEnd() {
+        int position = focused != null ? focused.getAdapterPosition() : RecyclerView.NO_POSITION;
+        return position == RecyclerView.NO_POSITION ? -1 : getRowStart(position) + focused.editor.getSelectionEnd();
+    }
+
+    /**
+     * @return the first paragraph of the row at {@code position}
+     */
+    protected int getFirstBlock(int position) {
+        return expandedFirst >= 0 && position > expandedFirst ? position + expandedLast - expandedFirst : position;
+    }
+
+    /**
+     * @return the last paragraph of the row at {@code position}
+     */
+    protected int getLastBlock(int position) {
+        return expandedFirst >= 0 && position == expandedFirst ? expandedLast : getFirstBlock(position);
+    }
+
+    /**
+     * @return the position of the row paragraph {@code block} is in
+     */
+    protected int getPosition(int block) {
+        if (expandedFirst < 0 || block <= expandedFirst) {
+            return block;
+        }
+        return block <= expandedLast ? expandedFirst : block - (expandedLast - expandedFirst);
+    }
+
+    protected int getRowStart(int position) {
+        return paragraphs.getBlockStart(getFirstBlock(position));
+    }
+
+    protected int getRowEnd(int position) {
+        return paragraphs.getBlockEnd(getLastBlock(position));
+    }
+
+    @Override
+    public void onBlockChanged(int block) {
+        if (mirroring == null) {
+            notifyItemChanged(getPosition(block));
+        }
+    }
+
+    @Override
+    public void onBlocksReplaced(int first, int removed, int inserted) {
+        blocksReplaced = true;
+        if (expandedFirst >= 0) {
+            if (mirroring != null && mirroring.getAdapterPosition() == expandedFirst
+                    && first >= expandedFirst && first + removed <= expandedLast + 1) {
+                expandedLast += inserted - removed; //the grown row shows its paragraphs as edited already
+                blocksReplaced = false;
+            } else {
+                expandedFirst = -1;
+                expandedLast = -1;
+                notifyDataSetChanged();
+            }
+            return;
+        }
+        int changed = Math.min(removed, inserted);
+        notifyItemRangeChanged(first, changed);
+        if (inserted > removed) {
+            notifyItemRangeInserted(first + changed, inserted - removed);
+        } else if (removed > inserted) {
+            notifyItemRangeRemoved(first + changed, removed - inserted);
+        }
+    }
+
+    /**
+     * Puts the cursor at {@code offset} in the entry, in the row it is in, scrolling to it if needed
+     *
+     * @param rebinding true if the row is about to be bound again, and is to get the cursor then
+     */
+    protected void focusAt(int offset, boolean rebinding) {
+        int position = getPosition(paragraphs.blockAt(offset));
+        list.scrollToPosition(position);
+        BlockViewHolder holder = rebinding ? null : (BlockViewHolder) list.findViewHolderForAdapterPosition(position);
+        if (holder != null) {
+            holder.focus(offset - getRowStart(position));
+        } else {
+            focusOffset = offset;
+        }
+    }
+
+    /**
+     * Grows the row of {@code holder} over the paragraph before or after it, keeping its selection
+     *
+     * @return false if there is no paragraph there, or another row has grown
+     */
+    protected boolean expand(BlockViewHolder holder, boolean before) {
+        int position = holder.getAdapterPosition();
+        if (position == RecyclerView.NO_POSITION || (expandedFirst >= 0 && expandedFirst != position)) {
+            return false;
+        }
+        int first = getFirstBlock(position);
+        int last = getLastBlock(position);
+        if (before ? first == 0 : last == paragraphs.getBlockCount() - 1) {
+            return false;
+        }
+        holder.copyPendingStyles();
+        int rowStart = getRowStart(position);
+        int selectionStart = rowStart + holder.editor.getSelectionStart();
+        int selectionEnd = rowStart + holder.editor.getSelectionEnd();
+        //The paragraph taken in, with the line break between it and the row
+        CharSequence taken = before
+                ? document.subSequence(paragraphs.getBlockStart(first - 1), rowStart)
+                : document.subSequence(getRowEnd(position), paragraphs.getBlockEnd(last + 1));
+        expandedFirst = before ? first - 1 : first;
+        expandedLast = before ? last : last + 1;
+        //The row of the paragraph taken in is gone; the grown row takes its position if it was before
+        int grown = before ? position - 1 : position;
+        notifyItemRemoved(before ? position - 1 : position + 1);
+        holder.take(taken, before);
+        rowStart = getRowStart(grown);
+        holder.editor.setSelection(selectionStart - rowStart, selectionEnd - rowStart);
+        return true;
+    }
+
+    /**
+     * Splits the row a selection has grown over back into its paragraphs
+     */
+    protected void collapse() {
+        if (expandedFirst < 0) {
+            return;
+        }
+        int position = expandedFirst;
+        int taken = expandedLast - expandedFirst;
+        expandedFirst = -1;
+        expandedLast = -1;
+        notifyItemChanged(position);
+        if (taken > 0) {
+            notifyItemRangeInserted(position + 1, taken);
+        }
+    }
+
+    /**
+     * A paragraph of the entry, or the paragraphs a selection has grown over, in its own editor
+     */
+    public class BlockViewHolder extends RecyclerView.ViewHolder
+            implements TextWatcher, SpanWatcher, NoCopySpan, View.OnKeyListener, View.OnFocusChangeListener,
+            RichEditText.OnSelectionChangeListener, RichEditText.OnDeleteAtEdgeListener, Runnable {
+        protected final RichEditText editor;
+        protected boolean binding;
+        protected boolean stylesPending;
+        /**
+         * True once the text or the styles of the row are changed after it is bound: only then are its
+         * styles copied into the entry
+         */
+        protected boolean edited;
+        /**
+         * The range of the row whose styles changed since they were last copied, while styles are pending
+         */
+        protected int stylesFrom;
+        protected int stylesTo;
+        protected boolean selectionPending;
+        private final Runnable selectionSettled = new Runnable() {
+            @Override
+            public void run() {
+                selectionPending = false;
+                onSelectionSettled();
+            }
+        };
+
+        public BlockViewHolder(RichEditText editor) {
+            super(editor);
+            this.editor = editor;
+            editor.addTextChangedListener(this);
+            editor.setOnKeyListener(this);
+            editor.setOnFocusChangeListener(this);
+            editor.addOnSelectionChangeListener(this);
+            editor.setOnDeleteAtEdgeListener(this);
+        }
+
+        void bind(int position) {
+            binding = true;
+            try {
+                int start = getRowStart(position);
+                int end = getRowEnd(position);
+                editor.setText(document.subSequence(start, end));
+                editor.getText().setSpan(this, 0, editor.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+                editor.clearHistory(); //undo stops where the row was bound
+                edited = false;
+                if (focusOffset >= start && focusOffset <= end) {
+                    focus(focusOffset - start);
+                    focusOffset = -1;
+                }
+            } finally {
+                binding = false;
+            }
+        }
+
+        /**
+         * Adds a paragraph taken in by the row to its start or its end, as a load: nothing is copied back
+         * into the entry, and only the paragraph is laid out
+         */
+        void take(CharSequence paragraph, boolean before) {
+            binding = true;
+            try {
+                editor.load(before ? 0 : editor.length(), paragraph);
+                editor.clearHistory();
+            } finally {
+                binding = false;
+            }
+        }
+
+        void unbind() {
+            editor.getText().removeSpan(this);
+            copyPendingStyles();
+        }
+
+        void focus(int offset) {
+            editor.requestFocus();
+            editor.setSelection(Math.min(offset, editor.length()));
+        }
+
+        /**
+         * Writes the styles of {@code [from, to)} of the row over the entry, once it is edited. The styles of
+         * a styled entry are set on its table, for that range only. Otherwise the spans of the entry over the
+         * whole row are removed, those going beyond it cut to what is out of it, and a copy of every span of
+         * the row is set in their place, as spans cut at the ends of the range would be split at every edit.
+         */
+        protected void copyStyles(int from, int to) {
+            int position = getAdapterPosition();
+            if (!edited || position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            Editable text = editor.getText();
+            int offset = getRowStart(position);
+            int end = offset + text.length();
+            PieceTableEditable styledDocument = PieceTableEditable.asStyled(document);
+            if (styledDocument != null) {
+                to = Math.min(to, text.length());
+                if (from < to) {
+                    PieceTableEditable styledRow = PieceTableEditable.asStyled(text);
+                    styledDocument.setStyles(offset + from, styledRow != null ? styledRow.getStyleRuns().copy(from, to)
+                            : StyleRunTable.fromSpans(text, from, to, spanTypes));
+                }
+                return;
+            }
+            for (Object span : document.getSpans(offset, end, Object.class)) {
+                int type = spanTypes.typeOf(span);
+                if (type < 0 && !(span instanceof StyleRunTable.RunSpan)) {
+                    continue;
+                }
+                int spanStart = document.getSpanStart(span);
+                int spanEnd = document.getSpanEnd(span);
+                int flags = document.getSpanFlags(span);
+                if (spanStart < offset && spanEnd > end) {
+                    document.setSpan(copyOf(span, type), end, spanEnd, flags);
+                    document.setSpan(span, spanStart, offset, flags);
+                } else if (spanStart < offset) {
+                    if (spanEnd > offset) {
+                        document.setSpan(span, spanStart, offset, flags);
+                    }
+                } else if (spanEnd > end) {
+                    if (spanStart < end) {
+                        document.setSpan(span, end, spanEnd, flags);
+                    }
+                } else {
+                    document.removeSpan(span);
+                }
+            }
+            for (Object span : text.getSpans(0, text.length(), Object.class)) {
+                int type = spanTypes.typeOf(span);
+                Object copy = type >= 0 || span instanceof StyleRunTable.RunSpan ? copyOf(span, type) : null;
+                if (copy != null) {
+                    document.setSpan(copy, offset + text.getSpanStart(span), offset + text.getSpanEnd(span), text.getSpanFlags(span));
+                }
+            }
+        }
+
+        /**
+         * @return a new span of the style of {@code span}, so that the entry and a row never share one
+         */
+        private Object copyOf(Object span, int type) {
+            if (span instanceof StyleRunTable.RunSpan) {
+                StyleRunTable.RunSpan run = (StyleRunTable.RunSpan) span;
+                return spanTypes.newRunSpan(run.getStyle(), run.getColors(), null, 0, 0);
+            }
+            return spanTypes.newSpan(type, spanTypes.hasAttribute(type) ? spanTypes.attributeOf(span) : 0);
+        }
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            if (!binding) {
+                copyPendingStyles(); //while their range is still where the edit is about to move it from
+            }
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            int position = getAdapterPosition();
+            if (binding || position == RecyclerView.NO_POSITION) {
+                return;
+            }
+            int offset = getRowStart(position);
+            edited = true;
+            mirroring = this;
+            blocksReplaced = false;
+            try {
+                document.replace(offset + start, offset + start + before, s.subSequence(start, start + count).toString());
+                copyStyles(start, start + count);
+            } finally {
+                mirroring = null;
+            }
+            if (blocksReplaced) {
+                focusAt(offset + start + count, true); //the row is split, and bound again
+            }
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            //Necessary to implement TextWatcher
+        }
+
+        @Override
+        public void onSpanAdded(Spannable text, Object what, int start, int end) {
+            onStyleChanged(what, start, end);
+        }
+
+        @Override
+        public void onSpanRemoved(Spannable text, Object what, int start, int end) {
+            onStyleChanged(what, start, end);
+        }
+
+        @Override
+        public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend) {
+            onStyleChanged(what, Math.min(ostart, nstart), Math.max(oend, nend));
+        }
+
+        /**
+         * Copies the styles of the row over {@code [start, end)}, and the other ranges changed meanwhile,
+         * once the change is over, e.g. once every span of a button is set
+         */
+        private void onStyleChanged(Object span, int start, int end) {
+            if (binding || (spanTypes.typeOf(span) < 0 && !(span instanceof StyleRunTable.RunSpan))) {
+                return;
+            }
+            edited = true;
+            if (!stylesPending) {
+                stylesPending = true;
+                stylesFrom = start;
+                stylesTo = end;
+                editor.post(this);
+            } else {
+                stylesFrom = Math.min(stylesFrom, start);
+                stylesTo = Math.max(stylesTo, end);
+            }
+        }
+
+        @Override
+        public void run() {
+            stylesPending = false;
+            copyStyles(stylesFrom, stylesTo);
+        }
+
+        private void copyPendingStyles() {
+            if (stylesPending) {
+                editor.removeCallbacks(this);
+                run();
+            }
+        }
+
+        @Override
+        public void onSelectionChange(int start, int end) {
+            if (!binding && !selectionPending) {
+                selectionPending = true;
+                editor.post(selectionSettled);
+            }
+        }
+
+        /**
+         * Grows the row over the paragraph next to it once a selection reaches its start or its end, or
+         * splits it back once the selection is a cursor
+         */
+        private void onSelectionSettled() {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION || !editor.hasFocus()) {
+                return;
+            }
+            int start = Math.min(editor.getSelectionStart(), editor.getSelectionEnd());
+            int end = Math.max(editor.getSelectionStart(), editor.getSelectionEnd());
+            if (start == end) {
+                if (expandedFirst >= 0 && position == expandedFirst) {
+                    copyPendingStyles();
+                    int offset = getRowStart(position) + start;
+                    collapse();
+                    focusAt(offset, true);
+                }
+            } else if (start == 0) {
+                expand(this, true);
+            } else if (end == editor.length()) {
+                expand(this, false);
+            }
+        }
+
+        @Override
+        public boolean onKey(View v, int keyCode, KeyEvent event) {
+            int position = getAdapterPosition();
+            if (event.getAction() != KeyEvent.ACTION_DOWN || position == RecyclerView.NO_POSITION) {
+                return false;
+            }
+            int selectionStart = editor.getSelectionStart();
+            int selectionEnd = editor.getSelectionEnd();
+            boolean atStart = selectionStart == 0 && selectionEnd == 0;
+            boolean atEnd = selectionStart == editor.length() && selectionEnd == editor.length();
+            boolean first = getFirstBlock(position) == 0;
+            boolean last = getLastBlock(position) == paragraphs.getBlockCount() - 1;
+            Layout layout = editor.getLayout();
+            boolean firstLine = layout != null && layout.getLineForOffset(selectionEnd) == 0;
+            boolean lastLine = layout != null && layout.getLineForOffset(selectionEnd) == layout.getLineCount() - 1;
+            //With shift, the row grows first, and the editor then moves the end of the selection into it
+            switch (keyCode) {
+                case KeyEvent.KEYCODE_DEL:
+                    return atStart && onDeleteAtEdge(editor, true);
+                case KeyEvent.KEYCODE_FORWARD_DEL:
+                    return atEnd && onDeleteAtEdge(editor, false);
+                case KeyEvent.KEYCODE_DPAD_LEFT:
+                    if (event.isShiftPressed()) {
+                        if (selectionEnd == 0) {
+                            expand(this, true);
+                        }
+                    } else if (atStart && !first) {
+                        focusAt(getRowStart(position) - 1, false);
+                        return true;
+                    }
+                    return false;
+                case KeyEvent.KEYCODE_DPAD_RIGHT:
+                    if (event.isShiftPressed()) {
+                        if (selectionEnd == editor.length()) {
+                            expand(this, false);
+                        }
+                    } else if (atEnd && !last) {
+                        focusAt(getRowEnd(position) + 1, false);
+                        return true;
+                    }
+                    return false;
+                case KeyEvent.KEYCODE_DPAD_UP:
+                    if (event.isShiftPressed()) {
+                        if (firstLine) {
+                            expand(this, true);
+                        }
+                    } else if (!first && firstLine) {
+                        focusAt(getRowStart(position) - 1, false);
+                        return true;
+                    }
+                    return false;
+                case KeyEvent.KEYCODE_DPAD_DOWN:
+                    if (event.isShiftPressed()) {
+                        if (lastLine) {
+                            expand(this, false);
+                        }
+                    } else if (!last && lastLine) {
+                        focusAt(getRowEnd(position) + 1, false);
+                        return true;
+                    }
+                    return false;
+                default:
+                    return false;
+            }
+        }
+
+        /**
+         * Joins the row with the one before it on backspace at its start, or with the one after it on
+         * delete at its end
+         */
+        @Override
+        public boolean onDeleteAtEdge(RichEditText editor, boolean atStart) {
+            int position = getAdapterPosition();
+            if (position == RecyclerView.NO_POSITION) {
+                return false;
+            } else if (atStart && getFirstBlock(position) > 0) {
+                join(getRowStart(position) - 1);
+                return true;
+            } else if (!atStart && getLastBlock(position) < paragraphs.getBlockCount() - 1) {
+                join(getRowEnd(position));
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * Removes the line break at {@code offset} in the entry, joining the rows around it, and leaves
+         * the cursor where it was
+         */
+        private void join(int offset) {
+            copyPendingStyles();
+            document.delete(offset, offset + 1);
+            focusAt(offset, true);
+        }
+
+        @Override
+        public void onFocusChange(View v, boolean hasFocus) {
+            if (hasFocus) {
+                focused = this;
+                if (listener != null) {
+                    listener.onBlockFocused(editor);
+                }
+            } else {
+                copyPendingStyles();
+                if (expandedFirst >= 0) {
+                    list.post(collapser); //the focus may be lost while the list is laid out
+                }
+            }
+        }
+    }
+}
@@ -5,26 +5,54 @@ import android.content.DialogInterface;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.os.Bundle;
+import android.support.design.widget.Snackbar;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.AlertDialog;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.Selection;
+import android.text.Spannable;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.TextWatcher;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.RelativeSizeSpan;
 import android.text.style.SubscriptSpan;
 import android.text.style.SuperscriptSpan;
+import android.util.Log;
+import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.view.inputmethod.BaseInputConnection;
+import android.view.inputmethod.EditorInfo;
 import android.widget.Button;
+import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.TextView;
+import android.widget.Toast;
 import android.widget.ToggleButton;
 
+import com.artifexiumgames.journal.RichEditText.EditorMetrics;
+import com.artifexiumgames.journal.RichEditText.ParagraphDocument;
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+import com.artifexiumgames.journal.RichEditText.RichEditSpanTypes;
 import com.artifexiumgames.journal.RichEditText.RichEditText;
 import com.artifexiumgames.journal.R;
+import com.artifexiumgames.journal.Storage.Autosave;
+import com.artifexiumgames.journal.Storage.DraftLog;
+import com.artifexiumgames.journal.Storage.EntryStore;
+import com.artifexiumgames.journal.Storage.Journal;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 
 /**
@@ -36,10 +64,23 @@ import com.artifexiumgames.journal.R;
  * create an instance of this fragment.
  */
 public class NewEntryFragment extends Fragment {
+    private static final String TAG = "NewEntryFragment";
+
     // TODO: Rename parameter arguments, choose names that match
     // the fragment initialization parameters, e.g. ARG_ITEM_NUMBER
     private static final String ARG_PARAM1 = "param1";
     private static final String ARG_PARAM2 = "param2";
+    private static final String ARG_ENTRY_ID = "entryId";
+    /**
+     * How long an entry has to be to be opened as a list of its paragraphs, see {@link LargeEntryAdapter},
+     * or to be turned into one once it has grown that long in the editor. Below it, the entry is in a single
+     * editor, whose edits may cost up to what laying out and styling this many characters does.
+     */
+    protected static final int LARGE_ENTRY_LENGTH = 50000;
+    /**
+     * Makes the texts of large entries, which keep their styles as a table of runs like the editor's
+     */
+    private static final PieceTableEditable.Factory STYLED_TEXT = PieceTableEditable.factory(new RichEditSpanTypes());
 
     // TODO: Rename and change types of parameters
     private String mParam1;
@@ -61,6 +102,44 @@ public class NewEntryFragment extends Fragment {
     private ImageButton textColorButton;
     private ImageButton backgroundButton;
     private RichEditText entryText;
+    private View entryScrollView;
+    private RecyclerView largeEntryList;
+    /**
+     * The entry shown by {@link #largeEntryList}, or null if it is in {@link #entryText}
+     */
+    private Editable largeEntry;
+    private ParagraphDocument paragraphs;
+    private LargeEntryAdapter largeEntryAdapter;
+    private RichEditText.OnFindListener findListener;
+    private View findBar;
+    private EditText findQuery;
+    private TextView findCount;
+    private EditText replaceText;
+    private long entryId = -1;
+    /**
+     * When the fragment was created, until its first frame is recorded, see {@link EditorMetrics#FIRST_FRAME}
+     */
+    private long firstFrameStarted;
+
+    /**
+     * Moves the entry from the editor into a list of its paragraphs, once it has grown past
+     * {@link #LARGE_ENTRY_LENGTH}, keeping the cursor where it was
+     */
+    private final Runnable largeEntryOpener = new Runnable() {
+        @Override
+        public void run() {
+            if (entryText == null || largeEntry != null || entryText.length() < LARGE_ENTRY_LENGTH) {
+                return;
+            }
+            int cursor = Math.max(entryText.getSelectionEnd(), 0);
+            Editable text = STYLED_TEXT.newEditable(entryText.getText());
+            Selection.removeSelection(text);
+            BaseInputConnection.removeComposingSpans(text);
+            entryText.setText("");
+            openLargeEntry(text);
+            largeEntryAdapter.focusAt(cursor, false);
+        }
+    };
 
     private NewEntryFragmentListner mListener;
 
@@ -86,12 +165,26 @@ public class NewEntryFragment extends Fragment {
         return fragment;
     }
 
+    /**
+     * @param entryId the id of a saved entry, to be opened
+     * @return A new instance of fragment NewEntryFragment, editing the entry.
+     */
+    public static NewEntryFragment newInstance(long entryId) {
+        NewEntryFragment fragment = new NewEntryFragment();
+        Bundle args = new Bundle();
+        args.putLong(ARG_ENTRY_ID, entryId);
+        fragment.setArguments(args);
+        return fragment;
+    }
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        firstFrameStarted = RichEditText.getMetrics().begin(EditorMetrics.FIRST_FRAME);
         if (getArguments() != null) {
             mParam1 = getArguments().getString(ARG_PARAM1);
             mParam2 = getArguments().getString(ARG_PARAM2);
+            entryId = getArguments().getLong(ARG_ENTRY_ID, -1);
         }
         setHasOptionsMenu(true);
     }
@@ -125,15 +218,75 @@ public class NewEntryFragment extends Fragment {
         superscriptButton.setText(s);
 
         entryText = (RichEditText) v.findViewById(R.id.newEntryTextView);
+        entryText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                //Necessary to implement TextWatcher
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                //Necessary to implement TextWatcher
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (largeEntry == null && s.length() >= LARGE_ENTRY_LENGTH) {
+                    entryText.removeCallbacks(largeEntryOpener);
+                    entryText.post(largeEntryOpener); //not while the editor is still being edited
+                }
+            }
+        });
+        entryScrollView = v.findViewById(R.id.entryScrollView);
+        largeEntryList = (RecyclerView) v.findViewById(R.id.largeEntryList);
         entryText.setAllButtons(boldButton, italicButton, underlineButton, strikeThroughButton,
                                 subcriptButton, superscriptButton,
                                 unindentButton, indentButton,
                 textColorButton, backgroundButton);
+        setUpFindBar(v);
+        openEntry();
+        if (firstFrameStarted != 0) {
+            entryText.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+                @Override
+                public boolean onPreDraw() {
+                    if (entryText != null) {
+                        entryText.getViewTreeObserver().removeOnPreDrawListener(this);
+                    }
+                    RichEditText.getMetrics().end(EditorMetrics.FIRST_FRAME, firstFrameStarted, -1);
+                    firstFrameStarted = 0;
+                    return true;
+                }
+            });
+        }
 
         return v;
 
     }
 
+    @Override
+    public void onPause() {
+        super.onPause();
+        Autosave autosave = Journal.getAutosave();
+        if (autosave != null) {
+            autosave.flush(); //the process may be killed from now on
+        }
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        Autosave autosave = Journal.getAutosave();
+        Spannable text = largeEntry != null ? largeEntry : entryText.getText();
+        if (autosave != null && autosave.getText() == text) {
+            autosave.flush();
+            autosave.detach(); //unless the text of another editor is saved by now
+        }
+        closeLargeEntry();
+        entryText.removeCallbacks(largeEntryOpener);
+        entryText.setOnEditableChangeListener(null);
+        entryText = null;
+    }
+
     @Override
     public void onAttach(Context context) {
         super.onAttach(context);
@@ -161,7 +314,7 @@ public class NewEntryFragment extends Fragment {
     public boolean onOptionsItemSelected(MenuItem item){
         switch (item.getItemId()){
             case R.id.action_save_entry:
-                //TODO: save encrypted journal log to memory
+                saveEntry();
                 return true;
             case R.id.action_clear_entry:
                 new AlertDialog.Builder(getContext(), android.R.style.Theme_Material_Dialog_Alert)
@@ -171,18 +324,292 @@ public class NewEntryFragment extends Fragment {
                         .setPositiveButton("Yes", new DialogInterface.OnClickListener() {
                             @Override
                             public void onClick(DialogInterface dialog, int which) {
+                                final Editable cleared = largeEntry;
+                                closeLargeEntry();
                                 entryText.setText("");
+                                Snackbar.make(entryText, "Entry cleared", Snackbar.LENGTH_LONG)
+                                        .setAction("Undo", new View.OnClickListener() {
+                                            @Override
+                                            public void onClick(View v) {
+                                                if (cleared != null) {
+                                                    openLargeEntry(cleared);
+                                                } else {
+                                                    entryText.undo();
+                                                }
+                                            }
+                                        })
+                                        .show();
                             }
                         })
                         .setNegativeButton("No", null)
                         .show();
                 return true;
+            case R.id.action_undo:
+                editor().undo();
+                return true;
+            case R.id.action_redo:
+                editor().redo();
+                return true;
+            case R.id.action_find_text:
+                findBar.setVisibility(View.VISIBLE);
+                findQuery.requestFocus();
+                return true;
 
             default:
                 return super.onOptionsItemSelected(item);
         }
     }
 
+    /**
+     * Connects the find bar to the editor: the entry is searched as the query is typed, and the count of
+     * matches follows the search. A large entry is searched in the paragraph being edited.
+     * @see RichEditText#find(CharSequence)
+     */
+    private void setUpFindBar(View v) {
+        findBar = v.findViewById(R.id.findBar);
+        findQuery = (EditText) v.findViewById(R.id.findQuery);
+        findCount = (TextView) v.findViewById(R.id.findCount);
+        replaceText = (EditText) v.findViewById(R.id.replaceText);
+
+        findQuery.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+                //Necessary to implement TextWatcher
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                editor().find(s);
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                //Necessary to implement TextWatcher
+            }
+        });
+        findQuery.setOnEditorActionListener(new TextView.OnEditorActionListener() {
+            @Override
+            public boolean onEditorAction(TextView view, int actionId, KeyEvent event) {
+                if (actionId == EditorInfo.IME_ACTION_SEARCH) {
+                    editor().findNext();
+                    return true;
+                }
+                return false;
+            }
+        });
+        findListener = new RichEditText.OnFindListener() {
+            @Override
+            public void onFindProgress(int matchCount, int currentMatch, boolean complete) {
+                findCount.setText(getString(complete ? R.string.find_count : R.string.find_count_searching,
+                        currentMatch + 1, matchCount));
+            }
+        };
+        entryText.setOnFindListener(findListener);
+        v.findViewById(R.id.findPreviousButton).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                editor().findPrevious();
+            }
+        });
+        v.findViewById(R.id.findNextButton).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                editor().findNext();
+            }
+        });
+        v.findViewById(R.id.replaceAllButton).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                int replaced = editor().replaceAll(replaceText.getText());
+                Toast.makeText(getContext(), getResources().getQuantityString(R.plurals.find_replaced, replaced, replaced),
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
+        v.findViewById(R.id.findCloseButton).setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View view) {
+                findQuery.setText("");
+                editor().endFind();
+                findBar.setVisibility(View.GONE);
+            }
+        });
+    }
+
+    /**
+     * Queues the entry to be encrypted and saved in the journal. The first save gives the entry its id,
+     * later saves replace its content.
+     * @see Journal#saveEntry(long, android.text.Spanned, long)
+     */
+    private void saveEntry() {
+        EntryStore store = Journal.getEntryStore();
+        if (store == null) {
+            Log.e(TAG, "The journal is not open");
+            return;
+        }
+        if (entryId < 0) {
+            entryId = store.newEntryId();
+        }
+        Autosave autosave = Journal.getAutosave();
+        Journal.saveEntry(entryId, largeEntry != null ? largeEntry : entryText.getText(), autosave != null ? autosave.takeWritingMillis() : 0);
+        if (autosave != null) {
+            autosave.setEntryId(entryId);
+            autosave.discard();
+        }
+        Toast.makeText(getContext(), "Entry saved", Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Reads the entry being edited in the background, and shows it once decrypted, then saves it as it is
+     * edited.
+     * <p>
+     *  If a draft was left unsaved, e.g. by a crash, it is reopened instead: in place of the entry it is a
+     *  draft of, or of a new entry. The draft of another entry is saved with that entry rather than lost.
+     * </p>
+     * @see Autosave
+     */
+    private void openEntry() {
+        final long id = entryId;
+        final RichEditText view = entryText;
+        final Autosave autosave = Journal.getAutosave();
+        ExecutorService executor = Journal.getExecutor();
+        if (executor == null || autosave == null) {
+            Log.e(TAG, "The journal is not open");
+            return;
+        }
+        final Future<DraftLog.Draft> recovery = autosave.recover();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                DraftLog.Draft draft = null;
+                try {
+                    draft = recovery.get();
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Could not recover the draft", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                final Editable text;
+                final long openedId;
+                final boolean recovered = draft != null && (id < 0 || draft.entryId == id);
+                try {
+                    if (recovered) {
+                        text = draft.text;
+                        openedId = draft.entryId;
+                    } else {
+                        if (draft != null) {
+                            saveDraft(draft, autosave);
+                        }
+                        text = id >= 0 ? Journal.loadEntry(id) : null;
+                        openedId = id;
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not open entry " + id, e);
+                    return;
+                }
+                view.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (entryText != view) {
+                            return;
+                        }
+                        entryId = openedId;
+                        view.setOnEditableChangeListener(new RichEditText.OnEditableChangeListener() {
+                            @Override
+                            public void onEditableChanged(Editable editable) {
+                                autosave.attach(editable, entryId);
+                            }
+                        });
+                        if (text != null && text.length() >= LARGE_ENTRY_LENGTH) {
+                            openLargeEntry(text);
+                            autosave.markSaved();
+                        } else if (text != null) {
+                            view.setText(text);
+                            view.clearHistory(); //the entry as saved is where undo stops
+                            autosave.markSaved();
+                        } else {
+                            autosave.attach(view.getText(), entryId);
+                        }
+                        if (recovered) {
+                            Toast.makeText(getContext(), "Unsaved changes recovered", Toast.LENGTH_SHORT).show();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Shows a large entry as a list of its paragraphs in place of the editor, so that opening it lays out
+     * only the paragraphs on screen, and saves it as it is edited.
+     * @see LargeEntryAdapter
+     */
+    private void openLargeEntry(Editable text) {
+        largeEntry = PieceTableEditable.asStyled(text) != null ? text : STYLED_TEXT.newEditable(text);
+        paragraphs = new ParagraphDocument();
+        paragraphs.attach(largeEntry);
+        largeEntryAdapter = new LargeEntryAdapter(largeEntry, paragraphs, largeEntryList,
+                new LargeEntryAdapter.OnBlockFocusListener() {
+                    @Override
+                    public void onBlockFocused(RichEditText editor) {
+                        editor.setAllButtons(boldButton, italicButton, underlineButton, strikeThroughButton,
+                                subcriptButton, superscriptButton,
+                                unindentButton, indentButton,
+                                textColorButton, backgroundButton);
+                        editor.setOnFindListener(findListener);
+                    }
+                });
+        largeEntryList.setLayoutManager(new LinearLayoutManager(getContext()));
+        largeEntryList.setAdapter(largeEntryAdapter);
+        entryScrollView.setVisibility(View.GONE);
+        largeEntryList.setVisibility(View.VISIBLE);
+        Autosave autosave = Journal.getAutosave();
+        if (autosave != null) {
+            autosave.attach(largeEntry, entryId);
+        }
+    }
+
+    /**
+     * Goes back to the editor from the list of paragraphs of a large entry, if it is shown
+     */
+    private void closeLargeEntry() {
+        if (largeEntry == null) {
+            return;
+        }
+        largeEntryAdapter.close();
+        largeEntryList.setAdapter(null);
+        paragraphs.detach();
+        largeEntryList.setVisibility(View.GONE);
+        entryScrollView.setVisibility(View.VISIBLE);
+        entryText.setAllButtons(boldButton, italicButton, underlineButton, strikeThroughButton,
+                subcriptButton, superscriptButton,
+                unindentButton, indentButton,
+                textColorButton, backgroundButton);
+        largeEntry = null;
+        paragraphs = null;
+        largeEntryAdapter = null;
+    }
+
+    /**
+     * @return the editor the menu and the find bar act on: the paragraph being edited of a large entry,
+     * or the editor of the entry
+     */
+    private RichEditText editor() {
+        RichEditText focused = largeEntryAdapter != null ? largeEntryAdapter.getFocusedEditor() : null;
+        return focused != null ? focused : entryText;
+    }
+
+    /**
+     * Saves a draft left unsaved with its entry, before the draft of another entry replaces it
+     */
+    private static void saveDraft(DraftLog.Draft draft, Autosave autosave) {
+        EntryStore store = Journal.getEntryStore();
+        if (store != null) {
+            Journal.saveEntry(draft.entryId >= 0 ? draft.entryId : store.newEntryId(), draft.text);
+            autosave.discard();
+        }
+    }
+
     /**
      * This interface must be implemented by activities that contain this
      * fragment to allow an interaction in this fragment to be communicated
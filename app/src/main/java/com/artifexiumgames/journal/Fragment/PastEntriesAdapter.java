@@ -0,0 +1,275 @@
+package com.artifexiumgames.journal.Fragment;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.artifexiumgames.journal.R;
+import com.artifexiumgames.journal.Storage.EntryStore;
+import com.artifexiumgames.journal.Storage.EntrySummary;
+import com.artifexiumgames.journal.Storage.Journal;
+import com.artifexiumgames.journal.Storage.SummaryTable;
+
+import java.io.IOException;
+import java.text.DateFormat;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Lists the past entries, newest first, from their summaries in the {@link SummaryTable}.
+ * <p>
+ *  Summaries are read by pages of {@value #PAGE_SIZE} on the background executor of the {@link Journal},
+ *  and only the last {@value #MAX_PAGES} pages used are kept. Binding a row never touches the disk: a row
+ *  whose page is not read yet shows as loading, and is bound again once it is. The page past the rows
+ *  being bound, in either direction, is read ahead of them so that scrolling rarely gets to see one.
+ * </p>
+ * <p>
+ *  An entry saved before there were summaries, or whose summary was torn by a crash, is opened once in
+ *  the background to make its summary again.
+ * </p>
+ */
+public class PastEntriesAdapter extends RecyclerView.Adapter<PastEntriesAdapter.EntryViewHolder> {
+    private static final String TAG = "PastEntriesAdapter";
+
+    public static final int PAGE_SIZE = 50;
+    public static final int MAX_PAGES = 8;
+
+    /**
+     * How close to the end of its page a row has to be for the next page to be read
+     */
+    protected static final int PREFETCH_DISTANCE = 15;
+
+    /**
+     * Called when an entry of the list is clicked
+     */
+    public interface OnEntryClickListener {
+        void onEntryClick(long entryId);
+    }
+
+    private final EntryStore store;
+    private final SummaryTable table;
+    private final ExecutorService executor;
+    private final OnEntryClickListener listener;
+    private final int entryCount;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Pages read, by page number, in the order they were last used. Only touched on the UI thread.
+     */
+    private final Map<Integer, Page> pages = new LinkedHashMap<Integer, Page>(MAX_PAGES * 2, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    private final Set<Integer> loading = new HashSet<>();
+    private boolean closed;
+
+    /**
+     * @param store    the entries, from {@link Journal#getEntryStore()}
+     * @param table    their summaries, from {@link Journal#getSummaryTable()}
+     * @param executor where to read the summaries, from {@link Journal#getExecutor()}
+     * @param listener called when an entry is clicked
+     */
+    public PastEntriesAdapter(EntryStore store, SummaryTable table, ExecutorService executor, OnEntryClickListener listener) {
+        this.store = store;
+        this.table = table;
+        this.executor = executor;
+        this.listener = listener;
+        this.entryCount = (int) store.getEntryCount();
+        setHasStableIds(true);
+    }
+
+    @Override
+    public EntryViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View v = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_past_entry, parent, false);
+        return new EntryViewHolder(v);
+    }
+
+    @Override
+    public void onBindViewHolder(EntryViewHolder holder, int position) {
+        int pageNumber = position / PAGE_SIZE;
+        int inPage = position % PAGE_SIZE;
+        Page page = pages.get(pageNumber);
+        if (page == null) {
+            load(pageNumber);
+            holder.bindLoading();
+        } else {
+            holder.bind(page.summaries[inPage], page.dates[inPage]);
+        }
+        if (inPage >= PAGE_SIZE - PREFETCH_DISTANCE) {
+            load(pageNumber + 1);
+        } else if (inPage < PREFETCH_DISTANCE) {
+            load(pageNumber - 1);
+        }
+    }
+
+    @Override
+    public int getItemCount() {
+        return entryCount;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return idAt(position);
+    }
+
+    /**
+     * Stops binding the pages still being read, once the list is gone
+     */
+    public void close() {
+        closed = true;
+        handler.removeCallbacksAndMessages(null);
+    }
+
+    /**
+     * Reads a page in the background, unless it is read or being read
+     */
+    private void load(final int pageNumber) {
+        final int first = pageNumber * PAGE_SIZE;
+        if (closed || first < 0 || first >= entryCount || pages.containsKey(pageNumber) || !loading.add(pageNumber)) {
+            return;
+        }
+        final int count = Math.min(PAGE_SIZE, entryCount - first);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Page page = readPage(first, count);
+                handler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        loading.remove(pageNumber);
+                        if (!closed) {
+                            pages.put(pageNumber, page);
+                            notifyItemRangeChanged(first, count);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Reads the summaries of the entries at {@code first} to {@code first + count} in the list, on the
+     * background thread. Positions go from the newest entry to the oldest, ids the other way.
+     */
+    private Page readPage(int first, int count) {
+        Page page = new Page(count);
+        long lowestId = idAt(first + count - 1);
+        EntrySummary[] rows;
+        try {
+            rows = table.getRows(lowestId, count);
+        } catch (IOException e) {
+            Log.e(TAG, "Could not read the summaries from entry " + lowestId, e);
+            rows = new EntrySummary[count];
+        }
+        DateFormat format = DateFormat.getDateTimeInstance(DateFormat.MEDIUM, DateFormat.SHORT);
+        for (int i = 0; i < count; i++) {
+            EntrySummary summary = rows[count - 1 - i];
+            if (summary == null) {
+                summary = summarizeAgain(idAt(first + i));
+            }
+            page.summaries[i] = summary;
+            page.dates[i] = summary == null ? null : format.format(summary.getTimestamp());
+        }
+        return page;
+    }
+
+    /**
+     * @return the summary of an entry that has none in the table, made from the entry itself, or null if
+     * the entry has never been saved
+     */
+    private EntrySummary summarizeAgain(long id) {
+        long timestamp = store.getTimestamp(id);
+        if (timestamp == 0) {
+            return null;
+        }
+        try {
+            Editable text = Journal.loadEntry(id);
+            if (text == null) {
+                return null;
+            }
+            EntrySummary summary = EntrySummary.summarize(id, timestamp, text);
+            table.put(summary);
+            return summary;
+        } catch (IOException e) {
+            Log.e(TAG, "Could not summarize entry " + id, e);
+            return null;
+        }
+    }
+
+    private long idAt(int position) {
+        return entryCount - 1 - position;
+    }
+
+    /**
+     * The summaries of a page, with their dates formatted ahead of binding
+     */
+    private static class Page {
+        final EntrySummary[] summaries;
+        final String[] dates;
+
+        Page(int count) {
+            summaries = new EntrySummary[count];
+            dates = new String[count];
+        }
+    }
+
+    /**
+     * A row of the list
+     */
+    public class EntryViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        protected final TextView title;
+        protected final TextView date;
+        protected final TextView preview;
+        protected final TextView words;
+
+        public EntryViewHolder(View itemView) {
+            super(itemView);
+            title = (TextView) itemView.findViewById(R.id.pastEntryTitle);
+            date = (TextView) itemView.findViewById(R.id.pastEntryDate);
+            preview = (TextView) itemView.findViewById(R.id.pastEntryPreview);
+            words = (TextView) itemView.findViewById(R.id.pastEntryWords);
+            itemView.setOnClickListener(this);
+        }
+
+        void bind(EntrySummary summary, String dateText) {
+            if (summary == null) {
+                title.setText(R.string.past_entry_unsaved);
+                date.setText("");
+                preview.setText("");
+                words.setText("");
+                return;
+            }
+            title.setText(summary.getTitle().isEmpty() ? itemView.getContext().getString(R.string.past_entry_untitled) : summary.getTitle());
+            date.setText(dateText);
+            preview.setText(summary.getPreview());
+            words.setText(itemView.getContext().getResources().getQuantityString(R.plurals.past_entry_words,
+                    summary.getWordCount(), summary.getWordCount()));
+        }
+
+        void bindLoading() {
+            title.setText(R.string.past_entry_loading);
+            date.setText("");
+            preview.setText("");
+            words.setText("");
+        }
+
+        @Override
+        public void onClick(View v) {
+            int position = getAdapterPosition();
+            if (position != RecyclerView.NO_POSITION && listener != null) {
+                listener.onEntryClick(idAt(position));
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.artifexiumgames.journal.Fragment;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.support.v4.app.Fragment;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.artifexiumgames.journal.R;
+import com.artifexiumgames.journal.Storage.Journal;
+
+/**
+ * A {@link Fragment} listing the past entries of the journal, newest first.
+ * Activities that contain this fragment must implement the
+ * {@link PastEntriesFragmentListener} interface
+ * to be told which entry to open.
+ *
+ * @see PastEntriesAdapter
+ */
+public class PastEntriesFragment extends Fragment implements PastEntriesAdapter.OnEntryClickListener {
+    private static final String TAG = "PastEntriesFragment";
+
+    private RecyclerView entryList;
+    private PastEntriesAdapter adapter;
+    private PastEntriesFragmentListener mListener;
+
+    public PastEntriesFragment() {
+        // Required empty public constructor
+    }
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View v = inflater.inflate(R.layout.fragment_past_entries, container, false);
+
+        entryList = (RecyclerView) v.findViewById(R.id.pastEntriesList);
+        entryList.setHasFixedSize(true);
+        entryList.setLayoutManager(new LinearLayoutManager(getContext()));
+        if (Journal.getEntryStore() == null) {
+            Log.e(TAG, "The journal is not open");
+            return v;
+        }
+        adapter = new PastEntriesAdapter(Journal.getEntryStore(), Journal.getSummaryTable(), Journal.getExecutor(), this);
+        entryList.setAdapter(adapter);
+
+        return v;
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (adapter != null) {
+            adapter.close();
+            adapter = null;
+        }
+        entryList = null;
+    }
+
+    @Override
+    public void onAttach(Context context) {
+        super.onAttach(context);
+        if (context instanceof PastEntriesFragmentListener) {
+            mListener = (PastEntriesFragmentListener) context;
+        } else {
+            throw new RuntimeException(context.toString()
+                    + " must implement PastEntriesFragmentListener");
+        }
+    }
+
+    @Override
+    public void onDetach() {
+        super.onDetach();
+        mListener = null;
+    }
+
+    @Override
+    public void onEntryClick(long entryId) {
+        if (mListener != null) {
+            mListener.onEntrySelected(entryId);
+        }
+    }
+
+    /**
+     * This interface must be implemented by activities that contain this
+     * fragment, to open the entry the user picked.
+     */
+    public interface PastEntriesFragmentListener {
+        void onEntrySelected(long entryId);
+    }
+}
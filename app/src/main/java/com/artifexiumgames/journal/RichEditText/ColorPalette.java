@@ -0,0 +1,281 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.util.Log;
+
+import com.artifexiumgames.journal.RichEditText.RichEditText.ColorString;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * The colors to choose from in the color chooser dialogs, shared by every {@link RichEditText} of the
+ * app, most recently used first.
+ * <p>
+ *  The colors are kept in a {@link LinkedHashMap} by their packed ARGB value, least recently used first:
+ *  finding a color, or making it the most recently used one, costs the same with hundreds of colors as
+ *  with ten. The colors in the order the dialogs show them are made again only after a change.
+ * </p>
+ * <p>
+ *  Once {@link #open(File)}ed, the palette is read from its file, and written again after every change,
+ *  both on a background thread of its own. The file is replaced atomically, and a change made while a
+ *  write waits to run is written by that write.
+ * </p>
+ * All the methods can be called from any thread.
+ */
+public class ColorPalette {
+    private static final String TAG = "ColorPalette";
+
+    public static final String FILE = "palette";
+    public static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final int MAGIC = 0x4A504C54; //"JPLT"
+    private static final int VERSION = 1;
+
+    private static ColorPalette instance;
+
+    /**
+     * The colors by their ARGB value, least recently used first
+     */
+    private final LinkedHashMap<Integer, ColorString> colors = new LinkedHashMap<>();
+    /**
+     * The colors, most recently used first, or null if changed since
+     */
+    private ColorString[] mostRecentFirst;
+    private final Executor executor;
+    private File file;
+    /**
+     * The colors used while the file is read, to stay the most recently used ones after, or null
+     */
+    private List<ColorString> usedWhileReading;
+    private boolean writeScheduled;
+
+    private final Runnable write = new Runnable() {
+        @Override
+        public void run() {
+            ColorString[] written;
+            File target;
+            synchronized (ColorPalette.this) {
+                writeScheduled = false;
+                written = getMostRecentFirst();
+                target = file;
+            }
+            try {
+                write(target, written);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write the palette", e);
+            }
+        }
+    };
+
+    /**
+     * @param defaults the colors before any is read from a file, most recently used first
+     * @param executor where the file is read and written
+     */
+    protected ColorPalette(List<ColorString> defaults, Executor executor) {
+        this.executor = executor;
+        replace(defaults);
+    }
+
+    /**
+     * @return the palette of the app, starting with {@link RichEditText#getDefaultColors()}
+     */
+    public static synchronized ColorPalette getInstance() {
+        if (instance == null) {
+            instance = new ColorPalette(RichEditText.getDefaultColors(), Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "Color palette");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            }));
+        }
+        return instance;
+    }
+
+    /**
+     * Reads the palette from {@code file}, if there, and writes it there from now on. Returns at once:
+     * the colors are replaced when read. Opening the file already open does nothing.
+     */
+    public synchronized void open(final File file) {
+        if (file.equals(this.file)) {
+            return;
+        }
+        this.file = file;
+        usedWhileReading = new ArrayList<>();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                List<ColorString> read = null;
+                try {
+                    read = read(file);
+                } catch (FileNotFoundException e) {
+                    //Not written yet: the colors are the defaults
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not read the palette", e);
+                }
+                synchronized (ColorPalette.this) {
+                    List<ColorString> used = usedWhileReading;
+                    usedWhileReading = null;
+                    if (read != null && file.equals(ColorPalette.this.file)) {
+                        replace(read);
+                        for (ColorString color : used) {
+                            moveToFront(color);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return how many colors there are
+     */
+    public synchronized int size() {
+        return colors.size();
+    }
+
+    /**
+     * @param position of the color, 0 being the most recently used one
+     */
+    public synchronized ColorString get(int position) {
+        return getMostRecentFirst()[position];
+    }
+
+    /**
+     * @param argb the packed ARGB value of a color
+     * @return the color of that value, or null if it is not in the palette
+     */
+    public synchronized ColorString find(int argb) {
+        return colors.get(argb);
+    }
+
+    /**
+     * Makes {@code color} the most recently used color, adding it if new. A color of the same value
+     * already there is replaced, taking the title of {@code color}.
+     */
+    public synchronized void use(ColorString color) {
+        moveToFront(color);
+        if (usedWhileReading != null) {
+            usedWhileReading.add(color);
+        }
+        scheduleWrite();
+    }
+
+    /**
+     * @return the colors, most recently used first. The list is a copy.
+     */
+    public synchronized List<ColorString> getColors() {
+        return new ArrayList<>(Arrays.asList(getMostRecentFirst()));
+    }
+
+    /**
+     * Replaces all the colors
+     *
+     * @param colors the new colors, most recently used first. Of colors of the same value, the first is kept.
+     */
+    public synchronized void setColors(List<ColorString> colors) {
+        replace(colors);
+        scheduleWrite();
+    }
+
+    /**
+     * @return the colors, most recently used first, made again if changed. Not to be changed.
+     */
+    synchronized ColorString[] getMostRecentFirst() {
+        if (mostRecentFirst == null) {
+            ColorString[] array = new ColorString[colors.size()];
+            int i = array.length;
+            for (ColorString color : colors.values()) {
+                array[--i] = color;
+            }
+            mostRecentFirst = array;
+        }
+        return mostRecentFirst;
+    }
+
+    private void replace(List<ColorString> colors) {
+        this.colors.clear();
+        for (int i = colors.size() - 1; i >= 0; i--) {
+            moveToFront(colors.get(i));
+        }
+    }
+
+    private void moveToFront(ColorString color) {
+        Integer argb = color.getHex();
+        colors.remove(argb);
+        colors.put(argb, color);
+        mostRecentFirst = null;
+    }
+
+    private void scheduleWrite() {
+        if (file != null && !writeScheduled) {
+            writeScheduled = true;
+            executor.execute(write);
+        }
+    }
+
+    /**
+     * @return the colors of a palette file, most recently used first
+     */
+    protected static List<ColorString> read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a palette: " + file);
+            }
+            int count = in.readInt();
+            if (count < 0) {
+                throw new IOException("Corrupt palette: " + file);
+            }
+            List<ColorString> read = new ArrayList<>(Math.min(count, 1024));
+            for (int i = 0; i < count; i++) {
+                int argb = in.readInt();
+                read.add(new ColorString(in.readUTF(), argb));
+            }
+            return read;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes a palette file, atomically
+     *
+     * @param colors most recently used first
+     */
+    protected static void write(File file, ColorString[] colors) throws IOException {
+        File temporary = new File(file.getPath() + TEMPORARY_SUFFIX);
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(colors.length);
+            for (ColorString color : colors) {
+                out.writeInt(color.getHex());
+                out.writeUTF(color.getTitle());
+            }
+            out.flush();
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Could not write the palette " + file);
+        }
+    }
+}
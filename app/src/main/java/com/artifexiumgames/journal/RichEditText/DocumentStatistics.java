@@ -0,0 +1,204 @@
+package com.artifexiumgames.journal.RichEditText;
+
+/**
+ * The live counts of a text: characters, words, sentences and paragraphs, and the time it takes to read,
+ * kept exact as the text is edited without counting it again.
+ * <p>
+ *  A word is a run of letters and digits, as {@link com.artifexiumgames.journal.Storage.EntrySummary}
+ *  counts them. Every other count is kept at the start of a word, from the gap of other characters
+ *  before it:
+ *  <ul>
+ *      <li>a word starts a sentence if it is the first word, or its gap has a '.', '!' or '?'</li>
+ *      <li>a word starts a paragraph if it is the first word, or its gap has a line break, so lines
+ *      without words are not paragraphs</li>
+ *  </ul>
+ * </p>
+ * <p>
+ *  So an edit only changes what is counted at the word starts within it, and at the word starts the gaps
+ *  next to it lead to. Before the edit, the counts of that window are taken off the totals, and after it,
+ *  the counts of the window as edited are added back. A word going on past either end of the edit keeps
+ *  its start, and its counts, where they were, so the window stops at the edit on that side. Otherwise it
+ *  takes the gap next to the edit, up to the word before or after it, and stops early once that gap has
+ *  both a sentence break and a line break, as nothing past them can change the counts.
+ * </p>
+ * <p>
+ *  An edit therefore costs O(k + g) for k characters edited and g characters of the gaps next to it, at
+ *  most the whitespace and punctuation up to the nearest words. Typing within words and single spaces
+ *  costs O(k). A gap of many blank lines without a sentence break is walked in full, as whether a
+ *  word comes before it decides whether the word after it starts a sentence.
+ * </p>
+ * <p>
+ *  Edits are given with {@link #beforeTextChanged(CharSequence, int, int, int)} and
+ *  {@link #onTextChanged(CharSequence, int, int, int)} from a {@link android.text.TextWatcher}, as with
+ *  {@link UndoHistory}. See {@link RichEditText#getStatistics()}.
+ * </p>
+ */
+public class DocumentStatistics {
+
+    /**
+     * The reading speed {@link #getReadingMillis()} assumes
+     */
+    public static final int WORDS_PER_MINUTE = 200;
+
+    private int characters;
+    private int words;
+    private int sentences;
+    private int paragraphs;
+
+    //The window of the edit in progress, from beforeTextChanged
+    private int windowStart;
+    private int windowAfterEdit;
+
+    //The counts of the last window scanned
+    private int windowWords;
+    private int windowSentences;
+    private int windowParagraphs;
+
+    /**
+     * Counts all of {@code text}, in place of what was counted until now
+     */
+    public void reset(CharSequence text) {
+        scan(text, 0, text.length());
+        characters = text.length();
+        words = windowWords;
+        sentences = windowSentences;
+        paragraphs = windowParagraphs;
+    }
+
+    /**
+     * Takes the counts of the window of an edit off the totals, before the edit is made, with the
+     * arguments of {@link android.text.TextWatcher#beforeTextChanged(CharSequence, int, int, int)}
+     */
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        windowStart = gapStart(s, start);
+        int windowEnd = gapEnd(s, start + count);
+        windowAfterEdit = windowEnd - (start + count);
+        scan(s, windowStart, windowEnd);
+        characters -= count;
+        words -= windowWords;
+        sentences -= windowSentences;
+        paragraphs -= windowParagraphs;
+    }
+
+    /**
+     * Adds the counts of the window of an edit back to the totals, once it is made, with the arguments of
+     * {@link android.text.TextWatcher#onTextChanged(CharSequence, int, int, int)}
+     */
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        scan(s, windowStart, start + count + windowAfterEdit);
+        characters += count;
+        words += windowWords;
+        sentences += windowSentences;
+        paragraphs += windowParagraphs;
+    }
+
+    public int getCharacterCount() {
+        return characters;
+    }
+
+    public int getWordCount() {
+        return words;
+    }
+
+    public int getSentenceCount() {
+        return sentences;
+    }
+
+    public int getParagraphCount() {
+        return paragraphs;
+    }
+
+    /**
+     * @return how long reading the text takes, at {@value #WORDS_PER_MINUTE} words per minute
+     */
+    public long getReadingMillis() {
+        return words * 60000L / WORDS_PER_MINUTE;
+    }
+
+    /**
+     * Counts the words starting from {@code start} to {@code end}, included, and the sentences and
+     * paragraphs they start. {@code start} is the start of the text, within or at the end of a word, or
+     * where a gap already has both breaks: the character before it is taken as a word character, which
+     * changes nothing counted after it.
+     */
+    private void scan(CharSequence s, int start, int end) {
+        windowWords = 0;
+        windowSentences = 0;
+        windowParagraphs = 0;
+        boolean previousWord = start > 0; //the character before start is a word character
+        boolean inWord = previousWord;
+        boolean sentenceBreak = false;
+        boolean paragraphBreak = false;
+        for (int i = start, last = Math.min(end, s.length() - 1); i <= last; i++) {
+            char c = s.charAt(i);
+            if (isWordCharacter(c)) {
+                if (!inWord) {
+                    windowWords++;
+                    if (!previousWord || sentenceBreak) {
+                        windowSentences++;
+                    }
+                    if (!previousWord || paragraphBreak) {
+                        windowParagraphs++;
+                    }
+                    previousWord = true;
+                    sentenceBreak = false;
+                    paragraphBreak = false;
+                }
+                inWord = true;
+            } else {
+                inWord = false;
+                if (c == '.' || c == '!' || c == '?') {
+                    sentenceBreak = true;
+                } else if (c == '\n') {
+                    paragraphBreak = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return {@code position} if a word goes on before it, else the start of the gap before it: the end of
+     * the word before, 0 if there is none, or where the gap has both a sentence break and a line break
+     */
+    private static int gapStart(CharSequence s, int position) {
+        int i = position;
+        boolean sentenceBreak = false;
+        boolean paragraphBreak = false;
+        while (i > 0 && !(sentenceBreak && paragraphBreak)) {
+            char c = s.charAt(i - 1);
+            if (isWordCharacter(c)) {
+                break;
+            }
+            sentenceBreak |= c == '.' || c == '!' || c == '?';
+            paragraphBreak |= c == '\n';
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * @return {@code position} if a word goes on or starts there, else the end of the gap after it: the
+     * start of the word after, the end of the text, or where the gap has both a sentence break and a line
+     * break
+     */
+    private static int gapEnd(CharSequence s, int position) {
+        int i = position;
+        int length = s.length();
+        boolean sentenceBreak = false;
+        boolean paragraphBreak = false;
+        while (i < length && !(sentenceBreak && paragraphBreak)) {
+            char c = s.charAt(i);
+            if (isWordCharacter(c)) {
+                break;
+            }
+            sentenceBreak |= c == '.' || c == '!' || c == '?';
+            paragraphBreak |= c == '\n';
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return Character.isLetterOrDigit(c);
+    }
+}
@@ -0,0 +1,474 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.os.Build;
+import android.os.Debug;
+import android.os.Looper;
+import android.os.Trace;
+import android.view.Choreographer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Measures the hot paths of {@link RichEditText}: how long they take, how many spans the text has after
+ * them, what they allocate, and how many frames are late while they run; and how long a new editor takes
+ * to draw its first frame.
+ * <p>
+ *  Off by default. When off, an operation costs one volatile read: {@link #begin(int)} returns 0, and
+ *  {@link #end(int, long, int)} of 0 returns at once. When on, recording takes no lock and allocates
+ *  nothing: counters are atomic, latencies go to a histogram of power of two buckets of microseconds,
+ *  and the last {@value #TRACE_CAPACITY} operations to a ring buffer, overwritten as it wraps.
+ * </p>
+ * <p>
+ *  Counting the bytes allocated reads a statistic of the runtime, as a string, twice an operation, so it is
+ *  turned on on its own, see {@link #setAllocationCounting(boolean)}. The runtime counts the bytes of the
+ *  whole process, thread-local buffers as they are handed out rather than object by object: the bytes of
+ *  an operation are a sum over many, not an exact count of each.
+ * </p>
+ * <p>
+ *  The numbers are read with {@link #getStats(int)}, or dumped with {@link #toJson()} and, for the last
+ *  operations, {@link #toTraceJson()}, in the trace event format chrome://tracing and Perfetto read.
+ *  While tracing is on, see {@link #setTracing(boolean)}, every operation is also a section of the
+ *  system trace.
+ * </p>
+ * Operations of a kind are recorded from a single thread, the UI thread, as {@link RichEditText} runs
+ * them; the dumps can be made from any thread, and may miss the operations recorded meanwhile.
+ */
+public class EditorMetrics {
+
+    public static final int TEXT_CHANGED = 0;
+    public static final int SELECTION_CHANGED = 1;
+    public static final int BUTTON_PRESS = 2;
+    /**
+     * Indenting or unindenting the lines of the selection
+     */
+    public static final int INDENT = 3;
+    public static final int COLOR = 4;
+    /**
+     * From the creation of the fragment of an editor to its first frame. Spans the sections of the
+     * framework in between, so it is never a section of the system trace.
+     */
+    public static final int FIRST_FRAME = 5;
+    protected static final String[] NAMES = {"textChanged", "selectionChanged", "buttonPress", "indent", "color",
+            "firstFrame"};
+    public static final int OPERATIONS = NAMES.length;
+
+    /**
+     * An operation taking longer than a frame at 60 Hz makes the frame late
+     */
+    public static final long FRAME_BUDGET_NANOS = 16666667;
+    /**
+     * Bucket {@code i} counts the latencies under 2<sup>i</sup> microseconds, the last one all the others
+     */
+    public static final int BUCKETS = 24;
+    public static final int TRACE_CAPACITY = 1024;
+
+    //Counters by operation
+    private static final int COUNT = 0;
+    private static final int TOTAL_NANOS = 1;
+    private static final int MAX_NANOS = 2;
+    private static final int OVER_BUDGET = 3;
+    private static final int ALLOCATED_BYTES = 4;
+    private static final int SPANS = 5;
+    private static final int MAX_SPANS = 6;
+    private static final int COUNTERS = 7;
+
+    private static final EditorMetrics INSTANCE = new EditorMetrics();
+    /**
+     * The statistic of {@link Debug#getRuntimeStat(String)} counting every byte allocated, since API 23
+     */
+    private static final String BYTES_ALLOCATED = "art.gc.bytes-allocated";
+
+    private volatile boolean enabled;
+    private volatile boolean tracing;
+    private volatile boolean allocationCounting;
+
+    private final AtomicLongArray counters = new AtomicLongArray(OPERATIONS * COUNTERS);
+    private final AtomicLongArray histograms = new AtomicLongArray(OPERATIONS * BUCKETS);
+    private final long[] allocatedAtBegin = new long[OPERATIONS];
+    private final AtomicLong framesOverBudget = new AtomicLong();
+    private final AtomicLong frames = new AtomicLong();
+
+    /**
+     * The last operations, 3 numbers each: start in ns, duration in ns, operation and spans after it
+     */
+    private final AtomicLongArray traceEvents = new AtomicLongArray(TRACE_CAPACITY * 3);
+    private final AtomicLong traceNext = new AtomicLong();
+
+    //Frame watching, on the UI thread only
+    private boolean watchingFrames;
+    private boolean recordedSinceFrame;
+    private long lastFrameNanos;
+    private final Choreographer.FrameCallback frameCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (lastFrameNanos != 0) {
+                frames.incrementAndGet();
+                if (frameTimeNanos - lastFrameNanos > FRAME_BUDGET_NANOS + FRAME_BUDGET_NANOS / 2) {
+                    framesOverBudget.incrementAndGet(); //at least a frame was skipped
+                }
+            }
+            if (recordedSinceFrame && enabled) {
+                recordedSinceFrame = false;
+                lastFrameNanos = frameTimeNanos;
+                Choreographer.getInstance().postFrameCallback(this);
+            } else {
+                watchingFrames = false; //idle: the frames not drawn are not late
+                lastFrameNanos = 0;
+            }
+        }
+    };
+
+    protected EditorMetrics() {
+        //Shared, see getInstance()
+    }
+
+    /**
+     * @return the metrics of all the editors of the app
+     */
+    public static EditorMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Starts or stops recording. The numbers recorded so far are kept, see {@link #reset()}.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Makes every operation recorded a section of the system trace, see {@link Trace}
+     */
+    public void setTracing(boolean tracing) {
+        this.tracing = tracing;
+    }
+
+    /**
+     * Counts the bytes allocated while the operations recorded run. Only counted from Android 6.0, where the
+     * runtime tells them.
+     */
+    public void setAllocationCounting(boolean counting) {
+        allocationCounting = counting;
+    }
+
+    /**
+     * Starts recording an operation, to be ended by {@link #end(int, long, int)}, in a finally block
+     *
+     * @param operation e.g. {@link #TEXT_CHANGED}
+     * @return the time the operation started, or 0 if nothing is recorded
+     */
+    public long begin(int operation) {
+        if (!enabled) {
+            return 0;
+        }
+        if (tracing && operation != FIRST_FRAME) {
+            Trace.beginSection(NAMES[operation]);
+        }
+        if (allocationCounting) {
+            allocatedAtBegin[operation] = allocatedBytes();
+        }
+        long now = nanoTime();
+        return now != 0 ? now : 1;
+    }
+
+    /**
+     * Ends recording an operation
+     *
+     * @param operation the operation given to {@link #begin(int)}
+     * @param started   what {@link #begin(int)} returned
+     * @param spanCount the spans of the text after the operation, or -1 if not known
+     */
+    public void end(int operation, long started, int spanCount) {
+        if (started == 0) {
+            return;
+        }
+        long nanos = nanoTime() - started;
+        int base = operation * COUNTERS;
+        counters.incrementAndGet(base + COUNT);
+        counters.addAndGet(base + TOTAL_NANOS, nanos);
+        raise(counters, base + MAX_NANOS, nanos);
+        if (nanos > FRAME_BUDGET_NANOS) {
+            counters.incrementAndGet(base + OVER_BUDGET);
+        }
+        if (allocationCounting) {
+            counters.addAndGet(base + ALLOCATED_BYTES, Math.max(0, allocatedBytes() - allocatedAtBegin[operation]));
+        }
+        if (spanCount >= 0) {
+            counters.set(base + SPANS, spanCount);
+            raise(counters, base + MAX_SPANS, spanCount);
+        }
+        histograms.incrementAndGet(operation * BUCKETS + bucketOf(nanos));
+
+        int slot = (int) (traceNext.getAndIncrement() % TRACE_CAPACITY) * 3;
+        traceEvents.lazySet(slot, started);
+        traceEvents.lazySet(slot + 1, nanos);
+        traceEvents.lazySet(slot + 2, operation | ((long) Math.max(0, spanCount) << 8));
+
+        if (tracing && operation != FIRST_FRAME) {
+            Trace.endSection();
+        }
+        watchFrames();
+    }
+
+    /**
+     * Forgets everything recorded
+     */
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        for (int i = 0; i < histograms.length(); i++) {
+            histograms.set(i, 0);
+        }
+        traceNext.set(0);
+        frames.set(0);
+        framesOverBudget.set(0);
+    }
+
+    /**
+     * @return what was recorded of {@code operation}
+     */
+    public Stats getStats(int operation) {
+        int base = operation * COUNTERS;
+        long[] histogram = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = histograms.get(operation * BUCKETS + i);
+        }
+        return new Stats(NAMES[operation], counters.get(base + COUNT), counters.get(base + TOTAL_NANOS),
+                counters.get(base + MAX_NANOS), counters.get(base + OVER_BUDGET), counters.get(base + ALLOCATED_BYTES),
+                counters.get(base + SPANS), counters.get(base + MAX_SPANS), histogram);
+    }
+
+    /**
+     * @return the frames drawn while operations were recorded, after the first one
+     */
+    public long getFrames() {
+        return frames.get();
+    }
+
+    /**
+     * @return the frames drawn late while operations were recorded
+     */
+    public long getFramesOverBudget() {
+        return framesOverBudget.get();
+    }
+
+    /**
+     * @return everything recorded, as a JSON object, to attach to a bug report
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder(512 * OPERATIONS);
+        json.append("{\"enabled\":").append(enabled)
+                .append(",\"frames\":").append(getFrames())
+                .append(",\"framesOverBudget\":").append(getFramesOverBudget())
+                .append(",\"operations\":{");
+        for (int operation = 0; operation < OPERATIONS; operation++) {
+            if (operation > 0) {
+                json.append(',');
+            }
+            getStats(operation).appendJson(json);
+        }
+        return json.append("}}").toString();
+    }
+
+    /**
+     * @return the last {@value #TRACE_CAPACITY} operations recorded at most, oldest first, in the trace event
+     * format, as complete events in microseconds
+     */
+    public String toTraceJson() {
+        long next = traceNext.get();
+        long first = Math.max(0, next - TRACE_CAPACITY);
+        StringBuilder json = new StringBuilder((int) (next - first) * 100 + 32);
+        json.append("{\"traceEvents\":[");
+        for (long i = first; i < next; i++) {
+            int slot = (int) (i % TRACE_CAPACITY) * 3;
+            long start = traceEvents.get(slot);
+            long nanos = traceEvents.get(slot + 1);
+            long operationAndSpans = traceEvents.get(slot + 2);
+            if (i > first) {
+                json.append(',');
+            }
+            json.append("{\"name\":\"").append(NAMES[(int) (operationAndSpans & 0xFF)])
+                    .append("\",\"ph\":\"X\",\"pid\":0,\"tid\":0,\"ts\":").append(start / 1000)
+                    .append(",\"dur\":").append(nanos / 1000)
+                    .append(",\"args\":{\"spans\":").append(operationAndSpans >>> 8).append("}}");
+        }
+        return json.append("]}").toString();
+    }
+
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+
+    /**
+     * @return the bytes the process allocated so far, or 0 if the runtime does not tell
+     */
+    protected long allocatedBytes() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            return 0;
+        }
+        String bytes = Debug.getRuntimeStat(BYTES_ALLOCATED);
+        try {
+            return bytes != null ? Long.parseLong(bytes) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * @return the histogram bucket of a latency
+     */
+    protected static int bucketOf(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    private static void raise(AtomicLongArray array, int i, long value) {
+        long current;
+        do {
+            current = array.get(i);
+        } while (value > current && !array.compareAndSet(i, current, value));
+    }
+
+    /**
+     * Counts the late frames from the next one, while operations keep being recorded on the UI thread
+     */
+    protected void watchFrames() {
+        Looper main = Looper.getMainLooper();
+        if (main == null || Looper.myLooper() != main) {
+            return;
+        }
+        recordedSinceFrame = true;
+        if (!watchingFrames) {
+            watchingFrames = true;
+            Choreographer.getInstance().postFrameCallback(frameCallback);
+        }
+    }
+
+    /**
+     * What was recorded of an operation
+     */
+    public static class Stats {
+
+        protected final String name;
+        protected final long count;
+        protected final long totalNanos;
+        protected final long maxNanos;
+        protected final long overBudget;
+        protected final long allocatedBytes;
+        protected final long spanCount;
+        protected final long maxSpanCount;
+        protected final long[] histogram;
+
+        protected Stats(String name, long count, long totalNanos, long maxNanos, long overBudget, long allocatedBytes,
+                        long spanCount, long maxSpanCount, long[] histogram) {
+            this.name = name;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.overBudget = overBudget;
+            this.allocatedBytes = allocatedBytes;
+            this.spanCount = spanCount;
+            this.maxSpanCount = maxSpanCount;
+            this.histogram = histogram;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * @return the operations longer than {@link #FRAME_BUDGET_NANOS}
+         */
+        public long getOverBudget() {
+            return overBudget;
+        }
+
+        /**
+         * @return the bytes allocated while the operations ran, while allocations were counted
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        /**
+         * @return the spans of the text after the last operation
+         */
+        public long getSpanCount() {
+            return spanCount;
+        }
+
+        public long getMaxSpanCount() {
+            return maxSpanCount;
+        }
+
+        /**
+         * @return the operations by latency bucket, see {@link #BUCKETS}
+         */
+        public long[] getHistogram() {
+            return histogram.clone();
+        }
+
+        /**
+         * @param fraction e.g. 0.99
+         * @return a latency at least {@code fraction} of the operations took at most, to the power of two
+         * microseconds above it
+         */
+        public long getPercentileNanos(double fraction) {
+            long rank = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += histogram[i];
+                if (seen >= rank && seen > 0) {
+                    return i == BUCKETS - 1 ? maxNanos : (1L << i) * 1000;
+                }
+            }
+            return 0;
+        }
+
+        protected void appendJson(StringBuilder json) {
+            json.append('"').append(name).append("\":{\"count\":").append(count)
+                    .append(",\"totalNanos\":").append(totalNanos)
+                    .append(",\"maxNanos\":").append(maxNanos)
+                    .append(",\"p50Nanos\":").append(getPercentileNanos(0.5))
+                    .append(",\"p90Nanos\":").append(getPercentileNanos(0.9))
+                    .append(",\"p99Nanos\":").append(getPercentileNanos(0.99))
+                    .append(",\"overBudget\":").append(overBudget)
+                    .append(",\"allocatedBytes\":").append(allocatedBytes)
+                    .append(",\"spanCount\":").append(spanCount)
+                    .append(",\"maxSpanCount\":").append(maxSpanCount)
+                    .append(",\"histogramMicros\":[");
+            for (int i = 0; i < BUCKETS; i++) {
+                if (i > 0) {
+                    json.append(',');
+                }
+                json.append(histogram[i]);
+            }
+            json.append("]}");
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder json = new StringBuilder(256);
+            appendJson(json);
+            return json.toString();
+        }
+    }
+}
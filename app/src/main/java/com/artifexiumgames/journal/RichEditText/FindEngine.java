@@ -0,0 +1,372 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.SpanWatcher;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+import java.util.Arrays;
+
+/**
+ * Finds a query in the text of an editor, ignoring case, without ever copying the text.
+ * <p>
+ *  The text is scanned in place with the Boyer-Moore-Horspool algorithm, a slice at a time (see
+ *  {@link #scan(CharSequence, int)}) so that a huge entry does not hold up the main thread. The starts of
+ *  all matches found so far are kept sorted, overlapping matches included.
+ * </p>
+ * <p>
+ *  Searching is incremental:
+ *  <ul>
+ *      <li>When the query is extended, as it is while typing it, every match of the longer query is
+ *      also a match of the shorter one, so only the matches already found are checked again.</li>
+ *      <li>When the text is edited, only the matches around the edit are found again, the ones after
+ *      it are moved. See {@link #onTextChanged(CharSequence, int, int, int)}.</li>
+ *  </ul>
+ * </p>
+ * <p>
+ *  {@link #replaceAll(Editable, CharSequence)} replaces every match in a single edit of the text.
+ * </p>
+ */
+public class FindEngine {
+
+    /**
+     * The number of positions the text is scanned for at most in one call of {@link #scan(CharSequence, int)}
+     * by the editor, about a millisecond of work
+     */
+    public static final int SCAN_SLICE = 1 << 16;
+
+    private static final int SHIFT_TABLE_SIZE = 256;
+    private static final int SHIFT_TABLE_MASK = SHIFT_TABLE_SIZE - 1;
+
+    private char[] query = new char[0];
+    /**
+     * The shift of the bad character rule, by the low byte of the character. Characters sharing a low
+     * byte share the smallest shift of them, which is always safe.
+     */
+    private final int[] shifts = new int[SHIFT_TABLE_SIZE];
+    private int[] matches = new int[16];
+    private int matchCount;
+    /**
+     * Every position before this one has been checked for a match
+     */
+    private int scannedTo;
+
+    /**
+     * Sets the query to be found in {@code text}. When the query extends the previous one, only the
+     * matches found so far are checked again, otherwise the search starts over.
+     *
+     * @param text  the text being searched
+     * @param query the query, matched ignoring case. An empty query matches nothing.
+     */
+    public void setQuery(CharSequence text, CharSequence query) {
+        char[] folded = new char[query.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = fold(query.charAt(i));
+        }
+        boolean extended = this.query.length > 0 && folded.length >= this.query.length
+                && startsWith(folded, this.query);
+        this.query = folded;
+        Arrays.fill(shifts, Math.max(1, folded.length));
+        for (int i = 0; i < folded.length - 1; i++) {
+            shifts[folded[i] & SHIFT_TABLE_MASK] = folded.length - 1 - i;
+        }
+        if (!extended) {
+            matchCount = 0;
+            scannedTo = 0;
+            return;
+        }
+        int kept = 0;
+        int length = text.length();
+        for (int i = 0; i < matchCount; i++) {
+            int start = matches[i];
+            if (start + folded.length <= length && matchesAt(text, start)) {
+                matches[kept++] = start;
+            }
+        }
+        matchCount = kept;
+        scannedTo = Math.min(scannedTo, lastStart(length) + 1);
+    }
+
+    /**
+     * Forgets the query and its matches
+     */
+    public void clear() {
+        query = new char[0];
+        matchCount = 0;
+        scannedTo = 0;
+    }
+
+    /**
+     * @return the length of the query, which is the length of every match
+     */
+    public int getQueryLength() {
+        return query.length;
+    }
+
+    /**
+     * Goes on with the search from where it stopped.
+     *
+     * @param text     the text being searched
+     * @param maxCount the number of positions to check at most
+     * @return true once the whole text has been searched
+     */
+    public boolean scan(CharSequence text, int maxCount) {
+        if (isComplete(text)) {
+            return true;
+        }
+        int last = lastStart(text.length());
+        int limit = (int) Math.min((long) scannedTo + maxCount - 1, last);
+        scannedTo = scanRange(text, scannedTo, limit, matchCount) + 1;
+        return isComplete(text);
+    }
+
+    /**
+     * @return true if the whole text has been searched, or there is nothing to search for
+     */
+    public boolean isComplete(CharSequence text) {
+        return query.length == 0 || scannedTo > lastStart(text.length());
+    }
+
+    /**
+     * @return the number of matches found so far
+     */
+    public int getMatchCount() {
+        return matchCount;
+    }
+
+    /**
+     * @return the start of the match at {@code index}, matches being sorted by their start
+     */
+    public int getMatch(int index) {
+        return matches[index];
+    }
+
+    /**
+     * @return the index of the first match found starting at or after {@code position}, or
+     * {@link #getMatchCount()} if there is none
+     */
+    public int indexOfMatch(int position) {
+        int low = 0;
+        int high = matchCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (matches[middle] < position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Keeps the matches up to date with an edit of the text, with the arguments of
+     * {@link TextWatcher#onTextChanged(CharSequence, int, int, int)}. The matches the edit touched are
+     * found again and the matches after it are moved, so an edit costs about its own length.
+     */
+    public void onTextChanged(CharSequence text, int start, int before, int count) {
+        int length = query.length;
+        if (length == 0) {
+            return;
+        }
+        int delta = count - before;
+        int from = Math.max(0, start - length + 1);
+        int first = indexOfMatch(from);
+        int last = indexOfMatch(start + before);
+        for (int i = last; i < matchCount; i++) {
+            matches[i] += delta;
+        }
+        int removed = last - first;
+        System.arraycopy(matches, last, matches, first, matchCount - last);
+        matchCount -= removed;
+
+        if (scannedTo >= start + before) {
+            scannedTo += delta;
+        } else {
+            scannedTo = Math.min(scannedTo, from); //the rest is searched by the next scan
+            return;
+        }
+        int to = Math.min(start + count, lastStart(text.length()) + 1);
+        if (from < to) {
+            scanRange(text, from, to - 1, first);
+        }
+    }
+
+    /**
+     * Replaces every match in the text with {@code replacement}, in a single edit of the text from the first
+     * match to the end of the last. The text is searched to its end first. Where matches overlap, only
+     * the first of them is replaced.
+     * <p>
+     *  The spans of the text keep their style: a span ending or starting in the edited range is set
+     *  again at the same place in the new text, and a span covering a match covers its replacement.
+     *  Spans that would be left empty are removed. The style runs of a styled {@link PieceTableEditable}
+     *  are moved the same way.
+     * </p>
+     *
+     * @param text        the text to edit
+     * @param replacement the text of every match is replaced with
+     * @return the number of matches replaced
+     */
+    public int replaceAll(Editable text, CharSequence replacement) {
+        int length = query.length;
+        if (length == 0) {
+            return 0;
+        }
+        scan(text, Integer.MAX_VALUE);
+        int[] replaced = new int[matchCount];
+        int replacedCount = 0;
+        for (int i = 0; i < matchCount; i++) {
+            if (replacedCount == 0 || matches[i] >= replaced[replacedCount - 1] + length) {
+                replaced[replacedCount++] = matches[i];
+            }
+        }
+        if (replacedCount == 0) {
+            return 0;
+        }
+        int regionStart = replaced[0];
+        int regionEnd = replaced[replacedCount - 1] + length;
+
+        StringBuilder region = new StringBuilder(regionEnd - regionStart + replacedCount * Math.max(0, replacement.length() - length));
+        for (int i = 0; i < replacedCount; i++) {
+            region.append(replacement);
+            int next = i + 1 < replacedCount ? replaced[i + 1] : regionEnd;
+            region.append(text, replaced[i] + length, next);
+        }
+
+        //The spans with an end in the edited range, with their new ends. Spans only touching the range are
+        //not returned for it, but an inclusive one would grow over the new text, so the range is widened.
+        PieceTableEditable styled = PieceTableEditable.asStyled(text);
+        StyleRunTable styles = styled != null ? styled.getStyleRuns(regionStart, regionEnd) : null;
+        Object[] spans = text.getSpans(Math.max(0, regionStart - 1), Math.min(text.length(), regionEnd + 1), Object.class);
+        int[] newStarts = new int[spans.length];
+        int[] newEnds = new int[spans.length];
+        int[] flags = new int[spans.length];
+        int moved = 0;
+        for (Object span : spans) {
+            if (span instanceof NoCopySpan || span instanceof SpanWatcher || span instanceof TextWatcher) {
+                continue; //selections and watchers follow the edit by themselves
+            }
+            if (styles != null && span instanceof StyleRunTable.RunSpan) {
+                continue; //drawn again from the runs moved below
+            }
+            int spanStart = text.getSpanStart(span);
+            int spanEnd = text.getSpanEnd(span);
+            if (spanStart < regionStart && spanEnd > regionEnd) {
+                continue;
+            }
+            int newStart = mapPosition(spanStart, replaced, replacedCount, replacement.length());
+            int newEnd = mapPosition(spanEnd, replaced, replacedCount, replacement.length());
+            int spanFlags = text.getSpanFlags(span);
+            if (newStart == newEnd && spanStart != spanEnd
+                    && (spanFlags & Spanned.SPAN_POINT_MARK_MASK) == Spanned.SPAN_EXCLUSIVE_EXCLUSIVE) {
+                text.removeSpan(span);
+                continue;
+            }
+            spans[moved] = span;
+            newStarts[moved] = newStart;
+            newEnds[moved] = newEnd;
+            flags[moved] = spanFlags;
+            moved++;
+        }
+
+        text.replace(regionStart, regionEnd, region);
+        for (int i = 0; i < moved; i++) {
+            text.setSpan(spans[i], newStarts[i], newEnds[i], flags[i]);
+        }
+        if (styles != null) {
+            StyleRunTable replacedStyles = new StyleRunTable(region.length());
+            for (int run = 0; run < styles.getRunCount(); run++) {
+                int runStart = mapPosition(regionStart + styles.getRunStart(run), replaced, replacedCount, replacement.length());
+                int runEnd = mapPosition(regionStart + styles.getRunEnd(run), replaced, replacedCount, replacement.length());
+                if (runStart < runEnd) {
+                    replacedStyles.add(runStart - regionStart, runEnd - regionStart, styles.getStyle(run), styles.getColors(run));
+                }
+            }
+            styled.setStyles(regionStart, replacedStyles);
+        }
+        return replacedCount;
+    }
+
+    /**
+     * Moves a position of the text through the replacement of the matches in {@code replaced}.
+     * A position within a match keeps its offset into the replacement, as far as the replacement goes.
+     */
+    private int mapPosition(int position, int[] replaced, int replacedCount, int replacementLength) {
+        int low = 0;
+        int high = replacedCount;
+        while (low < high) { //the number of matches starting at or before the position
+            int middle = (low + high) >>> 1;
+            if (replaced[middle] <= position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        int delta = replacementLength - query.length;
+        if (low == 0) {
+            return position;
+        }
+        int match = replaced[low - 1];
+        if (position < match + query.length) {
+            return match + (low - 1) * delta + Math.min(position - match, replacementLength);
+        }
+        return position + low * delta;
+    }
+
+    /**
+     * Checks every position from {@code from} to {@code last}, both included, inserting the matches found
+     * at {@code index} of the matches.
+     *
+     * @return the last position checked
+     */
+    private int scanRange(CharSequence text, int from, int last, int index) {
+        int length = query.length;
+        char end = query[length - 1];
+        int position = from;
+        int found = 0;
+        while (position <= last) {
+            char c = fold(text.charAt(position + length - 1));
+            if (c == end && matchesAt(text, position)) {
+                insertMatch(index + found++, position);
+            }
+            position += shifts[c & SHIFT_TABLE_MASK];
+        }
+        return Math.max(last, from - 1);
+    }
+
+    private void insertMatch(int index, int start) {
+        if (matchCount == matches.length) {
+            matches = Arrays.copyOf(matches, matchCount * 2);
+        }
+        System.arraycopy(matches, index, matches, index + 1, matchCount - index);
+        matches[index] = start;
+        matchCount++;
+    }
+
+    private boolean matchesAt(CharSequence text, int start) {
+        for (int i = query.length - 1; i >= 0; i--) {
+            if (fold(text.charAt(start + i)) != query[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int lastStart(int textLength) {
+        return textLength - query.length;
+    }
+
+    private static boolean startsWith(char[] array, char[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (array[i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static char fold(char c) {
+        return c < 0x80 ? (c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c) : Character.toLowerCase(c);
+    }
+}
@@ -0,0 +1,130 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+
+import java.util.Arrays;
+
+/**
+ * Indents and unindents text in place, with tabs made of spaces.
+ * <p>
+ *  With a selection, every line the selection touches is indented at its start, in a single pass from
+ *  the last line to the first so that the lines still to be indented never move. The text is only
+ *  ever inserted into or deleted from, never replaced, so the spans of the text are kept and only the
+ *  paragraphs being indented need a new layout. With the cursor alone, a tab is inserted at the cursor,
+ *  like the tab key would.
+ * </p>
+ * <p>
+ *  The selection of an {@link android.widget.EditText} is made of spans of its text, so it follows the
+ *  edits by itself. Callers only have to group the edits in a batch edit, see
+ *  {@link RichEditText#indentAction()}.
+ * </p>
+ */
+public class IndentEngine {
+
+    protected static final char SPACE = ' ';
+    protected static final char NEW_LINE = '\n';
+
+    private String tab = "";
+
+    /**
+     * Indents every line touched by the selection, or inserts a tab at the cursor if nothing is selected.
+     *
+     * @param text     the text to indent
+     * @param selStart start of selection
+     * @param selEnd   end of selection
+     * @param numTabs  the number of spaces in a tab
+     * @return the number of characters inserted
+     */
+    public int indent(Editable text, int selStart, int selEnd, int numTabs) {
+        String tab = tab(numTabs);
+        if (selStart == selEnd) {
+            text.insert(selStart, tab);
+            return numTabs;
+        }
+        int start = Math.min(selStart, selEnd);
+        int inserted = 0;
+        for (int lineStart = lineStart(text, lastLineEnd(text, start, Math.max(selStart, selEnd))); ; lineStart = lineStart(text, lineStart - 1)) {
+            text.insert(lineStart, tab);
+            inserted += numTabs;
+            if (lineStart <= start) {
+                return inserted;
+            }
+        }
+    }
+
+    /**
+     * Unindents every line touched by the selection by up to a tab of leading spaces, or removes the tab in
+     * front of the cursor, if there is one, when nothing is selected.
+     *
+     * @param text     the text to unindent
+     * @param selStart start of selection
+     * @param selEnd   end of selection
+     * @param numTabs  the number of spaces in a tab
+     * @return the number of characters removed
+     */
+    public int unindent(Editable text, int selStart, int selEnd, int numTabs) {
+        if (selStart == selEnd) {
+            if (selStart < numTabs || countSpaces(text, selStart - numTabs, numTabs) < numTabs) {
+                return 0;
+            }
+            text.delete(selStart - numTabs, selStart);
+            return numTabs;
+        }
+        int start = Math.min(selStart, selEnd);
+        int removed = 0;
+        for (int lineStart = lineStart(text, lastLineEnd(text, start, Math.max(selStart, selEnd))); ; lineStart = lineStart(text, lineStart - 1)) {
+            int spaces = countSpaces(text, lineStart, numTabs);
+            if (spaces > 0) {
+                text.delete(lineStart, lineStart + spaces);
+                removed += spaces;
+            }
+            if (lineStart <= start) {
+                return removed;
+            }
+        }
+    }
+
+    /**
+     * @return a tab of {@code numTabs} spaces, only made anew when {@code numTabs} changes
+     */
+    protected String tab(int numTabs) {
+        if (tab.length() != numTabs) {
+            char[] spaces = new char[numTabs];
+            Arrays.fill(spaces, SPACE);
+            tab = new String(spaces);
+        }
+        return tab;
+    }
+
+    /**
+     * @return where the last line touched by the selection ends. A selection ending at the very start of
+     * a line, e.g. after a triple click, does not touch that line.
+     */
+    protected int lastLineEnd(CharSequence text, int start, int end) {
+        if (end > start && text.charAt(end - 1) == NEW_LINE) {
+            return end - 1;
+        }
+        return end;
+    }
+
+    /**
+     * @return the start of the line {@code position} is in
+     */
+    protected int lineStart(CharSequence text, int position) {
+        while (position > 0 && text.charAt(position - 1) != NEW_LINE) {
+            position--;
+        }
+        return position;
+    }
+
+    /**
+     * @return the number of spaces in a row from {@code from}, up to {@code max}
+     */
+    protected int countSpaces(CharSequence text, int from, int max) {
+        int count = 0;
+        while (count < max && from + count < text.length() && text.charAt(from + count) == SPACE) {
+            count++;
+        }
+        return count;
+    }
+}
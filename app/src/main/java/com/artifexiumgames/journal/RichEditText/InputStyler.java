@@ -0,0 +1,89 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Spannable;
+
+/**
+ * Styles the text typed into an editor with the styles turned on, through a {@link SpanRunEngine}: the
+ * input joins the runs next to it rather than getting spans of its own.
+ * <p>
+ *  Text that is loaded, e.g. a saved entry given to {@link android.widget.TextView#setText(CharSequence)},
+ *  already has its styles and is not input: it is left as it is between {@link #beginLoad()} and
+ *  {@link #endLoad()}. Styling it would lay the current text color over the whole entry, drawn over every
+ *  color it was saved with.
+ * </p>
+ *
+ * @see RichEditText#onTextChanged(CharSequence, int, int, int)
+ */
+public class InputStyler {
+
+    public static final int STYLE_BOLD = 1;
+    public static final int STYLE_ITALIC = 1 << 1;
+    public static final int STYLE_UNDERLINE = 1 << 2;
+    public static final int STYLE_STRIKETHROUGH = 1 << 3;
+
+    private final SpanRunEngine engine;
+    private final SpanFactory<?> bold;
+    private final SpanFactory<?> italic;
+    private final SpanFactory<?> underline;
+    private final SpanFactory<?> strikethrough;
+    private int loadDepth;
+
+    /**
+     * @param engine the engine keeping the styles as runs
+     * @param bold   the factories of the styles turned on and off by {@code styles}
+     */
+    public InputStyler(SpanRunEngine engine, SpanFactory<?> bold, SpanFactory<?> italic, SpanFactory<?> underline,
+                       SpanFactory<?> strikethrough) {
+        this.engine = engine;
+        this.bold = bold;
+        this.italic = italic;
+        this.underline = underline;
+        this.strikethrough = strikethrough;
+    }
+
+    /**
+     * Starts a load: the text changed until {@link #endLoad()} is not styled. Loads may be nested.
+     */
+    public void beginLoad() {
+        loadDepth++;
+    }
+
+    public void endLoad() {
+        loadDepth--;
+    }
+
+    public boolean isLoading() {
+        return loadDepth > 0;
+    }
+
+    /**
+     * Styles the input of an edit, with the arguments of
+     * {@link android.text.TextWatcher#onTextChanged(CharSequence, int, int, int)}
+     *
+     * @param styles         the styles turned on, from {@link #STYLE_BOLD}, {@link #STYLE_ITALIC},
+     *                       {@link #STYLE_UNDERLINE} and {@link #STYLE_STRIKETHROUGH}
+     * @param textColor      the text color, or null to leave the color of the input as it is
+     * @param highlightColor the highlight color, or null to leave the highlight of the input as it is
+     * @param highlight      true if the input is highlighted with {@code highlightColor}
+     * @return true if the input was styled; false for a load, a deletion or text that cannot be styled
+     */
+    public boolean onTextChanged(CharSequence s, int start, int before, int count, int styles,
+                                 SpanFactory<?> textColor, SpanFactory<?> highlightColor, boolean highlight) {
+        if (count == 0 || isLoading() || !(s instanceof Spannable)) {
+            return false;
+        }
+        Spannable text = (Spannable) s;
+        int end = start + count;
+        engine.applyRun(text, start, end, bold, (styles & STYLE_BOLD) != 0);
+        engine.applyRun(text, start, end, italic, (styles & STYLE_ITALIC) != 0);
+        engine.applyRun(text, start, end, underline, (styles & STYLE_UNDERLINE) != 0);
+        engine.applyRun(text, start, end, strikethrough, (styles & STYLE_STRIKETHROUGH) != 0);
+        if (textColor != null) {
+            engine.applyRun(text, start, end, textColor, true);
+        }
+        if (highlightColor != null) {
+            engine.applyRun(text, start, end, highlightColor, highlight);
+        }
+        return true;
+    }
+}
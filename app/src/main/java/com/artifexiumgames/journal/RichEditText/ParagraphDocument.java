@@ -0,0 +1,318 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.GetChars;
+import android.text.NoCopySpan;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+import java.util.Arrays;
+
+/**
+ * The paragraphs of a {@link Spannable}, as blocks of text between line breaks, kept up to date as it is
+ * edited.
+ * <p>
+ *  A block goes from the start of a paragraph to its line break, excluded; the last block goes to the end
+ *  of the text. A text of n line breaks has n + 1 blocks, some of which may be empty.
+ * </p>
+ * <p>
+ *  The lengths of the blocks, each with its line break, are kept in a gap buffer, the blocks after the gap
+ *  being at the end of the array, and summed by a Fenwick tree over the slots of the buffer, those of the
+ *  gap counting for nothing. For b blocks:
+ *  <ul>
+ *      <li>where a block starts, and which block an offset is in, are found in O(log b)</li>
+ *      <li>an edit within a block, e.g. typing, changes the length of the block in O(log b)</li>
+ *      <li>an edit adding or removing line breaks, e.g. Enter, scans the paragraphs it touches for line
+ *      breaks, moves the gap to them and takes the r blocks removed out of the tree and puts the i blocks
+ *      added in, one update each: O((d + r + i) log b) plus the length of the paragraphs, d being the
+ *      number of blocks between this edit and the last one that added or removed line breaks. Editing in
+ *      one place, d stays small; jumping from the start of the text to its end, it is at most b.</li>
+ *      <li>the buffer is doubled, and the tree made again in O(b), once it is full, so that adding blocks
+ *      costs O(1) more each, amortized</li>
+ *  </ul>
+ *  Attaching to a text scans it once for its line breaks, in O(n + b log b) for n characters, and lays
+ *  nothing out.
+ * </p>
+ * <p>
+ *  The document is a {@link TextWatcher} set as a span over the whole text, and as a {@link NoCopySpan}
+ *  it is not copied with the text.
+ * </p>
+ *
+ * @see OnBlocksChangedListener
+ */
+public class ParagraphDocument implements TextWatcher, NoCopySpan {
+
+    /**
+     * How many characters are read at once when looking for line breaks
+     */
+    protected static final int SCAN_CHUNK = 4096;
+
+    /**
+     * Listens for the blocks changed by the edits of the text
+     */
+    public interface OnBlocksChangedListener {
+
+        /**
+         * The text of a block was changed, and no block was added or removed
+         */
+        void onBlockChanged(int block);
+
+        /**
+         * Blocks were added or removed: {@code removed} blocks from {@code first} on were replaced by
+         * {@code inserted} blocks
+         */
+        void onBlocksReplaced(int first, int removed, int inserted);
+    }
+
+    private Spannable text;
+    private OnBlocksChangedListener listener;
+    /**
+     * The length of every block, without its line break, by slot: the blocks before {@link #gapStart} are
+     * at the start of the array, the others at its end. Its length is a power of two.
+     */
+    private int[] lengths = new int[16];
+    private int count;
+    private int gapStart;
+    /**
+     * The Fenwick tree of the slots of {@link #lengths}, from 1: the length of a block plus one, or 0 for
+     * a slot of the gap
+     */
+    private int[] tree = new int[17];
+    private final char[] chunk = new char[SCAN_CHUNK];
+
+    //The edit in progress, from beforeTextChanged
+    private int editFirst;
+    private int editLast;
+    private int editStart;
+
+    /**
+     * Starts following the paragraphs of {@code text}, in place of the text followed until now if any
+     */
+    public void attach(Spannable text) {
+        detach();
+        this.text = text;
+        Arrays.fill(tree, 0);
+        scan(text, 0, text.length());
+        text.setSpan(this, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+    }
+
+    /**
+     * Stops following the attached text, if any
+     */
+    public void detach() {
+        if (text != null) {
+            text.removeSpan(this);
+            text = null;
+        }
+        count = 0;
+        gapStart = 0;
+    }
+
+    public Spannable getText() {
+        return text;
+    }
+
+    public void setOnBlocksChangedListener(OnBlocksChangedListener listener) {
+        this.listener = listener;
+    }
+
+    public int getBlockCount() {
+        return count;
+    }
+
+    /**
+     * @return where block {@code block} starts in the text, in O(log b)
+     */
+    public int getBlockStart(int block) {
+        int start = 0;
+        for (int i = slotOf(block); i > 0; i -= i & -i) {
+            start += tree[i];
+        }
+        return start;
+    }
+
+    /**
+     * @return where block {@code block} ends in the text, before its line break, in O(log b)
+     */
+    public int getBlockEnd(int block) {
+        return getBlockStart(block) + getBlockLength(block);
+    }
+
+    public int getBlockLength(int block) {
+        return lengths[slotOf(block)];
+    }
+
+    /**
+     * @return the block {@code offset} is in, in O(log b). A line break is in the block it ends, and the
+     * end of the text in the last block.
+     */
+    public int blockAt(int offset) {
+        //The slot found is never one of the gap: those count for nothing, so the search goes past them
+        int slot = 0;
+        int remaining = offset;
+        for (int step = lengths.length; step > 0; step >>= 1) {
+            int next = slot + step;
+            if (next <= lengths.length && tree[next] <= remaining) {
+                slot = next;
+                remaining -= tree[next];
+            }
+        }
+        int block = slot < gapStart ? slot : slot - (lengths.length - count);
+        return Math.min(block, count - 1);
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        editStart = start;
+        editFirst = blockAt(start);
+        editLast = blockAt(start + count); //one block per line break removed past the first
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        if (start != editStart) {
+            attach(text); //not told before the edit: start over
+            return;
+        }
+        boolean breaks = editLast != editFirst || indexOfBreak(s, start, start + count) >= 0;
+        if (!breaks) {
+            int slot = slotOf(editFirst);
+            lengths[slot] += count - before;
+            update(slot, count - before);
+            if (listener != null) {
+                listener.onBlockChanged(editFirst);
+            }
+            return;
+        }
+
+        //The paragraphs touched by the edit, as they are now
+        int regionStart = getBlockStart(editFirst);
+        int regionEnd = getBlockEnd(editLast) + count - before;
+        int removed = editLast - editFirst + 1;
+        moveGap(editFirst);
+        for (int i = 0; i < removed; i++) {
+            int slot = gapStart + lengths.length - this.count; //the first block after the gap
+            update(slot, -(lengths[slot] + 1));
+            this.count--;
+        }
+        int kept = this.count;
+        scan(s, regionStart, regionEnd);
+        if (listener != null) {
+            listener.onBlocksReplaced(editFirst, removed, this.count - kept);
+        }
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        //Necessary to implement TextWatcher
+    }
+
+    /**
+     * Adds the blocks of {@code s} from {@code start} to {@code end} at the gap. The region is a whole
+     * number of paragraphs: the last block goes to {@code end}.
+     */
+    private void scan(CharSequence s, int start, int end) {
+        int blockStart = start;
+        for (int from = start; from < end; from += SCAN_CHUNK) {
+            int to = Math.min(end, from + SCAN_CHUNK);
+            if (s instanceof GetChars) {
+                ((GetChars) s).getChars(from, to, chunk, 0);
+            } else {
+                for (int i = from; i < to; i++) {
+                    chunk[i - from] = s.charAt(i);
+                }
+            }
+            for (int i = from; i < to; i++) {
+                if (chunk[i - from] == '\n') {
+                    addBlock(i - blockStart);
+                    blockStart = i + 1;
+                }
+            }
+        }
+        addBlock(end - blockStart);
+    }
+
+    /**
+     * Adds a block at the gap, in O(log b)
+     */
+    private void addBlock(int length) {
+        if (count == lengths.length) {
+            grow();
+        }
+        lengths[gapStart] = length;
+        update(gapStart, length + 1);
+        gapStart++;
+        count++;
+    }
+
+    /**
+     * Moves the gap to before block {@code block}, one block and one update of the tree at a time
+     */
+    private void moveGap(int block) {
+        int gap = lengths.length - count;
+        while (gapStart > block) {
+            gapStart--;
+            moveSlot(gapStart, gapStart + gap);
+        }
+        while (gapStart < block) {
+            moveSlot(gapStart + gap, gapStart);
+            gapStart++;
+        }
+    }
+
+    private void moveSlot(int from, int to) {
+        if (from == to) {
+            return;
+        }
+        int length = lengths[from];
+        lengths[to] = length;
+        update(from, -(length + 1));
+        update(to, length + 1);
+    }
+
+    private int slotOf(int block) {
+        return block < gapStart ? block : block + lengths.length - count;
+    }
+
+    /**
+     * Adds {@code delta} to slot {@code slot} of the tree, in O(log b)
+     */
+    private void update(int slot, int delta) {
+        for (int i = slot + 1; i < tree.length; i += i & -i) {
+            tree[i] += delta;
+        }
+    }
+
+    /**
+     * Doubles the buffer, keeping the gap where it is, and makes the tree again in O(b)
+     */
+    private void grow() {
+        int capacity = lengths.length * 2;
+        int after = count - gapStart;
+        int[] grown = new int[capacity];
+        System.arraycopy(lengths, 0, grown, 0, gapStart);
+        System.arraycopy(lengths, lengths.length - after, grown, capacity - after, after);
+        lengths = grown;
+        tree = new int[capacity + 1];
+        int gapEnd = gapStart + capacity - count;
+        for (int slot = 0; slot < capacity; slot++) {
+            tree[slot + 1] = slot < gapStart || slot >= gapEnd ? lengths[slot] + 1 : 0;
+        }
+        for (int i = 1; i <= capacity; i++) {
+            int parent = i + (i & -i);
+            if (parent <= capacity) {
+                tree[parent] += tree[i];
+            }
+        }
+    }
+
+    private static int indexOfBreak(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,427 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.GetChars;
+
+import java.util.Arrays;
+
+/**
+ * The characters of a {@link PieceTableEditable}: a piece table whose pieces are kept in a balanced tree.
+ * <p>
+ *  Every character ever inserted is appended to a single buffer and never moves. The text is the sequence
+ *  of pieces of that buffer held by a treap, in order, each node knowing the number of characters of its
+ *  subtree. Finding a position, inserting and deleting therefore cost O(log p) for p pieces, wherever the
+ *  edit is and however long the text is. An insertion right after the previous one, as when typing, only
+ *  grows the last piece, and deleting text typed in the middle of a piece joins its two halves again.
+ * </p>
+ * <p>
+ *  The nodes are kept in primitive arrays, indexed by node, node 0 standing for no node. Once more than
+ *  half of the buffer is deleted text, the buffer is compacted into a single piece, which keeps the
+ *  buffer at most about twice the length of the text at an amortized O(1) per deleted character.
+ * </p>
+ * <p>
+ *  Reading is fastest in order: the piece of the latest {@link #charAt(int)} is remembered, so reading the
+ *  text character by character costs O(1) per character within a piece.
+ * </p>
+ */
+class PieceTable {
+
+    private static final int NIL = 0;
+    private static final int MIN_COMPACTED_CAPACITY = 64;
+
+    private char[] buffer;
+    private int bufferLength;
+
+    private int[] left;
+    private int[] right;
+    private int[] priority;
+    private int[] offset;
+    private int[] length;
+    private int[] size;
+    private int nodeCapacity;
+    private int nodeCount = 1;
+    private int freeNodes = NIL;
+    private int root = NIL;
+    private int seed = 0x2545F491;
+
+    /**
+     * The piece of the latest read: characters from {@code cachedStart} to {@code cachedEnd} are in the
+     * buffer from {@code cachedOffset}
+     */
+    private int cachedStart;
+    private int cachedEnd;
+    private int cachedOffset;
+
+    /**
+     * Set by {@link #split(int, int)}: the two trees the split made
+     */
+    private int splitLeft;
+    private int splitRight;
+
+    PieceTable(CharSequence text, int start, int end) {
+        buffer = new char[Math.max(MIN_COMPACTED_CAPACITY, end - start)];
+        nodeCapacity = 16;
+        left = new int[nodeCapacity];
+        right = new int[nodeCapacity];
+        priority = new int[nodeCapacity];
+        offset = new int[nodeCapacity];
+        length = new int[nodeCapacity];
+        size = new int[nodeCapacity];
+        insert(0, text, start, end);
+    }
+
+    int length() {
+        return size[root];
+    }
+
+    char charAt(int index) {
+        if (index < cachedStart || index >= cachedEnd) {
+            if (index < 0 || index >= size[root]) {
+                throw new IndexOutOfBoundsException("charAt: " + index + " of length " + size[root]);
+            }
+            locate(index);
+        }
+        return buffer[cachedOffset + index - cachedStart];
+    }
+
+    /**
+     * Copies the characters from {@code start} to {@code end} into {@code dest}, a piece at a time
+     */
+    void getChars(int start, int end, char[] dest, int destoff) {
+        if (start < end) {
+            copy(root, 0, start, end, dest, destoff);
+        }
+    }
+
+    /**
+     * Inserts the characters of {@code text} from {@code start} to {@code end} at {@code where}
+     */
+    void insert(int where, CharSequence text, int start, int end) {
+        int count = end - start;
+        if (count == 0) {
+            return;
+        }
+        invalidateCache();
+        int at = append(text, start, end);
+        if (where > 0 && grow(root, where, at, count)) {
+            return;
+        }
+        int node = newNode(at, count);
+        cut(where);
+        split(root, where);
+        int after = splitRight;
+        root = merge(merge(splitLeft, node), after);
+    }
+
+    /**
+     * Deletes the characters from {@code start} to {@code end}
+     */
+    void delete(int start, int end) {
+        if (start == end) {
+            return;
+        }
+        invalidateCache();
+        cut(start);
+        cut(end);
+        split(root, start);
+        int before = splitLeft;
+        split(splitRight, end - start);
+        freeTree(splitLeft);
+        root = merge(before, splitRight);
+        join(start);
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length()];
+        getChars(0, chars.length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Appends characters to the buffer, compacting it first if it is mostly deleted text
+     *
+     * @return where the characters start in the buffer
+     */
+    private int append(CharSequence text, int start, int end) {
+        int count = end - start;
+        if (bufferLength + count > buffer.length) {
+            int live = length();
+            if (live < bufferLength / 2) {
+                compact(Math.max(MIN_COMPACTED_CAPACITY, (live + count) * 2));
+            }
+            if (bufferLength + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(bufferLength + count, buffer.length * 2));
+            }
+        }
+        int at = bufferLength;
+        if (text instanceof String) {
+            ((String) text).getChars(start, end, buffer, at);
+        } else if (text instanceof GetChars) {
+            ((GetChars) text).getChars(start, end, buffer, at);
+        } else {
+            for (int i = start; i < end; i++) {
+                buffer[at + i - start] = text.charAt(i);
+            }
+        }
+        bufferLength += count;
+        return at;
+    }
+
+    /**
+     * Copies the text into a new buffer, as a single piece
+     */
+    private void compact(int capacity) {
+        int live = length();
+        char[] compacted = new char[capacity];
+        getChars(0, live, compacted, 0);
+        buffer = compacted;
+        bufferLength = live;
+        freeTree(root);
+        root = live == 0 ? NIL : newNode(0, live);
+    }
+
+    /**
+     * Grows the piece ending at {@code where} by {@code count} characters, if the piece also ends where
+     * the new characters start in the buffer
+     *
+     * @return false if there is no such piece, and nothing was changed
+     */
+    private boolean grow(int node, int where, int at, int count) {
+        if (node == NIL) {
+            return false;
+        }
+        int leftSize = size[left[node]];
+        boolean grown;
+        if (where <= leftSize) {
+            grown = grow(left[node], where, at, count);
+        } else if (where == leftSize + length[node]) {
+            grown = offset[node] + length[node] == at;
+            if (grown) {
+                length[node] += count;
+            }
+        } else if (where > leftSize + length[node]) {
+            grown = grow(right[node], where - leftSize - length[node], at, count);
+        } else {
+            grown = false;
+        }
+        if (grown) {
+            size[node] += count;
+        }
+        return grown;
+    }
+
+    /**
+     * Makes sure a piece starts at {@code where}, by cutting the piece it falls in in two
+     */
+    private void cut(int where) {
+        if (where <= 0 || where >= length()) {
+            return;
+        }
+        int tail = shorten(root, where);
+        if (tail != NIL) {
+            split(root, where);
+            int after = splitRight;
+            root = merge(merge(splitLeft, tail), after);
+        }
+    }
+
+    /**
+     * Shortens the piece {@code where} falls strictly within so that it ends at {@code where}
+     *
+     * @return a new node for the rest of the piece, or {@link #NIL} if a piece already starts at {@code where}
+     */
+    private int shorten(int node, int where) {
+        if (node == NIL) {
+            return NIL;
+        }
+        int leftSize = size[left[node]];
+        int tail;
+        if (where <= leftSize) {
+            tail = shorten(left[node], where);
+        } else if (where >= leftSize + length[node]) {
+            tail = shorten(right[node], where - leftSize - length[node]);
+        } else {
+            int kept = where - leftSize;
+            tail = newNode(offset[node] + kept, length[node] - kept);
+            length[node] = kept;
+        }
+        if (tail != NIL) {
+            size[node] -= length[tail];
+        }
+        return tail;
+    }
+
+    /**
+     * Joins the pieces before and after {@code where} into one if they follow each other in the buffer,
+     * as they do once text typed in the middle of a piece is deleted again
+     */
+    private void join(int where) {
+        if (where <= 0 || where >= length()) {
+            return;
+        }
+        int before = pieceAt(where - 1);
+        int after = pieceAt(where);
+        if (before == after || offset[before] + length[before] != offset[after]) {
+            return;
+        }
+        int count = length[after];
+        int at = offset[after];
+        split(root, where);
+        int head = splitLeft;
+        split(splitRight, count);
+        freeTree(splitLeft);
+        grow(head, where, at, count);
+        root = merge(head, splitRight);
+    }
+
+    /**
+     * @return the node of the piece {@code index} is in
+     */
+    private int pieceAt(int index) {
+        int node = root;
+        while (true) {
+            int leftSize = size[left[node]];
+            if (index < leftSize) {
+                node = left[node];
+            } else if (index < leftSize + length[node]) {
+                return node;
+            } else {
+                index -= leftSize + length[node];
+                node = right[node];
+            }
+        }
+    }
+
+    /**
+     * Splits a tree at a piece boundary: {@link #splitLeft} gets the first {@code where} characters and
+     * {@link #splitRight} the rest
+     */
+    private void split(int node, int where) {
+        if (node == NIL) {
+            splitLeft = NIL;
+            splitRight = NIL;
+            return;
+        }
+        int leftSize = size[left[node]];
+        if (where <= leftSize) {
+            split(left[node], where);
+            left[node] = splitRight;
+            update(node);
+            splitRight = node;
+        } else {
+            split(right[node], where - leftSize - length[node]);
+            right[node] = splitLeft;
+            update(node);
+            splitLeft = node;
+        }
+    }
+
+    /**
+     * @return the tree of the pieces of {@code first} followed by the pieces of {@code second}
+     */
+    private int merge(int first, int second) {
+        if (first == NIL) {
+            return second;
+        }
+        if (second == NIL) {
+            return first;
+        }
+        if (priority[first] > priority[second]) {
+            right[first] = merge(right[first], second);
+            update(first);
+            return first;
+        }
+        left[second] = merge(first, left[second]);
+        update(second);
+        return second;
+    }
+
+    private void update(int node) {
+        size[node] = size[left[node]] + length[node] + size[right[node]];
+    }
+
+    /**
+     * Finds the piece {@code index} is in, and remembers it for the next reads
+     */
+    private void locate(int index) {
+        int node = root;
+        int base = 0;
+        while (true) {
+            int leftSize = size[left[node]];
+            if (index < base + leftSize) {
+                node = left[node];
+            } else if (index < base + leftSize + length[node]) {
+                cachedStart = base + leftSize;
+                cachedEnd = cachedStart + length[node];
+                cachedOffset = offset[node];
+                return;
+            } else {
+                base += leftSize + length[node];
+                node = right[node];
+            }
+        }
+    }
+
+    private void invalidateCache() {
+        cachedStart = 0;
+        cachedEnd = 0;
+    }
+
+    private void copy(int node, int base, int start, int end, char[] dest, int destoff) {
+        while (node != NIL) {
+            int pieceStart = base + size[left[node]];
+            int pieceEnd = pieceStart + length[node];
+            if (start < pieceStart) {
+                copy(left[node], base, start, end, dest, destoff);
+            }
+            int from = Math.max(start, pieceStart);
+            int to = Math.min(end, pieceEnd);
+            if (from < to) {
+                System.arraycopy(buffer, offset[node] + from - pieceStart, dest, destoff + from - start, to - from);
+            }
+            if (end <= pieceEnd) {
+                return;
+            }
+            base = pieceEnd;
+            node = right[node];
+        }
+    }
+
+    private int newNode(int at, int count) {
+        int node = freeNodes;
+        if (node != NIL) {
+            freeNodes = left[node];
+        } else {
+            if (nodeCount == nodeCapacity) {
+                nodeCapacity *= 2;
+                left = Arrays.copyOf(left, nodeCapacity);
+                right = Arrays.copyOf(right, nodeCapacity);
+                priority = Arrays.copyOf(priority, nodeCapacity);
+                offset = Arrays.copyOf(offset, nodeCapacity);
+                length = Arrays.copyOf(length, nodeCapacity);
+                size = Arrays.copyOf(size, nodeCapacity);
+            }
+            node = nodeCount++;
+        }
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        left[node] = NIL;
+        right[node] = NIL;
+        priority[node] = seed;
+        offset[node] = at;
+        length[node] = count;
+        size[node] = count;
+        return node;
+    }
+
+    private void freeTree(int node) {
+        while (node != NIL) {
+            freeTree(left[node]);
+            int next = right[node];
+            left[node] = freeNodes;
+            freeNodes = node;
+            node = next;
+        }
+    }
+}
@@ -0,0 +1,1020 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.InputFilter;
+import android.text.NoCopySpan;
+import android.text.Selection;
+import android.text.SpanWatcher;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+
+/**
+ * An {@link Editable} for very long entries, in place of {@link android.text.SpannableStringBuilder}.
+ * <p>
+ *  A SpannableStringBuilder keeps its text in a gap buffer, so an edit far from the previous one moves
+ *  every character in between, and it goes through all of its spans on every edit. On an entry of
+ *  hundreds of thousands of characters and thousands of spans, inserting at the top after typing at the
+ *  bottom costs milliseconds. Here:
+ *  <ul>
+ *      <li>the text is a {@link PieceTable}: an edit costs O(log p) for p pieces, wherever it is</li>
+ *      <li>the spans are a {@link SpanTree}: the spans after an edit are shifted all at once, in
+ *      O(log s) for s spans, and only the spans the edit is within or next to are moved one by one</li>
+ *  </ul>
+ *  Both are kept in primitive arrays, so neither allocates per character or per span.
+ * </p>
+ * <p>
+ *  Follows the contract of SpannableStringBuilder:
+ *  <ul>
+ *      <li>span ends move according to their POINT/MARK flags when text is replaced, and
+ *      {@link Spanned#SPAN_EXCLUSIVE_EXCLUSIVE} spans emptied by a replacement are removed</li>
+ *      <li>{@link #getSpans(int, int, Class)} returns spans by priority, then in the order they were set</li>
+ *      <li>{@link InputFilter}s are applied to every replacement</li>
+ *      <li>the {@link TextWatcher}s within the replaced range are notified before, during and after
+ *      it, then the {@link SpanWatcher}s of the spans it moved</li>
+ *  </ul>
+ *  As with SpannableStringBuilder before Android 6.0, spans that are only shifted along with the text,
+ *  all of them being after the edit, are not reported to SpanWatchers: the edit itself tells about them.
+ * </p>
+ * <p>
+ *  Made with {@link RichTextCodec.SpanTypes}, see {@link #factory(RichTextCodec.SpanTypes)}, the text is
+ *  styled: its styles are a {@link StyleRunTable}, drawn by a single {@link StyleRunTable.RunSpan} per run,
+ *  rather than a span per style and stretch. The editor's text is.
+ *  <ul>
+ *      <li>a span of a style of the table, see {@link RichTextCodec.SpanTypes#typeOf(Object)}, set on the
+ *      text is not kept: its style is set in the table over its range, see
+ *      {@link #applyStyle(int, int, int, int)}. So are the styles of a {@link StyleRunTable.RunSpan}, and
+ *      the styles of text inserted with its spans, once the {@link TextWatcher}s are told of the edit.</li>
+ *      <li>text inserted takes the styles the spans of a SpannableStringBuilder would grow over it with,
+ *      see {@link StyleRunTable#replace(int, int, int)}</li>
+ *      <li>nor is the span of a run: it is made when the spans over the run are asked for, for the
+ *      version of the text they are asked in, see {@link StyleRunTable.RunSpan}, so that the text holds
+ *      nothing per run but the table. The SpanWatchers are told of the runs of every change of the table,
+ *      once the edit is over: the span of a run with any style as added, a run left without any as
+ *      removed. Removing the span of a run removes its styles.</li>
+ *  </ul>
+ *  A copy of a styled text, e.g. {@link #subSequence(int, int)}, is styled.
+ *  Spans of other types, custom styles included, are kept as spans.
+ * </p>
+ *
+ * @see #FACTORY
+ */
+public class PieceTableEditable implements Editable {
+
+    /**
+     * Makes PieceTableEditables where a TextView would make SpannableStringBuilders, styled if their source is
+     */
+    public static final Factory FACTORY = new Factory(null);
+
+    private static final InputFilter[] NO_FILTERS = new InputFilter[0];
+    private static final int RUN_FLAGS = Spanned.SPAN_EXCLUSIVE_EXCLUSIVE;
+    private static final int RECENT_RUNS = 32;
+
+    private final PieceTable text;
+    private final SpanTree spans = new SpanTree();
+    private InputFilter[] filters = NO_FILTERS;
+
+    /**
+     * The styles of a styled text, and the spans of its styles; both null if the text is not styled
+     */
+    private final RichTextCodec.SpanTypes types;
+    private StyleRunTable styles;
+    /**
+     * The version of a styled text, a new one once its text or its styles change: the spans of runs made
+     * for it are the text's while it is current. The spans of runs made last, by start, are made again only
+     * once it changes.
+     */
+    private Object version = new Object();
+    private StyleRunTable.RunSpan[] recentRuns;
+    private Class<?> runSpanClass;
+    /**
+     * The range whose runs changed, for the SpanWatchers to be told of, none if {@code changedFrom < 0},
+     * and whether telling them waits for the end of an edit
+     */
+    private int changedFrom = -1;
+    private int changedTo;
+    private int changesDeferred;
+
+    /**
+     * Makes PieceTableEditables, styled with {@link RichTextCodec.SpanTypes}
+     *
+     * @see #factory(RichTextCodec.SpanTypes)
+     */
+    public static class Factory extends Editable.Factory {
+        private final RichTextCodec.SpanTypes types;
+
+        protected Factory(RichTextCodec.SpanTypes types) {
+            this.types = types;
+        }
+
+        /**
+         * @return the types of the styles of the texts made, or null if they are only styled as their source
+         */
+        public RichTextCodec.SpanTypes getTypes() {
+            return types;
+        }
+
+        @Override
+        public Editable newEditable(CharSequence source) {
+            return types != null ? new PieceTableEditable(source, types) : new PieceTableEditable(source);
+        }
+    }
+
+    /**
+     * @return a factory of texts whose styles of {@code types} are kept as a {@link StyleRunTable}
+     */
+    public static Factory factory(RichTextCodec.SpanTypes types) {
+        return new Factory(types);
+    }
+
+    /**
+     * @return {@code text} if it is a styled PieceTableEditable, else null
+     */
+    public static PieceTableEditable asStyled(CharSequence text) {
+        return text instanceof PieceTableEditable && ((PieceTableEditable) text).styles != null
+                ? (PieceTableEditable) text : null;
+    }
+
+    public PieceTableEditable() {
+        this("");
+    }
+
+    public PieceTableEditable(CharSequence source) {
+        this(source, 0, source.length());
+    }
+
+    /**
+     * Copies the text from {@code start} to {@code end} of {@code source}, styled if {@code source} is
+     */
+    public PieceTableEditable(CharSequence source, int start, int end) {
+        this(source, start, end, source instanceof PieceTableEditable ? ((PieceTableEditable) source).types : null);
+    }
+
+    /**
+     * Copies {@code source} as a styled text
+     */
+    public PieceTableEditable(CharSequence source, RichTextCodec.SpanTypes types) {
+        this(source, 0, source.length(), types);
+    }
+
+    /**
+     * Copies the text from {@code start} to {@code end} of {@code source}, with its spans but the
+     * {@link NoCopySpan}s. Spans that come by start, as a decoded entry's do, are added all at once.
+     *
+     * @param types the styles kept as a {@link StyleRunTable}, read from the spans of {@code source} unless
+     *              it is styled already; null for a text that is not styled
+     */
+    public PieceTableEditable(CharSequence source, int start, int end, RichTextCodec.SpanTypes types) {
+        text = new PieceTable(source, start, end);
+        this.types = types;
+        PieceTableEditable styledSource = asStyled(source);
+        if (types != null) {
+            styles = styledSource != null ? styledSource.styles.copy(start, end)
+                    : source instanceof Spanned ? StyleRunTable.fromSpans((Spanned) source, start, end, types)
+                    : new StyleRunTable(end - start);
+        }
+        if (source instanceof Spanned) {
+            Spanned spanned = (Spanned) source;
+            int length = end - start;
+            //The runs of a styled text are read from its table, not from the spans it would make of them
+            Object[] copied = styledSource != null && styles != null
+                    ? styledSource.getSpans(start, end, Object.class, false) : spanned.getSpans(start, end, Object.class);
+            int[] spanStarts = new int[copied.length];
+            int[] spanEnds = new int[copied.length];
+            int[] spanFlags = new int[copied.length];
+            int count = 0;
+            boolean byStart = true;
+            for (Object span : copied) {
+                if (span instanceof NoCopySpan || (styles != null && isStyle(span))) {
+                    continue;
+                }
+                copied[count] = span;
+                spanStarts[count] = Math.min(length, Math.max(0, spanned.getSpanStart(span) - start));
+                spanEnds[count] = Math.min(length, Math.max(0, spanned.getSpanEnd(span) - start));
+                spanFlags[count] = spanned.getSpanFlags(span);
+                byStart &= count == 0 || spanStarts[count] >= spanStarts[count - 1];
+                count++;
+            }
+            if (byStart) {
+                spans.addAll(copied, spanStarts, spanEnds, spanFlags, count);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    spans.add(copied[i], spanStarts[i], spanEnds[i], spanFlags[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes the text of a decoded entry, adding its spans all at once without asking {@code source} for them
+     *
+     * @param spanObjects the spans, by start, none of them a {@link NoCopySpan}
+     * @see RichTextCodec#decode(byte[], Editable.Factory)
+     */
+    PieceTableEditable(CharSequence source, Object[] spanObjects, int[] spanStarts, int[] spanEnds, int[] spanFlags,
+                       int count) {
+        this(source, null, null, spanObjects, spanStarts, spanEnds, spanFlags, count);
+    }
+
+    /**
+     * Makes the styled text of a decoded entry, from its table and the spans of its other styles, by start
+     *
+     * @param styles the table of the styles of {@code source}, or null for a text that is not styled
+     */
+    PieceTableEditable(CharSequence source, StyleRunTable styles, RichTextCodec.SpanTypes types, Object[] spanObjects,
+                       int[] spanStarts, int[] spanEnds, int[] spanFlags, int count) {
+        text = new PieceTable(source, 0, source.length());
+        this.types = styles != null ? types : null;
+        this.styles = styles;
+        spans.addAll(spanObjects, spanStarts, spanEnds, spanFlags, count);
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return text.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        checkRange("subSequence", start, end);
+        return new PieceTableEditable(this, start, end);
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dest, int destoff) {
+        checkRange("getChars", start, end);
+        text.getChars(start, end, dest, destoff);
+    }
+
+    @Override
+    public void setSpan(Object what, int start, int end, int flags) {
+        checkRange("setSpan", start, end);
+        if ((flags & Spanned.SPAN_POINT_MARK_MASK) == Spanned.SPAN_PARAGRAPH) {
+            checkParagraphBoundary("start", start);
+            checkParagraphBoundary("end", end);
+        }
+        if ((flags & Spanned.SPAN_POINT_MARK_MASK) == Spanned.SPAN_EXCLUSIVE_EXCLUSIVE && start == end) {
+            return; //ignored, as SpannableStringBuilder ignores it
+        }
+        if (styles != null && setStyleOf(what, start, end)) {
+            return;
+        }
+        int node = spans.find(what);
+        if (node != SpanTree.NIL) {
+            int oldStart = spans.startOf(node);
+            int oldEnd = spans.endOf(node);
+            spans.set(node, start, end, flags);
+            sendSpanChanged(what, oldStart, oldEnd, start, end);
+            return;
+        }
+        spans.add(what, start, end, flags);
+        sendSpanAdded(what, start, end);
+    }
+
+    @Override
+    public void removeSpan(Object what) {
+        StyleRunTable.RunSpan run = runSpanOf(what);
+        if (run != null) {
+            clearStyles(run.getRunStart(), run.getRunEnd()); //the span goes once its run has no style
+            return;
+        }
+        int node = spans.find(what);
+        if (node == SpanTree.NIL) {
+            return;
+        }
+        int start = spans.startOf(node);
+        int end = spans.endOf(node);
+        spans.remove(node);
+        sendSpanRemoved(what, start, end);
+    }
+
+    @Override
+    public <T> T[] getSpans(int queryStart, int queryEnd, Class<T> kind) {
+        return getSpans(queryStart, queryEnd, kind, true);
+    }
+
+    /**
+     * @param withRuns also makes the spans of the runs of a styled text over the range, after the spans of
+     *                 a higher priority and before the others
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T[] getSpans(int queryStart, int queryEnd, Class<T> kind, boolean withRuns) {
+        if (kind == null) {
+            return (T[]) new Object[0];
+        }
+        int count = spans.collect(queryStart, queryEnd);
+        int[] matching = new int[count];
+        int matched = 0;
+        for (int i = 0; i < count; i++) {
+            int node = spans.found(i);
+            if (!kind.isInstance(spans.spanOf(node))) {
+                continue;
+            }
+            int start = spans.startOf(node);
+            int end = spans.endOf(node);
+            if (start != end && queryStart != queryEnd && (start == queryEnd || end == queryStart)) {
+                continue; //only touching the range
+            }
+            matching[matched++] = node;
+        }
+        spans.sortByOrder(matching, matched);
+        int firstRun = withRuns && hasRunSpans(kind) ? styles.findRun(Math.max(0, queryStart - 1)) : -1;
+        int runCount = 0;
+        for (int run = firstRun; run >= 0 && run < styles.getRunCount() && styles.getRunStart(run) <= queryEnd; run++) {
+            if (hasRunSpan(run, queryStart, queryEnd)) {
+                runCount++;
+            }
+        }
+        int prioritized = 0;
+        while (runCount > 0 && prioritized < matched && (spans.flagsOf(matching[prioritized]) & Spanned.SPAN_PRIORITY) != 0) {
+            prioritized++;
+        }
+        T[] found = (T[]) Array.newInstance(kind, matched + runCount);
+        for (int i = 0; i < prioritized; i++) {
+            found[i] = (T) spans.spanOf(matching[i]);
+        }
+        for (int run = firstRun, i = prioritized; i < prioritized + runCount; run++) {
+            if (hasRunSpan(run, queryStart, queryEnd)) {
+                found[i++] = (T) runSpan(run);
+            }
+        }
+        for (int i = prioritized; i < matched; i++) {
+            found[i + runCount] = (T) spans.spanOf(matching[i]);
+        }
+        return found;
+    }
+
+    /**
+     * @return true if the spans of the runs of a styled text are spans of {@code kind}
+     */
+    private boolean hasRunSpans(Class<?> kind) {
+        if (styles == null) {
+            return false;
+        }
+        if (runSpanClass == null) {
+            runSpanClass = types.newRunSpan(0, 0, null, 0, 0).getClass();
+        }
+        return kind.isAssignableFrom(runSpanClass);
+    }
+
+    /**
+     * @return true if {@code run} has a style, and a span among those over {@code [queryStart, queryEnd]}
+     */
+    private boolean hasRunSpan(int run, int queryStart, int queryEnd) {
+        int start = styles.getRunStart(run);
+        int end = styles.getRunEnd(run);
+        return start < end && (styles.getStyle(run) | styles.getColors(run)) != 0 && start <= queryEnd && end >= queryStart
+                && (queryStart == queryEnd || (start != queryEnd && end != queryStart));
+    }
+
+    /**
+     * @return the span of {@code run} in the current version of the text, the one made last for it if any
+     */
+    private StyleRunTable.RunSpan runSpan(int run) {
+        int start = styles.getRunStart(run);
+        if (recentRuns == null) {
+            recentRuns = new StyleRunTable.RunSpan[RECENT_RUNS];
+        }
+        int slot = (start * 0x9E3779B9) >>> 27; //one of 32, for runs close by not to take the same
+        StyleRunTable.RunSpan span = recentRuns[slot];
+        if (span == null || span.getVersion() != version || span.getRunStart() != start) {
+            span = types.newRunSpan(styles.getStyle(run), styles.getColors(run), version, start, styles.getRunEnd(run));
+            recentRuns[slot] = span;
+        }
+        return span;
+    }
+
+    /**
+     * @return {@code tag} if it is the span of a run with any style in the current version of the text,
+     * else null
+     */
+    private StyleRunTable.RunSpan runSpanOf(Object tag) {
+        if (styles == null || !(tag instanceof StyleRunTable.RunSpan)) {
+            return null;
+        }
+        StyleRunTable.RunSpan run = (StyleRunTable.RunSpan) tag;
+        return run.getVersion() == version && (run.getStyle() | run.getColors()) != 0 ? run : null;
+    }
+
+    @Override
+    public int getSpanStart(Object tag) {
+        StyleRunTable.RunSpan run = runSpanOf(tag);
+        if (run != null) {
+            return run.getRunStart();
+        }
+        int node = spans.find(tag);
+        return node == SpanTree.NIL ? -1 : spans.startOf(node);
+    }
+
+    @Override
+    public int getSpanEnd(Object tag) {
+        StyleRunTable.RunSpan run = runSpanOf(tag);
+        if (run != null) {
+            return run.getRunEnd();
+        }
+        int node = spans.find(tag);
+        return node == SpanTree.NIL ? -1 : spans.endOf(node);
+    }
+
+    @Override
+    public int getSpanFlags(Object tag) {
+        if (runSpanOf(tag) != null) {
+            return RUN_FLAGS;
+        }
+        int node = spans.find(tag);
+        return node == SpanTree.NIL ? 0 : spans.flagsOf(node);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int nextSpanTransition(int start, int limit, Class kind) {
+        if (kind == null) {
+            kind = Object.class;
+        }
+        int next = spans.nextTransition(start, limit, kind);
+        if (hasRunSpans(kind) && start >= 0 && start < length()) {
+            //Two runs next to each other never have the same styles
+            next = Math.min(next, styles.getRunEnd(styles.findRun(start)));
+        }
+        return next;
+    }
+
+    /**
+     * Replaces the text from {@code st} to {@code en} with the text of {@code source} from {@code start}
+     * to {@code end}, and its spans.
+     * <p>
+     *  The spans overlapping the replaced range, ends included, are taken out of the span tree and put
+     *  back at their new place, and the spans after it are shifted all at once. So is the text: a typed
+     *  character costs O(log n), and so does any edit as far as the text is concerned.
+     * </p>
+     */
+    @Override
+    public Editable replace(int st, int en, CharSequence source, int start, int end) {
+        checkRange("replace", st, en);
+        for (InputFilter filter : filters) {
+            CharSequence filtered = filter.filter(source, start, end, this, st, en);
+            if (filtered != null) {
+                source = filtered;
+                start = 0;
+                end = filtered.length();
+            }
+        }
+        int before = en - st;
+        int after = end - start;
+        if (before == 0 && after == 0) {
+            return this;
+        }
+        boolean atEnd = en == length();
+        if (source == this) {
+            source = new PieceTableEditable(this, start, end);
+            start = 0;
+            end = after;
+        }
+        TextWatcher[] textWatchers = getSpans(st, st + before, TextWatcher.class);
+        for (TextWatcher watcher : textWatchers) {
+            watcher.beforeTextChanged(this, st, before, after);
+        }
+
+        //A selection within the replaced range keeps its place relative to it
+        boolean adjustSelection = before > 0 && after > 0;
+        int selectionStart = adjustSelection ? getSpanStart(Selection.SELECTION_START) : -1;
+        int selectionEnd = adjustSelection ? getSpanEnd(Selection.SELECTION_END) : -1;
+
+        int movedCount = spans.collect(st, en);
+        int[] moved = new int[movedCount];
+        Object[] movedSpans = new Object[movedCount];
+        int[] oldStarts = new int[movedCount];
+        int[] oldEnds = new int[movedCount];
+        for (int i = 0; i < movedCount; i++) {
+            moved[i] = spans.found(i);
+        }
+        for (int i = 0; i < movedCount; i++) {
+            int node = moved[i];
+            movedSpans[i] = spans.spanOf(node);
+            oldStarts[i] = spans.startOf(node);
+            oldEnds[i] = spans.endOf(node);
+            spans.detach(node);
+        }
+        text.delete(st, en);
+        text.insert(st, source, start, end);
+        spans.shiftAfter(en, after - before);
+        if (styles != null) {
+            changesDeferred++;
+            styles.replace(st, before, after);
+            if (changedFrom >= 0) {
+                changedFrom = movePosition(changedFrom, st, en, after, 1);
+                changedTo = movePosition(changedTo, st, en, after, 2);
+            }
+            invalidate(st, st + after);
+        }
+
+        int removedCount = 0;
+        for (int i = 0; i < movedCount; i++) {
+            int node = moved[i];
+            int flags = spans.flagsOf(node);
+            if (isEmptied(oldStarts[i], oldEnds[i], flags, st, en, after, atEnd)) {
+                moved[i] = -node - 1; //removed once the others are back in place
+                removedCount++;
+                continue;
+            }
+            int newStart;
+            int newEnd;
+            if ((flags & Spanned.SPAN_PARAGRAPH) == Spanned.SPAN_PARAGRAPH) {
+                newStart = moveParagraphBoundary(oldStarts[i], st, en, after, atEnd);
+                newEnd = moveParagraphBoundary(oldEnds[i], st, en, after, atEnd);
+            } else {
+                newStart = movePosition(oldStarts[i], st, en, after, flags >> 4 & 0x3);
+                newEnd = movePosition(oldEnds[i], st, en, after, flags & 0x3);
+            }
+            spans.insert(node, newStart, Math.max(newStart, newEnd));
+        }
+        if (removedCount > 0) {
+            for (int i = 0; i < movedCount; i++) {
+                if (moved[i] < 0) {
+                    spans.free(-moved[i] - 1);
+                    sendSpanRemoved(movedSpans[i], oldStarts[i], oldEnds[i]);
+                }
+            }
+        }
+
+        Object[] added = null;
+        StyleRunTable inserted = null;
+        if (source instanceof Spanned) {
+            added = copySpans((Spanned) source, start, end, st);
+            inserted = styles != null ? stylesOf((Spanned) source, start, end) : null;
+        }
+        if (adjustSelection) {
+            adjustSelection(Selection.SELECTION_START, selectionStart, st, en, after);
+            adjustSelection(Selection.SELECTION_END, selectionEnd, st, en, after);
+        }
+
+        try {
+            try {
+                for (TextWatcher watcher : textWatchers) {
+                    watcher.onTextChanged(this, st, before, after);
+                }
+            } finally {
+                //The styles inserted with the text win over those the watchers styled it with, e.g. the input's
+                if (inserted != null && st + after <= length()) {
+                    addStyles(st, inserted);
+                }
+            }
+            for (TextWatcher watcher : textWatchers) {
+                watcher.afterTextChanged(this);
+            }
+        } finally {
+            if (styles != null && --changesDeferred == 0) {
+                sendPendingRunChanges();
+            }
+        }
+
+        //SpanWatchers are told after the TextWatchers, which may update the layout
+        for (int i = 0; i < movedCount; i++) {
+            int node = spans.find(movedSpans[i]);
+            if (moved[i] < 0 || node == SpanTree.NIL) {
+                continue; //removed, by the edit or by a TextWatcher
+            }
+            int newStart = spans.startOf(node);
+            int newEnd = spans.endOf(node);
+            if (newStart != oldStarts[i] || newEnd != oldEnds[i]) {
+                sendSpanChanged(movedSpans[i], oldStarts[i], oldEnds[i], newStart, newEnd);
+            }
+        }
+        if (added != null) {
+            for (Object span : added) {
+                int node = spans.find(span);
+                if (node != SpanTree.NIL) {
+                    sendSpanAdded(span, spans.startOf(node), spans.endOf(node));
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Moves a span end past the replacement of {@code [st, en]} by {@code inserted} characters, as
+     * SpannableStringBuilder does:
+     * <ul>
+     *     <li>where text is only inserted, a MARK stays in front of it and a POINT moves behind it</li>
+     *     <li>where text is replaced or deleted, an end at the end of the range moves behind the new text,
+     *     a POINT within the range behind it too, and a MARK within it to its start. A POINT at the start
+     *     of the range stays there.</li>
+     * </ul>
+     *
+     * @param pointOrMark {@code 1} for a MARK, {@code 2} for a POINT
+     */
+    private static int movePosition(int position, int st, int en, int inserted, int pointOrMark) {
+        if (position < st) {
+            return position;
+        }
+        if (position > en) {
+            return position + inserted - (en - st);
+        }
+        if (st == en) {
+            return pointOrMark == 1 ? st : st + inserted;
+        }
+        return position == en || (pointOrMark == 2 && position > st) ? st + inserted : st;
+    }
+
+    /**
+     * Moves an end of a {@link Spanned#SPAN_PARAGRAPH} span as SpannableStringBuilder does: within the
+     * replaced range, to the end of the paragraph the new text is in; at its start, behind the new text if
+     * the range is at the end of the text
+     *
+     * @param atEnd true if the range was at the end of the text
+     */
+    private int moveParagraphBoundary(int position, int st, int en, int inserted, boolean atEnd) {
+        if (position < st) {
+            return position;
+        }
+        if (position > en) {
+            return position + inserted - (en - st);
+        }
+        if (position == st) {
+            return atEnd ? st + inserted : st;
+        }
+        int length = length();
+        int boundary = st + inserted + 1;
+        while (boundary < length && charAt(boundary - 1) != '\n') {
+            boundary++;
+        }
+        return Math.min(boundary, length);
+    }
+
+    /**
+     * @return true if a span, flagged as {@link Spanned#SPAN_EXCLUSIVE_EXCLUSIVE} at least, is to be removed
+     * as SpannableStringBuilder removes it when {@code [st, en)} is replaced: both of its ends within the
+     * range, and the span left empty by the replacement, or already so
+     */
+    private static boolean isEmptied(int spanStart, int spanEnd, int flags, int st, int en, int inserted, boolean atEnd) {
+        if (st == en || (flags & Spanned.SPAN_EXCLUSIVE_EXCLUSIVE) != Spanned.SPAN_EXCLUSIVE_EXCLUSIVE) {
+            return false;
+        }
+        boolean paragraph = (flags & Spanned.SPAN_PARAGRAPH) == Spanned.SPAN_PARAGRAPH;
+        return isReplaced(spanStart, flags >> 4 & 0x3, paragraph, st, en, atEnd)
+                && isReplaced(spanEnd, flags & 0x3, paragraph, st, en, atEnd)
+                && (inserted == 0 || spanStart > st || spanEnd < en);
+    }
+
+    /**
+     * @return true if a span end at {@code position} is within the replaced range, for
+     * {@link #isEmptied(int, int, int, int, int, int, boolean)}: a POINT at its end is behind it, and so is
+     * a paragraph boundary past its start
+     *
+     * @param flag {@code 1} for a MARK, {@code 2} for a POINT, {@code 3} for a paragraph boundary
+     */
+    private static boolean isReplaced(int position, int flag, boolean paragraph, int st, int en, boolean atEnd) {
+        if (position < st || position > en) {
+            return false;
+        }
+        if (paragraph) {
+            return position == st;
+        }
+        return position < en || (flag != 2 && (flag != 3 || !atEnd));
+    }
+
+    /**
+     * Adds the spans of {@code source} from {@code start} to {@code end} that are not spans of this text
+     * yet, nor styles of its table, for the text copied at {@code where}
+     *
+     * @return the spans added
+     */
+    private Object[] copySpans(Spanned source, int start, int end, int where) {
+        PieceTableEditable styledSource = styles != null ? asStyled(source) : null;
+        Object[] copied = styledSource != null ? styledSource.getSpans(start, end, Object.class, false)
+                : source.getSpans(start, end, Object.class);
+        int added = 0;
+        for (Object span : copied) {
+            if (spans.find(span) != SpanTree.NIL || (styles != null && isStyle(span))) {
+                continue; //the styles of a styled text are set in its table
+            }
+            int spanStart = Math.max(start, source.getSpanStart(span)) - start + where;
+            int spanEnd = Math.min(end, source.getSpanEnd(span)) - start + where;
+            spans.add(span, spanStart, Math.max(spanStart, spanEnd), source.getSpanFlags(span));
+            copied[added++] = span;
+        }
+        return Arrays.copyOf(copied, added);
+    }
+
+    /**
+     * @return the styles of {@code [start, end)} of {@code source}, or null if it has none
+     */
+    private StyleRunTable stylesOf(Spanned source, int start, int end) {
+        PieceTableEditable styledSource = asStyled(source);
+        StyleRunTable inserted = styledSource != null ? styledSource.styles.copy(start, end)
+                : StyleRunTable.fromSpans(source, start, end, types);
+        return inserted.getRunCount() > 1 || (inserted.getStyle(0) | inserted.getColors(0)) != 0 ? inserted : null;
+    }
+
+    /**
+     * @return true if {@code span} is a style of the table of a styled text, or the span of a run
+     */
+    private boolean isStyle(Object span) {
+        if (span instanceof StyleRunTable.RunSpan) {
+            return true;
+        }
+        int type = types.typeOf(span);
+        return type >= 0 && type <= StyleRunTable.MAX_TYPE;
+    }
+
+    /**
+     * Sets the styles of a span set on a styled text in its table, rather than the span, if it is a style
+     * of the table or the span of a run. The span of a run moved takes its styles along.
+     *
+     * @return false if {@code what} is to be kept as a span
+     */
+    private boolean setStyleOf(Object what, int start, int end) {
+        if (what instanceof StyleRunTable.RunSpan) {
+            StyleRunTable.RunSpan run = (StyleRunTable.RunSpan) what;
+            if (runSpanOf(what) != null) {
+                styles.clearFormatting(run.getRunStart(), run.getRunEnd());
+                invalidate(run.getRunStart(), run.getRunEnd());
+            }
+            styles.add(start, end, run.getStyle(), run.getColors());
+            invalidate(start, end);
+            return true;
+        }
+        int type = types.typeOf(what);
+        if (type < 0 || type > StyleRunTable.MAX_TYPE) {
+            return false;
+        }
+        applyStyle(start, end, type, types.hasAttribute(type) ? types.attributeOf(what) : 0);
+        return true;
+    }
+
+    /**
+     * Adds the styles of the runs of {@code table} to the text from {@code where}
+     */
+    private void addStyles(int where, StyleRunTable table) {
+        for (int run = 0; run < table.getRunCount(); run++) {
+            if ((table.getStyle(run) | table.getColors(run)) != 0) {
+                styles.add(where + table.getRunStart(run), where + table.getRunEnd(run), table.getStyle(run), table.getColors(run));
+            }
+        }
+        invalidate(where, where + table.getLength());
+    }
+
+    /**
+     * @return true if the text keeps its styles as a {@link StyleRunTable}
+     */
+    public boolean isStyled() {
+        return styles != null;
+    }
+
+    /**
+     * @return the types of the styles of the text, or null if it is not styled
+     */
+    public RichTextCodec.SpanTypes getSpanTypes() {
+        return types;
+    }
+
+    /**
+     * @return a copy of the styles of the whole text: changing it does not change the text, see
+     * {@link #setStyles(int, StyleRunTable)}
+     * @throws IllegalStateException if the text is not styled
+     */
+    public StyleRunTable getStyleRuns() {
+        return getStyleRuns(0, length());
+    }
+
+    /**
+     * @return a copy of the styles of {@code [start, end)}, its positions from {@code start}
+     * @throws IllegalStateException if the text is not styled
+     */
+    public StyleRunTable getStyleRuns(int start, int end) {
+        checkStyled();
+        checkRange("getStyleRuns", start, end);
+        return styles.copy(start, end);
+    }
+
+    /**
+     * @return the styles of the text themselves, not to be changed but through the text
+     */
+    StyleRunTable styles() {
+        return styles;
+    }
+
+    /**
+     * Sets a style over {@code [start, end)}, replacing the attribute of the same style there
+     *
+     * @see StyleRunTable#apply(int, int, int, int)
+     */
+    public void applyStyle(int start, int end, int type, int attribute) {
+        checkStyled();
+        checkRange("applyStyle", start, end);
+        styles.apply(start, end, type, attribute);
+        invalidate(start, end);
+    }
+
+    /**
+     * Removes a style from {@code [start, end)}
+     */
+    public void removeStyle(int start, int end, int type) {
+        checkStyled();
+        checkRange("removeStyle", start, end);
+        styles.remove(start, end, type);
+        invalidate(start, end);
+    }
+
+    /**
+     * Removes every style of the table from {@code [start, end)}, in one pass over its runs
+     */
+    public void clearStyles(int start, int end) {
+        checkStyled();
+        checkRange("clearStyles", start, end);
+        styles.clearFormatting(start, end);
+        invalidate(start, end);
+    }
+
+    /**
+     * Replaces the styles of {@code [where, where + table.getLength())} by those of {@code table}
+     */
+    public void setStyles(int where, StyleRunTable table) {
+        checkStyled();
+        checkRange("setStyles", where, where + table.getLength());
+        styles.set(where, table);
+        invalidate(where, where + table.getLength());
+    }
+
+    private void checkStyled() {
+        if (styles == null) {
+            throw new IllegalStateException("The text is not styled");
+        }
+    }
+
+    /**
+     * Makes a new version of the text, its styles from {@code from} to {@code to} having changed, and tells
+     * the SpanWatchers of the runs there once the edit being made, if any, is over
+     */
+    private void invalidate(int from, int to) {
+        version = new Object();
+        if (changedFrom < 0) {
+            changedFrom = from;
+            changedTo = to;
+        } else {
+            changedFrom = Math.min(changedFrom, from);
+            changedTo = Math.max(changedTo, to);
+        }
+        if (changesDeferred == 0) {
+            sendPendingRunChanges();
+        }
+    }
+
+    private void sendPendingRunChanges() {
+        if (changedFrom < 0) {
+            return;
+        }
+        int length = length();
+        int from = Math.min(changedFrom, length);
+        int to = Math.min(changedTo, length);
+        changedFrom = -1;
+        sendRunsChanged(from, to);
+    }
+
+    /**
+     * Tells the SpanWatchers of the runs of {@code [from, to]}, and of the runs touching it: the span of a
+     * run with any style is added, the span a run without any would have is removed. The spans of runs
+     * made before are no longer in the text, the version having changed, and are not told of. Stops if a
+     * watcher changes the text.
+     */
+    private void sendRunsChanged(int from, int to) {
+        Object told = version;
+        int first = styles.findRun(Math.max(0, from - 1));
+        int last = styles.findRun(Math.max(0, Math.min(to, length() - 1)));
+        for (int run = first; run <= last && version == told; run++) {
+            int runStart = styles.getRunStart(run);
+            int runEnd = styles.getRunEnd(run);
+            if (runStart == runEnd) {
+                continue;
+            }
+            StyleRunTable.RunSpan span = runSpan(run);
+            if ((span.getStyle() | span.getColors()) != 0) {
+                sendSpanAdded(span, runStart, runEnd);
+            } else {
+                sendSpanRemoved(span, runStart, runEnd);
+            }
+        }
+    }
+
+    /**
+     * Moves a selection end that was strictly within the replaced range to the same relative place in
+     * the new text, without telling the SpanWatchers yet
+     */
+    private void adjustSelection(Object selectionSpan, int position, int st, int en, int inserted) {
+        int node = spans.find(selectionSpan);
+        if (node == SpanTree.NIL || position <= st || position >= en) {
+            return;
+        }
+        int moved = st + (int) ((long) (position - st) * inserted / (en - st));
+        spans.set(node, moved, moved, spans.flagsOf(node));
+    }
+
+    private void sendSpanAdded(Object what, int start, int end) {
+        for (SpanWatcher watcher : getSpans(start, end, SpanWatcher.class)) {
+            watcher.onSpanAdded(this, what, start, end);
+        }
+    }
+
+    private void sendSpanRemoved(Object what, int start, int end) {
+        int length = length();
+        for (SpanWatcher watcher : getSpans(Math.min(start, length), Math.min(end, length), SpanWatcher.class)) {
+            watcher.onSpanRemoved(this, what, start, end);
+        }
+    }
+
+    private void sendSpanChanged(Object what, int oldStart, int oldEnd, int start, int end) {
+        int length = length();
+        int from = Math.min(Math.min(oldStart, start), length);
+        int to = Math.min(Math.max(oldEnd, end), length);
+        for (SpanWatcher watcher : getSpans(from, to, SpanWatcher.class)) {
+            watcher.onSpanChanged(this, what, oldStart, oldEnd, start, end);
+        }
+    }
+
+    private void checkRange(String operation, int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException(operation + " (" + start + " ... " + end + ") of length " + length());
+        }
+    }
+
+    private void checkParagraphBoundary(String which, int position) {
+        if (position != 0 && position != length() && charAt(position - 1) != '\n') {
+            throw new RuntimeException("PARAGRAPH span must " + which + " at paragraph boundary");
+        }
+    }
+
+    @Override
+    public Editable replace(int st, int en, CharSequence text) {
+        return replace(st, en, text, 0, text.length());
+    }
+
+    @Override
+    public Editable insert(int where, CharSequence text, int start, int end) {
+        return replace(where, where, text, start, end);
+    }
+
+    @Override
+    public Editable insert(int where, CharSequence text) {
+        return replace(where, where, text, 0, text.length());
+    }
+
+    @Override
+    public Editable delete(int st, int en) {
+        return replace(st, en, "", 0, 0);
+    }
+
+    @Override
+    public Editable append(CharSequence text) {
+        return replace(length(), length(), text, 0, text.length());
+    }
+
+    @Override
+    public Editable append(CharSequence text, int start, int end) {
+        return replace(length(), length(), text, start, end);
+    }
+
+    @Override
+    public Editable append(char text) {
+        return append(String.valueOf(text));
+    }
+
+    @Override
+    public void clear() {
+        replace(0, length(), "", 0, 0);
+    }
+
+    @Override
+    public void clearSpans() {
+        if (styles != null) {
+            clearStyles(0, length());
+        }
+        for (Object span : getSpans(0, length(), Object.class)) {
+            removeSpan(span);
+        }
+    }
+
+    @Override
+    public void setFilters(InputFilter[] filters) {
+        if (filters == null) {
+            throw new IllegalArgumentException();
+        }
+        this.filters = filters;
+    }
+
+    @Override
+    public InputFilter[] getFilters() {
+        return filters;
+    }
+}
@@ -0,0 +1,150 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.Spanned;
+
+/**
+ * The editing operations behind the buttons of {@link RichEditText}, working on the text alone.
+ * <p>
+ *  {@link RichEditText} reads the selection and the button states and hands them to these operations.
+ *  Keeping them apart from the view means they can be run, tested and benchmarked on the host
+ *  with any {@link Editable}.
+ * </p>
+ *
+ * @see RichEditText#updateTextStylesOnButtonPress(android.widget.ToggleButton, Class)
+ * @see RichEditText#removeSpansWithinSelection(Class)
+ * @see SpanFactories#forClass(Class)
+ */
+public class RichEditOperations {
+
+    protected static final char SPACE = ' ';
+    protected static final int PREVIOUS_SPAN_WINDOW = 256;
+
+    protected final SpanRunEngine spanRunEngine;
+    protected final WordBoundaryScanner wordScanner = new WordBoundaryScanner();
+
+    public RichEditOperations() {
+        this(new SpanRunEngine());
+    }
+
+    /**
+     * @param spanRunEngine the engine keeping the styles of the text as runs, shared with the editor
+     */
+    public RichEditOperations(SpanRunEngine spanRunEngine) {
+        this.spanRunEngine = spanRunEngine;
+    }
+
+    /**
+     * Applies a style to the selection, or to the word at the cursor if nothing is selected.
+     * The styled range is merged with the runs of the same style it touches, leaving a single span.
+     *
+     * @param text     the text to style
+     * @param selStart start of selection
+     * @param selEnd   end of selection
+     * @param factory  the style to apply
+     */
+    public <T> void applyStyleToSelection(Spannable text, int selStart, int selEnd, SpanFactory<T> factory) {
+        if (selStart != selEnd) {
+            spanRunEngine.applyToRange(text, Math.min(selStart, selEnd), Math.max(selStart, selEnd), factory);
+        }
+
+        //Find word at cursor and set style
+        else if (wordScanner.scan(text, selStart)) {
+            spanRunEngine.applyToRange(text, wordScanner.getWordStart(), wordScanner.getWordEnd(), factory);
+        }
+    }
+
+    /**
+     * Removes a style from the selection, keeping the parts of its runs outside of the selection. At the
+     * cursor, removes the run the cursor is in, and readjusts the span previous to it to be properly formatted.
+     * <p>
+     *  In a styled {@link PieceTableEditable}, the runs of the style are found in its {@link StyleRunTable},
+     *  in O(log n) in the number of runs.
+     * </p>
+     *
+     * @param text  the text to remove the style from
+     * @param start start of selection
+     * @param end   end of selection
+     * @param factory the style to remove. Spans of a subclass of its span class are not removed.
+     */
+    public <T> void removeSpansWithinSelection(Spannable text, int start, int end, SpanFactory<T> factory) {
+        Class<T> c = factory.getSpanClass();
+        PieceTableEditable styled = SpanRunEngine.styledFor(text, factory);
+        if (start != end){
+            spanRunEngine.removeRun(text, Math.min(start, end), Math.max(start, end), factory);
+        }
+
+        else if (styled != null) {
+            removeStretchesAt(styled, start, factory.getType());
+        }
+
+        else {
+            for (Object span : text.getSpans(start, end, c)) {
+                if (span.getClass().equals(c)) {
+                    trimTrailingSpace(text, previousSpan(text, span, c));
+                    text.removeSpan(span);
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes the style of type {@code type} from the stretches of it the cursor is in or next to, and
+     * readjusts the stretch of it previous to each, as {@link #trimTrailingSpace(Spannable, Object)} does
+     */
+    protected void removeStretchesAt(PieceTableEditable text, int cursor, int type) {
+        StyleRunTable styles = text.styles();
+        for (int run = styles.findStyle(type, cursor, cursor); run >= 0; run = styles.findStyle(type, cursor, cursor)) {
+            int stretchStart = styles.getStretchStart(run, type);
+            int stretchEnd = styles.getStretchEnd(run, type);
+            int previous = stretchStart > 0 ? styles.findRun(stretchStart - 1) : -1;
+            while (previous >= 0 && !StyleRunTable.hasStyle(styles.getStyle(previous), type)) {
+                previous--;
+            }
+            int previousStart = previous >= 0 ? styles.getStretchStart(previous, type) : -1;
+            int previousEnd = previous >= 0 ? styles.getRunEnd(previous) : -1;
+            text.removeStyle(stretchStart, stretchEnd, type);
+            if (previousEnd > previousStart + 1 && text.charAt(previousEnd - 1) == SPACE) {
+                text.removeStyle(previousEnd - 1, previousEnd, type);
+            }
+        }
+    }
+
+    /**
+     * Readjusts a span so that it does not include the space between words it ends with, if any
+     */
+    protected void trimTrailingSpace(Spannable text, Object span) {
+        if (span == null) {
+            return;
+        }
+        int spanStart = text.getSpanStart(span);
+        int spanEnd = text.getSpanEnd(span);
+        if (spanEnd > spanStart + 1 && text.charAt(spanEnd - 1) == SPACE) {
+            text.setSpan(span, spanStart, spanEnd - 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+    }
+
+    /**
+     * Finds the span of class {@code c} before {@code span} by looking back through windows of growing
+     * size rather than through every span of the text
+     *
+     * @return the span of class {@code c} ending closest before {@code span} starts, or null
+     */
+    protected Object previousSpan(Spannable text, Object span, Class<?> c) {
+        int spanStart = text.getSpanStart(span);
+        for (int window = PREVIOUS_SPAN_WINDOW, from = spanStart; from > 0; window *= 2) {
+            from = Math.max(0, spanStart - window);
+            Object previous = null;
+            for (Object other : text.getSpans(from, spanStart, c)) {
+                if (other != span && text.getSpanEnd(other) <= spanStart && (previous == null || text.getSpanEnd(other) > text.getSpanEnd(previous))) {
+                    previous = other;
+                }
+            }
+            if (previous != null) {
+                return previous;
+            }
+        }
+        return null;
+    }
+}
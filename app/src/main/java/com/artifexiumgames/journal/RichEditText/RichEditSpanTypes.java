@@ -0,0 +1,96 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.RelativeSizeSpan;
+import android.text.style.StrikethroughSpan;
+import android.text.style.SubscriptSpan;
+import android.text.style.SuperscriptSpan;
+
+import com.artifexiumgames.journal.RichEditText.RichEditText.RichEditBoldSpan;
+import com.artifexiumgames.journal.RichEditText.RichEditText.RichEditItalicSpan;
+import com.artifexiumgames.journal.RichEditText.RichEditText.RichEditUnderlineSpan;
+
+/**
+ * Maps the spans {@link RichEditText} applies to the type ids of {@link RichTextCodec}, and back. The runs of
+ * a {@link StyleRunTable} are drawn by {@link StyleRunSpan}s.
+ * <p>
+ *  Classes are matched exactly, so the spans the platform adds on its own (e.g. the SpellChecker's
+ *  underline, the composing text) are not saved.
+ * </p>
+ */
+public class RichEditSpanTypes implements RichTextCodec.SpanTypes {
+
+    @Override
+    public int typeOf(Object span) {
+        Class<?> c = span.getClass();
+        if (c == RichEditBoldSpan.class) {
+            return RichTextCodec.TYPE_BOLD;
+        } else if (c == RichEditItalicSpan.class) {
+            return RichTextCodec.TYPE_ITALIC;
+        } else if (c == RichEditUnderlineSpan.class) {
+            return RichTextCodec.TYPE_UNDERLINE;
+        } else if (c == StrikethroughSpan.class) {
+            return RichTextCodec.TYPE_STRIKETHROUGH;
+        } else if (c == ForegroundColorSpan.class) {
+            return RichTextCodec.TYPE_FOREGROUND_COLOR;
+        } else if (c == BackgroundColorSpan.class) {
+            return RichTextCodec.TYPE_BACKGROUND_COLOR;
+        } else if (c == SubscriptSpan.class) {
+            return RichTextCodec.TYPE_SUBSCRIPT;
+        } else if (c == SuperscriptSpan.class) {
+            return RichTextCodec.TYPE_SUPERSCRIPT;
+        } else if (c == RelativeSizeSpan.class) {
+            return RichTextCodec.TYPE_RELATIVE_SIZE;
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean hasAttribute(int type) {
+        return type == RichTextCodec.TYPE_FOREGROUND_COLOR || type == RichTextCodec.TYPE_BACKGROUND_COLOR || type == RichTextCodec.TYPE_RELATIVE_SIZE;
+    }
+
+    @Override
+    public int attributeOf(Object span) {
+        if (span instanceof ForegroundColorSpan) {
+            return ((ForegroundColorSpan) span).getForegroundColor();
+        } else if (span instanceof BackgroundColorSpan) {
+            return ((BackgroundColorSpan) span).getBackgroundColor();
+        } else if (span instanceof RelativeSizeSpan) {
+            return Float.floatToIntBits(((RelativeSizeSpan) span).getSizeChange());
+        }
+        return 0;
+    }
+
+    @Override
+    public Object newSpan(int type, int attribute) {
+        switch (type) {
+            case RichTextCodec.TYPE_BOLD:
+                return new RichEditBoldSpan();
+            case RichTextCodec.TYPE_ITALIC:
+                return new RichEditItalicSpan();
+            case RichTextCodec.TYPE_UNDERLINE:
+                return new RichEditUnderlineSpan();
+            case RichTextCodec.TYPE_STRIKETHROUGH:
+                return new StrikethroughSpan();
+            case RichTextCodec.TYPE_FOREGROUND_COLOR:
+                return new ForegroundColorSpan(attribute);
+            case RichTextCodec.TYPE_BACKGROUND_COLOR:
+                return new BackgroundColorSpan(attribute);
+            case RichTextCodec.TYPE_SUBSCRIPT:
+                return new SubscriptSpan();
+            case RichTextCodec.TYPE_SUPERSCRIPT:
+                return new SuperscriptSpan();
+            case RichTextCodec.TYPE_RELATIVE_SIZE:
+                return new RelativeSizeSpan(Float.intBitsToFloat(attribute));
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public StyleRunTable.RunSpan newRunSpan(long style, long colors, Object version, int start, int end) {
+        return new StyleRunSpan(style, colors, version, start, end);
+    }
+}
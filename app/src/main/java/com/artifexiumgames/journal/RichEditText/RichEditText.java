@@ -6,6 +6,7 @@ import android.app.Dialog;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.graphics.Color;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.ColorDrawable;
 import android.support.annotation.NonNull;
@@ -13,12 +14,15 @@ import android.support.v7.app.AlertDialog;
 import android.support.v7.widget.AppCompatEditText;
 import android.text.Editable;
 import android.text.InputType;
-import android.text.ParcelableSpan;
+import android.text.Layout;
+import android.text.NoCopySpan;
+import android.text.Spannable;
 import android.text.SpannableString;
-import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.TextPaint;
 import android.text.TextWatcher;
 import android.text.style.BackgroundColorSpan;
+import android.text.style.CharacterStyle;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.MetricAffectingSpan;
 import android.text.style.RelativeSizeSpan;
@@ -27,12 +31,18 @@ import android.text.style.StyleSpan;
 import android.text.style.SubscriptSpan;
 import android.text.style.SuperscriptSpan;
 import android.text.style.UnderlineSpan;
+import android.text.style.UpdateAppearance;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
 import android.view.WindowManager;
-import android.widget.ArrayAdapter;
+import android.view.inputmethod.EditorInfo;
+import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputConnectionWrapper;
+import android.widget.BaseAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.LinearLayout;
@@ -41,14 +51,13 @@ import android.widget.ToggleButton;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.List;
 
 import static android.R.id.text1;
 
 //TODO left, right, center align buttons
-//TODO search text function
 //TODO font family
 //TODO font size
 
@@ -63,6 +72,11 @@ import static android.R.id.text1;
  *  <ul>
  *      <li>Automatic button functionality: reference buttons to the editor with setAllButtons()</li>
  *      <li>Selection changes can now be listened for with {@link OnSelectionChangeListener}</li>
+ *      <li>Undo and redo of text and styles: see {@link #undo()}</li>
+ *      <li>Find and replace that keeps up with huge entries: see {@link #find(CharSequence)}</li>
+ *      <li>Latency, span and frame metrics of the hot paths: see {@link #getMetrics()}</li>
+ *      <li>Live word, sentence and paragraph counts, kept from the edits alone: see {@link #getStatistics()}</li>
+ *      <li>The styles kept as a table of runs, and cleared in one pass: see {@link #getStyleRuns()}</li>
  *  </ul>
  * </p>
  * <p>
@@ -94,8 +108,16 @@ import static android.R.id.text1;
  */
 public class RichEditText extends AppCompatEditText implements TextWatcher, View.OnClickListener, DialogInterface.OnClickListener{
 
-    protected final String TAG = "RichEditText";
+    protected static final String TAG = "RichEditText";
     protected final String spaceCharacter = " ";
+    /**
+     * The most matches highlighted at once, more than a screen can show
+     */
+    protected static final int MAX_FIND_HIGHLIGHTS = 500;
+    /**
+     * Static, as the super constructor already changes the selection
+     */
+    protected static final EditorMetrics METRICS = EditorMetrics.getInstance();
     protected OnSelectionChangeListener onSelectionChangeListener;
     protected ToggleButton boldButton;
     protected ToggleButton italicButton;
@@ -111,14 +133,69 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
     protected View highlightColorButton;
     protected ColorDrawable currentTextColor;
     protected ColorDrawable currentTextHighlightColor;
+    protected SpanFactories.ColorSpanFactory<ForegroundColorSpan> textColorFactory;
+    protected SpanFactories.ColorSpanFactory<BackgroundColorSpan> highlightColorFactory;
     //Color Dialog Related
-    protected ArrayList<ColorString> colorList;
+    protected BaseAdapter colorAdapter;
+    /**
+     * The colors the color chooser dialog shows, most recently used first, see {@link ColorPalette}
+     */
+    protected ColorString[] shownColors;
     protected AlertDialog mainColorChooserDialog;
     protected AlertDialog customColorChooserDialog;
     protected EditText colorTitle;
     protected EditText colorHex;
     protected boolean changingTextColor;
 
+    //Span Runs
+    protected final RichTextCodec.SpanTypes spanTypes = new RichEditSpanTypes();
+    protected final SpanRunEngine spanRunEngine = new SpanRunEngine();
+    protected final InputStyler inputStyler = new InputStyler(spanRunEngine,
+            SpanFactories.BOLD, SpanFactories.ITALIC, SpanFactories.UNDERLINE, SpanFactories.STRIKETHROUGH);
+    protected RichEditOperations operations;
+    protected final IndentEngine indentEngine = new IndentEngine();
+    protected boolean indenting;
+
+    //Find
+    protected final FindEngine findEngine = new FindEngine();
+    protected final ArrayList<FindHighlightSpan> findHighlights = new ArrayList<>();
+    protected int findHighlightCount;
+    protected int findHighlightColor = 0x80FFEB3B;
+    protected int currentFindHighlightColor = 0xFFFF9800;
+    protected OnFindListener onFindListener;
+    protected OnEditableChangeListener onEditableChangeListener;
+    protected OnDeleteAtEdgeListener onDeleteAtEdgeListener;
+    protected boolean replacing;
+    private final Rect visibleRect = new Rect();
+
+    //Undo
+    protected final UndoHistory undoHistory = new UndoHistory(spanTypes);
+    protected boolean undoing;
+
+    //Statistics
+    protected final DocumentStatistics statistics = new DocumentStatistics();
+    private final Runnable findStep = new Runnable() {
+        @Override
+        public void run() {
+            boolean complete = findEngine.scan(getText(), FindEngine.SCAN_SLICE);
+            updateFindHighlights();
+            if (onFindListener != null) {
+                onFindListener.onFindProgress(findEngine.getMatchCount(), getCurrentMatch(), complete);
+            }
+            if (!complete) {
+                post(this);
+            }
+        }
+    };
+    private final ViewTreeObserver.OnScrollChangedListener findScrollListener = new ViewTreeObserver.OnScrollChangedListener() {
+        @Override
+        public void onScrollChanged() {
+            if (findEngine.getQueryLength() > 0) {
+                updateFindHighlights();
+            }
+        }
+    };
+
     //Settings
     protected float relativeSize;
     protected int numTabs;
@@ -152,34 +229,52 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
      * <ul>
      *     <li>Relative Size (subscript/superscript)</li>
      *     <li>Number of Spaces in a tab</li>
-     *     <li>The colors you can choose from in the text color or highlight color dialog</li>
+     *     <li>The starting text and highlight colors</li>
      * </ul>
+     * Only what the first frame needs is made here: the colors to choose from are in the shared
+     * {@link ColorPalette}, and the color chooser dialogs are made the first time they are shown.
      */
     protected void init() {
         addTextChangedListener(this);
+        initStyles();
         setRelativeSize(0.5f);
         setNumTabs(4);
         setHighlightAlpha(168);
-        colorList = new ArrayList<>();
-        try {
-            colorList.add(new ColorString("Black", "#000000"));
-            colorList.add(new ColorString("White", "#FFFFFF"));
-            colorList.add(new ColorString("Green", "#008000"));
-            colorList.add(new ColorString("Blue", "#0000FF"));
-            colorList.add(new ColorString("Purple", "#800080"));
-            colorList.add(new ColorString("Red", "#FF0000"));
-            colorList.add(new ColorString("Orange", "#FFA500"));
-            colorList.add(new ColorString("Yellow", "#FFFF00"));
-            colorList.add(new ColorString("Hot Pink", "#FF69B4"));
-            colorList.add(new ColorString("Light Blue", "#00FFF9"));
-            colorList.add(new ColorString("Brown", "#A52A2A"));
-        } catch (IOException ex){
-            Log.wtf(TAG, "Default Settings for ColorString incorrect");
-        }
         setCurrentTextColor(new ColorDrawable(Color.BLACK));
         setCurrentTextHighlightColor(new ColorDrawable(Color.WHITE));
-        createMainColorChooserDialog();
-        createCustomColorChooserDialog();
+    }
+
+    /**
+     * @return the colors the {@link ColorPalette} of the app starts with, parsed once. The list cannot be
+     * changed.
+     */
+    public static List<ColorString> getDefaultColors() {
+        return DefaultColors.LIST;
+    }
+
+    /**
+     * Makes sure every {@link Editable} this editor is given (e.g. through {@link #setText(CharSequence)})
+     * keeps its styles as a {@link StyleRunTable}, which the buttons read on selection changes and edit.
+     * <p>
+     *  The Editables are styled {@link PieceTableEditable}s, which keep edits anywhere in a long entry cheap.
+     * </p>
+     */
+    protected void initStyles() {
+        operations = new RichEditOperations(spanRunEngine);
+        final PieceTableEditable.Factory factory = PieceTableEditable.factory(spanTypes);
+        setEditableFactory(new Editable.Factory() {
+            @Override
+            public Editable newEditable(CharSequence source) {
+                Editable editable = factory.newEditable(source);
+                if (onEditableChangeListener != null) {
+                    onEditableChangeListener.onEditableChanged(editable);
+                }
+                return editable;
+            }
+        });
+        if (getText() != null) {
+            statistics.reset(getText()); //the text set before this editor listened to it
+        }
     }
 
     /**
@@ -206,6 +301,49 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
         //TODO set font family
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnScrollChangedListener(findScrollListener);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnScrollChangedListener(findScrollListener);
+        removeCallbacks(findStep);
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Loads {@code text} with its own styles: the styles turned on are not applied to it
+     */
+    @Override
+    public void setText(CharSequence text, BufferType type) {
+        if (inputStyler == null) { //set by the super constructor, before this editor listens to its text
+            super.setText(text, type);
+            return;
+        }
+        inputStyler.beginLoad();
+        try {
+            super.setText(text, type);
+        } finally {
+            inputStyler.endLoad();
+        }
+    }
+
+    /**
+     * Inserts {@code text} at {@code where}, loaded with its own styles as by
+     * {@link #setText(CharSequence, BufferType)}, without laying out the rest of the editor again
+     */
+    public void load(int where, CharSequence text) {
+        inputStyler.beginLoad();
+        try {
+            getText().insert(where, text);
+        } finally {
+            inputStyler.endLoad();
+        }
+    }
+
     @Override
     protected void onSelectionChanged(int selStart, int selEnd) {
         super.onSelectionChanged(selStart, selEnd);
@@ -229,105 +367,159 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
      * @param selStart start of selection
      * @param selEnd   end of selection
      * @see #onSelectionChanged(int, int)
+     * @see StyleRunTable#findStyle(int, int, int)
      */
     public void updateTextStylesOnSelectionChange(int selStart, int selEnd){
-        if (onSelectionChangeListener != null) {
-            onSelectionChangeListener.onSelectionChange(selStart, selEnd);
-        }
-
-        boolean isSelectionBold = false;
-        boolean isSelectionItalic = false;
-        boolean isSelectionUnderlined = false;
-        boolean isSelectionStriked = false;
+        long started = METRICS.begin(EditorMetrics.SELECTION_CHANGED);
         try {
-            for (ParcelableSpan span : getText().getSpans(selStart, selEnd, ParcelableSpan.class)) {
-                if (span instanceof RichEditBoldSpan) {
-                    isSelectionBold = true;
-                } else if (span instanceof RichEditItalicSpan) {
-                    isSelectionItalic = true;
-                } else if (span instanceof RichEditUnderlineSpan) {
-                    isSelectionUnderlined = true;
-                } else if (span instanceof StrikethroughSpan) {
-                    isSelectionStriked = true;
-                } else if (span instanceof ForegroundColorSpan) {
-                    setCurrentTextColor(new ColorDrawable(((ForegroundColorSpan) span).getForegroundColor()));
-                } else if (span instanceof BackgroundColorSpan) {
-                    setCurrentTextHighlightColor(new ColorDrawable(((BackgroundColorSpan) span).getBackgroundColor()));
-                } else {
-                    throw new UnknownParcelableSpanException("Unknown ParcelableSpan when updating text styles on selection change");
-                }
-
+            if (onSelectionChangeListener != null) {
+                onSelectionChangeListener.onSelectionChange(selStart, selEnd);
+            }
+            //Selection changes are made by the super constructor, before init() made the text styled
+            PieceTableEditable styled = PieceTableEditable.asStyled(getText());
+            if (styled == null || selStart < 0) {
+                return;
+            }
+            StyleRunTable styles = styled.styles();
+            int start = Math.min(selStart, selEnd);
+            int end = Math.max(selStart, selEnd);
+
+            boolean isSelectionBold = styles.findStyle(RichTextCodec.TYPE_BOLD, start, end) >= 0;
+            boolean isSelectionItalic = styles.findStyle(RichTextCodec.TYPE_ITALIC, start, end) >= 0;
+            boolean isSelectionUnderlined = styles.findStyle(RichTextCodec.TYPE_UNDERLINE, start, end) >= 0;
+            boolean isSelectionStriked = styles.findStyle(RichTextCodec.TYPE_STRIKETHROUGH, start, end) >= 0;
+
+            //The current colors are updated in place, to not allocate on every cursor move
+            int textColor = styles.findStyle(RichTextCodec.TYPE_FOREGROUND_COLOR, start, end);
+            if (textColor >= 0 && currentTextColor != null) {
+                currentTextColor.setColor(StyleRunTable.foregroundOf(styles.getColors(textColor)));
+            }
+            int highlightColor = styles.findStyle(RichTextCodec.TYPE_BACKGROUND_COLOR, start, end);
+            if (highlightColor >= 0 && currentTextHighlightColor != null) {
+                currentTextHighlightColor.setColor(StyleRunTable.backgroundOf(styles.getColors(highlightColor)));
             }
-        } catch (UnknownParcelableSpanException e){
-            Log.e(TAG, "Was a new span type introduced and not accounted for?", e);
-        }
 
-        if (boldButton != null) {
-            boldButton.setChecked(isSelectionBold);
-        }
-        if (italicButton != null) {
-            italicButton.setChecked(isSelectionItalic);
-        }
-        if (underlineButton != null) {
-            underlineButton.setChecked(isSelectionUnderlined);
-        }
-        if (strikeThroughButton != null) {
-            strikeThroughButton.setChecked(isSelectionStriked);
+            if (boldButton != null) {
+                boldButton.setChecked(isSelectionBold);
+            }
+            if (italicButton != null) {
+                italicButton.setChecked(isSelectionItalic);
+            }
+            if (underlineButton != null) {
+                underlineButton.setChecked(isSelectionUnderlined);
+            }
+            if (strikeThroughButton != null) {
+                strikeThroughButton.setChecked(isSelectionStriked);
+            }
+        } finally {
+            METRICS.end(EditorMetrics.SELECTION_CHANGED, started, spanCountFor(started));
         }
     }
 
     /**
-     *@see TextWatcher
+     * Records the edit in the undo history, unless it is made by an undo or redo, and takes what it
+     * replaces off the statistics
+     *
+     * @see UndoHistory
+     * @see DocumentStatistics
+     * @see TextWatcher
      */
     @Override
     public void beforeTextChanged(CharSequence s, int start, int count, int after) {
-        //Necessary to implement TextWatcher
+        statistics.beforeTextChanged(s, start, count, after);
+        if (!undoing) {
+            undoHistory.beforeTextChanged(s, start, count, after);
+        }
     }
 
     /**
      * Applies styles to the text upon being input by checking if the corresponding style button is checked.
+     * <p>
+     *  The input joins the style runs next to it rather than receiving spans of its own, so typing
+     *  only looks at the spans around the input and does not add a span per keystroke. A text being
+     *  loaded by {@link #setText(CharSequence, BufferType)} keeps the styles it has.
+     * </p>
      *
      * @param s      The text that has been changed (This editor's text with the recent added input)
      * @param start  Where the input change starts within s
      * @param before length of the text that has been replaced (if nothing was selected, then this is 0)
      * @param count  length of the new text being input (if not copy pasting, then 1)
+     * @see InputStyler
      */
     @Override
     public void onTextChanged(CharSequence s, int start, int before, int count) {
-        SpannableStringBuilder text = (SpannableStringBuilder) s;
-        StyleSpan[] spans = text.getSpans(0, s.length(), StyleSpan.class);
-        for (StyleSpan span: spans){
-            getText().removeSpan(span);
-        }
-        if (boldButton != null && boldButton.isChecked()) {
-            getText().setSpan(new RichEditBoldSpan(), start, start + count, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-        }
-        if (italicButton != null && italicButton.isChecked()) {
-            getText().setSpan(new RichEditItalicSpan(), start, start + count, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-        }
-        if (underlineButton != null && underlineButton.isChecked()) {
-            getText().setSpan(new RichEditUnderlineSpan(), start, start + count, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-        }
-        if (strikeThroughButton != null && strikeThroughButton.isChecked()) {
-            getText().setSpan(new StrikethroughSpan(), start, start + count, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        long started = METRICS.begin(EditorMetrics.TEXT_CHANGED);
+        try {
+            statistics.onTextChanged(s, start, before, count);
+            if (findEngine.getQueryLength() > 0) {
+                findEngine.onTextChanged(s, start, before, count);
+                scheduleFindStep();
+            }
+            if (!undoing) {
+                undoHistory.onTextChanged(s, start, before, count);
+            }
+            if (indenting || replacing || undoing) { //tabs, replacements and undos are not styled
+                return;
+            }
+            int styles = (boldButton != null && boldButton.isChecked() ? InputStyler.STYLE_BOLD : 0)
+                    | (italicButton != null && italicButton.isChecked() ? InputStyler.STYLE_ITALIC : 0)
+                    | (underlineButton != null && underlineButton.isChecked() ? InputStyler.STYLE_UNDERLINE : 0)
+                    | (strikeThroughButton != null && strikeThroughButton.isChecked() ? InputStyler.STYLE_STRIKETHROUGH : 0);
+            //On loading the editor, the colors will be null
+            boolean highlight = true;
+            if (currentTextHighlightColor != null && getBackground() instanceof ColorDrawable) {
+                //only highlight if the editor background color is != to the text's background color
+                highlight = ((ColorDrawable) getBackground()).getColor() != currentTextHighlightColor.getColor();
+            } //if the background color isn't a color, then it must be an image or something, so go ahead and set the background color
+            inputStyler.onTextChanged(s, start, before, count, styles,
+                    currentTextColor != null ? getTextColorFactory() : null,
+                    currentTextHighlightColor != null ? getHighlightColorFactory() : null, highlight);
+        } finally {
+            METRICS.end(EditorMetrics.TEXT_CHANGED, started, spanCountFor(started));
         }
+    }
+
+    /**
+     * @return the style runs of the text, for the metrics of an operation, or -1 if it is not recorded
+     */
+    protected int spanCountFor(long started) {
+        PieceTableEditable styled = started == 0 ? null : PieceTableEditable.asStyled(getText());
+        return styled == null ? -1 : styled.styles().getRunCount();
+    }
+
+    /**
+     * @return the counts of the characters, words, sentences and paragraphs of the text, and its reading
+     * time, kept up to date with every edit
+     */
+    public DocumentStatistics getStatistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the metrics of the hot paths of the editors, off until enabled
+     */
+    public static EditorMetrics getMetrics() {
+        return METRICS;
+    }
 
-        //text color
-        if (currentTextColor != null) { //On loading the editor, the color will be null
-            getText().setSpan(new ForegroundColorSpan(currentTextColor.getColor()), start, start + count, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+    /**
+     * @return the factory for the current text color, only made anew when the color has changed
+     */
+    protected SpanFactories.ColorSpanFactory<ForegroundColorSpan> getTextColorFactory() {
+        if (textColorFactory == null || textColorFactory.getColor() != currentTextColor.getColor()) {
+            textColorFactory = SpanFactories.foregroundColor(currentTextColor.getColor());
         }
+        return textColorFactory;
+    }
 
-        //text highlight color
-        if (currentTextHighlightColor != null) { //On loading the edtior, the color will be null
-            if (getBackground() instanceof ColorDrawable) { //if the background of the editor is a color, then
-                if (((ColorDrawable) getBackground()).getColor() != currentTextHighlightColor.getColor()) { //check if the editor background color is != to the text's background color
-                    getText().setSpan(new BackgroundColorSpan(currentTextHighlightColor.getColor()), start, start + count, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //if so, then okay to color
-                }
-            }
-            else { //if the background color isn't a color, then it must be an image or something, so go ahead and set the background color
-                getText().setSpan(new BackgroundColorSpan(currentTextHighlightColor.getColor()), start, start + count, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            }
+    /**
+     * @return the factory for the current highlight color, only made anew when the color has changed
+     */
+    protected SpanFactories.ColorSpanFactory<BackgroundColorSpan> getHighlightColorFactory() {
+        if (highlightColorFactory == null || highlightColorFactory.getColor() != currentTextHighlightColor.getColor()) {
+            highlightColorFactory = SpanFactories.backgroundColor(currentTextHighlightColor.getColor());
         }
+        return highlightColorFactory;
     }
 
     /**
@@ -346,12 +538,12 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
         if (dialog.equals(mainColorChooserDialog)){
             switch (which){
                 case Dialog.BUTTON_NEUTRAL:
-                    customColorChooserDialog.show();
+                    getCustomColorChooserDialog().show();
                     dialog.dismiss();
                     break;
                 default: //which == index of the item cilcked in the list
-                    ColorString color = colorList.remove(which);
-                    colorList.add(0, color);
+                    ColorString color = shownColors[which];
+                    getColorPalette().use(color);
                     if (changingTextColor){
                         setCurrentTextColor(new ColorDrawable(color.getHex()));
                     }
@@ -368,12 +560,7 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
                 case Dialog.BUTTON_POSITIVE:
                     try {
                         ColorString newColor = new ColorString(colorTitle.getText().toString(), colorHex.getText().toString());
-                        if (!colorList.contains(newColor)) {
-                            colorList.add(0, newColor);
-                        }else {
-                            colorList.remove(newColor);
-                            colorList.add(0, newColor);
-                        }
+                        getColorPalette().use(newColor);
                         if (changingTextColor){
                             setCurrentTextColor(new ColorDrawable(newColor.getHex()));
                         }
@@ -433,60 +620,29 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
         }
     }
 
-    protected void updateTextStylesOnButtonPress(ToggleButton button, Class c) throws Exception {
-        int selStart = this.getSelectionStart();
-        int selEnd = this.getSelectionEnd();
-        Editable text = getText();
-        if (button.isChecked()) {
-            if (selStart != selEnd) {
-                String[] words = text.subSequence(selStart, selEnd).toString().split(" ");
-                int i = 0;
-                for (String word : words) {
-                        text.setSpan(c.newInstance(), selStart + i, selStart + i + word.length() + 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    i += word.length() + 1;
+    /**
+     * Applies the style of {@code c} to the selection if the button is checked, or removes it otherwise
+     *
+     * @param button the button of the style
+     * @param c      the class of the span of the style
+     * @see RichEditOperations#applyStyleToSelection(Spannable, int, int, SpanFactory)
+     */
+    protected void updateTextStylesOnButtonPress(ToggleButton button, Class<?> c) {
+        long started = METRICS.begin(EditorMetrics.BUTTON_PRESS);
+        try {
+            undoHistory.beginStyleEdit(getText(), getSelectionStart(), getSelectionEnd());
+            try {
+                if (button.isChecked()) {
+                    operations.applyStyleToSelection(getText(), getSelectionStart(), getSelectionEnd(), SpanFactories.forClass(c));
                 }
-            }
-
-            //Find word at cursor and set bold style
-            else {
-                boolean startFound = false;
-                boolean endFound = false;
-                int wordStart = -1;
-                int wordEnd = -1;
-                int i = 0;
-                try {
-                    while (!startFound) {
-                        if (text.charAt(selStart - i) != ' ') {
-                            i += 1;
-                        } else {
-                            wordStart = selStart - i;
-                            startFound = true;
-                        }
-                    }
-                } catch (IndexOutOfBoundsException e) {
-                    Log.d(TAG, "word search reached zero while updating text style");
-                    wordStart = -1; //-1 because algorithm adds 1 at end to compensate for spaces
+                else if (!button.isChecked()) {
+                    removeSpansWithinSelection(c);
                 }
-
-                try {
-                    i = 0;
-                    while (!endFound) {
-                        if (text.charAt(selStart + i) != ' ') {
-                            i += 1;
-                        } else {
-                            wordEnd = selStart + i;
-                            endFound = true;
-                        }
-                    }
-                } catch (IndexOutOfBoundsException e){
-                    Log.d(TAG, "word search reached end of text while updating text style");
-                    wordEnd = getText().length();
-                }
-                    text.setSpan(c.newInstance(), wordStart+1, wordEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            } finally {
+                undoHistory.endStyleEdit(getText());
             }
-        }
-        else if (!button.isChecked()) {
-            removeSpansWithinSelection(c);
+        } finally {
+            METRICS.end(EditorMetrics.BUTTON_PRESS, started, spanCountFor(started));
         }
     }
 
@@ -498,35 +654,10 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
      *                therefore, they are found by comparing their class to the class passed by this method
      *
      * @see #updateTextStylesOnButtonPress(ToggleButton, Class)
+     * @see RichEditOperations#removeSpansWithinSelection(Spannable, int, int, SpanFactory)
      */
-    protected void removeSpansWithinSelection(Class c) {
-        int start = getSelectionStart();
-        int end = getSelectionEnd();
-        if (start != end){
-            for (Object span : this.getText().getSpans(start, end, c)) {
-                if (span.getClass().equals(c)) {
-                    this.getText().removeSpan(span);
-                }
-            }
-        }
-
-        else {
-            List<Object> spanList = Arrays.asList(getText().getSpans(0, getText().length(), c));
-            for (Object span: getText().getSpans(start, end, c)) {
-                if (span.getClass().equals(c)) {
-                    int index = spanList.indexOf(span); //Grabs index of span at cursor
-                    if (index > 0) {                    //Check if span is first span of this type, if so readjust previous span so that span does not include space between words
-                        Object previous = spanList.get(index - 1); //Gets previous span
-                        int previousStart = getText().getSpanStart(previous); //previous span start
-                        int previousEnd = getText().getSpanEnd(previous);       //previous span end
-                        if (getText().charAt(previousEnd - 1) == ' ')               //Check to see if the first character in the previous span is a space
-                            getText().setSpan(previous, previousStart, previousEnd - 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //set span end to be 1 less
-
-                    }
-                    this.getText().removeSpan(span);
-                }
-            }
-        }
+    protected void removeSpansWithinSelection(Class<?> c) {
+        operations.removeSpansWithinSelection(getText(), getSelectionStart(), getSelectionEnd(), SpanFactories.forClass(c));
     }
 
     /**
@@ -641,8 +772,13 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
         selectionStartBeforeFocusChange = getSelectionStart();
         selectionEndBeforeFocusChange = getSelectionEnd();
         changingTextColor = true;
-        mainColorChooserDialog.setTitle("Text Color");
-        mainColorChooserDialog.show();
+        AlertDialog dialog = getMainColorChooserDialog();
+        if (dialog != null) {
+            shownColors = getColorPalette().getMostRecentFirst();
+            colorAdapter.notifyDataSetChanged();
+            dialog.setTitle("Text Color");
+            dialog.show();
+        }
         //application of style handled in setCurrentTextColor(ColorDrawable color)
     }
 
@@ -651,54 +787,335 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
         selectionStartBeforeFocusChange = getSelectionStart();
         selectionEndBeforeFocusChange = getSelectionEnd();
         changingTextColor = false;
-        mainColorChooserDialog.setTitle("Highlight Color");
-        mainColorChooserDialog.show();
+        AlertDialog dialog = getMainColorChooserDialog();
+        if (dialog != null) {
+            shownColors = getColorPalette().getMostRecentFirst();
+            colorAdapter.notifyDataSetChanged();
+            dialog.setTitle("Highlight Color");
+            dialog.show();
+        }
         //application of style handled in setCurrentHighlightColor(ColorDrawable color)
     }
 
     /**
      * Indents the text by adding spaces. The number of spaces is determined by {@code numTabs}
+     * <br>
+     * Every line of the selection is indented, or a tab is inserted at the cursor if nothing is selected.
+     * The text is edited in place within a batch edit, so its spans are kept and it is laid out once.
+     * @see IndentEngine#indent(Editable, int, int, int)
      */
     public void indentAction(){
-        int selectionStart = getSelectionStart();
-        int selectionEnd = getSelectionEnd();
-        String tabs = "";
-        for (int i = 0; i < numTabs; i++) {
-            tabs += spaceCharacter;
-        }
-        Editable newText = getText().insert(getSelectionStart(), tabs);
-        setText(newText);
-        if (selectionStart != selectionEnd) {
-            setSelection(selectionStart + numTabs, selectionEnd + numTabs);
-        }
-        else{
-            setSelection(selectionStart + numTabs);
+        long started = METRICS.begin(EditorMetrics.INDENT);
+        try {
+            beginBatchEdit();
+            undoHistory.beginGroup();
+            indenting = true;
+            try {
+                indentEngine.indent(getText(), getSelectionStart(), getSelectionEnd(), numTabs);
+            } finally {
+                indenting = false;
+                undoHistory.endGroup();
+                endBatchEdit();
+            }
+        } finally {
+            METRICS.end(EditorMetrics.INDENT, started, spanCountFor(started));
         }
     }
 
     /**
      * UnIndents the text by removing spaces. The number of spaces is determined by {@code numTabs}
+     * <br>
+     * Every line of the selection is unindented, or the tab in front of the cursor is removed if nothing is selected.
+     * @see IndentEngine#unindent(Editable, int, int, int)
      */
     public void unindentAction() {
-        int selectionStart = getSelectionStart();
-        int selectionEnd = getSelectionEnd();
-        if (selectionStart >= numTabs) {
-            String tabCharacter = "";
-            for (int i = 0; i < numTabs; i++){
-                tabCharacter += spaceCharacter;
+        long started = METRICS.begin(EditorMetrics.INDENT);
+        try {
+            beginBatchEdit();
+            undoHistory.beginGroup();
+            indenting = true;
+            try {
+                indentEngine.unindent(getText(), getSelectionStart(), getSelectionEnd(), numTabs);
+            } finally {
+                indenting = false;
+                undoHistory.endGroup();
+                endBatchEdit();
             }
-            CharSequence oldText = getText().subSequence(selectionStart - numTabs, selectionStart);
-            if (oldText.toString().equals(tabCharacter)){
-                Editable newText = getText().delete(selectionStart - numTabs, selectionStart);
-                setText(newText);
-                if (selectionStart != selectionEnd) {
-                    setSelection(selectionStart - numTabs, selectionEnd - numTabs);
-                } else {
-                    setSelection(selectionStart - numTabs);
+        } finally {
+            METRICS.end(EditorMetrics.INDENT, started, spanCountFor(started));
+        }
+    }
+
+    /**
+     * Removes every style from the selection, or from the whole text if nothing is selected, as one
+     * pass over the {@link StyleRunTable} of the text.
+     * @see PieceTableEditable#clearStyles(int, int)
+     */
+    public void clearFormattingAction() {
+        long started = METRICS.begin(EditorMetrics.BUTTON_PRESS);
+        try {
+            PieceTableEditable text = PieceTableEditable.asStyled(getText());
+            if (text == null) {
+                return;
+            }
+            int start = Math.min(getSelectionStart(), getSelectionEnd());
+            int end = Math.max(getSelectionStart(), getSelectionEnd());
+            if (start == end) {
+                start = 0;
+                end = text.length();
+            }
+            undoHistory.beginStyleEdit(text, start, end);
+            try {
+                text.clearStyles(start, end);
+            } finally {
+                undoHistory.endStyleEdit(text);
+            }
+            updateTextStylesOnSelectionChange(getSelectionStart(), getSelectionEnd());
+        } finally {
+            METRICS.end(EditorMetrics.BUTTON_PRESS, started, spanCountFor(started));
+        }
+    }
+
+    /**
+     * @return a copy of the styles of the whole text, packed as runs: changing it does not change the text
+     * until it is set back with {@link PieceTableEditable#setStyles(int, StyleRunTable)}
+     */
+    public StyleRunTable getStyleRuns() {
+        PieceTableEditable text = PieceTableEditable.asStyled(getText());
+        return text != null ? text.getStyleRuns() : StyleRunTable.fromSpans(getText(), 0, getText().length(), spanTypes);
+    }
+
+    /**
+     * Undoes the last edit of the text or of its styles. Keystrokes typed in a row are undone together, as
+     * are the lines of an indent.
+     *
+     * @return false if there was nothing to undo
+     * @see UndoHistory
+     */
+    public boolean undo() {
+        return moveInHistory(true);
+    }
+
+    /**
+     * Redoes the last edit undone
+     *
+     * @return false if there was nothing to redo
+     */
+    public boolean redo() {
+        return moveInHistory(false);
+    }
+
+    public boolean canUndo() {
+        return undoHistory.canUndo();
+    }
+
+    public boolean canRedo() {
+        return undoHistory.canRedo();
+    }
+
+    /**
+     * Forgets the undo history, e.g. after a saved entry has been loaded into the editor
+     */
+    public void clearHistory() {
+        undoHistory.clear();
+    }
+
+    /**
+     * Sets the memory the undo history may use, the oldest edits being forgotten first
+     * @param maxBytes defaults to {@link UndoHistory#DEFAULT_MAX_BYTES}
+     */
+    public void setMaxHistoryBytes(int maxBytes) {
+        undoHistory.setMaxBytes(maxBytes);
+    }
+
+    protected boolean moveInHistory(boolean back) {
+        int cursor;
+        beginBatchEdit();
+        undoing = true;
+        try {
+            cursor = back ? undoHistory.undo(getText()) : undoHistory.redo(getText());
+        } finally {
+            undoing = false;
+            endBatchEdit();
+        }
+        if (cursor < 0) {
+            return false;
+        }
+        setSelection(Math.min(cursor, getText().length()));
+        return true;
+    }
+
+    /**
+     * Finds {@code query} in the text, ignoring case, and highlights the matches in view.
+     * <p>
+     *  The text is searched in slices posted to the main thread, so a huge entry is searched without
+     *  blocking it; the {@link OnFindListener} is told of the matches as they are found. Extending the
+     *  query, as typing it does, only checks the matches already found again. Only the matches inside
+     *  the visible part of the editor are given a highlight span, so the number of spans does not grow
+     *  with the number of matches.
+     * </p>
+     *
+     * @param query the text to find. An empty query clears the highlights.
+     * @see FindEngine
+     * @see #findNext()
+     * @see #replaceAll(CharSequence)
+     */
+    public void find(CharSequence query) {
+        findEngine.setQuery(getText(), query);
+        scheduleFindStep();
+    }
+
+    /**
+     * Selects the next match after the selection, going back to the first at the end of the text
+     *
+     * @return false if there is no match
+     */
+    public boolean findNext() {
+        Editable text = getText();
+        int position = getSelectionEnd() > getSelectionStart() ? getSelectionStart() + 1 : getSelectionStart();
+        int index = findEngine.indexOfMatch(position);
+        while (index == findEngine.getMatchCount() && !findEngine.scan(text, FindEngine.SCAN_SLICE)) {
+            index = findEngine.indexOfMatch(position);
+        }
+        if (index == findEngine.getMatchCount()) {
+            index = 0;
+        }
+        return selectMatch(index);
+    }
+
+    /**
+     * Selects the match before the selection, going on to the last at the start of the text
+     *
+     * @return false if there is no match
+     */
+    public boolean findPrevious() {
+        int index = findEngine.indexOfMatch(getSelectionStart()) - 1;
+        if (index < 0) {
+            findEngine.scan(getText(), Integer.MAX_VALUE);
+            index = findEngine.getMatchCount() - 1;
+        }
+        return selectMatch(index);
+    }
+
+    /**
+     * Replaces every match of the query with {@code replacement} in a single edit, keeping the styles of
+     * the text. The replacement is not styled by the checked style buttons, it takes the styles of the
+     * matches it replaces.
+     *
+     * @param replacement the text to replace every match with
+     * @return the number of matches replaced
+     * @see FindEngine#replaceAll(Editable, CharSequence)
+     */
+    public int replaceAll(CharSequence replacement) {
+        clearFindHighlights();
+        beginBatchEdit();
+        replacing = true;
+        try {
+            return findEngine.replaceAll(getText(), replacement);
+        } finally {
+            replacing = false;
+            endBatchEdit();
+        }
+    }
+
+    /**
+     * Stops finding, and removes the highlights of the matches
+     */
+    public void endFind() {
+        removeCallbacks(findStep);
+        findEngine.clear();
+        clearFindHighlights();
+    }
+
+    /**
+     * @return the index of the match that is selected, or -1 if the selection is not a match
+     */
+    public int getCurrentMatch() {
+        int start = getSelectionStart();
+        int index = findEngine.indexOfMatch(start);
+        if (index < findEngine.getMatchCount() && findEngine.getMatch(index) == start
+                && getSelectionEnd() == start + findEngine.getQueryLength()) {
+            return index;
+        }
+        return -1;
+    }
+
+    /**
+     * Sets the listener told of the matches as they are found
+     */
+    public void setOnFindListener(OnFindListener onFindListener) {
+        this.onFindListener = onFindListener;
+    }
+
+    protected boolean selectMatch(int index) {
+        if (index < 0 || index >= findEngine.getMatchCount()) {
+            return false;
+        }
+        int start = findEngine.getMatch(index);
+        setSelection(start, start + findEngine.getQueryLength());
+        bringPointIntoView(start);
+        scheduleFindStep();
+        return true;
+    }
+
+    /**
+     * Goes on with the search, and updates the highlights, once the current event has been handled
+     */
+    protected void scheduleFindStep() {
+        removeCallbacks(findStep);
+        post(findStep);
+    }
+
+    /**
+     * Highlights the matches found that are within the visible part of the editor, which may be scrolled
+     * by itself or by a parent, and removes the other highlights. The spans are reused, and only set
+     * again when their match or color changed.
+     */
+    protected void updateFindHighlights() {
+        Editable text = getText();
+        Layout layout = getLayout();
+        int length = findEngine.getQueryLength();
+        int used = 0;
+        boolean recolored = false;
+        if (text != null && layout != null && length > 0 && getLocalVisibleRect(visibleRect)) {
+            int offset = getScrollY() - getExtendedPaddingTop();
+            int visibleStart = layout.getLineStart(layout.getLineForVertical(Math.max(0, visibleRect.top + offset)));
+            int visibleEnd = layout.getLineEnd(layout.getLineForVertical(Math.max(0, visibleRect.bottom + offset)));
+            int current = getCurrentMatch();
+            for (int i = findEngine.indexOfMatch(visibleStart - length + 1); i < findEngine.getMatchCount() && used < MAX_FIND_HIGHLIGHTS; i++) {
+                int start = findEngine.getMatch(i);
+                if (start >= visibleEnd) {
+                    break;
+                }
+                if (used == findHighlights.size()) {
+                    findHighlights.add(new FindHighlightSpan());
+                }
+                FindHighlightSpan span = findHighlights.get(used++);
+                int color = i == current ? currentFindHighlightColor : findHighlightColor;
+                if (span.getColor() != color) {
+                    span.setColor(color);
+                    recolored = true;
+                }
+                if (text.getSpanStart(span) != start || text.getSpanEnd(span) != start + length) {
+                    text.setSpan(span, start, start + length, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
                 }
             }
+        }
+        for (int i = used; i < findHighlightCount; i++) {
+            text.removeSpan(findHighlights.get(i));
+        }
+        findHighlightCount = used;
+        if (recolored) {
+            invalidate();
+        }
+    }
 
+    protected void clearFindHighlights() {
+        Editable text = getText();
+        for (int i = 0; i < findHighlightCount; i++) {
+            text.removeSpan(findHighlights.get(i));
         }
+        findHighlightCount = 0;
     }
 
     /**
@@ -735,34 +1152,64 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
         dialog.show();
     }
 
+    /**
+     * @return the dialog choosing the text or highlight color among {@link #getColorList()}, made the
+     * first time it is needed, or null in the layout editor
+     */
+    protected AlertDialog getMainColorChooserDialog() {
+        if (mainColorChooserDialog == null) {
+            createMainColorChooserDialog();
+        }
+        return mainColorChooserDialog;
+    }
+
+    /**
+     * @return the dialog entering a color of its own, made the first time it is needed, or null in the
+     * layout editor
+     */
+    protected AlertDialog getCustomColorChooserDialog() {
+        if (customColorChooserDialog == null) {
+            createCustomColorChooserDialog();
+        }
+        return customColorChooserDialog;
+    }
+
     //TODO document
     protected void createMainColorChooserDialog(){
-        final ArrayAdapter<ColorString> listArray = new ArrayAdapter<ColorString> (getContext(), android.R.layout.simple_list_item_1, colorList) {
+        shownColors = getColorPalette().getMostRecentFirst();
+        colorAdapter = new BaseAdapter() {
+            @Override
+            public int getCount() {
+                return shownColors.length;
+            }
+
+            @Override
+            public ColorString getItem(int position) {
+                return shownColors[position];
+            }
+
+            @Override
+            public long getItemId(int position) {
+                return position;
+            }
+
             @Override
             public View getView(int position, View convertView, ViewGroup parent) {
-                View view = super.getView(position, convertView, parent);
+                View view = convertView != null ? convertView
+                        : LayoutInflater.from(getContext()).inflate(android.R.layout.simple_list_item_1, parent, false);
                 TextView tv = (TextView) view.findViewById(text1);
 
-                int color = this.getItem(position).getHex();
-                tv.setBackgroundColor(color);
-
-                //Convert the color to RGB to decide whether white or black contrasts better with the color
-                int r = (color >> 16) & 0xFF;
-                int g = (color >> 8) & 0xFF;
-                int b = (color >> 0) & 0xFF;
-                if ((r*0.299 + g*0.587 + b*0.114) > 186){
-                    tv.setTextColor(Color.BLACK);
-                }
-                else {
-                    tv.setTextColor(Color.WHITE);
-                }
+                ColorString color = getItem(position);
+                tv.setText(color.toString());
+                tv.setBackgroundColor(color.getHex());
+                tv.setTextColor(color.getContrastColor());
 
                 return view;
             }
         };
 
         AlertDialog.Builder builder = new AlertDialog.Builder(getContext());
-        builder.setAdapter(listArray, this);
+        builder.setAdapter(colorAdapter, this);
         builder.setNeutralButton("Enter Custom Color Code", this);
         if (!isInEditMode()) { //Casting exception is made in editor unless this check is made
             mainColorChooserDialog = builder.create();
@@ -828,10 +1275,18 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
     /**
      * @return The list of colors that will be displayed to the user when the color chooser dialog is opened.
      *         If the user has set custom colors, then the list will return those as well
-     *         as they are contained in the same list as the default colors.
+     *         as they are contained in the same list as the default colors. Most recently used first.
+     *         The list is a copy of the {@link ColorPalette} shared by every editor.
      */
     public ArrayList<ColorString> getColorList(){
-        return colorList;
+        return new ArrayList<>(getColorPalette().getColors());
+    }
+
+    /**
+     * @return the colors of the color chooser dialogs, shared by every editor of the app
+     */
+    public ColorPalette getColorPalette() {
+        return ColorPalette.getInstance();
     }
 
     /**
@@ -906,38 +1361,56 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
     }
 
     public void setCurrentTextColor(ColorDrawable color){
-        this.currentTextColor = color;
-        if (selectionStartBeforeFocusChange != selectionEndBeforeFocusChange){
-            removeSpansWithinSelection(ForegroundColorSpan.class);
-            this.getText().setSpan(new ForegroundColorSpan(currentTextColor.getColor()), selectionStartBeforeFocusChange, selectionEndBeforeFocusChange, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        long started = METRICS.begin(EditorMetrics.COLOR);
+        try {
+            this.currentTextColor = color;
+            if (selectionStartBeforeFocusChange != selectionEndBeforeFocusChange){
+                undoHistory.beginStyleEdit(getText(), selectionStartBeforeFocusChange, selectionEndBeforeFocusChange);
+                try {
+                    spanRunEngine.applyToRange(getText(), selectionStartBeforeFocusChange, selectionEndBeforeFocusChange, getTextColorFactory());
+                } finally {
+                    undoHistory.endStyleEdit(getText());
+                }
+            }
+        } finally {
+            METRICS.end(EditorMetrics.COLOR, started, spanCountFor(started));
         }
     }
 
     public void setCurrentTextHighlightColor(ColorDrawable color){
-        if (color.getAlpha() != highlightAlpha) {
-            if (color.getAlpha() > 128) {
-                color.setAlpha(highlightAlpha);
-            } else {
-                color.setAlpha(highlightAlpha + 1); //Due to the color being stored in a signed int, the algorithm in ColorDrawable.setHighlightAlpha loses 1 bit every time
+        long started = METRICS.begin(EditorMetrics.COLOR);
+        try {
+            if (color.getAlpha() != highlightAlpha) {
+                if (color.getAlpha() > 128) {
+                    color.setAlpha(highlightAlpha);
+                } else {
+                    color.setAlpha(highlightAlpha + 1); //Due to the color being stored in a signed int, the algorithm in ColorDrawable.setHighlightAlpha loses 1 bit every time
+                }
             }
-        }
-        this.currentTextHighlightColor = color;
-        if (selectionStartBeforeFocusChange != selectionEndBeforeFocusChange){
-            removeSpansWithinSelection(BackgroundColorSpan.class);
-            this.getText().setSpan(new BackgroundColorSpan(currentTextHighlightColor.getColor()), selectionStartBeforeFocusChange, selectionEndBeforeFocusChange, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            this.currentTextHighlightColor = color;
+            if (selectionStartBeforeFocusChange != selectionEndBeforeFocusChange){
+                undoHistory.beginStyleEdit(getText(), selectionStartBeforeFocusChange, selectionEndBeforeFocusChange);
+                try {
+                    spanRunEngine.applyToRange(getText(), selectionStartBeforeFocusChange, selectionEndBeforeFocusChange, getHighlightColorFactory());
+                } finally {
+                    undoHistory.endStyleEdit(getText());
+                }
+            }
+        } finally {
+            METRICS.end(EditorMetrics.COLOR, started, spanCountFor(started));
         }
     }
 
     /**
      * Set the colors available to the user without having to add their own. Note that setting
-     * this list will wipe any colors the user has added themselves. To add to the list without
-     * removing their settings, call the list with {@link #getColorList()} then add to it.
+     * this list will wipe any colors the user has added themselves, in every editor. To add to the list
+     * without removing their settings, see {@link ColorPalette#use(ColorString)}.
      * @param colors array of {@link ColorString} that will be used to give the user a default
      *               set of colors
      * @see ColorString
      */
     public void setColorList(ArrayList<ColorString> colors){
-        colorList = colors;
+        getColorPalette().setColors(colors);
     }
 
     /**
@@ -981,6 +1454,119 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
         this.onSelectionChangeListener = onSelectionChangeListener;
     }
 
+    /**
+     * Sets the listener told of every new {@link Editable} this editor is given, e.g. to watch its text
+     * and spans from then on
+     */
+    public void setOnEditableChangeListener(OnEditableChangeListener onEditableChangeListener) {
+        this.onEditableChangeListener = onEditableChangeListener;
+    }
+
+    /**
+     * Sets the listener told of the deletions past the start or the end of the text, e.g. to join this
+     * editor with the one before or after it
+     */
+    public void setOnDeleteAtEdgeListener(OnDeleteAtEdgeListener onDeleteAtEdgeListener) {
+        this.onDeleteAtEdgeListener = onDeleteAtEdgeListener;
+    }
+
+    /**
+     * Wraps the connection of the input method, to tell {@link #onDeleteAtEdgeListener} of the deletions
+     * past the ends of the text: soft keyboards mostly delete through
+     * {@link InputConnection#deleteSurroundingText(int, int)} rather than with key events, and do nothing
+     * when there is nothing to delete.
+     */
+    @Override
+    public InputConnection onCreateInputConnection(EditorInfo outAttrs) {
+        InputConnection connection = super.onCreateInputConnection(outAttrs);
+        return connection != null ? new EdgeDeleteInputConnection(connection) : null;
+    }
+
+    /**
+     * Tells {@link #onDeleteAtEdgeListener} of a deletion from the cursor at the start of the text
+     * backwards, or at its end forwards
+     */
+    protected class EdgeDeleteInputConnection extends InputConnectionWrapper {
+
+        public EdgeDeleteInputConnection(InputConnection target) {
+            super(target, true);
+        }
+
+        @Override
+        public boolean deleteSurroundingText(int beforeLength, int afterLength) {
+            int start = getSelectionStart();
+            if (onDeleteAtEdgeListener != null && start == getSelectionEnd()) {
+                if (start == 0 && beforeLength > 0 && afterLength == 0
+                        && onDeleteAtEdgeListener.onDeleteAtEdge(RichEditText.this, true)) {
+                    return true;
+                } else if (start == length() && afterLength > 0 && beforeLength == 0
+                        && onDeleteAtEdgeListener.onDeleteAtEdge(RichEditText.this, false)) {
+                    return true;
+                }
+            }
+            return super.deleteSurroundingText(beforeLength, afterLength);
+        }
+    }
+
+    /**
+     * Listens for the matches found by {@link RichEditText#find(CharSequence)}
+     */
+    public interface OnFindListener {
+
+        /**
+         * @param matchCount   the number of matches found so far
+         * @param currentMatch the index of the selected match, or -1 if no match is selected
+         * @param complete     true once the whole text has been searched
+         */
+        void onFindProgress(int matchCount, int currentMatch, boolean complete);
+    }
+
+    /**
+     * Listens for the deletions past the ends of the text of {@link RichEditText}, which delete nothing
+     */
+    public interface OnDeleteAtEdgeListener {
+
+        /**
+         * @param atStart true for a deletion backwards from the start of the text, false for one forwards
+         *                from its end
+         * @return true if the deletion was handled
+         */
+        boolean onDeleteAtEdge(RichEditText editor, boolean atStart);
+    }
+
+    /**
+     * Listens for the {@link Editable}s given to {@link RichEditText}, e.g. by {@link #setText(CharSequence)}
+     */
+    public interface OnEditableChangeListener {
+
+        /**
+         * @param editable the new text of the editor, before it is shown
+         */
+        void onEditableChanged(Editable editable);
+    }
+
+    /**
+     * Highlights a match of {@link RichEditText#find(CharSequence)}. It is not a {@link BackgroundColorSpan},
+     * so it is never mistaken for a highlight of the user, and is not copied with the text.
+     */
+    public static class FindHighlightSpan extends CharacterStyle implements UpdateAppearance, NoCopySpan {
+
+        private int color;
+
+        public int getColor() {
+            return color;
+        }
+
+        public void setColor(int color) {
+            this.color = color;
+        }
+
+        @Override
+        public void updateDrawState(TextPaint tp) {
+            tp.bgColor = color;
+        }
+    }
+
     /**
      * Listens for changes in {@link RichEditText} selections
      */
@@ -1036,14 +1622,45 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
         }
     }
 
+    /**
+     * The colors every editor starts with, parsed the first time an editor needs them
+     */
+    private static class DefaultColors {
+        static final List<ColorString> LIST;
+
+        static {
+            ArrayList<ColorString> colors = new ArrayList<>();
+            try {
+                colors.add(new ColorString("Black", "#000000"));
+                colors.add(new ColorString("White", "#FFFFFF"));
+                colors.add(new ColorString("Green", "#008000"));
+                colors.add(new ColorString("Blue", "#0000FF"));
+                colors.add(new ColorString("Purple", "#800080"));
+                colors.add(new ColorString("Red", "#FF0000"));
+                colors.add(new ColorString("Orange", "#FFA500"));
+                colors.add(new ColorString("Yellow", "#FFFF00"));
+                colors.add(new ColorString("Hot Pink", "#FF69B4"));
+                colors.add(new ColorString("Light Blue", "#00FFF9"));
+                colors.add(new ColorString("Brown", "#A52A2A"));
+            } catch (IOException ex){
+                Log.wtf(TAG, "Default Settings for ColorString incorrect");
+            }
+            LIST = Collections.unmodifiableList(colors);
+        }
+    }
+
     /**
      * A simple class that holds the information for the name of a color and it's hex code.
-     * Will throw an {@link IOException} if information is put in incorrectly
+     * Will throw an {@link IOException} if information is put in incorrectly.
+     * It cannot be changed, so the same ColorStrings are shared by every editor, and the color of the
+     * text shown on it is worked out once.
      */
-    protected class ColorString {
+    protected static class ColorString {
 
-        private int hex;
-        private String colorString;
+        private final int hex;
+        private final String title;
+        private final String colorString;
+        private final int contrastColor;
 
         /**
          * The format for entering data into the class is as follows:
@@ -1072,14 +1689,38 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
             }catch (NumberFormatException ex){
                 throw new IOException("The string " +color+ " is not a properly formatted hex code");
             }
-            title = title.trim();
-            colorString = title + " - " + color;
+            this.title = title.trim();
+            colorString = this.title + " - " + color;
+            contrastColor = contrastColorOf(hex);
+        }
+
+        /**
+         * @param title The title of the color being supplied
+         * @param argb  The packed ARGB value of the color
+         */
+        public ColorString(String title, int argb) {
+            hex = argb;
+            this.title = title.trim();
+            colorString = this.title + " - #" + (argb >>> 24 == 0xFF
+                    ? String.format("%06X", argb & 0xFFFFFF) : String.format("%08X", argb));
+            contrastColor = contrastColorOf(hex);
         }
 
         public int getHex() {
             return hex;
         }
 
+        public String getTitle() {
+            return title;
+        }
+
+        /**
+         * @return black or white, whichever contrasts better with the color
+         */
+        public int getContrastColor() {
+            return contrastColor;
+        }
+
         /**
          * @return "[Name of Color] - [Hex Code]"
          */
@@ -1092,10 +1733,25 @@ public class RichEditText extends AppCompatEditText implements TextWatcher, View
         public boolean equals(Object obj) {
             return obj instanceof ColorString && ((ColorString) obj).getHex() == this.getHex();
         }
+
+        @Override
+        public int hashCode() {
+            return hex;
+        }
+
+        private static int contrastColorOf(int color) {
+            //Convert the color to RGB to decide whether white or black contrasts better with the color
+            int r = (color >> 16) & 0xFF;
+            int g = (color >> 8) & 0xFF;
+            int b = (color >> 0) & 0xFF;
+            return (r*0.299 + g*0.587 + b*0.114) > 186 ? Color.BLACK : Color.WHITE;
+        }
     }
 
     public class UnknownParcelableSpanException extends Exception{
 
+        private static final long serialVersionUID = 1L;
+
         public UnknownParcelableSpanException(String s){
             super(s);
         }
@@ -0,0 +1,933 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.GetChars;
+import android.text.Spanned;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Serializes the content of a {@link RichEditText}, text and styles, to a compact binary format.
+ * <p>
+ *  The text is stored as UTF-8, followed by a table of the style runs. The styles, i.e. the types of the
+ *  spans and their attributes (colors, sizes), are listed once, and every run only refers to its style.
+ *  The runs are sorted by start and stored in columns: the styles of all runs, then where they start,
+ *  then where they end, each as a varint relative to the run before or to the start of the run.
+ *  Runs usually cover whole words, so a start or an end falling between a word and a space is counted in
+ *  such boundaries rather than in characters, which keeps the numbers to a byte or less. A run of a
+ *  journal entry usually takes 2 or 3 bytes, against the dozens of bytes of its HTML tags. The types of
+ *  the spans are kept as they are, custom ones included, through {@link SpanTypes}.
+ * </p>
+ * <p>
+ *  Past {@value #DEFLATE_THRESHOLD} bytes, the text is deflated when that makes it smaller, both with and
+ *  without looking for repeated strings, as text that does not repeat itself is smaller with its
+ *  characters coded alone. The table of the runs is deflated whenever that makes it smaller.
+ * </p>
+ * <p>
+ *  Decoding is a single pass over the bytes (once inflated): the text is decoded straight into the array
+ *  of characters of the new text, without an intermediate {@link String}. The runs are read into arrays,
+ *  and given with the text to the {@link Editable.Factory}, which copies all of them at once rather than
+ *  having them set one by one. A {@link PieceTableEditable}, the editor's own, takes the arrays as they are
+ *  and builds its span tree from them in one pass, without a span watcher to notify. A styled one, see
+ *  {@link PieceTableEditable#factory(SpanTypes)}, builds its {@link StyleRunTable} from the runs instead, and
+ *  only gets spans for the other styles.
+ * </p>
+ * Format, version {@value #VERSION}:
+ * <ul>
+ *     <li>magic ({@code 'R' 'T'}), version (varint)</li>
+ *     <li>flags (varint, {@value #FLAG_DEFLATED} if the text is deflated), length of the text in chars
+ *     (varint), length of the text in UTF-8 bytes (varint), if deflated the length of the deflated text
+ *     (varint), the UTF-8 bytes or the deflated bytes</li>
+ *     <li>flags (varint, {@value #FLAG_DEFLATED} if the runs are deflated), number of runs (varint), then if
+ *     there are runs, the length of their table (varint), if deflated the length of the deflated table
+ *     (varint), and the table or the deflated table</li>
+ *     <li>the table: number of styles (varint), every style as its type (byte) and attribute (zigzag varint,
+ *     only for types that have one), then the style of every run (varint), the start of every run, and the end
+ *     of every run</li>
+ *     <li>a start is twice the number of boundaries between the start of the previous run and itself,
+ *     or if it is not at a boundary, one more than twice the number of characters. An end is counted the
+ *     same way from the start of its run. A boundary is the start or the end of the text, or a position
+ *     between whitespace and anything else.</li>
+ *     <li>deflated bytes are raw deflate, without a zlib header</li>
+ * </ul>
+ *
+ * @see RichEditSpanTypes
+ */
+public class RichTextCodec {
+
+    public static final int VERSION = 2;
+    protected static final byte MAGIC_0 = 'R';
+    protected static final byte MAGIC_1 = 'T';
+    public static final int FLAG_DEFLATED = 1;
+    public static final int DEFLATE_THRESHOLD = 512;
+
+    //Type ids of the spans, part of the format: never change or reuse one, only add new ones
+    public static final int TYPE_BOLD = 0;
+    public static final int TYPE_ITALIC = 1;
+    public static final int TYPE_UNDERLINE = 2;
+    public static final int TYPE_STRIKETHROUGH = 3;
+    public static final int TYPE_FOREGROUND_COLOR = 4;
+    public static final int TYPE_BACKGROUND_COLOR = 5;
+    public static final int TYPE_SUBSCRIPT = 6;
+    public static final int TYPE_SUPERSCRIPT = 7;
+    public static final int TYPE_RELATIVE_SIZE = 8;
+
+    /**
+     * Maps the spans to be serialized to type ids, and back
+     */
+    public interface SpanTypes {
+        /**
+         * @return the type id of {@code span}, from 0 to 127, or -1 if spans like it are not serialized
+         */
+        int typeOf(Object span);
+
+        /**
+         * @return true if the spans of {@code type} carry an attribute, e.g. a color
+         */
+        boolean hasAttribute(int type);
+
+        /**
+         * @return the attribute of {@code span}, e.g. its color
+         */
+        int attributeOf(Object span);
+
+        /**
+         * @return a new span of {@code type}, or null if the type is not known
+         */
+        Object newSpan(int type, int attribute);
+
+        /**
+         * @param version the version of the styled text the run is from, or null for a span of no text
+         * @param start   where the run starts in that version of the text
+         * @param end     where the run ends in that version of the text
+         * @return a new span drawing every style of a run of a {@link StyleRunTable} at once
+         */
+        StyleRunTable.RunSpan newRunSpan(long style, long colors, Object version, int start, int end);
+    }
+
+    private static final byte[] ASCII_WHITESPACE = new byte[0x80];
+
+    static {
+        for (char c = 0; c < 0x80; c++) {
+            ASCII_WHITESPACE[c] = (byte) (Character.isWhitespace(c) ? 1 : 0);
+        }
+    }
+
+    private final SpanTypes types;
+
+    public RichTextCodec(SpanTypes types) {
+        this.types = types;
+    }
+
+    /**
+     * @param text the text to serialize, with its spans. The styles of a styled {@link PieceTableEditable}
+     *             are read from its table, and a {@link StyleRunTable.RunSpan} is a run of each of its styles.
+     * @return the text and the spans of a known type
+     */
+    public byte[] encode(Spanned text) {
+        int length = text.length();
+        Object[] spans = text.getSpans(0, length, Object.class);
+        PieceTableEditable styled = PieceTableEditable.asStyled(text);
+        //The runs of the table, then those of the spans, each by start
+        Runs tableRuns = styled != null ? styled.styles().toRuns(new char[length]) : null;
+        int tableRunCount = tableRuns != null ? tableRuns.count : 0;
+        int spanCount = 0;
+        int runSpanStyles = 0;
+        for (Object span : spans) {
+            if (text.getSpanEnd(span) <= text.getSpanStart(span)) {
+                continue;
+            }
+            if (span instanceof StyleRunTable.RunSpan) {
+                if (styled == null) {
+                    runSpanStyles += Long.bitCount(((StyleRunTable.RunSpan) span).getStyle() & StyleRunTable.ALL_TYPES);
+                    spans[spanCount++] = span;
+                }
+            } else if (types.typeOf(span) >= 0) {
+                spans[spanCount++] = span;
+            }
+        }
+        final Spanned spanned = text;
+        Arrays.sort(spans, 0, spanCount, new Comparator<Object>() {
+            @Override
+            public int compare(Object a, Object b) {
+                int startA = spanned.getSpanStart(a);
+                int startB = spanned.getSpanStart(b);
+                return startA < startB ? -1 : (startA == startB ? 0 : 1);
+            }
+        });
+
+        int capacity = tableRunCount + spanCount + runSpanStyles;
+        int[] runTypes = new int[capacity];
+        int[] starts = new int[capacity];
+        int[] ends = new int[capacity];
+        int[] attributes = new int[capacity];
+        int runCount = 0;
+        int t = 0;
+        for (int i = 0; i <= spanCount; i++) {
+            int spanStart = i < spanCount ? text.getSpanStart(spans[i]) : Integer.MAX_VALUE;
+            for (; t < tableRunCount && tableRuns.starts[t] <= spanStart; t++, runCount++) {
+                runTypes[runCount] = tableRuns.types[t];
+                starts[runCount] = tableRuns.starts[t];
+                ends[runCount] = tableRuns.ends[t];
+                attributes[runCount] = tableRuns.attributes[t];
+            }
+            if (i == spanCount) {
+                break;
+            }
+            Object span = spans[i];
+            if (span instanceof StyleRunTable.RunSpan) {
+                //A run of every style of the span
+                long style = ((StyleRunTable.RunSpan) span).getStyle();
+                long colors = ((StyleRunTable.RunSpan) span).getColors();
+                for (int type = 0; type <= StyleRunTable.MAX_TYPE; type++) {
+                    if (StyleRunTable.hasStyle(style, type)) {
+                        runTypes[runCount] = type;
+                        starts[runCount] = spanStart;
+                        ends[runCount] = text.getSpanEnd(span);
+                        attributes[runCount] = StyleRunTable.attributeOf(style, colors, type);
+                        runCount++;
+                    }
+                }
+                continue;
+            }
+            runTypes[runCount] = types.typeOf(span);
+            starts[runCount] = spanStart;
+            ends[runCount] = text.getSpanEnd(span);
+            attributes[runCount] = types.hasAttribute(runTypes[runCount]) ? types.attributeOf(span) : 0;
+            runCount++;
+        }
+        return encode(text, length, runCount, runTypes, starts, ends, attributes);
+    }
+
+    /**
+     * Serializes a text and its runs as {@link #encode(Spanned)} does, without making any span, e.g. for
+     * a text converted from another format
+     *
+     * @param runs the text, and its runs by start
+     */
+    public byte[] encode(Runs runs) {
+        int runCount = 0;
+        int[] runTypes = new int[runs.count];
+        int[] starts = new int[runs.count];
+        int[] ends = new int[runs.count];
+        int[] attributes = new int[runs.count];
+        for (int i = 0; i < runs.count; i++) {
+            if (runs.ends[i] <= runs.starts[i]) {
+                continue;
+            }
+            if (runCount > 0 && runs.starts[i] < starts[runCount - 1]) {
+                throw new IllegalArgumentException("The runs are not by start");
+            }
+            runTypes[runCount] = runs.types[i];
+            starts[runCount] = runs.starts[i];
+            ends[runCount] = runs.ends[i];
+            attributes[runCount] = types.hasAttribute(runs.types[i]) ? runs.attributes[i] : 0;
+            runCount++;
+        }
+        CharSequence text = CharBuffer.wrap(runs.text);
+        return encode(text, text.length(), runCount, runTypes, starts, ends, attributes);
+    }
+
+    /**
+     * @param runCount the number of runs, sorted by start, none of them empty
+     */
+    private byte[] encode(CharSequence text, int length, int runCount, int[] runTypes, int[] starts, int[] ends,
+                          int[] attributes) {
+        int byteLength = utf8Length(text, length);
+        ByteWriter out = new ByteWriter(16 + byteLength + runCount * 3);
+        out.write(MAGIC_0);
+        out.write(MAGIC_1);
+        out.writeVarint(VERSION);
+        ByteWriter utf8 = new ByteWriter(byteLength);
+        utf8.writeUtf8(text, length);
+        if (byteLength < DEFLATE_THRESHOLD || !writeDeflated(out, utf8, length, true)) {
+            out.writeVarint(0);
+            out.writeVarint(length);
+            out.writeVarint(byteLength);
+            out.write(utf8.bytes, utf8.size);
+        }
+        if (runCount == 0) {
+            out.writeVarint(0);
+            out.writeVarint(0);
+            return out.toByteArray();
+        }
+
+        ByteWriter table = new ByteWriter(runCount * 3 + 64);
+        writeStyles(table, runCount, runTypes, attributes);
+        char[] chars = new char[length];
+        if (text instanceof GetChars) {
+            ((GetChars) text).getChars(0, length, chars, 0);
+        } else {
+            text.toString().getChars(0, length, chars, 0);
+        }
+        int[] boundaries = boundaries(chars);
+        int previousStart = 0;
+        for (int i = 0; i < runCount; i++) {
+            table.writeVarint(offset(boundaries, previousStart, starts[i]));
+            previousStart = starts[i];
+        }
+        for (int i = 0; i < runCount; i++) {
+            table.writeVarint(offset(boundaries, starts[i], ends[i]));
+        }
+        if (!writeDeflated(out, table, runCount, false)) {
+            out.writeVarint(0);
+            out.writeVarint(runCount);
+            out.writeVarint(table.size);
+            out.write(table.bytes, table.size);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the table of the styles, then the style of every run as a position in that table
+     */
+    private void writeStyles(ByteWriter table, int runCount, int[] runTypes, int[] attributes) {
+        int[] styleTypes = new int[16];
+        int[] styleAttributes = new int[16];
+        int styleCount = 0;
+        Map<Long, Integer> styles = new HashMap<>();
+        int[] runStyles = new int[runCount];
+        for (int i = 0; i < runCount; i++) {
+            Long key = ((long) runTypes[i] << 32) | (attributes[i] & 0xFFFFFFFFL);
+            Integer style = styles.get(key);
+            if (style == null) {
+                if (styleCount == styleTypes.length) {
+                    styleTypes = Arrays.copyOf(styleTypes, styleCount * 2);
+                    styleAttributes = Arrays.copyOf(styleAttributes, styleCount * 2);
+                }
+                styleTypes[styleCount] = runTypes[i];
+                styleAttributes[styleCount] = attributes[i];
+                style = styleCount++;
+                styles.put(key, style);
+            }
+            runStyles[i] = style;
+        }
+        table.writeVarint(styleCount);
+        for (int i = 0; i < styleCount; i++) {
+            table.write((byte) styleTypes[i]);
+            if (types.hasAttribute(styleTypes[i])) {
+                table.writeVarint((styleAttributes[i] << 1) ^ (styleAttributes[i] >> 31)); //colors are negative
+            }
+        }
+        for (int i = 0; i < runCount; i++) {
+            table.writeVarint(runStyles[i]);
+        }
+    }
+
+    /**
+     * @param boundaries the boundaries of the text, see {@link #boundaries(char[])}
+     * @return how {@code position} is stored after {@code from}: twice the number of boundaries from one to
+     * the other if {@code position} is a boundary, else one more than twice the number of characters
+     */
+    private static int offset(int[] boundaries, int from, int position) {
+        int index = Arrays.binarySearch(boundaries, position);
+        if (index < 0) {
+            return ((position - from) << 1) | 1;
+        }
+        return (index - rank(boundaries, boundaries.length, from)) << 1;
+    }
+
+    /**
+     * @return the positions between whitespace and anything else, from the start to the end of the text
+     * included, in order
+     */
+    private static int[] boundaries(char[] text) {
+        int length = text.length;
+        int[] boundaries = new int[16 + length / 4];
+        int count = 1; //the start
+        int space = length > 0 ? whitespace(text[0]) : 0;
+        for (int i = 1; i < length; i++) {
+            //Every position is written, and kept if the text changes there: words end too often to be guessed
+            int nextSpace = whitespace(text[i]);
+            if (count == boundaries.length) {
+                boundaries = Arrays.copyOf(boundaries, count * 2);
+            }
+            boundaries[count] = i;
+            count += nextSpace ^ space;
+            space = nextSpace;
+        }
+        if (length > 0) {
+            if (count == boundaries.length) {
+                boundaries = Arrays.copyOf(boundaries, count + 1);
+            }
+            boundaries[count++] = length;
+        }
+        return Arrays.copyOf(boundaries, count);
+    }
+
+    /**
+     * @return 1 if {@code c} is {@link Character#isWhitespace(char) whitespace}, else 0. ASCII is looked up
+     * in {@link #ASCII_WHITESPACE}, which takes a single well-predicted branch for most text.
+     */
+    private static int whitespace(char c) {
+        if (c < 0x80) {
+            return ASCII_WHITESPACE[c];
+        }
+        return Character.isWhitespace(c) ? 1 : 0;
+    }
+
+    /**
+     * @return the number of boundaries before {@code position}, i.e. the index of {@code position} if it is one
+     */
+    private static int rank(int[] boundaries, int count, int position) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (boundaries[mid] < position) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param data    bytes from {@link #encode(Spanned)}
+     * @param factory makes the text, e.g. {@link Editable.Factory#getInstance()}
+     * @return the text with its spans
+     * @throws IOException if {@code data} is not in this format, or is truncated
+     */
+    public Editable decode(byte[] data, Editable.Factory factory) throws IOException {
+        Runs runs = decodeRuns(data);
+        //A styled text takes its table straight from the runs, and spans only for the other styles
+        SpanTypes styledTypes = factory instanceof PieceTableEditable.Factory
+                ? ((PieceTableEditable.Factory) factory).getTypes() : null;
+        Object[] spans = new Object[runs.count];
+        int[] starts = new int[runs.count];
+        int[] ends = new int[runs.count];
+        int spanCount = 0;
+        for (int i = 0; i < runs.count; i++) {
+            if (styledTypes != null && runs.types[i] <= StyleRunTable.MAX_TYPE) {
+                continue;
+            }
+            Object span = types.newSpan(runs.types[i], runs.attributes[i]);
+            if (span != null) {
+                spans[spanCount] = span;
+                starts[spanCount] = runs.starts[i];
+                ends[spanCount] = runs.ends[i];
+                spanCount++;
+            }
+        }
+        DecodedText text = new DecodedText(runs.text, spans, starts, ends, spanCount);
+        if (styledTypes != null) {
+            int[] flags = new int[spanCount];
+            Arrays.fill(flags, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            return new PieceTableEditable(text, StyleRunTable.fromRuns(runs), styledTypes, spans, starts, ends, flags, spanCount);
+        }
+        if (factory == PieceTableEditable.FACTORY) {
+            //The editor's own Editable takes the arrays as they are, rather than asking the text for every span
+            int[] flags = new int[spanCount];
+            Arrays.fill(flags, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            return new PieceTableEditable(text, spans, starts, ends, flags, spanCount);
+        }
+        return factory.newEditable(text);
+    }
+
+    /**
+     * Decodes the text and the style runs as they are stored, without making any span, e.g. to convert
+     * them to another format
+     *
+     * @param data bytes from {@link #encode(Spanned)}
+     * @throws IOException if {@code data} is not in this format, or is truncated
+     */
+    public Runs decodeRuns(byte[] data) throws IOException {
+        ByteReader in = new ByteReader(data);
+        if (data.length < 2 || in.read() != MAGIC_0 || in.read() != MAGIC_1) {
+            throw new IOException("Not a rich text");
+        }
+        int version = in.readVarint();
+        if (version != VERSION) {
+            throw new IOException("Unsupported rich text version " + version);
+        }
+        return readRuns(in, readText(in));
+    }
+
+    /**
+     * Reads the text, after the header
+     */
+    private static char[] readText(ByteReader in) throws IOException {
+        int flags = in.readVarint();
+        int length = in.readVarint();
+        int byteLength = in.readVarint();
+        if ((flags & FLAG_DEFLATED) != 0) {
+            ByteReader utf8 = new ByteReader(in.inflate(in.readVarint(), byteLength));
+            return utf8.readUtf8(byteLength, length);
+        }
+        return in.readUtf8(byteLength, length);
+    }
+
+    /**
+     * Reads the table of the runs, see {@link #encode(CharSequence, int, int, int[], int[], int[], int[])}
+     */
+    private Runs readRuns(ByteReader in, char[] chars) throws IOException {
+        int flags = in.readVarint();
+        int runCount = in.readVarint();
+        if (runCount == 0) {
+            return new Runs(chars, 0);
+        }
+        int tableLength = in.readVarint();
+        int storedLength = (flags & FLAG_DEFLATED) != 0 ? in.readVarint() : tableLength;
+        //A run takes 3 bytes at least, and deflate does not make anything more than about 1000 times smaller
+        if (runCount < 0 || runCount > tableLength / 3 || storedLength < 0
+                || tableLength > Math.min(storedLength, in.bytes.length) * 1032L + 16) {
+            throw new IOException("Malformed rich text");
+        }
+        ByteReader table = (flags & FLAG_DEFLATED) != 0 ? new ByteReader(in.inflate(storedLength, tableLength)) : in;
+        Runs runs = new Runs(chars, runCount);
+
+        int styleCount = table.readVarint();
+        if (styleCount < 0 || styleCount > runCount) {
+            throw new IOException("Malformed rich text");
+        }
+        int[] styleTypes = new int[styleCount];
+        int[] styleAttributes = new int[styleCount];
+        for (int i = 0; i < styleCount; i++) {
+            styleTypes[i] = table.read();
+            if (types.hasAttribute(styleTypes[i])) {
+                int zigzag = table.readVarint();
+                styleAttributes[i] = (zigzag >>> 1) ^ -(zigzag & 1);
+            }
+        }
+        for (int i = 0; i < runCount; i++) {
+            int style = table.readVarint();
+            if (style < 0 || style >= styleCount) {
+                throw new IOException("Run " + i + " has no style");
+            }
+            runs.types[i] = styleTypes[style];
+            runs.attributes[i] = styleAttributes[style];
+        }
+
+        //The starts only grow, so the boundaries before them are counted going forward rather than searched
+        int[] boundaries = null;
+        int boundaryCount = 0;
+        int start = 0;
+        int startRank = 0;
+        for (int i = 0; i < runCount; i++) {
+            int offset = table.readVarint();
+            if ((offset & 1) != 0) {
+                start += offset >>> 1;
+            } else {
+                if (boundaries == null) {
+                    boundaries = boundaries(chars);
+                    boundaryCount = boundaries.length;
+                }
+                while (startRank < boundaryCount && boundaries[startRank] < start) {
+                    startRank++;
+                }
+                int rank = startRank + (offset >>> 1);
+                if (rank < 0 || rank >= boundaryCount) {
+                    throw new IOException("Run " + i + " is out of the text");
+                }
+                start = boundaries[rank];
+            }
+            if (start < 0 || start > chars.length) {
+                throw new IOException("Run " + i + " is out of the text");
+            }
+            runs.starts[i] = start;
+        }
+        startRank = 0;
+        for (int i = 0; i < runCount; i++) {
+            int offset = table.readVarint();
+            start = runs.starts[i];
+            int end;
+            if ((offset & 1) != 0) {
+                end = start + (offset >>> 1);
+            } else {
+                if (boundaries == null) {
+                    boundaries = boundaries(chars);
+                    boundaryCount = boundaries.length;
+                }
+                while (startRank < boundaryCount && boundaries[startRank] < start) {
+                    startRank++;
+                }
+                int endRank = startRank + (offset >>> 1);
+                if (endRank < 0 || endRank >= boundaryCount) {
+                    throw new IOException("Run " + i + " is out of the text");
+                }
+                end = boundaries[endRank];
+            }
+            if (end > chars.length || end < start) {
+                throw new IOException("Run " + i + " is out of the text");
+            }
+            runs.ends[i] = end;
+        }
+        return runs;
+    }
+
+    /**
+     * The text of an encoded text, and its style runs by start, as type ids and attributes
+     */
+    public static class Runs {
+        public final char[] text;
+        public final int count;
+        public final int[] types;
+        public final int[] starts;
+        public final int[] ends;
+        public final int[] attributes;
+
+        public Runs(char[] text, int count) {
+            this.text = text;
+            this.count = count;
+            types = new int[count];
+            starts = new int[count];
+            ends = new int[count];
+            attributes = new int[count];
+        }
+    }
+
+    /**
+     * A decoded text and its spans, as given to an {@link Editable.Factory} to be copied. The factories copy
+     * the spans in the order they are returned by {@link #getSpans(int, int, Class)}, asking for the range of
+     * one span after the other, so each one is found next to the one asked for before.
+     */
+    private static class DecodedText implements Spanned, GetChars {
+        private final char[] chars;
+        private final Object[] spans;
+        private final int[] starts;
+        private final int[] ends;
+        private final int count;
+        private int lastFound = -1;
+
+        DecodedText(char[] chars, Object[] spans, int[] starts, int[] ends, int count) {
+            this.chars = chars;
+            this.spans = spans;
+            this.starts = starts;
+            this.ends = ends;
+            this.count = count;
+        }
+
+        @Override
+        public int length() {
+            return chars.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return chars[index];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(chars, start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chars);
+        }
+
+        @Override
+        public void getChars(int start, int end, char[] dest, int destoff) {
+            System.arraycopy(chars, start, dest, destoff, end - start);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> T[] getSpans(int queryStart, int queryEnd, Class<T> kind) {
+            T[] found = (T[]) Array.newInstance(kind, count);
+            int n = 0;
+            for (int i = 0; i < count; i++) {
+                if (kind.isInstance(spans[i]) && starts[i] <= queryEnd && ends[i] >= queryStart
+                        && (starts[i] == ends[i] || queryStart == queryEnd || (starts[i] != queryEnd && ends[i] != queryStart))) {
+                    found[n++] = (T) spans[i];
+                }
+            }
+            return n == count ? found : Arrays.copyOf(found, n);
+        }
+
+        @Override
+        public int getSpanStart(Object tag) {
+            int i = indexOf(tag);
+            return i < 0 ? -1 : starts[i];
+        }
+
+        @Override
+        public int getSpanEnd(Object tag) {
+            int i = indexOf(tag);
+            return i < 0 ? -1 : ends[i];
+        }
+
+        @Override
+        public int getSpanFlags(Object tag) {
+            return indexOf(tag) < 0 ? 0 : Spanned.SPAN_EXCLUSIVE_EXCLUSIVE;
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public int nextSpanTransition(int start, int limit, Class kind) {
+            for (int i = 0; i < count; i++) {
+                if (kind == null || kind.isInstance(spans[i])) {
+                    if (starts[i] > start && starts[i] < limit) {
+                        limit = starts[i];
+                    }
+                    if (ends[i] > start && ends[i] < limit) {
+                        limit = ends[i];
+                    }
+                }
+            }
+            return limit;
+        }
+
+        private int indexOf(Object span) {
+            if (lastFound >= 0 && spans[lastFound] == span) {
+                return lastFound;
+            }
+            if (lastFound + 1 < count && spans[lastFound + 1] == span) {
+                return ++lastFound;
+            }
+            for (int i = 0; i < count; i++) {
+                if (spans[i] == span) {
+                    lastFound = i;
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Writes {@code data} deflated, after the flags and the lengths, unless it does not get smaller
+     *
+     * @param count       the number of chars or runs {@code data} holds
+     * @param tryHuffman  also deflates with {@link Deflater#HUFFMAN_ONLY}, keeping the smaller
+     * @return false if nothing was written
+     */
+    private static boolean writeDeflated(ByteWriter out, ByteWriter data, int count, boolean tryHuffman) {
+        byte[] deflated = deflate(data, Deflater.DEFAULT_STRATEGY, data.size);
+        if (tryHuffman) {
+            byte[] huffman = deflate(data, Deflater.HUFFMAN_ONLY, deflated == null ? data.size : deflated.length);
+            if (huffman != null) {
+                deflated = huffman;
+            }
+        }
+        if (deflated == null) {
+            return false;
+        }
+        out.writeVarint(FLAG_DEFLATED);
+        out.writeVarint(count);
+        out.writeVarint(data.size);
+        out.writeVarint(deflated.length);
+        out.write(deflated, deflated.length);
+        return true;
+    }
+
+    /**
+     * @return {@code data} as raw deflate, or null if it does not fit in {@code limit} bytes
+     */
+    private static byte[] deflate(ByteWriter data, int strategy, int limit) {
+        byte[] deflated = new byte[limit];
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try {
+            deflater.setStrategy(strategy);
+            deflater.setInput(data.bytes, 0, data.size);
+            deflater.finish();
+            int deflatedLength = 0;
+            while (!deflater.finished() && deflatedLength < limit) {
+                //The first call after a change of strategy may only apply it
+                deflatedLength += deflater.deflate(deflated, deflatedLength, limit - deflatedLength);
+            }
+            if (!deflater.finished() || deflatedLength >= limit) {
+                return null;
+            }
+            return Arrays.copyOf(deflated, deflatedLength);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static int utf8Length(CharSequence text, int length) {
+        int bytes = length;
+        for (int i = 0; i < length; i++) {
+            char c = text.charAt(i);
+            if (c >= 0x80) {
+                if (c < 0x800) {
+                    bytes += 1;
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    bytes += 2; //4 bytes for the pair of chars
+                    i++;
+                } else {
+                    bytes += 2;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * A growable byte array, written to without bounds checks on every byte
+     */
+    protected static class ByteWriter {
+        private byte[] bytes;
+        private int size;
+
+        ByteWriter(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void write(byte b) {
+            ensure(1);
+            bytes[size++] = b;
+        }
+
+        void writeVarint(int value) {
+            ensure(5);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeUtf8(CharSequence text, int length) {
+            ensure(length * 3);
+            byte[] b = bytes;
+            int n = size;
+            for (int i = 0; i < length; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    b[n++] = (byte) c;
+                } else if (c < 0x800) {
+                    b[n++] = (byte) (0xC0 | (c >> 6));
+                    b[n++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                    b[n++] = (byte) (0xF0 | (codePoint >> 18));
+                    b[n++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                    b[n++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                    b[n++] = (byte) (0x80 | (codePoint & 0x3F));
+                } else {
+                    //Lone surrogates are kept as they are, so the length of the text does not change
+                    b[n++] = (byte) (0xE0 | (c >> 12));
+                    b[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    b[n++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            size = n;
+        }
+
+        void write(byte[] b, int count) {
+            ensure(count);
+            System.arraycopy(b, 0, bytes, size, count);
+            size += count;
+        }
+
+        byte[] toByteArray() {
+            return size == bytes.length ? bytes : Arrays.copyOf(bytes, size);
+        }
+
+        private void ensure(int count) {
+            if (size + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + count));
+            }
+        }
+    }
+
+    /**
+     * Reads what {@link ByteWriter} wrote, throwing {@link IOException} at the end of the data
+     */
+    protected static class ByteReader {
+        private final byte[] bytes;
+        private int position;
+
+        ByteReader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int read() throws IOException {
+            if (position >= bytes.length) {
+                throw new IOException("Truncated rich text");
+            }
+            return bytes[position++] & 0xFF;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = read();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /**
+         * Inflates raw deflate, without a zlib header
+         */
+        byte[] inflate(int deflatedLength, int byteLength) throws IOException {
+            if (deflatedLength < 0 || byteLength < 0 || position + deflatedLength > bytes.length) {
+                throw new IOException("Truncated rich text");
+            }
+            if (byteLength > deflatedLength * 1032L + 16) {
+                throw new IOException("Malformed deflated text"); //more than deflate can make of it
+            }
+            byte[] inflated = new byte[byteLength];
+            Inflater inflater = new Inflater(true);
+            try {
+                //Some versions of zlib read one byte past a raw stream, which is there unless the stream ends the data
+                inflater.setInput(bytes, position, Math.min(deflatedLength + 1, bytes.length - position));
+                int n = inflater.inflate(inflated);
+                if (n != byteLength || !inflater.finished()) {
+                    throw new IOException("Malformed deflated text");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Malformed deflated text", e);
+            } finally {
+                inflater.end();
+            }
+            position += deflatedLength;
+            return inflated;
+        }
+
+        char[] readUtf8(int byteLength, int length) throws IOException {
+            if (byteLength < 0 || length < 0 || position + byteLength > bytes.length) {
+                throw new IOException("Truncated rich text");
+            }
+            if (length > byteLength) {
+                throw new IOException("Malformed UTF-8 in rich text"); //every char takes a byte at least
+            }
+            char[] chars = new char[length];
+            byte[] b = bytes;
+            int i = position;
+            int end = position + byteLength;
+            int n = 0;
+            try {
+                while (i < end) {
+                    int c = b[i++];
+                    if (c >= 0) {
+                        chars[n++] = (char) c;
+                    } else if ((c & 0xE0) == 0xC0) {
+                        chars[n++] = (char) (((c & 0x1F) << 6) | (b[i++] & 0x3F));
+                    } else if ((c & 0xF0) == 0xE0) {
+                        chars[n++] = (char) (((c & 0x0F) << 12) | ((b[i++] & 0x3F) << 6) | (b[i++] & 0x3F));
+                    } else {
+                        int codePoint = ((c & 0x07) << 18) | ((b[i++] & 0x3F) << 12) | ((b[i++] & 0x3F) << 6) | (b[i++] & 0x3F);
+                        if (!Character.isValidCodePoint(codePoint)) {
+                            throw new IOException("Malformed UTF-8 in rich text");
+                        }
+                        n += Character.toChars(codePoint, chars, n);
+                    }
+                }
+            } catch (ArrayIndexOutOfBoundsException e) {
+                throw new IOException("Malformed UTF-8 in rich text", e);
+            }
+            if (n != length || i != end) {
+                throw new IOException("Malformed UTF-8 in rich text");
+            }
+            position = end;
+            return chars;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.graphics.Color;
+import android.text.style.BackgroundColorSpan;
+import android.text.style.ForegroundColorSpan;
+import android.text.style.StrikethroughSpan;
+
+import com.artifexiumgames.journal.RichEditText.RichEditText.RichEditBoldSpan;
+import com.artifexiumgames.journal.RichEditText.RichEditText.RichEditItalicSpan;
+import com.artifexiumgames.journal.RichEditText.RichEditText.RichEditUnderlineSpan;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The {@link SpanFactory}s for every style {@link RichEditText} can apply.
+ * <p>
+ *  Styles without attributes (bold, italic, ...) are shared constants. Color styles carry their
+ *  color, so a new factory is made per color with {@link #foregroundColor(int)} and
+ *  {@link #backgroundColor(int)}.
+ * </p>
+ * <p>
+ *  {@link #forClass(Class)} looks the factory of a span class up, for the places that only know the class
+ *  of the style, such as the style buttons.
+ * </p>
+ *
+ * @see SpanFactory
+ */
+public final class SpanFactories {
+
+    public static final SpanFactory<RichEditBoldSpan> BOLD = new SimpleSpanFactory<RichEditBoldSpan>(RichEditBoldSpan.class, RichTextCodec.TYPE_BOLD) {
+        @Override
+        public RichEditBoldSpan newSpan() {
+            return new RichEditBoldSpan();
+        }
+    };
+
+    public static final SpanFactory<RichEditItalicSpan> ITALIC = new SimpleSpanFactory<RichEditItalicSpan>(RichEditItalicSpan.class, RichTextCodec.TYPE_ITALIC) {
+        @Override
+        public RichEditItalicSpan newSpan() {
+            return new RichEditItalicSpan();
+        }
+    };
+
+    public static final SpanFactory<RichEditUnderlineSpan> UNDERLINE = new SimpleSpanFactory<RichEditUnderlineSpan>(RichEditUnderlineSpan.class, RichTextCodec.TYPE_UNDERLINE) {
+        @Override
+        public RichEditUnderlineSpan newSpan() {
+            return new RichEditUnderlineSpan();
+        }
+    };
+
+    public static final SpanFactory<StrikethroughSpan> STRIKETHROUGH = new SimpleSpanFactory<StrikethroughSpan>(StrikethroughSpan.class, RichTextCodec.TYPE_STRIKETHROUGH) {
+        @Override
+        public StrikethroughSpan newSpan() {
+            return new StrikethroughSpan();
+        }
+    };
+
+    private static final Map<Class<?>, SpanFactory<?>> REGISTRY = new HashMap<>();
+
+    static {
+        register(BOLD);
+        register(ITALIC);
+        register(UNDERLINE);
+        register(STRIKETHROUGH);
+        register(foregroundColor(Color.BLACK));
+        register(backgroundColor(Color.WHITE));
+    }
+
+    private SpanFactories() {
+        //Static factories only
+    }
+
+    private static void register(SpanFactory<?> factory) {
+        REGISTRY.put(factory.getSpanClass(), factory);
+    }
+
+    /**
+     * Looks up the factory making spans of class {@code c}. The factories of the color spans make black
+     * text and white highlights; use {@link #foregroundColor(int)} and {@link #backgroundColor(int)}
+     * for any other color.
+     *
+     * @param c the class of the spans, e.g. {@link RichEditBoldSpan}
+     * @return the factory of {@code c}
+     * @throws IllegalArgumentException if {@link RichEditText} does not apply spans of class {@code c}
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> SpanFactory<T> forClass(Class<T> c) {
+        SpanFactory<?> factory = REGISTRY.get(c);
+        if (factory == null) {
+            throw new IllegalArgumentException("No span factory for " + c.getName());
+        }
+        return (SpanFactory<T>) factory;
+    }
+
+    /**
+     * @param color the ARGB text color
+     * @return a factory for {@link ForegroundColorSpan}s of {@code color}
+     */
+    public static ColorSpanFactory<ForegroundColorSpan> foregroundColor(int color) {
+        return new ColorSpanFactory<ForegroundColorSpan>(ForegroundColorSpan.class, RichTextCodec.TYPE_FOREGROUND_COLOR, color) {
+            @Override
+            public ForegroundColorSpan newSpan() {
+                return new ForegroundColorSpan(getColor());
+            }
+
+            @Override
+            public ForegroundColorSpan newSpanLike(ForegroundColorSpan span) {
+                return new ForegroundColorSpan(span.getForegroundColor());
+            }
+
+            @Override
+            protected int colorOf(ForegroundColorSpan span) {
+                return span.getForegroundColor();
+            }
+        };
+    }
+
+    /**
+     * @param color the ARGB highlight color
+     * @return a factory for {@link BackgroundColorSpan}s of {@code color}
+     */
+    public static ColorSpanFactory<BackgroundColorSpan> backgroundColor(int color) {
+        return new ColorSpanFactory<BackgroundColorSpan>(BackgroundColorSpan.class, RichTextCodec.TYPE_BACKGROUND_COLOR, color) {
+            @Override
+            public BackgroundColorSpan newSpan() {
+                return new BackgroundColorSpan(getColor());
+            }
+
+            @Override
+            public BackgroundColorSpan newSpanLike(BackgroundColorSpan span) {
+                return new BackgroundColorSpan(span.getBackgroundColor());
+            }
+
+            @Override
+            protected int colorOf(BackgroundColorSpan span) {
+                return span.getBackgroundColor();
+            }
+        };
+    }
+
+    /**
+     * A factory for spans that carry no attributes, where the class alone identifies the style.
+     */
+    public abstract static class SimpleSpanFactory<T> implements SpanFactory<T> {
+
+        private final Class<T> spanClass;
+        private final int type;
+
+        protected SimpleSpanFactory(Class<T> spanClass, int type) {
+            this.spanClass = spanClass;
+            this.type = type;
+        }
+
+        @Override
+        public Class<T> getSpanClass() {
+            return spanClass;
+        }
+
+        @Override
+        public int getType() {
+            return type;
+        }
+
+        @Override
+        public int getAttribute() {
+            return 0;
+        }
+
+        @Override
+        public T newSpanLike(T span) {
+            return newSpan();
+        }
+
+        /**
+         * Compares classes exactly so that e.g. the SpellChecker's {@link android.text.style.UnderlineSpan}
+         * is not mistaken for a {@link RichEditUnderlineSpan}
+         */
+        @Override
+        public boolean isSameStyle(Object span) {
+            return span != null && span.getClass() == spanClass;
+        }
+    }
+
+    /**
+     * A factory for spans that carry a single color.
+     */
+    public abstract static class ColorSpanFactory<T> implements SpanFactory<T> {
+
+        private final Class<T> spanClass;
+        private final int type;
+        private final int color;
+
+        protected ColorSpanFactory(Class<T> spanClass, int type, int color) {
+            this.spanClass = spanClass;
+            this.type = type;
+            this.color = color;
+        }
+
+        @Override
+        public Class<T> getSpanClass() {
+            return spanClass;
+        }
+
+        @Override
+        public int getType() {
+            return type;
+        }
+
+        /**
+         * @return the color, see {@link #getColor()}
+         */
+        @Override
+        public int getAttribute() {
+            return color;
+        }
+
+        public int getColor() {
+            return color;
+        }
+
+        protected abstract int colorOf(T span);
+
+        @Override
+        public boolean isSameStyle(Object span) {
+            return spanClass.isInstance(span) && colorOf(spanClass.cast(span)) == color;
+        }
+    }
+}
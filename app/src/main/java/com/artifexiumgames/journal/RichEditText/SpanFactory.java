@@ -0,0 +1,50 @@
+package com.artifexiumgames.journal.RichEditText;
+
+/**
+ * Creates and recognizes the spans of a single text style.
+ * <p>
+ *  The editor works with factories instead of reflecting on span classes so that it can both
+ *  create a new span of a style and tell whether an existing span already carries that style
+ *  (e.g. a {@link android.text.style.ForegroundColorSpan} of the <b>same</b> color).
+ * </p>
+ *
+ * @param <T> the type of span created by this factory
+ * @see SpanFactories
+ * @see SpanRunEngine
+ */
+public interface SpanFactory<T> {
+
+    /**
+     * @return The class of the spans created by this factory. Used to query the text for spans.
+     */
+    Class<T> getSpanClass();
+
+    /**
+     * @return a new span of this style
+     */
+    T newSpan();
+
+    /**
+     * @param span a span of {@link #getSpanClass()}
+     * @return a new span carrying the same attributes as {@code span}, which may be of a
+     *         different style than this factory (e.g. a color span of another color)
+     */
+    T newSpanLike(T span);
+
+    /**
+     * @return the type id of {@link RichTextCodec} of this style, e.g. {@link RichTextCodec#TYPE_BOLD}, by
+     * which it is set in a {@link StyleRunTable}, or -1 if it has none
+     */
+    int getType();
+
+    /**
+     * @return the attribute of this style in a {@link StyleRunTable}, e.g. its color, or 0 if it has none
+     */
+    int getAttribute();
+
+    /**
+     * @param span any span found within the text
+     * @return true if {@code span} is exactly of this style, class and attributes included
+     */
+    boolean isSameStyle(Object span);
+}
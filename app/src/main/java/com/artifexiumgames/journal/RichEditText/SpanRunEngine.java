@@ -0,0 +1,222 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Spannable;
+import android.text.Spanned;
+
+/**
+ * Keeps the styles of a {@link Spannable} as runs: one span per stretch of text sharing a style.
+ * <p>
+ *  When text is typed, the span of the adjacent run is stretched over the new characters instead of
+ *  a new span being added for every keystroke. A new span is only made at a style boundary, so the
+ *  number of spans stays proportional to the number of style changes rather than to the number of
+ *  characters typed.
+ * </p>
+ * <p>
+ *  Styling a range works the same way: the range and the runs of the same style it overlaps or
+ *  borders become a single run, see {@link #applyToRange(Spannable, int, int, SpanFactory)}.
+ * </p>
+ * <p>
+ *  Only the spans touching the edited range are looked at, never the whole text.
+ * </p>
+ * <p>
+ *  The styles of a styled {@link PieceTableEditable}, the editor's text, are runs already: they are set in
+ *  its {@link StyleRunTable}, see {@link SpanFactory#getType()}, and the text draws each run with a single
+ *  span. Styles the table does not have are kept as spans, as in any other text.
+ * </p>
+ *
+ * @see RichEditText#onTextChanged(CharSequence, int, int, int)
+ * @see SpanFactory
+ */
+public class SpanRunEngine {
+
+    protected static final int RUN_FLAGS = Spanned.SPAN_EXCLUSIVE_EXCLUSIVE;
+
+    /**
+     * Styles the freshly inserted text {@code [start, end)}.
+     * <ul>
+     *     <li>If {@code active}, the inserted text joins the run of {@code factory}'s style on its
+     *     left and/or right, or starts a new run if there is none.</li>
+     *     <li>Otherwise, runs of the same span class that were stretched over the inserted text are
+     *     split around it so that the new text does not carry the style.</li>
+     * </ul>
+     *
+     * @param text    the text that has been changed
+     * @param start   where the inserted text starts
+     * @param end     where the inserted text ends (exclusive)
+     * @param factory the style to apply or withhold
+     * @param active  true if the style is currently turned on (e.g. the bold button is checked)
+     */
+    public <T> void applyRun(Spannable text, int start, int end, SpanFactory<T> factory, boolean active) {
+        if (start >= end) {
+            return;
+        }
+        PieceTableEditable styled = styledFor(text, factory);
+        if (styled != null) {
+            if (active) {
+                styled.applyStyle(start, end, factory.getType(), factory.getAttribute());
+            } else {
+                styled.removeStyle(start, end, factory.getType());
+            }
+            return;
+        }
+        splitForeignRuns(text, start, end, factory, active);
+        if (active) {
+            joinRun(text, start, end, factory);
+        }
+    }
+
+    /**
+     * Extends the run on either side of {@code [start, end)} over it, merging the runs on both sides
+     * into one if they meet, or adds a new span when neither side carries the style.
+     */
+    protected <T> void joinRun(Spannable text, int start, int end, SpanFactory<T> factory) {
+        T left = null;
+        T right = null;
+        for (T span : text.getSpans(start, start, factory.getSpanClass())) {
+            if (factory.isSameStyle(span) && text.getSpanEnd(span) >= start) {
+                if (text.getSpanEnd(span) >= end && text.getSpanStart(span) <= start) {
+                    return; //already covered, e.g. the text was typed in the middle of the run
+                }
+                if (text.getSpanStart(span) < start) {
+                    left = span;
+                    break;
+                }
+            }
+        }
+        for (T span : text.getSpans(end, end, factory.getSpanClass())) {
+            if (span != left && factory.isSameStyle(span) && text.getSpanStart(span) <= end && text.getSpanEnd(span) > end) {
+                right = span;
+                break;
+            }
+        }
+
+        if (left != null && right != null) {
+            int rightEnd = text.getSpanEnd(right);
+            text.removeSpan(right);
+            text.setSpan(left, text.getSpanStart(left), rightEnd, RUN_FLAGS);
+        } else if (left != null) {
+            text.setSpan(left, text.getSpanStart(left), end, RUN_FLAGS);
+        } else if (right != null) {
+            text.setSpan(right, start, text.getSpanEnd(right), RUN_FLAGS);
+        } else {
+            text.setSpan(factory.newSpan(), start, end, RUN_FLAGS);
+        }
+    }
+
+    /**
+     * Cuts {@code [start, end)} out of every run of {@code factory}'s span class that reaches past the
+     * inserted text and is not of the style being applied. Spans lying entirely within the inserted
+     * text arrived with it (e.g. pasted text) and are left alone.
+     */
+    protected <T> void splitForeignRuns(Spannable text, int start, int end, SpanFactory<T> factory, boolean active) {
+        for (T span : text.getSpans(start, end, factory.getSpanClass())) {
+            if (active && factory.isSameStyle(span)) {
+                continue;
+            }
+            int spanStart = text.getSpanStart(span);
+            int spanEnd = text.getSpanEnd(span);
+            if (spanStart < start || spanEnd > end) {
+                cut(text, span, spanStart, spanEnd, start, end, factory);
+            }
+        }
+    }
+
+    /**
+     * Styles {@code [start, end)} with a single span. Runs of the same style overlapping or bordering
+     * the range are merged into it, and runs of the same span class but another style (e.g. another
+     * color) are cut out of the range.
+     *
+     * @param text    the text to style
+     * @param start   start of the range, usually the selection
+     * @param end     end of the range (exclusive)
+     * @param factory the style to apply
+     */
+    public <T> void applyToRange(Spannable text, int start, int end, SpanFactory<T> factory) {
+        if (start >= end) {
+            return;
+        }
+        PieceTableEditable styled = styledFor(text, factory);
+        if (styled != null) {
+            styled.applyStyle(start, end, factory.getType(), factory.getAttribute());
+            return;
+        }
+        T run = null;
+        int runStart = start;
+        int runEnd = end;
+        //One character wider than the range, to find the runs bordering it as well
+        for (T span : text.getSpans(Math.max(0, start - 1), Math.min(text.length(), end + 1), factory.getSpanClass())) {
+            int spanStart = text.getSpanStart(span);
+            int spanEnd = text.getSpanEnd(span);
+            if (spanEnd < start || spanStart > end) {
+                continue;
+            }
+            if (!factory.isSameStyle(span)) {
+                if (spanEnd > start && spanStart < end) {
+                    cut(text, span, spanStart, spanEnd, start, end, factory);
+                }
+            } else if (run == null) {
+                run = span;
+                runStart = Math.min(runStart, spanStart);
+                runEnd = Math.max(runEnd, spanEnd);
+            } else {
+                runStart = Math.min(runStart, spanStart);
+                runEnd = Math.max(runEnd, spanEnd);
+                text.removeSpan(span);
+            }
+        }
+        text.setSpan(run != null ? run : factory.newSpan(), runStart, runEnd, RUN_FLAGS);
+    }
+
+    /**
+     * Removes the style of {@code factory}'s span class from {@code [start, end)}, whatever its
+     * attributes. Runs reaching outside of the range keep the part outside of it.
+     * Spans of a subclass (e.g. the SpellChecker's underline) are left alone.
+     *
+     * @param text    the text to remove the style from
+     * @param start   start of the range, usually the selection
+     * @param end     end of the range (exclusive)
+     * @param factory the style to remove, used to copy runs split in two
+     */
+    public <T> void removeRun(Spannable text, int start, int end, SpanFactory<T> factory) {
+        if (start >= end) {
+            return;
+        }
+        PieceTableEditable styled = styledFor(text, factory);
+        if (styled != null) {
+            styled.removeStyle(start, end, factory.getType());
+            return;
+        }
+        for (T span : text.getSpans(start, end, factory.getSpanClass())) {
+            if (span.getClass() == factory.getSpanClass()) {
+                cut(text, span, text.getSpanStart(span), text.getSpanEnd(span), start, end, factory);
+            }
+        }
+    }
+
+    /**
+     * Cuts {@code [start, end)} out of {@code span}, removing it if nothing is left
+     */
+    protected <T> void cut(Spannable text, T span, int spanStart, int spanEnd, int start, int end, SpanFactory<T> factory) {
+        boolean keepsLeft = spanStart < start;
+        boolean keepsRight = spanEnd > end;
+        if (keepsLeft && keepsRight) {
+            text.setSpan(span, spanStart, start, RUN_FLAGS);
+            text.setSpan(factory.newSpanLike(span), end, spanEnd, RUN_FLAGS);
+        } else if (keepsLeft) {
+            text.setSpan(span, spanStart, start, RUN_FLAGS);
+        } else if (keepsRight) {
+            text.setSpan(span, end, spanEnd, RUN_FLAGS);
+        } else {
+            text.removeSpan(span);
+        }
+    }
+
+    /**
+     * @return {@code text} if it is styled and its table has the style of {@code factory}, else null
+     */
+    protected static PieceTableEditable styledFor(Spannable text, SpanFactory<?> factory) {
+        PieceTableEditable styled = PieceTableEditable.asStyled(text);
+        int type = factory.getType();
+        return styled != null && type >= 0 && type <= StyleRunTable.MAX_TYPE ? styled : null;
+    }
+}
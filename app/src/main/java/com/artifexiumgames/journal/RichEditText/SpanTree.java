@@ -0,0 +1,495 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Spanned;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The spans of a {@link PieceTableEditable}: an interval tree whose positions can all be shifted at once.
+ * <p>
+ *  The spans are the nodes of a treap sorted by their start, each node also knowing the greatest end of
+ *  its subtree, so the spans overlapping a range are found in O(log s + k) for s spans and k found,
+ *  expected as the depth of a treap is.
+ *  A node can carry a pending shift of its whole subtree. When text is inserted or deleted, the spans
+ *  after the edit are shifted with a single split and merge, in O(log s), instead of one by one: only
+ *  the few spans the edit is within or next to are moved separately, see
+ *  {@link PieceTableEditable#replace(int, int, CharSequence, int, int)}.
+ * </p>
+ * <p>
+ *  The nodes are kept in primitive arrays, indexed by node, node 0 standing for no node. Every node
+ *  knows its parent, so the position of a span is read in O(log s), and a span is found by its
+ *  object in O(1).
+ * </p>
+ */
+class SpanTree {
+
+    static final int NIL = 0;
+
+    private Object[] spans;
+    private int[] start;
+    private int[] end;
+    private int[] maxEnd;
+    private int[] shift;
+    private int[] flags;
+    private int[] order;
+    private int[] left;
+    private int[] right;
+    private int[] parent;
+    private int[] priority;
+    private int nodeCapacity;
+    private int nodeCount = 1;
+    private int freeNodes = NIL;
+    private int root = NIL;
+    private int nextOrder;
+    private int seed = 0x6C8E9CF5;
+    private Map<Object, Integer> nodes = new IdentityHashMap<>();
+
+    /**
+     * The nodes found by the latest {@link #collect(int, int)}
+     */
+    private int[] found = new int[16];
+    private int foundCount;
+
+    /**
+     * Set by {@link #split(int, int)}: the two trees the split made
+     */
+    private int splitLeft;
+    private int splitRight;
+
+    SpanTree() {
+        nodeCapacity = 16;
+        spans = new Object[nodeCapacity];
+        start = new int[nodeCapacity];
+        end = new int[nodeCapacity];
+        maxEnd = new int[nodeCapacity];
+        shift = new int[nodeCapacity];
+        flags = new int[nodeCapacity];
+        order = new int[nodeCapacity];
+        left = new int[nodeCapacity];
+        right = new int[nodeCapacity];
+        parent = new int[nodeCapacity];
+        priority = new int[nodeCapacity];
+        maxEnd[NIL] = Integer.MIN_VALUE;
+    }
+
+    /**
+     * @return the node of {@code span}, or {@link #NIL} if it is not in the tree
+     */
+    int find(Object span) {
+        Integer node = nodes.get(span);
+        return node == null ? NIL : node;
+    }
+
+    Object spanOf(int node) {
+        return spans[node];
+    }
+
+    int flagsOf(int node) {
+        return flags[node];
+    }
+
+    int startOf(int node) {
+        return start[node] + pendingShift(node);
+    }
+
+    int endOf(int node) {
+        return end[node] + pendingShift(node);
+    }
+
+    /**
+     * Adds a span that is not in the tree yet
+     *
+     * @return its node
+     */
+    int add(Object span, int spanStart, int spanEnd, int spanFlags) {
+        int node = newNode();
+        spans[node] = span;
+        flags[node] = spanFlags;
+        order[node] = nextOrder++;
+        nodes.put(span, node);
+        insert(node, spanStart, spanEnd);
+        return node;
+    }
+
+    /**
+     * Adds the spans of a copied text to an empty tree, in O(s) rather than O(s log s): as the spans come
+     * by start, the treap is built from left to right, each node going down the right side of the tree
+     * until it meets a node of higher priority.
+     *
+     * @param count the number of spans, sorted by start, the first ones in {@code spanObjects} being
+     *              added first
+     */
+    void addAll(Object[] spanObjects, int[] spanStarts, int[] spanEnds, int[] spanFlags, int count) {
+        if (root != NIL) {
+            throw new IllegalStateException("The tree is not empty");
+        }
+        nodes = new IdentityHashMap<>(count);
+        int[] rightSide = new int[16];
+        int depth = 0;
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && spanStarts[i] < spanStarts[i - 1]) {
+                throw new IllegalArgumentException("The spans are not by start");
+            }
+            int node = newNode();
+            spans[node] = spanObjects[i];
+            flags[node] = spanFlags[i];
+            order[node] = nextOrder++;
+            nodes.put(spanObjects[i], node);
+            start[node] = spanStarts[i];
+            end[node] = spanEnds[i];
+            shift[node] = 0;
+            left[node] = NIL;
+            right[node] = NIL;
+
+            //The nodes of lower priority on the right side are complete, and go left of the new one
+            int below = NIL;
+            while (depth > 0 && priority[rightSide[depth - 1]] < priority[node]) {
+                below = rightSide[--depth];
+                update(below);
+            }
+            left[node] = below;
+            if (depth > 0) {
+                right[rightSide[depth - 1]] = node;
+            }
+            if (depth == rightSide.length) {
+                rightSide = Arrays.copyOf(rightSide, depth * 2);
+            }
+            rightSide[depth++] = node;
+        }
+        while (depth > 0) {
+            update(rightSide[--depth]);
+        }
+        root = count > 0 ? rightSide[0] : NIL;
+        parent[root] = NIL;
+    }
+
+    /**
+     * Moves a span of the tree, keeping the order in which it was added
+     */
+    void set(int node, int spanStart, int spanEnd, int spanFlags) {
+        detach(node);
+        flags[node] = spanFlags;
+        insert(node, spanStart, spanEnd);
+    }
+
+    /**
+     * Removes a span from the tree
+     */
+    void remove(int node) {
+        detach(node);
+        free(node);
+    }
+
+    /**
+     * Takes a span out of the tree, to be put back with {@link #insert(int, int, int)} or dropped with
+     * {@link #free(int)}. The span can still be found with {@link #find(Object)} in the meantime.
+     */
+    void detach(int node) {
+        pushFromRoot(node);
+        int merged = merge(left[node], right[node]);
+        int above = parent[node];
+        if (above == NIL) {
+            root = merged;
+        } else if (left[above] == node) {
+            left[above] = merged;
+        } else {
+            right[above] = merged;
+        }
+        parent[merged] = above;
+        for (int n = above; n != NIL; n = parent[n]) {
+            update(n);
+        }
+        parent[root] = NIL;
+    }
+
+    /**
+     * Puts a span taken out with {@link #detach(int)} back into the tree, at a new place
+     */
+    void insert(int node, int spanStart, int spanEnd) {
+        start[node] = spanStart;
+        end[node] = spanEnd;
+        maxEnd[node] = spanEnd;
+        shift[node] = 0;
+        left[node] = NIL;
+        right[node] = NIL;
+        split(root, spanStart);
+        int after = splitRight;
+        root = merge(merge(splitLeft, node), after);
+        parent[root] = NIL;
+    }
+
+    /**
+     * Forgets a span taken out with {@link #detach(int)}
+     */
+    void free(int node) {
+        nodes.remove(spans[node]);
+        spans[node] = null;
+        left[node] = freeNodes;
+        freeNodes = node;
+    }
+
+    /**
+     * Shifts every span starting after {@code position} by {@code delta}, in O(log s)
+     */
+    void shiftAfter(int position, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        split(root, position + 1);
+        if (splitRight != NIL) {
+            shift[splitRight] += delta;
+        }
+        root = merge(splitLeft, splitRight);
+        parent[root] = NIL;
+    }
+
+    /**
+     * Finds the spans overlapping the range from {@code from} to {@code to}, both included: the spans
+     * starting at or before {@code to} and ending at or after {@code from}. They are found sorted by their
+     * start, see {@link #found(int)}.
+     *
+     * @return the number of spans found
+     */
+    int collect(int from, int to) {
+        foundCount = 0;
+        collect(root, 0, from, to);
+        return foundCount;
+    }
+
+    /**
+     * @return the node of the {@code index}th span found by the latest {@link #collect(int, int)}
+     */
+    int found(int index) {
+        return found[index];
+    }
+
+    /**
+     * @return the first start or end of a span of class {@code kind} after {@code from} and before
+     * {@code limit}, or {@code limit} if there is none
+     */
+    int nextTransition(int from, int limit, Class<?> kind) {
+        return nextTransition(root, 0, from, limit, kind);
+    }
+
+    /**
+     * Sorts nodes the way {@link Spanned#getSpans(int, int, Class)} returns spans: by priority, then in
+     * the order they were added
+     */
+    void sortByOrder(int[] sorted, int count) {
+        if (count > 1) {
+            sort(sorted, Arrays.copyOf(sorted, count), 0, count);
+        }
+    }
+
+    /**
+     * Merge sorts {@code nodes} from {@code from} to {@code to}, with {@code copy} holding the same nodes
+     */
+    private void sort(int[] nodes, int[] copy, int from, int to) {
+        if (to - from <= 16) {
+            for (int i = from + 1; i < to; i++) {
+                int node = nodes[i];
+                int j = i - 1;
+                while (j >= from && comesAfter(nodes[j], node)) {
+                    nodes[j + 1] = nodes[j];
+                    j--;
+                }
+                nodes[j + 1] = node;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        sort(copy, nodes, from, middle);
+        sort(copy, nodes, middle, to);
+        for (int i = from, a = from, b = middle; i < to; i++) {
+            if (b == to || (a < middle && !comesAfter(copy[a], copy[b]))) {
+                nodes[i] = copy[a++];
+            } else {
+                nodes[i] = copy[b++];
+            }
+        }
+    }
+
+    private boolean comesAfter(int node, int other) {
+        int priority = flags[node] & Spanned.SPAN_PRIORITY;
+        int otherPriority = flags[other] & Spanned.SPAN_PRIORITY;
+        if (priority != otherPriority) {
+            return priority < otherPriority;
+        }
+        return order[node] > order[other];
+    }
+
+    private void collect(int node, int pending, int from, int to) {
+        while (node != NIL) {
+            pending += shift[node];
+            if (maxEnd[node] + pending < from) {
+                return;
+            }
+            collect(left[node], pending, from, to);
+            if (start[node] + pending > to) {
+                return;
+            }
+            if (end[node] + pending >= from) {
+                if (foundCount == found.length) {
+                    found = Arrays.copyOf(found, foundCount * 2);
+                }
+                found[foundCount++] = node;
+            }
+            node = right[node];
+        }
+    }
+
+    private int nextTransition(int node, int pending, int from, int limit, Class<?> kind) {
+        while (node != NIL) {
+            pending += shift[node];
+            if (maxEnd[node] + pending <= from) {
+                return limit;
+            }
+            limit = nextTransition(left[node], pending, from, limit, kind);
+            int spanStart = start[node] + pending;
+            if (spanStart >= limit) {
+                return limit;
+            }
+            if (kind.isInstance(spans[node])) {
+                int spanEnd = end[node] + pending;
+                if (spanStart > from) {
+                    limit = spanStart;
+                }
+                if (spanEnd > from && spanEnd < limit) {
+                    limit = spanEnd;
+                }
+            }
+            node = right[node];
+        }
+        return limit;
+    }
+
+    /**
+     * @return the shift pending on {@code node} from itself and every node above it
+     */
+    private int pendingShift(int node) {
+        int pending = 0;
+        for (int n = node; n != NIL; n = parent[n]) {
+            pending += shift[n];
+        }
+        return pending;
+    }
+
+    /**
+     * Applies the shifts pending on {@code node} from the nodes above it, from the root down
+     */
+    private void pushFromRoot(int node) {
+        int above = parent[node];
+        if (above != NIL) {
+            pushFromRoot(above);
+        }
+        push(node);
+    }
+
+    private void push(int node) {
+        int pending = shift[node];
+        if (pending != 0) {
+            start[node] += pending;
+            end[node] += pending;
+            maxEnd[node] += pending;
+            if (left[node] != NIL) {
+                shift[left[node]] += pending;
+            }
+            if (right[node] != NIL) {
+                shift[right[node]] += pending;
+            }
+            shift[node] = 0;
+        }
+    }
+
+    /**
+     * Splits a tree by start: {@link #splitLeft} gets the spans starting before {@code key} and
+     * {@link #splitRight} the others
+     */
+    private void split(int node, int key) {
+        if (node == NIL) {
+            splitLeft = NIL;
+            splitRight = NIL;
+            return;
+        }
+        push(node);
+        if (key <= start[node]) {
+            split(left[node], key);
+            left[node] = splitRight;
+            update(node);
+            splitRight = node;
+        } else {
+            split(right[node], key);
+            right[node] = splitLeft;
+            update(node);
+            splitLeft = node;
+        }
+    }
+
+    private int merge(int first, int second) {
+        if (first == NIL) {
+            return second;
+        }
+        if (second == NIL) {
+            return first;
+        }
+        if (priority[first] > priority[second]) {
+            push(first);
+            right[first] = merge(right[first], second);
+            update(first);
+            return first;
+        }
+        push(second);
+        left[second] = merge(first, left[second]);
+        update(second);
+        return second;
+    }
+
+    /**
+     * Recomputes the greatest end of a node without pending shift, and links its children to it
+     */
+    private void update(int node) {
+        int max = end[node];
+        int child = left[node];
+        if (child != NIL) {
+            max = Math.max(max, maxEnd[child] + shift[child]);
+            parent[child] = node;
+        }
+        child = right[node];
+        if (child != NIL) {
+            max = Math.max(max, maxEnd[child] + shift[child]);
+            parent[child] = node;
+        }
+        maxEnd[node] = max;
+    }
+
+    private int newNode() {
+        int node = freeNodes;
+        if (node != NIL) {
+            freeNodes = left[node];
+        } else {
+            if (nodeCount == nodeCapacity) {
+                nodeCapacity *= 2;
+                spans = Arrays.copyOf(spans, nodeCapacity);
+                start = Arrays.copyOf(start, nodeCapacity);
+                end = Arrays.copyOf(end, nodeCapacity);
+                maxEnd = Arrays.copyOf(maxEnd, nodeCapacity);
+                shift = Arrays.copyOf(shift, nodeCapacity);
+                flags = Arrays.copyOf(flags, nodeCapacity);
+                order = Arrays.copyOf(order, nodeCapacity);
+                left = Arrays.copyOf(left, nodeCapacity);
+                right = Arrays.copyOf(right, nodeCapacity);
+                parent = Arrays.copyOf(parent, nodeCapacity);
+                priority = Arrays.copyOf(priority, nodeCapacity);
+            }
+            node = nodeCount++;
+        }
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        priority[node] = seed;
+        parent[node] = NIL;
+        return node;
+    }
+}
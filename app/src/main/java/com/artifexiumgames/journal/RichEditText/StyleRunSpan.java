@@ -0,0 +1,129 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.annotation.SuppressLint;
+import android.graphics.Typeface;
+import android.text.TextPaint;
+import android.text.style.MetricAffectingSpan;
+
+/**
+ * Draws every style of a run of a {@link StyleRunTable} at once, in place of a span per style: bold,
+ * italic, underline, strikethrough, colors, relative size, subscript and superscript, as their own spans
+ * draw them.
+ * <p>
+ *  The span only keeps the two longs of the run, see {@link StyleRunTable}, and where the run is in the
+ *  version of the text it was made for, and cannot be changed.
+ * </p>
+ *
+ * @see PieceTableEditable
+ */
+@SuppressLint("ParcelCreator")
+public class StyleRunSpan extends MetricAffectingSpan implements StyleRunTable.RunSpan {
+
+    private final long style;
+    private final long colors;
+    private final Object version;
+    private final int runStart;
+    private final int runEnd;
+
+    public StyleRunSpan(long style, long colors) {
+        this(style, colors, null, 0, 0);
+    }
+
+    /**
+     * @see RichTextCodec.SpanTypes#newRunSpan(long, long, Object, int, int)
+     */
+    public StyleRunSpan(long style, long colors, Object version, int runStart, int runEnd) {
+        this.style = style;
+        this.colors = colors;
+        this.version = version;
+        this.runStart = runStart;
+        this.runEnd = runEnd;
+    }
+
+    @Override
+    public long getStyle() {
+        return style;
+    }
+
+    @Override
+    public long getColors() {
+        return colors;
+    }
+
+    @Override
+    public Object getVersion() {
+        return version;
+    }
+
+    @Override
+    public int getRunStart() {
+        return runStart;
+    }
+
+    @Override
+    public int getRunEnd() {
+        return runEnd;
+    }
+
+    @Override
+    public void updateMeasureState(TextPaint paint) {
+        applyMetrics(paint);
+    }
+
+    @Override
+    public void updateDrawState(TextPaint paint) {
+        applyMetrics(paint);
+        if (StyleRunTable.hasStyle(style, RichTextCodec.TYPE_UNDERLINE)) {
+            paint.setUnderlineText(true);
+        }
+        if (StyleRunTable.hasStyle(style, RichTextCodec.TYPE_STRIKETHROUGH)) {
+            paint.setStrikeThruText(true);
+        }
+        if (StyleRunTable.hasStyle(style, RichTextCodec.TYPE_FOREGROUND_COLOR)) {
+            paint.setColor(StyleRunTable.foregroundOf(colors));
+        }
+        if (StyleRunTable.hasStyle(style, RichTextCodec.TYPE_BACKGROUND_COLOR)) {
+            paint.bgColor = StyleRunTable.backgroundOf(colors);
+        }
+    }
+
+    /**
+     * The styles changing the size of the text, in the order of their types, in which a stretch of their
+     * spans is set: the typeface, then the baseline, shifted by half the ascent of the text before it is
+     * resized, then the size
+     */
+    private void applyMetrics(TextPaint paint) {
+        int typefaceStyle = (StyleRunTable.hasStyle(style, RichTextCodec.TYPE_BOLD) ? Typeface.BOLD : 0)
+                | (StyleRunTable.hasStyle(style, RichTextCodec.TYPE_ITALIC) ? Typeface.ITALIC : 0);
+        if (typefaceStyle != 0) {
+            applyTypeface(paint, typefaceStyle);
+        }
+        if (StyleRunTable.hasStyle(style, RichTextCodec.TYPE_SUBSCRIPT)) {
+            paint.baselineShift -= (int) (paint.ascent() / 2);
+        }
+        if (StyleRunTable.hasStyle(style, RichTextCodec.TYPE_SUPERSCRIPT)) {
+            paint.baselineShift += (int) (paint.ascent() / 2);
+        }
+        if (StyleRunTable.hasStyle(style, RichTextCodec.TYPE_RELATIVE_SIZE)) {
+            paint.setTextSize(paint.getTextSize() * StyleRunTable.relativeSizeOf(style));
+        }
+    }
+
+    /**
+     * Adds {@code typefaceStyle} to the typeface of the paint, faking what the typeface does not have, as
+     * {@link android.text.style.StyleSpan} does
+     */
+    private static void applyTypeface(TextPaint paint, int typefaceStyle) {
+        Typeface old = paint.getTypeface();
+        int wanted = (old == null ? Typeface.NORMAL : old.getStyle()) | typefaceStyle;
+        Typeface typeface = old == null ? Typeface.defaultFromStyle(wanted) : Typeface.create(old, wanted);
+        int fake = wanted & ~typeface.getStyle();
+        if ((fake & Typeface.BOLD) != 0) {
+            paint.setFakeBoldText(true);
+        }
+        if ((fake & Typeface.ITALIC) != 0) {
+            paint.setTextSkewX(-0.25f);
+        }
+        paint.setTypeface(typeface);
+    }
+}
@@ -0,0 +1,913 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Spannable;
+import android.text.Spanned;
+
+import java.util.Arrays;
+
+/**
+ * The styles of a text as a table of runs in parallel arrays of primitives, rather than a span object per
+ * style and stretch of text: the styles of the editor's text, see {@link PieceTableEditable#getStyleRuns()}.
+ * <p>
+ *  The runs cover the text end to end, and two runs next to each other never have the same styles. A run
+ *  is where it starts, in {@code int[] starts}, its styles, in {@code long[] styles}, and its colors, in
+ *  {@code long[] colors}:
+ *  <ul>
+ *      <li>styles: a bit by type id of {@link RichTextCodec} in the low 32 bits ({@code 1 << type}), from
+ *      {@link RichTextCodec#TYPE_BOLD} to {@link RichTextCodec#TYPE_RELATIVE_SIZE}, and the relative size,
+ *      as float bits, in the high 32 bits</li>
+ *      <li>colors: the ARGB foreground in the high 32 bits, the ARGB background in the low 32 bits</li>
+ *  </ul>
+ *  The attributes of the styles a run does not have are 0, so two runs have the same styles exactly when
+ *  their longs are equal.
+ * </p>
+ * <p>
+ *  A run takes 20 bytes in the arrays, and about an eighth of a byte in the index of their types, and that
+ *  is all a styled {@link PieceTableEditable} keeps of it: the {@link RunSpan} drawing it is made when the
+ *  layout asks for the spans over it, and held by no one once drawn. The same stretch as spans takes a span object per style, of 16 bytes or more, and a node per span
+ *  in the {@link Spannable}, of about a hundred bytes in a {@link SpanTree}.
+ * </p>
+ * <p>
+ *  The arrays are a gap buffer: the runs before the gap are at their start, and know where they start in
+ *  the text; the runs after it are at their end, and know where they start from the end of the text, so
+ *  that an edit does not move them. For r runs:
+ *  <ul>
+ *      <li>which run a position is in, and where a run starts, are found in O(log r) and O(1)</li>
+ *      <li>an edit of the text, see {@link #replace(int, int, int)}, moves the gap to the runs it touches
+ *      and puts the k runs of the edit in or out of it: O(log r + k + d), d being the number of runs
+ *      between this edit and the last one. Typing in one place, d stays small; jumping from the start of
+ *      the text to its end, it is at most r.</li>
+ *      <li>setting or removing a style, or clearing every style, is a pass over the k runs of the range,
+ *      see {@link #apply(int, int, int, int)}, {@link #remove(int, int, int)} and
+ *      {@link #clearFormatting(int, int)}, in the same O(log r + k + d)</li>
+ *      <li>the last run of a range with a style, see {@link #findStyle(int, int, int)}, is found in
+ *      O(log r) whatever the length of the range: past its last 64 runs, looked at one by one, the types
+ *      of the runs are also kept by block of 64 slots, then of 64 blocks and so on, so that the blocks
+ *      without the style are skipped whole, and at most two blocks a level, those at the ends of the range,
+ *      are looked into. Every pass over slots above updates the blocks of the slots it writes, at no more
+ *      cost.</li>
+ *      <li>the arrays are doubled once full, so that adding runs costs O(1) more each, amortized; nothing
+ *      else allocates</li>
+ *  </ul>
+ * </p>
+ * <p>
+ *  A table is read from the spans of a text with {@link #fromSpans(Spanned, int, int, RichTextCodec.SpanTypes)}
+ *  or from the runs of {@link RichTextCodec#decodeRuns(byte[])} with {@link #fromRuns(RichTextCodec.Runs)},
+ *  and written as runs for the codec with {@link #toRuns(char[])}.
+ * </p>
+ * <p>
+ *  A character has a style or not: nested subscripts or superscripts count once. Relative sizes multiply
+ *  when read from spans, as they draw. Styles of other types, custom ones, are not part of the table and
+ *  are left alone.
+ * </p>
+ *
+ * @see PieceTableEditable
+ */
+public class StyleRunTable {
+
+    /**
+     * The last type id of the table
+     */
+    public static final int MAX_TYPE = RichTextCodec.TYPE_RELATIVE_SIZE;
+    /**
+     * The bytes of a run in the arrays, all a styled text holds per run but its share of the type index
+     */
+    public static final int BYTES_PER_RUN = 4 + 8 + 8;
+
+    protected static final long LOW_BITS = 0xFFFFFFFFL;
+    protected static final long HIGH_BITS = 0xFFFFFFFF00000000L;
+    protected static final long FOREGROUND = 1L << RichTextCodec.TYPE_FOREGROUND_COLOR;
+    protected static final long BACKGROUND = 1L << RichTextCodec.TYPE_BACKGROUND_COLOR;
+    protected static final long RELATIVE_SIZE = 1L << RichTextCodec.TYPE_RELATIVE_SIZE;
+    protected static final long ALL_TYPES = (1L << (MAX_TYPE + 1)) - 1;
+
+    /**
+     * A span drawing every style of a run at once, see {@link StyleRunSpan}. Nothing of it ever changes.
+     * <p>
+     *  A styled {@link PieceTableEditable} makes the span of a run when asked for the spans over it, for the
+     *  version of the text it is asked in: the span is the text's, over its run, until the text or its
+     *  styles change, and is then no longer in the text, as a removed span.
+     * </p>
+     *
+     * @see RichTextCodec.SpanTypes#newRunSpan(long, long, Object, int, int)
+     */
+    public interface RunSpan {
+        /**
+         * @return the styles of the run, see {@link StyleRunTable}
+         */
+        long getStyle();
+
+        /**
+         * @return the colors of the run, see {@link StyleRunTable}
+         */
+        long getColors();
+
+        /**
+         * @return the version of the styled text the span was made for, or null for a span of no text
+         */
+        Object getVersion();
+
+        /**
+         * @return where the run starts in the version of the text the span was made for
+         */
+        int getRunStart();
+
+        /**
+         * @return where the run ends in the version of the text the span was made for
+         */
+        int getRunEnd();
+    }
+
+    /**
+     * Where every run starts, by slot: the runs before {@link #gapStart} are at the start of the arrays,
+     * from the start of the text, the others at their end, from the end of the text ({@code start - length})
+     */
+    protected int[] starts;
+    protected long[] styles;
+    protected long[] colors;
+    protected int count;
+    protected int gapStart;
+    protected int length;
+    /**
+     * The types of the runs by block: {@code typeIndex[0]} has the types of 64 slots in each long, as in
+     * {@code styles}, {@code typeIndex[1]} those of 64 longs of {@code typeIndex[0]}, and so on up to a
+     * single long. The slots of the gap count with what they last had: a block may have types none of its
+     * runs has, never one less.
+     */
+    protected long[][] typeIndex;
+    /**
+     * The last two runs {@link #findRun(int)} found, where it looks first
+     */
+    private int lastFound;
+    private int foundBefore;
+
+    /**
+     * @param length the length of the text, without any style
+     */
+    public StyleRunTable(int length) {
+        this(length, 8);
+    }
+
+    protected StyleRunTable(int length, int capacity) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Negative length " + length);
+        }
+        this.length = length;
+        starts = new int[Math.max(1, capacity)];
+        styles = new long[starts.length];
+        colors = new long[starts.length];
+        typeIndex = newTypeIndex(starts.length);
+        count = 1;
+        gapStart = 1;
+    }
+
+    /**
+     * Reads the styles of {@code [start, end)} of a text, from its spans of a type of the table and its
+     * {@link RunSpan}s
+     *
+     * @return the table of the range, its positions from {@code start}
+     */
+    public static StyleRunTable fromSpans(Spanned text, int start, int end, RichTextCodec.SpanTypes types) {
+        Object[] spans = text.getSpans(start, end, Object.class);
+        int[] spanStarts = new int[spans.length];
+        int[] spanEnds = new int[spans.length];
+        long[] spanStyles = new long[spans.length];
+        long[] spanColors = new long[spans.length];
+        int n = 0;
+        for (Object span : spans) {
+            if (span instanceof RunSpan) {
+                spanStyles[n] = ((RunSpan) span).getStyle();
+                spanColors[n] = ((RunSpan) span).getColors();
+            } else {
+                int type = types.typeOf(span);
+                if (type < 0 || type > MAX_TYPE) {
+                    continue;
+                }
+                int attribute = types.hasAttribute(type) ? types.attributeOf(span) : 0;
+                spanStyles[n] = styleOf(type, attribute);
+                spanColors[n] = colorsOf(type, attribute);
+            }
+            spanStarts[n] = Math.max(text.getSpanStart(span), start) - start;
+            spanEnds[n] = Math.min(text.getSpanEnd(span), end) - start;
+            n++;
+        }
+        return paint(end - start, n, spanStarts, spanEnds, spanStyles, spanColors);
+    }
+
+    /**
+     * Reads the styles of runs decoded by {@link RichTextCodec#decodeRuns(byte[])}
+     */
+    public static StyleRunTable fromRuns(RichTextCodec.Runs runs) {
+        long[] runStyles = new long[runs.count];
+        long[] runColors = new long[runs.count];
+        int[] runStarts = new int[runs.count];
+        int[] runEnds = new int[runs.count];
+        int n = 0;
+        for (int i = 0; i < runs.count; i++) {
+            int type = runs.types[i];
+            if (type >= 0 && type <= MAX_TYPE) {
+                runStarts[n] = runs.starts[i];
+                runEnds[n] = runs.ends[i];
+                runStyles[n] = styleOf(type, runs.attributes[i]);
+                runColors[n] = colorsOf(type, runs.attributes[i]);
+                n++;
+            }
+        }
+        return paint(runs.text.length, n, runStarts, runEnds, runStyles, runColors);
+    }
+
+    /**
+     * Makes the table of styles set over ranges, in the order they were set: a run starts wherever a range
+     * starts or ends, then every range is painted over its runs, the last color winning
+     */
+    private static StyleRunTable paint(int length, int n, int[] rangeStarts, int[] rangeEnds, long[] rangeStyles, long[] rangeColors) {
+        int[] boundaries = new int[n * 2];
+        int boundaryCount = 0;
+        for (int i = 0; i < n; i++) {
+            if (rangeStarts[i] < rangeEnds[i]) {
+                boundaries[boundaryCount++] = rangeStarts[i];
+                boundaries[boundaryCount++] = rangeEnds[i];
+            }
+        }
+        Arrays.sort(boundaries, 0, boundaryCount);
+        int runCount = 1;
+        for (int i = 0; i < boundaryCount; i++) {
+            if (boundaries[i] > (runCount == 1 ? 0 : boundaries[runCount - 2]) && boundaries[i] < length) {
+                boundaries[runCount++ - 1] = boundaries[i];
+            }
+        }
+        StyleRunTable table = new StyleRunTable(length, runCount);
+        System.arraycopy(boundaries, 0, table.starts, 1, runCount - 1);
+        table.count = runCount;
+        table.gapStart = runCount;
+        for (int i = 0; i < n; i++) {
+            if (rangeStarts[i] >= rangeEnds[i]) {
+                continue;
+            }
+            for (int r = table.findRun(rangeStarts[i]); r < table.count && table.starts[r] < rangeEnds[i]; r++) {
+                table.paint(r, rangeStyles[i], rangeColors[i]);
+            }
+        }
+        table.coalesce(0, table.count);
+        table.index(0, table.count);
+        return table;
+    }
+
+    /**
+     * Adds styles to a run, as a span of them set over it would show
+     */
+    private void paint(int run, long style, long color) {
+        long flags = style & LOW_BITS;
+        long size = styles[run] & HIGH_BITS;
+        if ((flags & RELATIVE_SIZE) != 0) {
+            size = (long) Float.floatToIntBits(relativeSizeOf(styles[run]) * relativeSizeOf(style)) << 32;
+        }
+        styles[run] = (styles[run] | flags) & LOW_BITS | size;
+        if ((flags & FOREGROUND) != 0) {
+            colors[run] = colors[run] & LOW_BITS | color & HIGH_BITS;
+        }
+        if ((flags & BACKGROUND) != 0) {
+            colors[run] = colors[run] & HIGH_BITS | color & LOW_BITS;
+        }
+    }
+
+    /**
+     * @return the styles of a single style of type {@code type}
+     */
+    public static long styleOf(int type, int attribute) {
+        checkType(type);
+        long style = 1L << type;
+        return type == RichTextCodec.TYPE_RELATIVE_SIZE ? style | (long) attribute << 32 : style;
+    }
+
+    /**
+     * @return the colors of a single style of type {@code type}
+     */
+    public static long colorsOf(int type, int attribute) {
+        if (type == RichTextCodec.TYPE_FOREGROUND_COLOR) {
+            return (long) attribute << 32;
+        } else if (type == RichTextCodec.TYPE_BACKGROUND_COLOR) {
+            return attribute & LOW_BITS;
+        }
+        return 0;
+    }
+
+    public static boolean hasStyle(long style, int type) {
+        return type >= 0 && type <= MAX_TYPE && (style & 1L << type) != 0;
+    }
+
+    /**
+     * @return the attribute of the style of type {@code type} in {@code style} and {@code colors}, e.g. its
+     * color, or 0 if it has none
+     */
+    public static int attributeOf(long style, long colors, int type) {
+        switch (type) {
+            case RichTextCodec.TYPE_FOREGROUND_COLOR:
+                return foregroundOf(colors);
+            case RichTextCodec.TYPE_BACKGROUND_COLOR:
+                return backgroundOf(colors);
+            case RichTextCodec.TYPE_RELATIVE_SIZE:
+                return (int) (style >>> 32);
+            default:
+                return 0;
+        }
+    }
+
+    public static int foregroundOf(long colors) {
+        return (int) (colors >>> 32);
+    }
+
+    public static int backgroundOf(long colors) {
+        return (int) colors;
+    }
+
+    /**
+     * @return the relative size of {@code style}, 1 if it has none
+     */
+    public static float relativeSizeOf(long style) {
+        return (style & RELATIVE_SIZE) != 0 ? Float.intBitsToFloat((int) (style >>> 32)) : 1f;
+    }
+
+    private static void checkType(int type) {
+        if (type < 0 || type > MAX_TYPE) {
+            throw new IllegalArgumentException("Type " + type + " is not in the table");
+        }
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getRunCount() {
+        return count;
+    }
+
+    public int getRunStart(int run) {
+        return run < gapStart ? starts[run] : starts[run + starts.length - count] + length;
+    }
+
+    public int getRunEnd(int run) {
+        return run + 1 < count ? getRunStart(run + 1) : length;
+    }
+
+    public long getStyle(int run) {
+        return styles[slotOf(run)];
+    }
+
+    public long getColors(int run) {
+        return colors[slotOf(run)];
+    }
+
+    private int slotOf(int run) {
+        return run < gapStart ? run : run + starts.length - count;
+    }
+
+    /**
+     * @return the run {@code position} is in, the last one at the end of the text, in O(log n), or O(1) in
+     * one of the last two runs found or the run after it, e.g. at both ends of a selection
+     */
+    public int findRun(int position) {
+        //Checked against where the runs start now, the runs found before do whatever changed since
+        int run = lastFound;
+        if (isInRun(position, run) || isInRun(position, ++run)) {
+            return lastFound = run;
+        }
+        run = foundBefore;
+        if (!isInRun(position, run) && !isInRun(position, ++run)) {
+            int low = 0;
+            int high = count - 1;
+            while (low < high) {
+                int middle = (low + high + 1) >>> 1;
+                if (getRunStart(middle) <= position) {
+                    low = middle;
+                } else {
+                    high = middle - 1;
+                }
+            }
+            run = low;
+        }
+        foundBefore = lastFound;
+        return lastFound = run;
+    }
+
+    private boolean isInRun(int position, int run) {
+        return run < count && getRunStart(run) <= position && (run == count - 1 || getRunStart(run + 1) > position);
+    }
+
+    /**
+     * @return the bytes taken by the arrays of the table
+     */
+    public long getMemoryBytes() {
+        long bytes = (long) starts.length * BYTES_PER_RUN;
+        for (long[] level : typeIndex) {
+            bytes += level.length * 8L;
+        }
+        return bytes;
+    }
+
+    /**
+     * Sets a style over {@code [start, end)}, replacing the attribute of the same style there
+     *
+     * @param attribute the color of a color, the float bits of a relative size
+     */
+    public void apply(int start, int end, int type, int attribute) {
+        checkType(type);
+        update(start, end, styleMaskOf(type), styleOf(type, attribute), colorMaskOf(type), colorsOf(type, attribute));
+    }
+
+    /**
+     * Removes a style from {@code [start, end)}
+     */
+    public void remove(int start, int end, int type) {
+        checkType(type);
+        update(start, end, styleMaskOf(type), 0, colorMaskOf(type), 0);
+    }
+
+    /**
+     * Removes every style from {@code [start, end)}
+     */
+    public void clearFormatting(int start, int end) {
+        update(start, end, -1L, 0, -1L, 0);
+    }
+
+    /**
+     * Removes every style of the text
+     */
+    public void clearFormatting() {
+        count = 1;
+        gapStart = 1;
+        starts[0] = 0;
+        styles[0] = 0;
+        colors[0] = 0;
+        index(0, 1);
+    }
+
+    /**
+     * Adds the styles of a run, e.g. of a {@link RunSpan}, to {@code [start, end)}, replacing the
+     * attributes of the same styles there
+     */
+    public void add(int start, int end, long style, long colors) {
+        long flags = style & ALL_TYPES;
+        long styleMask = flags | ((flags & RELATIVE_SIZE) != 0 ? HIGH_BITS : 0);
+        long colorMask = ((flags & FOREGROUND) != 0 ? HIGH_BITS : 0) | ((flags & BACKGROUND) != 0 ? LOW_BITS : 0);
+        update(start, end, styleMask, style & styleMask, colorMask, colors & colorMask);
+    }
+
+    /**
+     * Follows an edit of the text: {@code before} characters from {@code start} are replaced by
+     * {@code after} others, as {@link android.text.TextWatcher#onTextChanged(CharSequence, int, int, int)}
+     * tells. The new characters take the styles shared by the character before the edit, every character
+     * replaced and the character after it, as spans of {@link Spanned#SPAN_EXCLUSIVE_EXCLUSIVE} over all
+     * of them would grow over the new text; they have none at the start or the end of the text.
+     */
+    public void replace(int start, int before, int after) {
+        if (start < 0 || before < 0 || after < 0 || start + before > length) {
+            throw new IndexOutOfBoundsException("Replacing " + before + " at " + start + " of " + length);
+        }
+        long style = 0;
+        long color = 0;
+        if (start > 0 && start + before < length) {
+            int from = findRun(start - 1);
+            int to = findRun(start + before);
+            long fromStyle = getStyle(from);
+            long fromColors = getColors(from);
+            style = fromStyle & ALL_TYPES;
+            for (int i = from + 1; i <= to; i++) {
+                long runStyle = getStyle(i);
+                long runColors = getColors(i);
+                style &= runStyle;
+                if (((runStyle ^ fromStyle) & HIGH_BITS) != 0) {
+                    style &= ~RELATIVE_SIZE;
+                }
+                if (((runColors ^ fromColors) & HIGH_BITS) != 0) {
+                    style &= ~FOREGROUND;
+                }
+                if (((runColors ^ fromColors) & LOW_BITS) != 0) {
+                    style &= ~BACKGROUND;
+                }
+            }
+            color = fromColors & (((style & FOREGROUND) != 0 ? HIGH_BITS : 0) | ((style & BACKGROUND) != 0 ? LOW_BITS : 0));
+            style |= (style & RELATIVE_SIZE) != 0 ? fromStyle & HIGH_BITS : 0;
+        }
+        int newLength = length - before + after;
+        if (newLength == 0 || length == 0) {
+            length = newLength;
+            clearFormatting();
+            styles[0] = style;
+            colors[0] = color;
+            index(0, 1);
+            return;
+        }
+        int first = split(start);
+        removeRuns(first, split(start + before));
+        //The runs after the gap start from the end of the text: changing its length moves them all
+        length = newLength;
+        int inserted = 0;
+        if (after > 0) {
+            insertRun(start, style, color);
+            inserted = 1;
+        }
+        coalesce(Math.max(0, first - 1), Math.min(count, first + inserted + 1));
+    }
+
+    /**
+     * @return the table of {@code [start, end)}, its positions from {@code start}
+     */
+    public StyleRunTable copy(int start, int end) {
+        checkRange(start, end);
+        if (start == end) {
+            return new StyleRunTable(0, 1);
+        }
+        int first = findRun(start);
+        int last = findRun(end - 1);
+        StyleRunTable copy = new StyleRunTable(end - start, last - first + 1);
+        copy.count = last - first + 1;
+        copy.gapStart = copy.count;
+        for (int i = 0; i < copy.count; i++) {
+            copy.starts[i] = i == 0 ? 0 : getRunStart(first + i) - start;
+            copy.styles[i] = getStyle(first + i);
+            copy.colors[i] = getColors(first + i);
+        }
+        copy.index(0, copy.count);
+        return copy;
+    }
+
+    /**
+     * Replaces the styles of {@code [where, where + other.getLength())} by those of {@code other}
+     */
+    public void set(int where, StyleRunTable other) {
+        int end = where + other.length;
+        checkRange(where, end);
+        if (where == end) {
+            return;
+        }
+        int first = split(where);
+        removeRuns(first, split(end));
+        ensureCapacity(count + other.count);
+        for (int i = 0; i < other.count; i++) {
+            insertRun(where + other.getRunStart(i), other.getStyle(i), other.getColors(i));
+        }
+        coalesce(Math.max(0, first - 1), Math.min(count, first + other.count + 1));
+    }
+
+    /**
+     * Finds the run a style button shows: at a cursor, the run before it, or else the run after it; within a
+     * selection, the last run of it with the style. O(log r) for r runs, however many the selection has.
+     *
+     * @return the run, or -1 if there is no run of type {@code type} there
+     */
+    public int findStyle(int type, int start, int end) {
+        if (start == end) {
+            if (start > 0) {
+                int before = findRun(start - 1);
+                if (hasStyle(getStyle(before), type)) {
+                    return before;
+                }
+            }
+            if (start < length) {
+                int after = findRun(start);
+                return hasStyle(getStyle(after), type) ? after : -1;
+            }
+            return -1;
+        }
+        checkType(type);
+        int first = findRun(start);
+        int last = findRun(end - 1);
+        //The last runs one by one, as a style is most often close by, then the blocks of the others
+        for (int stop = Math.max(first, last - 63); last >= stop; last--) {
+            if (hasStyle(getStyle(last), type)) {
+                return last;
+            }
+        }
+        if (last < first) {
+            return -1;
+        }
+        long bit = 1L << type;
+        //The runs after the gap come last, and are in slots of their own
+        if (last >= gapStart) {
+            int slot = findSlot(bit, typeIndex.length, 0, slotOf(Math.max(first, gapStart)), slotOf(last));
+            if (slot >= 0) {
+                return slot - (starts.length - count);
+            }
+        }
+        if (first < gapStart) {
+            return findSlot(bit, typeIndex.length, 0, first, Math.min(last, gapStart - 1));
+        }
+        return -1;
+    }
+
+    /**
+     * Finds the last slot of {@code [from, to]} with the type {@code bit}, under a node of the type index:
+     * slot {@code node} itself at level 0, or the block {@code node} of {@code typeIndex[level - 1]}
+     *
+     * @return the slot, or -1 if there is none
+     */
+    private int findSlot(long bit, int level, int node, int from, int to) {
+        if (level == 0) {
+            return (styles[node] & bit) != 0 ? node : -1;
+        }
+        if ((typeIndex[level - 1][node] & bit) == 0) {
+            return -1;
+        }
+        int shift = 6 * (level - 1);
+        int first = Math.max(node << 6, from >>> shift);
+        for (int child = Math.min((node << 6) + 63, to >>> shift); child >= first; child--) {
+            int slot = findSlot(bit, level - 1, child, from, to);
+            if (slot >= 0) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return where the stretch of runs of the same style of type {@code type}, and attribute, as
+     * {@code run} starts
+     */
+    public int getStretchStart(int run, int type) {
+        int attribute = attributeOf(getStyle(run), getColors(run), type);
+        while (run > 0 && hasStyle(getStyle(run - 1), type) && attributeOf(getStyle(run - 1), getColors(run - 1), type) == attribute) {
+            run--;
+        }
+        return getRunStart(run);
+    }
+
+    /**
+     * @return where the stretch of runs of the same style of type {@code type}, and attribute, as
+     * {@code run} ends
+     */
+    public int getStretchEnd(int run, int type) {
+        return getRunEnd(nextStretch(run, type) - 1);
+    }
+
+    private static long styleMaskOf(int type) {
+        return type == RichTextCodec.TYPE_RELATIVE_SIZE ? HIGH_BITS | RELATIVE_SIZE : 1L << type;
+    }
+
+    private static long colorMaskOf(int type) {
+        if (type == RichTextCodec.TYPE_FOREGROUND_COLOR) {
+            return HIGH_BITS;
+        } else if (type == RichTextCodec.TYPE_BACKGROUND_COLOR) {
+            return LOW_BITS;
+        }
+        return 0;
+    }
+
+    /**
+     * Replaces the bits of the masks by {@code styleBits} and {@code colorBits} in every run of
+     * {@code [start, end)}, splitting the runs at the ends of the range first and merging those left the
+     * same after
+     */
+    private void update(int start, int end, long styleMask, long styleBits, long colorMask, long colorBits) {
+        checkRange(start, end);
+        if (start == end) {
+            return;
+        }
+        int first = split(start);
+        int last = split(end);
+        for (int i = first; i < last; i++) {
+            int slot = slotOf(i);
+            styles[slot] = styles[slot] & ~styleMask | styleBits;
+            colors[slot] = colors[slot] & ~colorMask | colorBits;
+        }
+        if (first < gapStart) {
+            index(first, Math.min(last, gapStart));
+        }
+        if (last > gapStart) {
+            index(slotOf(Math.max(first, gapStart)), slotOf(last - 1) + 1);
+        }
+        coalesce(Math.max(0, first - 1), Math.min(count, last + 1));
+    }
+
+    /**
+     * Starts a run at {@code position}
+     *
+     * @return the run starting at {@code position}, or the run count at the end of the text
+     */
+    private int split(int position) {
+        if (position >= length) {
+            return count;
+        }
+        int run = findRun(position);
+        if (getRunStart(run) == position) {
+            return run;
+        }
+        long style = getStyle(run);
+        long color = getColors(run);
+        moveGap(run + 1);
+        insertRun(position, style, color);
+        return run + 1;
+    }
+
+    /**
+     * Adds a run at the gap, which must be where it goes
+     */
+    private void insertRun(int start, long style, long color) {
+        ensureCapacity(count + 1);
+        starts[gapStart] = start;
+        styles[gapStart] = style;
+        colors[gapStart] = color;
+        index(gapStart, gapStart + 1);
+        gapStart++;
+        count++;
+    }
+
+    /**
+     * Takes the runs of {@code [first, last)} out, into the gap
+     */
+    private void removeRuns(int first, int last) {
+        moveGap(last);
+        gapStart = first;
+        count -= last - first;
+    }
+
+    /**
+     * Moves the gap to before run {@code run}, in O(d) for the d runs it goes past, which then start from
+     * the other end of the text
+     */
+    private void moveGap(int run) {
+        int gap = starts.length - count;
+        if (run < gapStart) {
+            int moved = gapStart - run;
+            System.arraycopy(starts, run, starts, run + gap, moved);
+            System.arraycopy(styles, run, styles, run + gap, moved);
+            System.arraycopy(colors, run, colors, run + gap, moved);
+            for (int slot = run + gap; slot < gapStart + gap; slot++) {
+                starts[slot] -= length;
+            }
+            index(run + gap, gapStart + gap);
+        } else if (run > gapStart) {
+            int moved = run - gapStart;
+            System.arraycopy(starts, gapStart + gap, starts, gapStart, moved);
+            System.arraycopy(styles, gapStart + gap, styles, gapStart, moved);
+            System.arraycopy(colors, gapStart + gap, colors, gapStart, moved);
+            for (int slot = gapStart; slot < run; slot++) {
+                starts[slot] += length;
+            }
+            index(gapStart, run);
+        }
+        gapStart = run;
+    }
+
+    /**
+     * Doubles the arrays if they cannot hold {@code capacity} runs, keeping the gap where it is
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity > starts.length) {
+            capacity = Math.max(capacity, starts.length * 2);
+            int after = count - gapStart;
+            starts = grow(starts, capacity, after);
+            styles = grow(styles, capacity, after);
+            colors = grow(colors, capacity, after);
+            typeIndex = newTypeIndex(capacity);
+            index(0, capacity);
+        }
+    }
+
+    private int[] grow(int[] array, int capacity, int after) {
+        int[] grown = Arrays.copyOf(array, capacity);
+        System.arraycopy(array, array.length - after, grown, capacity - after, after);
+        return grown;
+    }
+
+    private long[] grow(long[] array, int capacity, int after) {
+        long[] grown = Arrays.copyOf(array, capacity);
+        System.arraycopy(array, array.length - after, grown, capacity - after, after);
+        return grown;
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("[" + start + ", " + end + ") is out of [0, " + length + ")");
+        }
+    }
+
+    /**
+     * Merges the runs of {@code [from, to)} into the run before them when they have the same styles, the
+     * gap taking those merged
+     */
+    private void coalesce(int from, int to) {
+        moveGap(to);
+        int kept = from + 1;
+        for (int i = from + 1; i < to; i++) {
+            if (styles[i] != styles[kept - 1] || colors[i] != colors[kept - 1]) {
+                starts[kept] = starts[i];
+                styles[kept] = styles[i];
+                colors[kept] = colors[i];
+                kept++;
+            }
+        }
+        if (kept < to) {
+            index(from + 1, kept);
+            gapStart = kept;
+            count -= to - kept;
+        }
+    }
+
+    private static long[][] newTypeIndex(int capacity) {
+        int levels = 1;
+        for (int blocks = (capacity + 63) >>> 6; blocks > 1; blocks = (blocks + 63) >>> 6) {
+            levels++;
+        }
+        long[][] index = new long[levels][];
+        for (int level = 0, blocks = capacity; level < levels; level++) {
+            blocks = (blocks + 63) >>> 6;
+            index[level] = new long[blocks];
+        }
+        return index;
+    }
+
+    /**
+     * Updates the blocks of the type index over the slots of {@code [from, to)}, after they were written,
+     * in O(to - from + 64 log64 r), up to the first level they leave as it was
+     */
+    private void index(int from, int to) {
+        if (from >= to) {
+            return;
+        }
+        int first = from >>> 6;
+        int last = (to - 1) >>> 6;
+        long[] below = styles;
+        for (long[] level : typeIndex) {
+            boolean changed = false;
+            for (int block = first; block <= last; block++) {
+                long types = 0;
+                for (int i = block << 6, end = Math.min(i + 64, below.length); i < end; i++) {
+                    types |= below[i];
+                }
+                changed |= level[block] != (types & ALL_TYPES);
+                level[block] = types & ALL_TYPES;
+            }
+            if (!changed) {
+                return;
+            }
+            below = level;
+            first >>>= 6;
+            last >>>= 6;
+        }
+    }
+
+    /**
+     * @param text the text of the table, see {@link #getLength()}
+     * @return the runs of every style, by start, a run per stretch of the same style and attribute, e.g. to
+     * be encoded with {@link RichTextCodec#encode(RichTextCodec.Runs)}
+     */
+    public RichTextCodec.Runs toRuns(char[] text) {
+        if (text.length != length) {
+            throw new IllegalArgumentException("The text is " + text.length + " long, not " + length);
+        }
+        int runCount = 0;
+        for (int type = 0; type <= MAX_TYPE; type++) {
+            for (int i = 0; i < count; i = nextStretch(i, type)) {
+                if (hasStyle(getStyle(i), type) && getRunStart(i) < getRunEnd(i)) {
+                    runCount++;
+                }
+            }
+        }
+        long[] byStart = new long[runCount];
+        int[] runTypes = new int[runCount];
+        int[] runStarts = new int[runCount];
+        int[] runEnds = new int[runCount];
+        int[] runAttributes = new int[runCount];
+        int n = 0;
+        for (int type = 0; type <= MAX_TYPE; type++) {
+            for (int i = 0; i < count; ) {
+                int next = nextStretch(i, type);
+                if (hasStyle(getStyle(i), type) && getRunStart(i) < getRunEnd(i)) {
+                    byStart[n] = (long) getRunStart(i) << 32 | n;
+                    runTypes[n] = type;
+                    runStarts[n] = getRunStart(i);
+                    runEnds[n] = getRunEnd(next - 1);
+                    runAttributes[n] = attributeOf(getStyle(i), getColors(i), type);
+                    n++;
+                }
+                i = next;
+            }
+        }
+        Arrays.sort(byStart);
+        RichTextCodec.Runs runs = new RichTextCodec.Runs(text, runCount);
+        for (int i = 0; i < runCount; i++) {
+            int from = (int) byStart[i];
+            runs.types[i] = runTypes[from];
+            runs.starts[i] = runStarts[from];
+            runs.ends[i] = runEnds[from];
+            runs.attributes[i] = runAttributes[from];
+        }
+        return runs;
+    }
+
+    /**
+     * @return the run after the stretch of runs of the same style of type {@code type}, and attribute, as
+     * {@code run}, or after {@code run} if it does not have the style
+     */
+    private int nextStretch(int run, int type) {
+        int next = run + 1;
+        if (hasStyle(getStyle(run), type)) {
+            int attribute = attributeOf(getStyle(run), getColors(run), type);
+            while (next < count && hasStyle(getStyle(next), type) && attributeOf(getStyle(next), getColors(next), type) == attribute) {
+                next++;
+            }
+        }
+        return next;
+    }
+}
@@ -0,0 +1,610 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.GetChars;
+import android.text.Spannable;
+import android.text.Spanned;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The undo and redo history of an editor, kept as small deltas of its text and styles rather than copies
+ * of the whole entry.
+ * <p>
+ *  A step remembers a range of the text and the one version of that range that is not in the text: the
+ *  text and style runs a text edit removed, or the style runs a style operation replaced. Undoing a step
+ *  swaps that version with the range in the text, so the same step then redoes it. Text that was typed
+ *  costs nothing until it is undone, as it is still in the text.
+ * </p>
+ * <p>
+ *  Keystrokes are merged into the step they continue: typing at its end, deleting within what it typed,
+ *  or deleting on from where it deleted. A new step is started after a pause of
+ *  {@link #MERGE_TIMEOUT_MS}, a new line, a paste, a deletion of more than a character, or any other edit.
+ * </p>
+ * <p>
+ *  The memory used by the history is capped (see {@link #setMaxBytes(int)}). The oldest steps are dropped
+ *  first, but the newest step is always kept, however large, so clearing a long entry can be undone.
+ * </p>
+ * <p>
+ *  Edits are given to the history with {@link #beforeTextChanged(CharSequence, int, int, int)} and
+ *  {@link #onTextChanged(CharSequence, int, int, int)} from a {@link android.text.TextWatcher}, style
+ *  operations are bracketed by {@link #beginStyleEdit(Spanned, int, int)} and
+ *  {@link #endStyleEdit(Spanned)}. See {@link RichEditText#undo()}.
+ * </p>
+ */
+public class UndoHistory {
+
+    public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+    /**
+     * Keystrokes further apart than this are not merged
+     */
+    public static final long MERGE_TIMEOUT_MS = 2000;
+    /**
+     * An edit inserting more than this many characters, like a paste, is a step of its own
+     */
+    public static final int MAX_KEYSTROKE_LENGTH = 64;
+    protected static final int STEP_BYTES = 40;
+    protected static final int RUN_FLAGS = Spanned.SPAN_EXCLUSIVE_EXCLUSIVE;
+
+    private final RichTextCodec.SpanTypes types;
+    private final WordBoundaryScanner wordScanner = new WordBoundaryScanner();
+    private final ArrayDeque<Step> undoSteps = new ArrayDeque<>();
+    private final ArrayDeque<Step> redoSteps = new ArrayDeque<>();
+    private int maxBytes = DEFAULT_MAX_BYTES;
+    private int bytes;
+
+    /**
+     * The step keystrokes may still be merged into, if any
+     */
+    private Step openStep;
+    private long lastEditTime;
+    private int groupDepth;
+    private boolean groupStarted;
+
+    private Snapshot styleBefore;
+    private int styleStart;
+    private int styleEnd;
+
+    /**
+     * The parts left outside of the range by {@link #restoreStyles(Spannable, int, int, int[])} of the runs
+     * crossing its start and its end
+     */
+    private final List<Object> cutBefore = new ArrayList<>();
+    private final List<Object> cutAfter = new ArrayList<>();
+
+    /**
+     * @param types the span types that are styles, and so are kept by the history
+     */
+    public UndoHistory(RichTextCodec.SpanTypes types) {
+        this.types = types;
+    }
+
+    /**
+     * Records an edit of the text, before it is made, with the arguments of
+     * {@link android.text.TextWatcher#beforeTextChanged(CharSequence, int, int, int)}
+     */
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        long now = now();
+        Step open = openStep;
+        //A keystroke, or the keyboard rewriting the word being typed. Deleting more than a character is not.
+        boolean keystroke = after <= MAX_KEYSTROKE_LENGTH && after - count >= -1;
+        if (keystroke && open != null && now - lastEditTime <= MERGE_TIMEOUT_MS && merge(open, s, start, count, after)) {
+            lastEditTime = now;
+            clearRedo();
+            trim();
+            return;
+        }
+        Snapshot removed = count == 0 ? Snapshot.EMPTY : Snapshot.of(s, start, start + count, types, true);
+        Step step = new Step(start, after, removed);
+        push(step);
+        openStep = keystroke && groupDepth == 0 ? step : null;
+        lastEditTime = now;
+    }
+
+    /**
+     * Ends the current step after a new line, with the arguments of
+     * {@link android.text.TextWatcher#onTextChanged(CharSequence, int, int, int)}
+     */
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        if (count > 0 && s.charAt(start + count - 1) == '\n') {
+            openStep = null;
+        }
+    }
+
+    /**
+     * Remembers the styles around a range before a style operation on it. The range is widened to the word
+     * at the cursor if it is empty, and to the style runs it touches, which the operation may change.
+     *
+     * @see #endStyleEdit(Spanned)
+     */
+    public void beginStyleEdit(Spanned text, int start, int end) {
+        openStep = null;
+        int low = Math.min(start, end);
+        int high = Math.max(start, end);
+        if (low == high && wordScanner.scan(text, low)) {
+            low = wordScanner.getWordStart();
+            high = wordScanner.getWordEnd();
+        }
+        for (Object span : text.getSpans(Math.max(0, low - 1), Math.min(text.length(), high + 1), Object.class)) {
+            if (types.typeOf(span) >= 0) {
+                low = Math.min(low, text.getSpanStart(span));
+                high = Math.max(high, text.getSpanEnd(span));
+            }
+        }
+        PieceTableEditable styled = PieceTableEditable.asStyled(text);
+        if (styled != null && text.length() > 0) {
+            //The stretches of every style of the runs the range touches, as spans of them would be
+            StyleRunTable table = styled.styles();
+            int last = table.findRun(Math.min(high, text.length() - 1));
+            int wideLow = low;
+            int wideHigh = high;
+            for (int run = table.findRun(Math.max(0, low - 1)); run <= last; run++) {
+                for (int type = 0; type <= StyleRunTable.MAX_TYPE; type++) {
+                    if (StyleRunTable.hasStyle(table.getStyle(run), type)) {
+                        wideLow = Math.min(wideLow, table.getStretchStart(run, type));
+                        wideHigh = Math.max(wideHigh, table.getStretchEnd(run, type));
+                    }
+                }
+            }
+            low = wideLow;
+            high = wideHigh;
+        }
+        styleStart = low;
+        styleEnd = high;
+        styleBefore = Snapshot.of(text, low, high, types, false);
+    }
+
+    /**
+     * Records the style operation begun with {@link #beginStyleEdit(Spanned, int, int)}, if it changed
+     * any style
+     */
+    public void endStyleEdit(Spanned text) {
+        if (styleBefore == null) {
+            return;
+        }
+        Snapshot after = Snapshot.of(text, styleStart, styleEnd, types, false);
+        if (!Arrays.equals(after.runs, styleBefore.runs)) {
+            push(new Step(styleStart, styleEnd - styleStart, styleBefore));
+        }
+        styleBefore = null;
+    }
+
+    /**
+     * Starts a group of edits that are undone and redone together, like the lines of an indent.
+     * Groups may be nested.
+     */
+    public void beginGroup() {
+        if (groupDepth++ == 0) {
+            groupStarted = false;
+            openStep = null;
+        }
+    }
+
+    /**
+     * Ends the group started by {@link #beginGroup()}
+     */
+    public void endGroup() {
+        groupDepth = Math.max(0, groupDepth - 1);
+    }
+
+    /**
+     * Undoes the last step, or group of steps.
+     *
+     * @param text the text the steps were recorded on. The edits it receives must not be recorded.
+     * @return where the cursor goes, the end of the range undone, or -1 if there was nothing to undo
+     */
+    public int undo(Editable text) {
+        openStep = null;
+        if (undoSteps.isEmpty()) {
+            return -1;
+        }
+        Step step;
+        do {
+            step = undoSteps.pollLast();
+            swap(text, step);
+            redoSteps.addLast(step);
+        } while (step.chained && !undoSteps.isEmpty());
+        trim();
+        return step.start + step.length;
+    }
+
+    /**
+     * Redoes the last step, or group of steps, undone.
+     *
+     * @param text the text the steps were recorded on. The edits it receives must not be recorded.
+     * @return where the cursor goes, the end of the range redone, or -1 if there was nothing to redo
+     */
+    public int redo(Editable text) {
+        openStep = null;
+        if (redoSteps.isEmpty()) {
+            return -1;
+        }
+        Step step;
+        int cursor;
+        do {
+            step = redoSteps.pollLast();
+            swap(text, step);
+            undoSteps.addLast(step);
+            cursor = step.start + step.length;
+        } while (!redoSteps.isEmpty() && redoSteps.peekLast().chained);
+        trim();
+        return cursor;
+    }
+
+    public boolean canUndo() {
+        return !undoSteps.isEmpty();
+    }
+
+    public boolean canRedo() {
+        return !redoSteps.isEmpty();
+    }
+
+    /**
+     * Forgets every step, e.g. when another entry is opened
+     */
+    public void clear() {
+        undoSteps.clear();
+        redoSteps.clear();
+        bytes = 0;
+        openStep = null;
+        styleBefore = null;
+    }
+
+    /**
+     * @return an estimate of the memory used by the steps, in bytes
+     */
+    public int getByteCount() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of steps that can be undone, counting each step of a group
+     */
+    public int getUndoCount() {
+        return undoSteps.size();
+    }
+
+    /**
+     * Sets the memory the steps may use, dropping the oldest steps if they use more
+     */
+    public void setMaxBytes(int maxBytes) {
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    protected long now() {
+        return SystemClock.uptimeMillis();
+    }
+
+    /**
+     * Merges a keystroke into the open step, if it continues it
+     */
+    private boolean merge(Step open, CharSequence s, int start, int count, int after) {
+        if (start >= open.start && start + count <= open.start + open.length) { //within what the step inserted
+            open.length += after - count;
+            return true;
+        }
+        if (open.length > 0 || after > 0) {
+            return false;
+        }
+        if (start + count == open.start) { //deleting backwards
+            setSaved(open, Snapshot.concat(Snapshot.of(s, start, open.start, types, true), open.saved));
+            open.start = start;
+            return true;
+        }
+        if (start == open.start) { //deleting forwards
+            setSaved(open, Snapshot.concat(open.saved, Snapshot.of(s, start, start + count, types, true)));
+            return true;
+        }
+        return false;
+    }
+
+    private void push(Step step) {
+        if (groupDepth > 0) {
+            step.chained = groupStarted;
+            groupStarted = true;
+        }
+        undoSteps.addLast(step);
+        bytes += step.bytes();
+        clearRedo();
+        trim();
+    }
+
+    /**
+     * Swaps the version of the step's range in the text with the one it keeps
+     */
+    private void swap(Editable text, Step step) {
+        int end = step.start + step.length;
+        Snapshot saved = step.saved;
+        Snapshot current = Snapshot.of(text, step.start, end, types, saved.text != null);
+        if (saved.text != null) {
+            text.replace(step.start, end, saved.text);
+            end = step.start + saved.text.length();
+        }
+        restoreStyles(text, step.start, end, saved.runs);
+        step.length = end - step.start;
+        setSaved(step, current);
+    }
+
+    /**
+     * Replaces the style runs of {@code [start, end)} with {@code runs}, cutting the runs that cross its ends.
+     * A run restored against a cut part of the same style is joined to it, so undoing and redoing does not
+     * split the runs further every time.
+     */
+    protected void restoreStyles(Spannable text, int start, int end, int[] runs) {
+        cutBefore.clear();
+        cutAfter.clear();
+        //The styles of the table of a styled text are set all at once, the others as spans
+        PieceTableEditable styled = PieceTableEditable.asStyled(text);
+        StyleRunTable table = styled != null ? new StyleRunTable(end - start) : null;
+        if (start < end) {
+            for (Object span : text.getSpans(start, end, Object.class)) {
+                int type = types.typeOf(span);
+                int spanStart = text.getSpanStart(span);
+                int spanEnd = text.getSpanEnd(span);
+                if (type < 0 || spanEnd <= start || spanStart >= end) {
+                    continue;
+                }
+                int flags = text.getSpanFlags(span);
+                if (spanStart < start) {
+                    if (spanEnd > end) {
+                        Object after = types.newSpan(type, types.attributeOf(span));
+                        text.setSpan(after, end, spanEnd, flags);
+                        cutAfter.add(after);
+                    }
+                    text.setSpan(span, spanStart, start, flags);
+                    cutBefore.add(span);
+                } else if (spanEnd > end) {
+                    text.setSpan(span, end, spanEnd, flags);
+                    cutAfter.add(span);
+                } else {
+                    text.removeSpan(span);
+                }
+            }
+        }
+        for (int i = 0; i < runs.length; i += Snapshot.RUN_SIZE) {
+            if (table != null && runs[i] <= StyleRunTable.MAX_TYPE) {
+                table.apply(runs[i + 2], runs[i + 3], runs[i], runs[i + 1]);
+                continue;
+            }
+            int runStart = start + runs[i + 2];
+            int runEnd = start + runs[i + 3];
+            Object before = runStart == start ? takeCut(cutBefore, runs[i], runs[i + 1]) : null;
+            Object after = runEnd == end ? takeCut(cutAfter, runs[i], runs[i + 1]) : null;
+            if (after != null) {
+                if (before == null) {
+                    text.setSpan(after, runStart, text.getSpanEnd(after), text.getSpanFlags(after));
+                    continue;
+                }
+                runEnd = text.getSpanEnd(after);
+                text.removeSpan(after);
+            }
+            if (before != null) {
+                text.setSpan(before, text.getSpanStart(before), runEnd, text.getSpanFlags(before));
+            } else {
+                text.setSpan(types.newSpan(runs[i], runs[i + 1]), runStart, runEnd, RUN_FLAGS);
+            }
+        }
+        if (table != null) {
+            styled.setStyles(start, table);
+        }
+    }
+
+    /**
+     * @return a cut part of a run of style {@code type} and {@code attribute}, taken out of {@code cut}, or
+     * null if there is none
+     */
+    private Object takeCut(List<Object> cut, int type, int attribute) {
+        for (int i = 0; i < cut.size(); i++) {
+            Object span = cut.get(i);
+            if (types.typeOf(span) == type && types.attributeOf(span) == attribute) {
+                return cut.remove(i);
+            }
+        }
+        return null;
+    }
+
+    private void setSaved(Step step, Snapshot saved) {
+        bytes -= step.bytes();
+        step.saved = saved;
+        bytes += step.bytes();
+    }
+
+    private void clearRedo() {
+        for (Step step : redoSteps) {
+            bytes -= step.bytes();
+        }
+        redoSteps.clear();
+    }
+
+    /**
+     * Drops the oldest steps, whole groups at a time, until the cap is met or only the newest group of
+     * each history is left
+     */
+    private void trim() {
+        while (bytes > maxBytes && hasTwoGroups(undoSteps.iterator())) {
+            Step step;
+            do {
+                step = undoSteps.pollFirst();
+                bytes -= step.bytes();
+            } while (undoSteps.peekFirst().chained);
+        }
+        //A group is reversed in the redo history, its unchained step comes last
+        while (bytes > maxBytes && hasTwoGroups(redoSteps.descendingIterator())) {
+            Step step;
+            do {
+                step = redoSteps.pollFirst();
+                bytes -= step.bytes();
+            } while (step.chained);
+        }
+    }
+
+    private static boolean hasTwoGroups(Iterator<Step> steps) {
+        int groups = 0;
+        while (steps.hasNext()) {
+            if (!steps.next().chained && ++groups == 2) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A range of the text, and the version of it the text does not have
+     */
+    private static final class Step {
+        int start;
+        /**
+         * The length of the range in the text
+         */
+        int length;
+        Snapshot saved;
+        /**
+         * True if the step is undone together with the step before it
+         */
+        boolean chained;
+
+        Step(int start, int length, Snapshot saved) {
+            this.start = start;
+            this.length = length;
+            this.saved = saved;
+        }
+
+        int bytes() {
+            return STEP_BYTES + saved.bytes();
+        }
+    }
+
+    /**
+     * The characters, for a text edit, and the style runs of a range of text, with the runs as
+     * {@link #RUN_SIZE} ints each: type, attribute, start and end, relative to the range.
+     */
+    protected static final class Snapshot {
+        static final int RUN_SIZE = 4;
+        static final Snapshot EMPTY = new Snapshot("", new int[0]);
+
+        /**
+         * Null for the snapshot of a style operation, which leaves the characters alone
+         */
+        final String text;
+        final int[] runs;
+
+        Snapshot(String text, int[] runs) {
+            this.text = text;
+            this.runs = runs;
+        }
+
+        int bytes() {
+            if (this == EMPTY) {
+                return 0; //shared by the steps that only inserted
+            }
+            return 32 + (text != null ? 40 + 2 * text.length() : 0) + 16 + 4 * runs.length;
+        }
+
+        static Snapshot of(CharSequence s, int start, int end, RichTextCodec.SpanTypes types, boolean withText) {
+            String text = null;
+            if (withText) {
+                char[] chars = new char[end - start];
+                if (s instanceof GetChars) {
+                    ((GetChars) s).getChars(start, end, chars, 0);
+                } else {
+                    for (int i = start; i < end; i++) {
+                        chars[i - start] = s.charAt(i);
+                    }
+                }
+                text = new String(chars);
+            }
+            if (!(s instanceof Spanned) || start == end) {
+                return new Snapshot(text, EMPTY.runs);
+            }
+            Spanned spanned = (Spanned) s;
+            Object[] spans = spanned.getSpans(start, end, Object.class);
+            PieceTableEditable styled = PieceTableEditable.asStyled(s);
+            StyleRunTable table = styled != null ? styled.styles() : null;
+            int firstRun = table != null ? table.findRun(start) : 0;
+            int lastRun = table != null ? table.findRun(end - 1) : -1;
+            int[] runs = new int[(spans.length + (lastRun - firstRun + 1) * (StyleRunTable.MAX_TYPE + 1)) * RUN_SIZE];
+            int count = 0;
+            //The stretches of every style of the table of a styled text, as a span of each would be
+            for (int type = 0; table != null && type <= StyleRunTable.MAX_TYPE; type++) {
+                for (int run = firstRun; run <= lastRun; run++) {
+                    if (!StyleRunTable.hasStyle(table.getStyle(run), type)) {
+                        continue;
+                    }
+                    int stretchEnd = table.getStretchEnd(run, type);
+                    runs[count] = type;
+                    runs[count + 1] = StyleRunTable.attributeOf(table.getStyle(run), table.getColors(run), type);
+                    runs[count + 2] = Math.max(start, table.getRunStart(run)) - start;
+                    runs[count + 3] = Math.min(end, stretchEnd) - start;
+                    count += RUN_SIZE;
+                    while (run < lastRun && table.getRunEnd(run) < stretchEnd) {
+                        run++;
+                    }
+                }
+            }
+            final int[] found = runs;
+            for (Object span : spans) {
+                int type = types.typeOf(span);
+                int runStart = Math.max(start, spanned.getSpanStart(span));
+                int runEnd = Math.min(end, spanned.getSpanEnd(span));
+                if (type < 0 || runStart >= runEnd) {
+                    continue;
+                }
+                found[count] = type;
+                found[count + 1] = types.attributeOf(span);
+                found[count + 2] = runStart - start;
+                found[count + 3] = runEnd - start;
+                count += RUN_SIZE;
+            }
+            //Sorted, so that the same styles give the same runs
+            Integer[] order = new Integer[count / RUN_SIZE];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i * RUN_SIZE;
+            }
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    int compare = compareInts(found[a + 2], found[b + 2]); //start
+                    if (compare == 0) {
+                        compare = compareInts(found[a + 3], found[b + 3]); //end
+                    }
+                    if (compare == 0) {
+                        compare = compareInts(found[a], found[b]); //type
+                    }
+                    return compare != 0 ? compare : compareInts(found[a + 1], found[b + 1]);
+                }
+            });
+            int[] sorted = new int[count];
+            for (int i = 0; i < order.length; i++) {
+                System.arraycopy(found, order[i], sorted, i * RUN_SIZE, RUN_SIZE);
+            }
+            return new Snapshot(text, sorted);
+        }
+
+        /**
+         * @return the snapshot of two text snapshots next to each other
+         */
+        static Snapshot concat(Snapshot first, Snapshot second) {
+            int[] runs = Arrays.copyOf(first.runs, first.runs.length + second.runs.length);
+            int offset = first.text.length();
+            for (int i = first.runs.length; i < runs.length; i += RUN_SIZE) {
+                int j = i - first.runs.length;
+                runs[i] = second.runs[j];
+                runs[i + 1] = second.runs[j + 1];
+                runs[i + 2] = second.runs[j + 2] + offset;
+                runs[i + 3] = second.runs[j + 3] + offset;
+            }
+            return new Snapshot(first.text + second.text, runs);
+        }
+
+        private static int compareInts(int a, int b) {
+            return a < b ? -1 : (a == b ? 0 : 1);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.artifexiumgames.journal.RichEditText;
+
+/**
+ * Finds the word around a position in a text.
+ * <p>
+ *  One scanner is kept per editor and reused: a scan allocates nothing, copies no text, and
+ *  stops at the ends of the text instead of running into them. The bounds of the word last found are
+ *  read with {@link #getWordStart()} and {@link #getWordEnd()}.
+ * </p>
+ */
+public class WordBoundaryScanner {
+
+    protected int wordStart;
+    protected int wordEnd;
+
+    /**
+     * Finds the word {@code position} is in, or touches.
+     *
+     * @param text     the text to scan
+     * @param position usually the cursor
+     * @return true if a word was found, false if {@code position} is surrounded by whitespace
+     */
+    public boolean scan(CharSequence text, int position) {
+        int length = text.length();
+        int start = Math.max(0, Math.min(position, length));
+        int end = start;
+        while (start > 0 && !isBoundary(text.charAt(start - 1))) {
+            start--;
+        }
+        while (end < length && !isBoundary(text.charAt(end))) {
+            end++;
+        }
+        wordStart = start;
+        wordEnd = end;
+        return end > start;
+    }
+
+    /**
+     * @return true if {@code c} separates words
+     */
+    protected boolean isBoundary(char c) {
+        return Character.isWhitespace(c);
+    }
+
+    /**
+     * @return the start of the word last found
+     */
+    public int getWordStart() {
+        return wordStart;
+    }
+
+    /**
+     * @return the end of the word last found (exclusive)
+     */
+    public int getWordEnd() {
+        return wordEnd;
+    }
+}
@@ -0,0 +1,586 @@
+package com.artifexiumgames.journal.Storage;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.TreeMap;
+
+import javax.crypto.SecretKey;
+
+/**
+ * Daily, weekly and monthly {@link Rollup}s of the journal, with its totals and writing streaks, kept up
+ * to date as entries are saved, so the graphs never read the entries.
+ * <p>
+ *  Every table is a file of encrypted slots of the same size, at a position given by the entry id or the
+ *  period number (days, Monday weeks and months since 1970), so a slot is read or written in place with a
+ *  single positional access, and a chart of the last N periods is a single read of N slots, however old
+ *  the journal. The days table is sparse: only the days written on take room on the disk.
+ * </p>
+ * <p>
+ *  Saving an entry, see {@link #record(long, long, int, int, long)}, reads the counts last recorded for
+ *  the entry, and adds the difference to its day, week and month and to the totals: O(1), whatever the
+ *  size of the journal. A streak only walks the days around a day written on out of order, e.g. when
+ *  entries saved before there were analytics are recorded.
+ * </p>
+ * <p>
+ *  Slots are not synced, like the rows of the {@link SummaryTable}: a crash may leave the rollups off by
+ *  the save it interrupted, or a slot torn, read as empty. {@link #verify(EntryStore, EntryTexts, boolean)}
+ *  makes all of them again from the entries, and tells and repairs the differences. The tables are made
+ *  again, empty, if any of them is not a table of this version.
+ * </p>
+ * Layout of every table, after a {@value #HEADER_SIZE} byte header (magic, version, slot size, table):
+ * <ul>
+ *     <li>Slot ({@value #SLOT_SIZE} bytes, by entry id or period): nonce ({@value EntryCipher#NONCE_SIZE}),
+ *     then 4 numbers (8 bytes each) encrypted with their tag, or zeros if empty. An entry slot holds the
+ *     day the entry was started, its words, characters and writing time; a period slot a {@link Rollup}.
+ *     Slot 0 of the totals table holds the totals, slot 1 the streaks: last day written on, current and
+ *     longest streak, days written on.</li>
+ * </ul>
+ */
+public class AnalyticsStore implements Closeable {
+
+    public static final String DIRECTORY = "analytics";
+    public static final int MAGIC = 0x4A414E4C; //"JANL"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int SLOT_SIZE = EntryCipher.NONCE_SIZE + 4 * 8 + EntryCipher.TAG_SIZE;
+
+    public static final int DAY = 0;
+    public static final int WEEK = 1;
+    public static final int MONTH = 2;
+
+    public static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    private static final String TAG = "AnalyticsStore";
+    private static final String[] TABLES = {"days", "weeks", "months", "entries", "totals"};
+    private static final int ENTRIES = 3;
+    private static final int TOTALS = 4;
+    private static final long TOTALS_SLOT = 0;
+    private static final long STREAK_SLOT = 1;
+    private static final int READ_SLOTS = 256;
+
+    private final Table[] tables = new Table[TABLES.length];
+
+    /**
+     * Reads the text of saved entries, to verify the rollups
+     */
+    public interface EntryTexts {
+        /**
+         * @return the text of entry {@code id}, or null if it could not be read
+         */
+        CharSequence get(long id) throws IOException;
+    }
+
+    /**
+     * Opens the tables in {@code directory}, creating them if needed
+     *
+     * @param key the key of the journal, the keys of the tables are derived from it
+     */
+    public AnalyticsStore(File directory, SecretKey key) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the analytics directory " + directory);
+        }
+        boolean valid = true;
+        try {
+            for (int i = 0; i < TABLES.length; i++) {
+                tables[i] = new Table(new File(directory, TABLES[i] + ".slt"), i,
+                        EntryCipher.deriveKey(key, DIRECTORY + "/" + TABLES[i]));
+                valid &= tables[i].isValid();
+            }
+            if (!valid) {
+                for (Table table : tables) {
+                    table.clear(); //all over again, from the entries
+                }
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the day of {@code millis}, in days since 1970 in the time zone of the device
+     */
+    public static long dayOf(long millis) {
+        return floorDiv(millis + TimeZone.getDefault().getOffset(millis), DAY_MILLIS);
+    }
+
+    /**
+     * @return the period of {@code granularity} that {@code day} is in
+     */
+    public static long periodOf(int granularity, long day) {
+        switch (granularity) {
+            case DAY:
+                return day;
+            case WEEK:
+                return floorDiv(day + 3, 7); //1 January 1970 was a Thursday
+            case MONTH:
+                Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+                calendar.setTimeInMillis(day * DAY_MILLIS);
+                return (calendar.get(Calendar.YEAR) - 1970) * 12L + calendar.get(Calendar.MONTH);
+            default:
+                throw new IllegalArgumentException("Unknown granularity " + granularity);
+        }
+    }
+
+    /**
+     * @return the first day of {@code period}, of {@code granularity}
+     */
+    public static long firstDayOf(int granularity, long period) {
+        switch (granularity) {
+            case DAY:
+                return period;
+            case WEEK:
+                return period * 7 - 3;
+            case MONTH:
+                Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+                calendar.clear();
+                calendar.set((int) (1970 + floorDiv(period, 12)), (int) (period - floorDiv(period, 12) * 12), 1);
+                return floorDiv(calendar.getTimeInMillis(), DAY_MILLIS);
+            default:
+                throw new IllegalArgumentException("Unknown granularity " + granularity);
+        }
+    }
+
+    /**
+     * Records the counts of an entry as it is saved, in the day it was first saved on. Called on a
+     * single thread, in the order the entries are saved.
+     *
+     * @param id            the id of the entry
+     * @param timestamp     the time of the save
+     * @param words         the words of the entry, see {@link EntrySummary#countWords(CharSequence)}
+     * @param characters    the length of the entry
+     * @param writingMillis the time spent writing the entry since its last save
+     */
+    public synchronized void record(long id, long timestamp, int words, int characters, long writingMillis) throws IOException {
+        long[] previous = tables[ENTRIES].read(id);
+        long day = previous != null ? previous[0] : dayOf(timestamp);
+        Rollup change;
+        if (previous == null) {
+            change = new Rollup(1, words, characters, writingMillis);
+        } else {
+            change = new Rollup(0, words - previous[1], characters - previous[2], writingMillis);
+            writingMillis += previous[3];
+        }
+        tables[ENTRIES].write(id, new long[]{day, words, characters, writingMillis});
+        boolean firstOfDay = add(DAY, day, change) && previous == null;
+        add(WEEK, periodOf(WEEK, day), change);
+        add(MONTH, periodOf(MONTH, day), change);
+        Rollup totals = getTotals();
+        totals.add(change, 1);
+        writeRollup(tables[TOTALS], TOTALS_SLOT, totals);
+        if (firstOfDay) {
+            markWritten(day);
+        }
+    }
+
+    /**
+     * @return true if the counts of entry {@code id} are recorded
+     */
+    public synchronized boolean hasEntry(long id) throws IOException {
+        return tables[ENTRIES].read(id) != null;
+    }
+
+    /**
+     * @return the rollups of the {@code count} periods of {@code granularity} up to {@code lastPeriod}
+     * included, oldest first, in one read
+     */
+    public synchronized Rollup[] getRollups(int granularity, long lastPeriod, int count) throws IOException {
+        Rollup[] rollups = new Rollup[count];
+        long[][] slots = tables[granularity].read(lastPeriod - count + 1, count);
+        for (int i = 0; i < count; i++) {
+            rollups[i] = toRollup(slots[i]);
+        }
+        return rollups;
+    }
+
+    /**
+     * @return everything written in the journal
+     */
+    public synchronized Rollup getTotals() throws IOException {
+        return toRollup(tables[TOTALS].read(TOTALS_SLOT));
+    }
+
+    /**
+     * @return the number of consecutive days written on up to {@code today}, or up to yesterday while
+     * today has no entry yet
+     */
+    public synchronized long getCurrentStreak(long today) throws IOException {
+        long[] streak = getStreak();
+        return streak[3] > 0 && streak[0] >= today - 1 ? streak[1] : 0;
+    }
+
+    /**
+     * @return the most consecutive days ever written on
+     */
+    public synchronized long getLongestStreak() throws IOException {
+        return getStreak()[2];
+    }
+
+    /**
+     * @return the number of days written on
+     */
+    public synchronized long getDaysWritten() throws IOException {
+        return getStreak()[3];
+    }
+
+    /**
+     * Makes the rollups again from the entries, and compares them with the ones kept up to date. Reads
+     * and decrypts every entry: to be called away from the UI thread, on the thread entries are recorded
+     * on.
+     *
+     * @param store  the entries
+     * @param texts  reads the text of an entry
+     * @param repair whether to replace the rollups with the ones made again, if they differ
+     * @return the differences found, empty if the rollups are right
+     */
+    public synchronized List<String> verify(EntryStore store, EntryTexts texts, boolean repair) throws IOException {
+        List<String> differences = new ArrayList<>();
+        List<TreeMap<Long, long[]>> expected = new ArrayList<>();
+        for (int i = 0; i < TABLES.length; i++) {
+            expected.add(new TreeMap<Long, long[]>());
+        }
+        Rollup totals = new Rollup();
+        for (long id = 0, count = store.getEntryCount(); id < count; id++) {
+            long timestamp = store.getTimestamp(id);
+            CharSequence text = timestamp == 0 ? null : texts.get(id);
+            if (text == null) {
+                continue;
+            }
+            long[] recorded = tables[ENTRIES].read(id);
+            long day = recorded != null ? recorded[0] : dayOf(timestamp);
+            long writingMillis = recorded != null ? recorded[3] : 0;
+            long[] entry = {day, EntrySummary.countWords(text), text.length(), writingMillis};
+            expected.get(ENTRIES).put(id, entry);
+            Rollup rollup = new Rollup(1, entry[1], entry[2], writingMillis);
+            for (int granularity = DAY; granularity <= MONTH; granularity++) {
+                Map<Long, long[]> periods = expected.get(granularity);
+                long period = periodOf(granularity, day);
+                Rollup sum = toRollup(periods.get(period));
+                sum.add(rollup, 1);
+                periods.put(period, toSlot(sum));
+            }
+            totals.add(rollup, 1);
+        }
+        expected.get(TOTALS).put(TOTALS_SLOT, toSlot(totals));
+        expected.get(TOTALS).put(STREAK_SLOT, streakOf(expected.get(DAY).keySet()));
+
+        for (int i = 0; i < TABLES.length; i++) {
+            compare(i, expected.get(i), differences);
+        }
+        if (repair && !differences.isEmpty()) {
+            for (int i = 0; i < TABLES.length; i++) {
+                tables[i].clear();
+                for (Map.Entry<Long, long[]> slot : expected.get(i).entrySet()) {
+                    tables[i].write(slot.getKey(), slot.getValue());
+                }
+            }
+            tables[TOTALS].force();
+        }
+        return differences;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        IOException error = null;
+        for (Table table : tables) {
+            if (table != null) {
+                try {
+                    table.close();
+                } catch (IOException e) {
+                    error = e;
+                }
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Adds {@code change} to a period
+     *
+     * @return true if the period had no entry before
+     */
+    private boolean add(int granularity, long period, Rollup change) throws IOException {
+        Rollup rollup = toRollup(tables[granularity].read(period));
+        boolean first = rollup.entries == 0;
+        rollup.add(change, 1);
+        writeRollup(tables[granularity], period, rollup);
+        return first;
+    }
+
+    /**
+     * Counts {@code day} as written on, in the streaks
+     */
+    private void markWritten(long day) throws IOException {
+        long[] streak = getStreak();
+        long last = streak[0];
+        long current = streak[1];
+        long longest = streak[2];
+        long days = streak[3];
+        if (days == 0 || day > last + 1) {
+            last = day;
+            current = 1;
+        } else if (day == last + 1) {
+            last = day;
+            current++;
+        } else {
+            //Written on out of order: only the days around it tell the streak it is in
+            long first = day;
+            while (isWritten(first - 1)) {
+                first--;
+            }
+            long end = day;
+            while (end < last && isWritten(end + 1)) {
+                end++;
+            }
+            if (end == last) {
+                current = end - first + 1;
+            }
+            longest = Math.max(longest, end - first + 1);
+        }
+        tables[TOTALS].write(STREAK_SLOT, new long[]{last, current, Math.max(longest, current), days + 1});
+    }
+
+    private boolean isWritten(long day) throws IOException {
+        long[] slot = tables[DAY].read(day);
+        return slot != null && slot[0] > 0;
+    }
+
+    /**
+     * @return last day written on, current streak, longest streak, days written on
+     */
+    private long[] getStreak() throws IOException {
+        long[] streak = tables[TOTALS].read(STREAK_SLOT);
+        return streak != null ? streak : new long[4];
+    }
+
+    /**
+     * @return the streaks of the days written on, sorted
+     */
+    private static long[] streakOf(Iterable<Long> days) {
+        long last = 0;
+        long current = 0;
+        long longest = 0;
+        long count = 0;
+        for (long day : days) {
+            current = count > 0 && day == last + 1 ? current + 1 : 1;
+            longest = Math.max(longest, current);
+            last = day;
+            count++;
+        }
+        return new long[]{last, current, longest, count};
+    }
+
+    /**
+     * Compares every slot of table {@code index} with the slots expected, the ones missing being empty
+     */
+    private void compare(int index, TreeMap<Long, long[]> expected, List<String> differences) throws IOException {
+        Table table = tables[index];
+        long slots = table.getSlotCount();
+        for (long first = 0; first < slots; first += READ_SLOTS) {
+            int count = (int) Math.min(READ_SLOTS, slots - first);
+            long[][] found = table.read(first, count);
+            for (int i = 0; i < count; i++) {
+                long[] slot = expected.get(first + i);
+                if (!isSame(found[i], slot)) {
+                    differences.add(TABLES[index] + " " + (first + i) + ": " + describe(found[i]) + " instead of "
+                            + describe(slot));
+                }
+            }
+        }
+        for (Map.Entry<Long, long[]> slot : expected.tailMap(slots).entrySet()) {
+            if (!isSame(null, slot.getValue())) {
+                differences.add(TABLES[index] + " " + slot.getKey() + ": missing instead of " + describe(slot.getValue()));
+            }
+        }
+    }
+
+    private static boolean isSame(long[] found, long[] expected) {
+        if (found == null || expected == null) {
+            return isZero(found) && isZero(expected);
+        }
+        for (int i = 0; i < 4; i++) {
+            if (found[i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isZero(long[] slot) {
+        return slot == null || (slot[0] == 0 && slot[1] == 0 && slot[2] == 0 && slot[3] == 0);
+    }
+
+    private static String describe(long[] slot) {
+        return slot == null ? "empty" : "[" + slot[0] + ", " + slot[1] + ", " + slot[2] + ", " + slot[3] + "]";
+    }
+
+    private static Rollup toRollup(long[] slot) {
+        return slot == null ? new Rollup() : new Rollup(slot[0], slot[1], slot[2], slot[3]);
+    }
+
+    private static long[] toSlot(Rollup rollup) {
+        return new long[]{rollup.entries, rollup.words, rollup.characters, rollup.writingMillis};
+    }
+
+    private static void writeRollup(Table table, long slot, Rollup rollup) throws IOException {
+        table.write(slot, toSlot(rollup));
+    }
+
+    private static long floorDiv(long x, long y) {
+        long quotient = x / y;
+        return (x % y != 0 && (x < 0) != (y < 0)) ? quotient - 1 : quotient;
+    }
+
+    /**
+     * A file of encrypted slots of 4 numbers
+     */
+    private static class Table {
+
+        private final int index;
+        private final EntryCipher cipher;
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final boolean valid;
+
+        Table(File tableFile, int index, SecretKey key) throws IOException {
+            this.index = index;
+            cipher = new EntryCipher(key);
+            file = new RandomAccessFile(tableFile, "rw");
+            channel = file.getChannel();
+            boolean valid = false;
+            try {
+                if (channel.size() >= HEADER_SIZE) {
+                    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                    readFully(header, 0);
+                    valid = header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                            && header.getInt(8) == SLOT_SIZE && header.getInt(12) == index;
+                }
+            } catch (IOException e) {
+                file.close();
+                throw e;
+            }
+            this.valid = valid;
+        }
+
+        boolean isValid() {
+            return valid;
+        }
+
+        /**
+         * Empties the table
+         */
+        void clear() throws IOException {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(SLOT_SIZE).putInt(index).flip();
+            channel.truncate(0);
+            write(header, 0);
+            channel.force(true);
+        }
+
+        long getSlotCount() throws IOException {
+            return Math.max(0, channel.size() - HEADER_SIZE) / SLOT_SIZE;
+        }
+
+        /**
+         * @return the numbers of slot {@code slot}, or null if it is empty or torn
+         */
+        long[] read(long slot) throws IOException {
+            return read(slot, 1)[0];
+        }
+
+        /**
+         * @return the numbers of {@code count} consecutive slots from {@code first}, null where a slot is
+         * empty or torn
+         */
+        long[][] read(long first, int count) throws IOException {
+            long[][] slots = new long[count][];
+            int skipped = (int) Math.max(0, Math.min(count, -first)); //before 1970: never written
+            long start = HEADER_SIZE + (first + skipped) * SLOT_SIZE;
+            int available = (int) Math.min(count - skipped, Math.max(0, channel.size() - start) / SLOT_SIZE);
+            if (available <= 0) {
+                return slots;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(available * SLOT_SIZE);
+            readFully(buffer, start);
+            byte[] nonce = new byte[EntryCipher.NONCE_SIZE];
+            for (int i = 0; i < available; i++) {
+                int slotStart = i * SLOT_SIZE;
+                if (isEmpty(buffer, slotStart)) {
+                    continue;
+                }
+                long slot = first + skipped + i;
+                buffer.limit(slotStart + SLOT_SIZE).position(slotStart);
+                buffer.get(nonce);
+                try {
+                    ByteBuffer numbers = ByteBuffer.wrap(cipher.open(slot, index, nonce, buffer));
+                    slots[skipped + i] = new long[]{numbers.getLong(), numbers.getLong(), numbers.getLong(), numbers.getLong()};
+                } catch (IOException e) {
+                    Log.e(TAG, "Torn slot " + slot + " of the " + TABLES[index], e);
+                }
+                buffer.limit(buffer.capacity());
+            }
+            return slots;
+        }
+
+        void write(long slot, long[] numbers) throws IOException {
+            if (slot < 0) {
+                Log.e(TAG, "No slot " + slot + " in the " + TABLES[index]);
+                return;
+            }
+            ByteBuffer plaintext = ByteBuffer.allocate(4 * 8);
+            plaintext.putLong(numbers[0]).putLong(numbers[1]).putLong(numbers[2]).putLong(numbers[3]);
+            ByteBuffer buffer = ByteBuffer.allocate(SLOT_SIZE);
+            byte[] nonce = cipher.newNonce();
+            buffer.put(nonce);
+            cipher.seal(slot, index, nonce, plaintext.array(), buffer);
+            buffer.flip();
+            write(buffer, HEADER_SIZE + slot * SLOT_SIZE);
+        }
+
+        void force() throws IOException {
+            channel.force(false);
+        }
+
+        void close() throws IOException {
+            file.close();
+        }
+
+        private static boolean isEmpty(ByteBuffer buffer, int start) {
+            for (int i = start; i < start + SLOT_SIZE; i++) {
+                if (buffer.get(i) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of the " + TABLES[index] + " at " + position);
+                }
+                position += read;
+            }
+            buffer.flip();
+        }
+
+        private void write(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+}
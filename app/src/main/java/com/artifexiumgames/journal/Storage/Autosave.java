@@ -0,0 +1,373 @@
+package com.artifexiumgames.journal.Storage;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.text.Editable;
+import android.text.NoCopySpan;
+import android.text.SpanWatcher;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+import android.util.Log;
+
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+import com.artifexiumgames.journal.RichEditText.StyleRunTable;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Saves the text of an editor to a {@link DraftLog} as it is edited, without ever blocking the UI thread
+ * on the disk.
+ * <p>
+ *  Attached to the text as a watcher of its text and spans, the autosave only keeps track of the region
+ *  changed since the last write, as the number of characters left unchanged at the start and at the end
+ *  of the text: O(1) per keystroke or style change. Writes are debounced: the region is written
+ *  {@value #DEBOUNCE_MILLIS} ms after the last change, or {@value #MAX_DELAY_MILLIS} ms after the first
+ *  one while the user keeps typing.
+ * </p>
+ * <p>
+ *  Writing copies the region, with its styles, on the UI thread, and hands the copy to a background
+ *  thread, which encrypts it and appends it to the draft as a delta. Only the first write after
+ *  {@link #attach(Spannable, long)} copies the whole text, to start the draft from a full snapshot.
+ * </p>
+ * <p>
+ *  All methods but {@link #recover()} are to be called on the UI thread, as the text is only read there.
+ * </p>
+ */
+public class Autosave implements TextWatcher, SpanWatcher, NoCopySpan {
+
+    public static final long DEBOUNCE_MILLIS = 1000;
+    public static final long MAX_DELAY_MILLIS = 5000;
+    /**
+     * The longest pause between two changes still counted as writing time
+     */
+    public static final long IDLE_MILLIS = 60000;
+    private static final String TAG = "Autosave";
+
+    private final DraftLog draft;
+    private final RichTextCodec.SpanTypes types;
+    private final EntryStore store;
+    private final ExecutorService writer;
+    private Handler handler;
+
+    private Spannable text;
+    private long entryId = -1;
+
+    /**
+     * The text changed since the last write is the text from {@code unchangedPrefix} to
+     * {@code text.length() - unchangedSuffix}; it was {@code savedLength} characters long then
+     */
+    private boolean dirty;
+    private int unchangedPrefix;
+    private int unchangedSuffix;
+    private int savedLength;
+    private long firstChange;
+    private long lastChange;
+    private boolean scheduled;
+    private long writingMillis;
+
+    /**
+     * Set when the draft has to start over from a full snapshot: on attaching a text, and when a delta
+     * could not be written
+     */
+    private volatile boolean needsSnapshot = true;
+
+    private final Runnable debounceTask = new Runnable() {
+        @Override
+        public void run() {
+            scheduled = false;
+            long wait = Math.min(lastChange + DEBOUNCE_MILLIS, firstChange + MAX_DELAY_MILLIS) - now();
+            if (wait > 0 && dirty) {
+                scheduled = true;
+                schedule(this, wait);
+            } else {
+                flush();
+            }
+        }
+    };
+
+    /**
+     * @param draft where the text is saved, only used on the background thread of the autosave from now on
+     * @param types the styles saved with the text
+     * @param store the entries, made durable before a draft is discarded; may be null
+     */
+    public Autosave(DraftLog draft, RichTextCodec.SpanTypes types, EntryStore store) {
+        this.draft = draft;
+        this.types = types;
+        this.store = store;
+        this.writer = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Autosave");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Starts saving {@code text}, and stops saving the text previously attached. The whole text counts as
+     * changed, see {@link #markSaved()}.
+     *
+     * @param text    usually the {@link Editable} of an editor
+     * @param entryId the id of the entry, or -1 for an entry never saved
+     */
+    public void attach(Spannable text, long entryId) {
+        detach();
+        this.text = text;
+        this.entryId = entryId;
+        text.setSpan(this, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        needsSnapshot = true;
+        savedLength = text.length();
+        lastChange = now() - IDLE_MILLIS; //opening the text is no writing
+        markChanged(0, 0);
+    }
+
+    /**
+     * Stops saving the attached text, if any, dropping the changes not written yet
+     */
+    public void detach() {
+        if (text != null) {
+            text.removeSpan(this);
+            text = null;
+        }
+        dirty = false;
+    }
+
+    /**
+     * @return the text being saved, or null if none is attached
+     */
+    public Spannable getText() {
+        return text;
+    }
+
+    /**
+     * Tells that the attached text is already saved as it is, e.g. just read from the journal or from the
+     * draft: nothing is written until it changes
+     */
+    public void markSaved() {
+        dirty = false;
+    }
+
+    /**
+     * @param entryId the id of the entry, once it is first saved; kept in the draft from its next snapshot
+     */
+    public void setEntryId(long entryId) {
+        this.entryId = entryId;
+    }
+
+    /**
+     * @return the time spent changing the text since the last call, counting the pauses between changes
+     * up to {@value #IDLE_MILLIS} ms
+     */
+    public long takeWritingMillis() {
+        long millis = writingMillis;
+        writingMillis = 0;
+        return millis;
+    }
+
+    /**
+     * Writes the changes now instead of after the debounce delay, e.g. when the editor is paused. Copies
+     * the changed region on the calling thread; the rest is done in the background.
+     */
+    public void flush() {
+        if (!dirty || text == null) {
+            return;
+        }
+        dirty = false;
+        final long id = entryId;
+        int length = text.length();
+        if (needsSnapshot) {
+            needsSnapshot = false;
+            final Editable copy = new PieceTableEditable(text);
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        draft.start(id, copy);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not save the draft", e);
+                        needsSnapshot = true;
+                    }
+                }
+            });
+        } else {
+            final int start = unchangedPrefix;
+            final int removed = savedLength - unchangedPrefix - unchangedSuffix;
+            final Spanned region = new PieceTableEditable(text, start, length - unchangedSuffix);
+            writer.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        draft.append(start, removed, region);
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not save the changes to the draft", e);
+                        needsSnapshot = true;
+                    }
+                }
+            });
+        }
+        savedLength = length;
+        unchangedPrefix = length;
+        unchangedSuffix = length;
+    }
+
+    /**
+     * Drops the draft, once the entry is saved in the journal. The next change starts a new one.
+     */
+    public void discard() {
+        dirty = false;
+        needsSnapshot = true;
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (store != null) {
+                        store.flush(); //the entry is on the disk before its draft is dropped
+                    }
+                    draft.discard();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not discard the draft", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Reads the draft left on the disk, after the writes already queued
+     *
+     * @return the draft, see {@link DraftLog#recover()}, to be waited for away from the UI thread
+     */
+    public Future<DraftLog.Draft> recover() {
+        return writer.submit(new Callable<DraftLog.Draft>() {
+            @Override
+            public DraftLog.Draft call() throws IOException {
+                return draft.recover();
+            }
+        });
+    }
+
+    /**
+     * Writes the pending changes and closes the draft
+     */
+    public void close() {
+        flush();
+        detach();
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    draft.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not close the draft", e);
+                }
+            }
+        });
+        writer.shutdown();
+        try {
+            writer.awaitTermination(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        if (s == text) {
+            markChanged(start, s.length() - start - count);
+        }
+    }
+
+    @Override
+    public void onTextChanged(CharSequence s, int start, int before, int count) {
+        //Marked before the change, while the length before it is known
+    }
+
+    @Override
+    public void afterTextChanged(Editable s) {
+        //Marked before the change
+    }
+
+    /**
+     * @return true if {@code what} is a style, drawn by itself or as a run of a styled text
+     */
+    private boolean isStyle(Object what) {
+        return types.typeOf(what) >= 0 || what instanceof StyleRunTable.RunSpan;
+    }
+
+    @Override
+    public void onSpanAdded(Spannable text, Object what, int start, int end) {
+        if (text == this.text && isStyle(what)) {
+            markRange(start, end);
+        }
+    }
+
+    @Override
+    public void onSpanRemoved(Spannable text, Object what, int start, int end) {
+        if (text == this.text && isStyle(what)) {
+            markRange(start, end);
+        }
+    }
+
+    @Override
+    public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend) {
+        if (text == this.text && isStyle(what)) {
+            //Only the text between the old and the new ends changed style
+            markRange(Math.min(ostart, nstart), Math.max(ostart, nstart));
+            markRange(Math.min(oend, nend), Math.max(oend, nend));
+        }
+    }
+
+    /**
+     * Marks the style of the text from {@code start} to {@code end} changed. The positions of a span moved
+     * by an edit may be from before the edit: they are clamped, and only ever widen the region.
+     */
+    private void markRange(int start, int end) {
+        int length = text.length();
+        start = Math.min(start, length);
+        end = Math.min(end, length);
+        if (start < end) {
+            markChanged(start, length - end);
+        }
+    }
+
+    private void markChanged(int prefix, int suffix) {
+        unchangedPrefix = Math.min(unchangedPrefix, Math.max(0, prefix));
+        unchangedSuffix = Math.min(unchangedSuffix, Math.max(0, suffix));
+        long now = now();
+        if (now - lastChange < IDLE_MILLIS) {
+            writingMillis += now - lastChange;
+        }
+        if (!dirty) {
+            dirty = true;
+            firstChange = now;
+        }
+        lastChange = now;
+        if (!scheduled) {
+            scheduled = true;
+            schedule(debounceTask, DEBOUNCE_MILLIS);
+        }
+    }
+
+    /**
+     * Runs {@code task} on the UI thread after {@code delayMillis}
+     */
+    protected void schedule(Runnable task, long delayMillis) {
+        if (handler == null) {
+            handler = new Handler(Looper.getMainLooper());
+        }
+        handler.postDelayed(task, delayMillis);
+    }
+
+    protected long now() {
+        return SystemClock.uptimeMillis();
+    }
+}
@@ -0,0 +1,358 @@
+package com.artifexiumgames.journal.Storage;
+
+import android.text.Editable;
+import android.text.Spannable;
+import android.text.Spanned;
+
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+
+import javax.crypto.SecretKey;
+
+/**
+ * The draft of the entry being edited, saved as it is typed so that a crash or a killed process loses
+ * at most the last second of it.
+ * <p>
+ *  A draft is a full snapshot of the entry, followed by a log of delta records: each delta replaces a
+ *  region of the text, with its styles, so writing one costs O(region), however long the entry is. Once
+ *  the log has grown past a quarter of the snapshot (and {@value #MIN_FOLD_SIZE} bytes), the deltas are
+ *  folded into a new snapshot. The snapshot is written to a temporary file, synced, and renamed over the
+ *  previous one, so there always is a whole snapshot on the disk. Its generation, also in the header of
+ *  the log, tells which log goes with it: a log left from before the rename is ignored.
+ * </p>
+ * <p>
+ *  To fold without going back to the editor, the draft keeps its own copy of the text, a
+ *  {@link PieceTableEditable} every delta is applied to as it is written.
+ * </p>
+ * <p>
+ *  <b>Recovery</b> reads the snapshot and replays the deltas after it, stopping at the first record that
+ *  is torn or fails its authentication. Both are bounded by the fold, so recovering takes one read of
+ *  about the size of the entry and a few hundred small edits.
+ * </p>
+ * <p>
+ *  Not thread safe: a draft log is meant to be used from a single background thread, see {@link Autosave}.
+ * </p>
+ * Layout, each file encrypted with its own key derived from the key of the journal:
+ * <ul>
+ *     <li>Snapshot: magic, version (4 bytes each), generation (8), entry id (8), nonce
+ *     ({@value EntryCipher#NONCE_SIZE}), then the {@link RichTextCodec} bytes of the text, encrypted.</li>
+ *     <li>Log: magic, version (4 bytes each), generation (8), then the records.</li>
+ *     <li>Record: body length (4), then the body: nonce, then encrypted: region start (4), length of the
+ *     text it replaces (4), and the {@link RichTextCodec} bytes of the region.</li>
+ * </ul>
+ */
+public class DraftLog implements Closeable {
+
+    public static final String DIRECTORY = "drafts";
+    public static final String SNAPSHOT_FILE = "draft.snap";
+    public static final String LOG_FILE = "draft.log";
+    public static final String TEMPORARY_SUFFIX = ".tmp";
+
+    public static final int SNAPSHOT_MAGIC = 0x4A445346; //"JDSF"
+    public static final int LOG_MAGIC = 0x4A444C47; //"JDLG"
+    public static final int VERSION = 1;
+    public static final int MIN_FOLD_SIZE = 64 * 1024;
+    protected static final int SNAPSHOT_HEADER_SIZE = 4 + 4 + 8 + 8 + EntryCipher.NONCE_SIZE;
+    protected static final int LOG_HEADER_SIZE = 4 + 4 + 8;
+    protected static final int MAX_FILE_SIZE = 64 * 1024 * 1024;
+
+    private final File directory;
+    private final EntryCipher snapshotCipher;
+    private final EntryCipher logCipher;
+    private final RichTextCodec.SpanTypes types;
+    private final RichTextCodec codec;
+
+    private RandomAccessFile log;
+    private long generation;
+    private long sequence;
+    private long entryId = -1;
+    private long snapshotSize;
+    private Editable text;
+
+    /**
+     * @param directory where the draft is kept, made if needed
+     * @param key       the key of the journal, the keys of the files are derived from it
+     * @param types     the styles kept in the draft
+     */
+    public DraftLog(File directory, SecretKey key, RichTextCodec.SpanTypes types) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the draft directory " + directory);
+        }
+        this.directory = directory;
+        this.snapshotCipher = new EntryCipher(EntryCipher.deriveKey(key, SNAPSHOT_FILE));
+        this.logCipher = new EntryCipher(EntryCipher.deriveKey(key, LOG_FILE));
+        this.types = types;
+        this.codec = new RichTextCodec(types);
+        //Never reuse a generation still on the disk, or a stale log could pass for the log of a new snapshot
+        generation = Math.max(readGeneration(new File(directory, SNAPSHOT_FILE), SNAPSHOT_MAGIC),
+                readGeneration(new File(directory, LOG_FILE), LOG_MAGIC));
+    }
+
+    /**
+     * A draft read back by {@link #recover()}
+     */
+    public static final class Draft {
+        public final long entryId;
+        public final Editable text;
+        public final int deltaCount;
+
+        Draft(long entryId, Editable text, int deltaCount) {
+            this.entryId = entryId;
+            this.text = text;
+            this.deltaCount = deltaCount;
+        }
+    }
+
+    /**
+     * Reads the draft left on the disk, e.g. by a process that was killed
+     *
+     * @return the last state of the draft, or null if there is none
+     * @throws IOException if the snapshot cannot be read or decrypted
+     */
+    public Draft recover() throws IOException {
+        File snapshotFile = new File(directory, SNAPSHOT_FILE);
+        if (!snapshotFile.isFile()) {
+            return null;
+        }
+        ByteBuffer snapshot = ByteBuffer.wrap(readFully(snapshotFile));
+        if (snapshot.remaining() < SNAPSHOT_HEADER_SIZE || snapshot.getInt() != SNAPSHOT_MAGIC || snapshot.getInt() != VERSION) {
+            throw new IOException("Not a draft snapshot " + snapshotFile);
+        }
+        long snapshotGeneration = snapshot.getLong();
+        long id = snapshot.getLong();
+        byte[] nonce = new byte[EntryCipher.NONCE_SIZE];
+        snapshot.get(nonce);
+        Editable recovered = codec.decode(snapshotCipher.open(id, snapshotGeneration, nonce, snapshot), PieceTableEditable.FACTORY);
+
+        int deltaCount = 0;
+        File logFile = new File(directory, LOG_FILE);
+        if (logFile.isFile()) {
+            ByteBuffer records = ByteBuffer.wrap(readFully(logFile));
+            if (records.remaining() >= LOG_HEADER_SIZE && records.getInt() == LOG_MAGIC && records.getInt() == VERSION
+                    && records.getLong() == snapshotGeneration) {
+                while (records.remaining() >= 4) {
+                    int bodySize = records.getInt();
+                    if (bodySize < EntryCipher.NONCE_SIZE + EntryCipher.TAG_SIZE || bodySize > records.remaining()) {
+                        break; //torn by a crash during the write
+                    }
+                    records.get(nonce);
+                    ByteBuffer ciphertext = records.slice();
+                    ciphertext.limit(bodySize - EntryCipher.NONCE_SIZE);
+                    records.position(records.position() + ciphertext.limit());
+                    try {
+                        applyRecord(recovered, logCipher.open(snapshotGeneration, deltaCount, nonce, ciphertext));
+                    } catch (IOException e) {
+                        break;
+                    }
+                    deltaCount++;
+                }
+            }
+        }
+        return new Draft(id, recovered, deltaCount);
+    }
+
+    /**
+     * Starts the draft over from a full snapshot of {@code text}, dropping the deltas written so far
+     *
+     * @param entryId the id of the entry, or -1 for an entry never saved
+     * @param text    the text of the entry, owned by this draft from now on
+     */
+    public void start(long entryId, Editable text) throws IOException {
+        this.entryId = entryId;
+        this.text = text;
+        writeSnapshot();
+    }
+
+    /**
+     * Appends a delta record, and folds the deltas into a new snapshot once there are enough of them
+     *
+     * @param start   where the region starts
+     * @param removed the length of the text the region replaces
+     * @param region  the new text of the region, with its styles
+     * @throws IOException if it could not be written, or there is no draft to apply it to; the draft
+     *                     should then be {@link #start(long, Editable) started} over
+     */
+    public void append(int start, int removed, Spanned region) throws IOException {
+        if (text == null || start < 0 || removed < 0 || start + removed > text.length()) {
+            throw new IOException("The delta does not apply to the draft");
+        }
+        byte[] encoded = codec.encode(region);
+        byte[] plaintext = ByteBuffer.allocate(8 + encoded.length).putInt(start).putInt(removed).put(encoded).array();
+        byte[] nonce = logCipher.newNonce();
+        int bodySize = EntryCipher.NONCE_SIZE + EntryCipher.ciphertextSize(plaintext.length);
+        ByteBuffer record = ByteBuffer.allocate(4 + bodySize);
+        record.putInt(bodySize).put(nonce);
+        logCipher.seal(generation, sequence, nonce, plaintext, record);
+
+        applyDelta(text, start, removed, region, types);
+        log.seek(log.length());
+        log.write(record.array());
+        log.getFD().sync();
+        sequence++;
+        if (log.length() > Math.max(MIN_FOLD_SIZE, snapshotSize / 4)) {
+            writeSnapshot();
+        }
+    }
+
+    /**
+     * Drops the draft, e.g. once the entry is saved
+     */
+    public void discard() throws IOException {
+        text = null;
+        closeLog();
+        deleteFile(new File(directory, SNAPSHOT_FILE));
+        deleteFile(new File(directory, LOG_FILE));
+    }
+
+    @Override
+    public void close() throws IOException {
+        text = null;
+        closeLog();
+    }
+
+    /**
+     * Replaces {@code removed} characters at {@code start} with {@code region}, styles included: the
+     * styles crossing the ends of the region are cut there, and those within it are replaced. On a styled
+     * {@link PieceTableEditable}, the styles of the region are set on its table.
+     */
+    public static void applyDelta(Editable text, int start, int removed, Spanned region, RichTextCodec.SpanTypes types) {
+        text.replace(start, start + removed, region.toString());
+        int end = start + region.length();
+        PieceTableEditable styled = PieceTableEditable.asStyled(text);
+        if (styled != null) {
+            //The region's styles are set on the table below, over none
+            styled.clearStyles(start, end);
+        } else if (start < end) {
+            for (Object span : text.getSpans(start, end, Object.class)) {
+                int type = types.typeOf(span);
+                int spanStart = text.getSpanStart(span);
+                int spanEnd = text.getSpanEnd(span);
+                if (type < 0 || spanEnd <= start || spanStart >= end) {
+                    continue;
+                }
+                int flags = text.getSpanFlags(span);
+                if (spanStart < start) {
+                    if (spanEnd > end) {
+                        text.setSpan(types.newSpan(type, types.attributeOf(span)), end, spanEnd, flags);
+                    }
+                    text.setSpan(span, spanStart, start, flags);
+                } else if (spanEnd > end) {
+                    text.setSpan(span, end, spanEnd, flags);
+                } else {
+                    text.removeSpan(span);
+                }
+            }
+        }
+        PieceTableEditable styledRegion = PieceTableEditable.asStyled(region);
+        if (styled != null && styledRegion != null) {
+            styled.setStyles(start, styledRegion.getStyleRuns());
+        }
+        for (Object span : region.getSpans(0, region.length(), Object.class)) {
+            int type = types.typeOf(span);
+            int spanStart = region.getSpanStart(span);
+            int spanEnd = region.getSpanEnd(span);
+            if (type >= 0 && spanStart < spanEnd) {
+                text.setSpan(types.newSpan(type, types.attributeOf(span)), start + spanStart, start + spanEnd,
+                        Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+        }
+    }
+
+    private void applyRecord(Editable recovered, byte[] plaintext) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(plaintext);
+        int start = in.getInt();
+        int removed = in.getInt();
+        if (start < 0 || removed < 0 || start + removed > recovered.length()) {
+            throw new IOException("The delta does not apply to the draft");
+        }
+        byte[] encoded = new byte[in.remaining()];
+        in.get(encoded);
+        applyDelta(recovered, start, removed, codec.decode(encoded, PieceTableEditable.FACTORY), types);
+    }
+
+    /**
+     * Writes the text as the new snapshot, atomically, then starts a new log for it
+     */
+    private void writeSnapshot() throws IOException {
+        long nextGeneration = generation + 1;
+        byte[] plaintext = codec.encode(text);
+        byte[] nonce = snapshotCipher.newNonce();
+        ByteBuffer snapshot = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE + EntryCipher.ciphertextSize(plaintext.length));
+        snapshot.putInt(SNAPSHOT_MAGIC).putInt(VERSION).putLong(nextGeneration).putLong(entryId).put(nonce);
+        snapshotCipher.seal(entryId, nextGeneration, nonce, plaintext, snapshot);
+
+        File temporary = new File(directory, SNAPSHOT_FILE + TEMPORARY_SUFFIX);
+        FileOutputStream out = new FileOutputStream(temporary);
+        try {
+            out.write(snapshot.array());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(new File(directory, SNAPSHOT_FILE))) {
+            throw new IOException("Could not replace the draft snapshot");
+        }
+        generation = nextGeneration;
+        sequence = 0;
+        snapshotSize = snapshot.capacity();
+
+        if (log == null) {
+            log = new RandomAccessFile(new File(directory, LOG_FILE), "rw");
+        }
+        log.setLength(0);
+        log.write(ByteBuffer.allocate(LOG_HEADER_SIZE).putInt(LOG_MAGIC).putInt(VERSION).putLong(generation).array());
+        log.getFD().sync();
+    }
+
+    private void closeLog() throws IOException {
+        if (log != null) {
+            try {
+                log.close();
+            } finally {
+                log = null;
+            }
+        }
+    }
+
+    private static void deleteFile(File file) throws IOException {
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+    /**
+     * @return the generation in the header of {@code file}, or 0 if there is none
+     */
+    private static long readGeneration(File file, int magic) throws IOException {
+        if (file.length() < LOG_HEADER_SIZE) {
+            return 0;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            return in.readInt() == magic && in.readInt() == VERSION ? in.readLong() : 0;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] readFully(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            if (in.length() > MAX_FILE_SIZE) {
+                throw new IOException(file + " is too large for a draft");
+            }
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package com.artifexiumgames.journal.Storage;
+
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import java.util.Arrays;
+
+/**
+ * Builds the text and the style runs of an entry being imported, as a parser reads it: text is appended,
+ * runs are opened where they start and closed where they end. Runs are kept by start, as
+ * {@link RichTextCodec#encode(RichTextCodec.Runs)} wants them, since the text only grows.
+ * <p>
+ *  Spaces and line breaks are collapsed as HTML collapses them: a text never starts with a space or a
+ *  line break, never has two spaces in a row, and a paragraph ends with a single line break.
+ * </p>
+ */
+class EntryBuilder {
+
+    private final StringBuilder text = new StringBuilder();
+    private int[] types = new int[16];
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+    private int[] attributes = new int[16];
+    private int count;
+    private long timestamp;
+
+    /**
+     * @return true if nothing but runs was added since the last {@link #build()}
+     */
+    boolean isEmpty() {
+        return text.length() == 0;
+    }
+
+    int length() {
+        return text.length();
+    }
+
+    /**
+     * @return the text from {@code start}
+     */
+    String substring(int start) {
+        return text.substring(start);
+    }
+
+    /**
+     * @return the time of the entry, or 0 if not known
+     */
+    long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @param timestamp the time the entry was written, as the file dates it
+     */
+    void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Removes the text from {@code length}, e.g. a heading that was the date of the entry. The runs closed
+     * end there at the latest, those starting after it left empty, for {@link #build()} to drop; the runs
+     * open stay open, from there at the latest.
+     */
+    void truncate(int length) {
+        if (length >= text.length()) {
+            return;
+        }
+        text.setLength(length);
+        for (int i = 0; i < count; i++) {
+            starts[i] = Math.min(starts[i], length);
+            if (ends[i] >= 0) {
+                ends[i] = Math.min(ends[i], length);
+            }
+        }
+    }
+
+    /**
+     * Appends text as it is, spaces and line breaks included
+     */
+    void append(CharSequence s) {
+        text.append(s);
+    }
+
+    void append(char c) {
+        text.append(c);
+    }
+
+    /**
+     * Appends a space, unless the text is empty or already ends with a space or a line break
+     */
+    void appendSpace() {
+        int length = text.length();
+        if (length > 0 && text.charAt(length - 1) != ' ' && text.charAt(length - 1) != '\n') {
+            text.append(' ');
+        }
+    }
+
+    /**
+     * Appends a line break, replacing the space before it
+     */
+    void appendLineBreak() {
+        int length = text.length();
+        if (length > 0 && text.charAt(length - 1) == ' ') {
+            text.setLength(length - 1);
+        }
+        text.append('\n');
+    }
+
+    /**
+     * Ends a paragraph: appends a line break, unless the text is empty or already ends with one
+     */
+    void endParagraph() {
+        int length = text.length();
+        if (length > 0 && text.charAt(length - 1) == ' ') {
+            text.setLength(--length);
+        }
+        if (length > 0 && text.charAt(length - 1) != '\n') {
+            text.append('\n');
+        }
+    }
+
+    /**
+     * Starts a run where the text is
+     *
+     * @return the run, to {@link #close(int)}
+     */
+    int open(int type, int attribute) {
+        if (count == types.length) {
+            int capacity = count * 2;
+            types = Arrays.copyOf(types, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+            ends = Arrays.copyOf(ends, capacity);
+            attributes = Arrays.copyOf(attributes, capacity);
+        }
+        types[count] = type;
+        starts[count] = text.length();
+        ends[count] = -1;
+        attributes[count] = attribute;
+        return count++;
+    }
+
+    /**
+     * Ends a run where the text is
+     */
+    void close(int run) {
+        if (run >= 0 && run < count && ends[run] < 0) {
+            ends[run] = text.length();
+        }
+    }
+
+    /**
+     * @return the text and the runs added since the last build, the runs still open ending with the text.
+     * The builder is empty again, ready for the next entry, its timestamp 0.
+     */
+    RichTextCodec.Runs build() {
+        int length = text.length();
+        while (length > 0 && (text.charAt(length - 1) == '\n' || text.charAt(length - 1) == ' ')) {
+            length--;
+        }
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            int end = Math.min(ends[i] < 0 ? length : ends[i], length);
+            if (end > starts[i]) {
+                kept++;
+            }
+        }
+        char[] chars = new char[length];
+        text.getChars(0, length, chars, 0);
+        RichTextCodec.Runs runs = new RichTextCodec.Runs(chars, kept);
+        int r = 0;
+        for (int i = 0; i < count; i++) {
+            int end = Math.min(ends[i] < 0 ? length : ends[i], length);
+            if (end > starts[i]) {
+                runs.types[r] = types[i];
+                runs.starts[r] = starts[i];
+                runs.ends[r] = end;
+                runs.attributes[r] = attributes[i];
+                r++;
+            }
+        }
+        text.setLength(0);
+        count = 0;
+        timestamp = 0;
+        return runs;
+    }
+}
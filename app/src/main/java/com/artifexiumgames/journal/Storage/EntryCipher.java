@@ -0,0 +1,161 @@
+package com.artifexiumgames.journal.Storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Encrypts and authenticates the records of an {@link EntryStore} with AES/GCM.
+ * <p>
+ *  Every record gets a fresh random nonce. The id and the timestamp of the entry are authenticated
+ *  along with its content, so a record cannot be passed off as another entry or another version of
+ *  the same entry without the key.
+ * </p>
+ * <p>
+ *  A {@link Cipher} is not thread safe and is slow to look up, so one is kept per thread.
+ * </p>
+ */
+public class EntryCipher {
+
+    public static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    public static final int NONCE_SIZE = 12;
+    public static final int TAG_SIZE = 16;
+    public static final int KEY_SIZE = 32;
+    public static final String SUBKEY_ALGORITHM = "HmacSHA256";
+
+    private final SecretKey key;
+    private final SecureRandom random = new SecureRandom();
+    private final ThreadLocal<Cipher> ciphers = new ThreadLocal<Cipher>() {
+        @Override
+        protected Cipher initialValue() {
+            try {
+                return Cipher.getInstance(TRANSFORMATION);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(TRANSFORMATION + " is not available", e);
+            }
+        }
+    };
+
+    /**
+     * @param key an AES key, of 128 or 256 bits
+     */
+    public EntryCipher(SecretKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Derives a key for one use only, so that records of different kinds, encrypted with different keys,
+     * cannot be passed off as one another
+     *
+     * @param key     the key to derive from
+     * @param purpose what the derived key is for, e.g. the file it encrypts
+     * @return an AES key of 256 bits, derived from {@code key} with HMAC
+     */
+    public static SecretKey deriveKey(SecretKey key, String purpose) throws IOException {
+        try {
+            Mac mac = Mac.getInstance(SUBKEY_ALGORITHM);
+            mac.init(key);
+            return new SecretKeySpec(mac.doFinal(purpose.getBytes(Charset.forName("UTF-8"))), "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not derive the key of " + purpose, e);
+        }
+    }
+
+    /**
+     * @return a fresh random nonce
+     */
+    public byte[] newNonce() {
+        byte[] nonce = new byte[NONCE_SIZE];
+        random.nextBytes(nonce);
+        return nonce;
+    }
+
+    /**
+     * @return a fresh random AES key of 256 bits
+     */
+    public SecretKey newKey() {
+        byte[] key = new byte[KEY_SIZE];
+        random.nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * @return the size of the ciphertext of {@code plaintextLength} bytes, tag included
+     */
+    public static int ciphertextSize(int plaintextLength) {
+        return plaintextLength + TAG_SIZE;
+    }
+
+    /**
+     * Encrypts {@code plaintext} into {@code out}, at its position
+     *
+     * @param id        the id of the entry, authenticated with the content
+     * @param timestamp the time of the save, authenticated with the content
+     * @param nonce     a nonce from {@link #newNonce()}, never used before with this key
+     */
+    public void seal(long id, long timestamp, byte[] nonce, byte[] plaintext, ByteBuffer out) throws IOException {
+        seal(key, id, timestamp, nonce, plaintext, out);
+    }
+
+    /**
+     * Encrypts {@code plaintext} into {@code out} with another key than the key of this cipher, e.g. the
+     * data key of an entry
+     *
+     * @see #seal(long, long, byte[], byte[], ByteBuffer)
+     */
+    public void seal(SecretKey key, long id, long timestamp, byte[] nonce, byte[] plaintext, ByteBuffer out) throws IOException {
+        try {
+            Cipher cipher = init(Cipher.ENCRYPT_MODE, key, id, timestamp, nonce);
+            cipher.doFinal(ByteBuffer.wrap(plaintext), out);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Entry " + id + " could not be encrypted", e);
+        }
+    }
+
+    /**
+     * Decrypts and checks a record
+     *
+     * @return the content of the entry
+     * @throws IOException if the record was not encrypted with this key, or has been tampered with
+     */
+    public byte[] open(long id, long timestamp, byte[] nonce, ByteBuffer ciphertext) throws IOException {
+        return open(key, id, timestamp, nonce, ciphertext);
+    }
+
+    /**
+     * Decrypts and checks a record encrypted with another key than the key of this cipher
+     *
+     * @see #open(long, long, byte[], ByteBuffer)
+     */
+    public byte[] open(SecretKey key, long id, long timestamp, byte[] nonce, ByteBuffer ciphertext) throws IOException {
+        try {
+            Cipher cipher = init(Cipher.DECRYPT_MODE, key, id, timestamp, nonce);
+            ByteBuffer plaintext = ByteBuffer.allocate(cipher.getOutputSize(ciphertext.remaining()));
+            cipher.doFinal(ciphertext, plaintext);
+            if (plaintext.hasRemaining()) {
+                byte[] content = new byte[plaintext.position()];
+                plaintext.flip();
+                plaintext.get(content);
+                return content;
+            }
+            return plaintext.array();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Entry " + id + " could not be decrypted", e);
+        }
+    }
+
+    private Cipher init(int mode, SecretKey key, long id, long timestamp, byte[] nonce) throws GeneralSecurityException {
+        Cipher cipher = ciphers.get();
+        cipher.init(mode, key, new GCMParameterSpec(TAG_SIZE * 8, nonce));
+        cipher.updateAAD(ByteBuffer.allocate(16).putLong(id).putLong(timestamp).array());
+        return cipher;
+    }
+}
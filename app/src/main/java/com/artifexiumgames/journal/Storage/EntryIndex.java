@@ -0,0 +1,179 @@
+package com.artifexiumgames.journal.Storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The on-disk index of an {@link EntryStore}: where the latest record of every entry is in the log.
+ * <p>
+ *  Entry ids are handed out in sequence, so the index is an array of fixed-size slots, the slot of an
+ *  entry being found from its id alone. The file is memory-mapped: opening the index reads nothing,
+ *  and a lookup is a read of the mapping, in O(1) whatever the number of entries.
+ * </p>
+ * File layout:
+ * <ul>
+ *     <li>Header ({@value #HEADER_SIZE} bytes): magic, version, the length of the log covered by the
+ *     index, the number of entry ids handed out.</li>
+ *     <li>Slots ({@value #SLOT_SIZE} bytes each, by entry id): offset of the latest record of the entry
+ *     in the log (0 if the entry has never been saved), time of the save, length of the record.</li>
+ * </ul>
+ * <p>
+ *  The mapping is grown by doubling when an id falls past its end.
+ * </p>
+ *
+ * @see EntryStore
+ */
+public class EntryIndex implements Closeable {
+
+    public static final int MAGIC = 0x4A494458; //"JIDX"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 32;
+    public static final int SLOT_SIZE = 24;
+
+    protected static final int INITIAL_CAPACITY = 1024;
+
+    private static final int MAGIC_POSITION = 0;
+    private static final int VERSION_POSITION = 4;
+    private static final int LOG_LENGTH_POSITION = 8;
+    private static final int ENTRY_COUNT_POSITION = 16;
+
+    private static final int OFFSET_IN_SLOT = 0;
+    private static final int TIMESTAMP_IN_SLOT = 8;
+    private static final int LENGTH_IN_SLOT = 16;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer map;
+    private long capacity;
+    private final boolean valid;
+
+    /**
+     * Maps the index file, creating it if needed
+     *
+     * @param indexFile the file of the index
+     */
+    public EntryIndex(File indexFile) throws IOException {
+        file = new RandomAccessFile(indexFile, "rw");
+        channel = file.getChannel();
+        long size = channel.size();
+        capacity = Math.max(INITIAL_CAPACITY, (size - HEADER_SIZE) / SLOT_SIZE);
+        map(capacity);
+        valid = size >= HEADER_SIZE && map.getInt(MAGIC_POSITION) == MAGIC && map.getInt(VERSION_POSITION) == VERSION;
+        if (!valid) {
+            clear();
+        }
+    }
+
+    /**
+     * @return false if the file was missing, or not an index of this version. The index has been
+     * cleared and has to be rebuilt from the log.
+     */
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Empties the index
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < map.capacity(); i++) {
+            map.put(i, (byte) 0);
+        }
+        map.putInt(MAGIC_POSITION, MAGIC);
+        map.putInt(VERSION_POSITION, VERSION);
+    }
+
+    /**
+     * @return the length of the log up to which every record is in the index
+     */
+    public synchronized long getIndexedLogLength() {
+        return map.getLong(LOG_LENGTH_POSITION);
+    }
+
+    public synchronized void setIndexedLogLength(long length) {
+        map.putLong(LOG_LENGTH_POSITION, length);
+    }
+
+    /**
+     * @return the number of entry ids handed out
+     */
+    public synchronized long getEntryCount() {
+        return map.getLong(ENTRY_COUNT_POSITION);
+    }
+
+    public synchronized void setEntryCount(long count) {
+        map.putLong(ENTRY_COUNT_POSITION, count);
+    }
+
+    /**
+     * @return where the latest record of entry {@code id} starts in the log, or 0 if it has never been saved
+     */
+    public synchronized long getOffset(long id) {
+        return id < capacity ? map.getLong(slot(id) + OFFSET_IN_SLOT) : 0;
+    }
+
+    /**
+     * @return the time entry {@code id} was last saved, or 0 if it has never been saved
+     */
+    public synchronized long getTimestamp(long id) {
+        return id < capacity ? map.getLong(slot(id) + TIMESTAMP_IN_SLOT) : 0;
+    }
+
+    /**
+     * @return the length of the latest record of entry {@code id}, or 0 if it has never been saved
+     */
+    public synchronized int getLength(long id) {
+        return id < capacity ? map.getInt(slot(id) + LENGTH_IN_SLOT) : 0;
+    }
+
+    /**
+     * Points entry {@code id} at a new record
+     */
+    public synchronized void put(long id, long offset, long timestamp, int length) throws IOException {
+        if (id < 0) {
+            throw new IllegalArgumentException("Invalid entry id " + id);
+        }
+        if (id >= capacity) {
+            long newCapacity = capacity;
+            while (id >= newCapacity) {
+                newCapacity *= 2;
+            }
+            map(newCapacity);
+        }
+        int slot = slot(id);
+        map.putLong(slot + OFFSET_IN_SLOT, offset);
+        map.putLong(slot + TIMESTAMP_IN_SLOT, timestamp);
+        map.putInt(slot + LENGTH_IN_SLOT, length);
+    }
+
+    /**
+     * Writes the changes to the mapping to the disk
+     */
+    public synchronized void force() {
+        map.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        map.force();
+        channel.close();
+        file.close();
+    }
+
+    private void map(long newCapacity) throws IOException {
+        long size = HEADER_SIZE + newCapacity * SLOT_SIZE;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("The index cannot hold " + newCapacity + " entries");
+        }
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        capacity = newCapacity;
+    }
+
+    private int slot(long id) {
+        return (int) (HEADER_SIZE + id * SLOT_SIZE);
+    }
+}
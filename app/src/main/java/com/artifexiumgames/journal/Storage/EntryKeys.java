@@ -0,0 +1,158 @@
+package com.artifexiumgames.journal.Storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The data keys of the entries of an {@link EntryStore}: a random AES key per entry, wrapped by a key
+ * derived from the master key of the journal.
+ * <p>
+ *  Every entry has a slot of the same size, at a position given by its id, so the key of an entry is
+ *  read with a single positional read, and only when the entry is first read or saved: opening the
+ *  journal unwraps nothing, however many entries it has. Unwrapped keys are kept for the session.
+ * </p>
+ * <p>
+ *  A slot of zeros means the entry is encrypted with the master key itself, as entries were before
+ *  they had their own keys. Such an entry gets a key of its own the next time it is saved.
+ * </p>
+ * Layout, after an 8 byte header (magic, version):
+ * <ul>
+ *     <li>Slot of entry {@code id}, at {@code 8 + id * }{@value #SLOT_SIZE}: nonce
+ *     ({@value EntryCipher#NONCE_SIZE}), then the key ({@value EntryCipher#KEY_SIZE}) encrypted with its tag.</li>
+ * </ul>
+ */
+class EntryKeys implements Closeable {
+
+    static final String FILE = "entries.keys";
+    static final int MAGIC = 0x4A4B4559; //"JKEY"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+    static final int SLOT_SIZE = EntryCipher.NONCE_SIZE + EntryCipher.KEY_SIZE + EntryCipher.TAG_SIZE;
+
+    private final EntryCipher wrapper;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final Map<Long, SecretKey> keys = new HashMap<>();
+
+    /**
+     * @param file      the file of the keys, created if needed
+     * @param masterKey the key of the journal, the wrapping key is derived from it
+     */
+    EntryKeys(File file, SecretKey masterKey) throws IOException {
+        wrapper = new EntryCipher(EntryCipher.deriveKey(masterKey, FILE));
+        this.file = new RandomAccessFile(file, "rw");
+        channel = this.file.getChannel();
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            if (channel.size() < HEADER_SIZE) {
+                header.putInt(MAGIC).putInt(VERSION).flip();
+                channel.truncate(0);
+                write(header, 0);
+                channel.force(true);
+            } else {
+                read(header, 0);
+                if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                    throw new IOException("Not entry keys of version " + VERSION);
+                }
+            }
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the data key of entry {@code id}, or null if it is encrypted with the master key
+     * @throws IOException if the slot could not be read or unwrapped
+     */
+    synchronized SecretKey get(long id) throws IOException {
+        SecretKey key = keys.get(id);
+        if (key != null) {
+            return key;
+        }
+        long position = HEADER_SIZE + id * SLOT_SIZE;
+        if (position + SLOT_SIZE > channel.size()) {
+            return null;
+        }
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        read(slot, position);
+        if (isEmpty(slot.array())) {
+            return null;
+        }
+        byte[] nonce = new byte[EntryCipher.NONCE_SIZE];
+        slot.get(nonce);
+        key = new SecretKeySpec(wrapper.open(id, 0, nonce, slot), "AES");
+        keys.put(id, key);
+        return key;
+    }
+
+    /**
+     * @return the data key of entry {@code id}, made and written to its slot if it has none yet. The slot
+     * is on the disk after the next {@link #force()}.
+     */
+    synchronized SecretKey getOrCreate(long id) throws IOException {
+        SecretKey key = get(id);
+        if (key != null) {
+            return key;
+        }
+        key = wrapper.newKey();
+        byte[] nonce = wrapper.newNonce();
+        ByteBuffer slot = ByteBuffer.allocate(SLOT_SIZE);
+        slot.put(nonce);
+        wrapper.seal(id, 0, nonce, key.getEncoded(), slot);
+        slot.flip();
+        write(slot, HEADER_SIZE + id * SLOT_SIZE);
+        keys.put(id, key);
+        return key;
+    }
+
+    /**
+     * Makes sure the keys made so far are on the disk
+     */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            keys.clear();
+        }
+        file.close();
+    }
+
+    private static boolean isEmpty(byte[] slot) {
+        for (byte b : slot) {
+            if (b != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void read(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the entry keys at " + position);
+            }
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private void write(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,487 @@
+package com.artifexiumgames.journal.Storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.crypto.SecretKey;
+
+/**
+ * The journal entries, encrypted, in an append-only log with a memory-mapped index.
+ * <p>
+ *  Saving an entry appends a new record to the log and points the {@link EntryIndex} at it; records are
+ *  never rewritten. Every record is encrypted and authenticated on its own with {@link EntryCipher}, with
+ *  the data key of its entry from {@link EntryKeys}. Entries saved before they had their own keys are
+ *  encrypted with the master key, and read with it.
+ * </p>
+ * <p>
+ *  <b>Group commit:</b> {@link #save(long, byte[])} only queues the entry and returns at once, so it can
+ *  be called from the UI thread. A single writer thread takes every entry queued at the time, within
+ *  {@code commitDelayMillis} of the first, encrypts them, appends them to the log in one write, and
+ *  syncs the log once for all of them. Only then is the index updated and synced, so the index never
+ *  points at a record that is not on the disk. Until then, {@link #load(long)} returns the queued content.
+ *  A write that fails keeps its entries queued and is tried again, {@value #RETRY_DELAY_MILLIS} ms later
+ *  and then twice as late every time, up to {@value #MAX_RETRY_DELAY_MILLIS} ms.
+ * </p>
+ * <p>
+ *  <b>Recovery:</b> the header of the index holds the length of the log it covers. On opening, only the
+ *  records past that length, the tail of the log written since the index was last synced, are read and
+ *  put in the index. A torn record at the end of the log, from a crash during a write, fails its checksum
+ *  and is cut off. Opening a journal of any size thus reads nothing but its tail.
+ * </p>
+ * Log layout, after an 8 byte header (magic, version):
+ * <ul>
+ *     <li>Record: body length (4 bytes), then the body: entry id (8), timestamp (8), nonce
+ *     ({@value EntryCipher#NONCE_SIZE}), ciphertext with its tag; then the CRC32 of the length and the body (4).</li>
+ * </ul>
+ */
+public class EntryStore implements Closeable {
+
+    public static final String LOG_FILE = "entries.log";
+    public static final String INDEX_FILE = "entries.idx";
+
+    public static final int MAGIC = 0x4A4C4F47; //"JLOG"
+    public static final int VERSION = 1;
+    public static final int LOG_HEADER_SIZE = 8;
+    public static final long DEFAULT_COMMIT_DELAY_MILLIS = 50;
+    public static final long RETRY_DELAY_MILLIS = 100;
+    public static final long MAX_RETRY_DELAY_MILLIS = 30000;
+
+    /**
+     * Body size of a record with no content: id, timestamp, nonce and tag
+     */
+    protected static final int EMPTY_BODY_SIZE = 8 + 8 + EntryCipher.NONCE_SIZE + EntryCipher.TAG_SIZE;
+    protected static final int MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+    private final EntryCipher cipher;
+    private final EntryKeys keys;
+    private final RandomAccessFile logFile;
+    private final FileChannel log;
+    private final EntryIndex index;
+    private final long commitDelayMillis;
+    private final ScheduledExecutorService writer;
+
+    /**
+     * Only accessed by the writer thread, once open
+     */
+    private long logLength;
+
+    /**
+     * Entries queued and entries being written, by id, guarded by {@code this}
+     */
+    private Map<Long, Pending> pending = new LinkedHashMap<>();
+    private Map<Long, Pending> committing = Collections.emptyMap();
+    private boolean commitScheduled;
+    private long nextId;
+    private IOException failure;
+    private long retryDelayMillis = RETRY_DELAY_MILLIS;
+
+    private final Runnable commitTask = new Runnable() {
+        @Override
+        public void run() {
+            commit();
+        }
+    };
+
+    /**
+     * Opens the journal in {@code directory}, creating it if needed, with the default commit delay
+     *
+     * @param directory the directory of the journal
+     * @param key       the key the entries are encrypted with
+     */
+    public static EntryStore open(File directory, SecretKey key) throws IOException {
+        return new EntryStore(directory, key, DEFAULT_COMMIT_DELAY_MILLIS);
+    }
+
+    /**
+     * @param directory         the directory of the journal
+     * @param key               the key the entries are encrypted with
+     * @param commitDelayMillis how long the writer waits after a save for more saves to share its sync
+     */
+    public EntryStore(File directory, SecretKey key, long commitDelayMillis) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the journal directory " + directory);
+        }
+        this.cipher = new EntryCipher(key);
+        this.commitDelayMillis = commitDelayMillis;
+        logFile = new RandomAccessFile(new File(directory, LOG_FILE), "rw");
+        log = logFile.getChannel();
+        index = new EntryIndex(new File(directory, INDEX_FILE));
+        try {
+            keys = new EntryKeys(new File(directory, EntryKeys.FILE), key);
+        } catch (IOException e) {
+            index.close();
+            logFile.close();
+            throw e;
+        }
+        try {
+            recover();
+        } catch (IOException e) {
+            keys.close();
+            index.close();
+            logFile.close();
+            throw e;
+        }
+        writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "EntryStore writer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return a new entry id. The entry exists once it has been saved.
+     */
+    public synchronized long newEntryId() {
+        return nextId++;
+    }
+
+    /**
+     * Hands out every id up to {@code id}, for a store whose records are keyed by the ids of another
+     * store
+     */
+    public synchronized void reserveEntryId(long id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown entry id " + id);
+        }
+        nextId = Math.max(nextId, id + 1);
+    }
+
+    /**
+     * @return the number of entry ids handed out. Ids go from 0 to this number (exclusive).
+     */
+    public synchronized long getEntryCount() {
+        return nextId;
+    }
+
+    /**
+     * Queues the content of an entry to be saved, and returns without waiting for the disk
+     *
+     * @param id      an id from {@link #newEntryId()}
+     * @param content the content of the entry. Must not be changed afterwards.
+     * @see #flush()
+     */
+    public void save(long id, byte[] content) {
+        save(id, content, System.currentTimeMillis());
+    }
+
+    /**
+     * Queues the content of an entry to be saved with the time it was written, e.g. for an entry imported
+     *
+     * @param timestamp the time of the entry, as {@link #getTimestamp(long)} returns it. Not 0.
+     * @see #save(long, byte[])
+     */
+    public synchronized void save(long id, byte[] content, long timestamp) {
+        if (id < 0 || id >= nextId) {
+            throw new IllegalArgumentException("Unknown entry id " + id);
+        }
+        pending.remove(id); //keeps the queue in the order of the latest saves
+        pending.put(id, new Pending(content, timestamp));
+        if (!commitScheduled) {
+            commitScheduled = true;
+            writer.schedule(commitTask, commitDelayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * @param id an entry id
+     * @return the latest content saved for entry {@code id}, or null if it has never been saved
+     * @throws IOException if the record could not be read or decrypted
+     */
+    public byte[] load(long id) throws IOException {
+        Pending queued;
+        synchronized (this) {
+            queued = pending.get(id);
+            if (queued == null) {
+                queued = committing.get(id);
+            }
+        }
+        if (queued != null) {
+            return queued.content.clone();
+        }
+
+        long offset;
+        int length;
+        synchronized (index) {
+            offset = index.getOffset(id);
+            length = index.getLength(id);
+        }
+        if (offset == 0) {
+            return null;
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        readFully(record, offset);
+        record.flip();
+        int bodyLength = record.getInt();
+        long recordId = record.getLong();
+        long timestamp = record.getLong();
+        if (recordId != id || bodyLength != length - 8) {
+            throw new IOException("The index of entry " + id + " points at the wrong record");
+        }
+        byte[] nonce = new byte[EntryCipher.NONCE_SIZE];
+        record.get(nonce);
+        record.limit(record.limit() - 4); //the checksum
+        SecretKey dataKey = keys.get(id);
+        if (dataKey != null) {
+            try {
+                return cipher.open(dataKey, id, timestamp, nonce, record.duplicate());
+            } catch (IOException e) {
+                //Saved with the master key, and given a data key by a save that did not make it to the log
+            }
+        }
+        return cipher.open(id, timestamp, nonce, record);
+    }
+
+    /**
+     * @return the time entry {@code id} was last saved, or was written if saved with a time, or 0 if it has
+     * never been saved
+     */
+    public long getTimestamp(long id) {
+        synchronized (this) {
+            Pending queued = pending.get(id);
+            if (queued == null) {
+                queued = committing.get(id);
+            }
+            if (queued != null) {
+                return queued.timestamp;
+            }
+        }
+        return index.getTimestamp(id);
+    }
+
+    /**
+     * Waits for every entry saved so far to be on the disk
+     *
+     * @throws IOException if the entries could not be written
+     */
+    public void flush() throws IOException {
+        try {
+            writer.submit(commitTask).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while saving the entries", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Could not save the entries", e.getCause());
+        }
+        synchronized (this) {
+            if (failure != null) {
+                IOException e = failure;
+                failure = null;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Saves the entries still queued and closes the journal
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            writer.shutdownNow(); //and the retry of a write that failed, if any
+            keys.close();
+            index.close();
+            logFile.close();
+        }
+    }
+
+    /**
+     * Writes every queued entry with a single sync of the log. Runs on the writer thread.
+     */
+    protected void commit() {
+        Map<Long, Pending> batch;
+        synchronized (this) {
+            commitScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            committing = batch;
+            pending = new LinkedHashMap<>();
+        }
+        try {
+            append(batch);
+            synchronized (this) {
+                committing = Collections.emptyMap();
+                failure = null; //everything that failed before is on the disk now
+                retryDelayMillis = RETRY_DELAY_MILLIS;
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                failure = e;
+                //Keep the entries for the next commit, unless they have been saved again since
+                for (Map.Entry<Long, Pending> entry : batch.entrySet()) {
+                    if (!pending.containsKey(entry.getKey())) {
+                        pending.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                committing = Collections.emptyMap();
+                if (!commitScheduled && !writer.isShutdown()) {
+                    commitScheduled = true;
+                    writer.schedule(commitTask, retryDelayMillis, TimeUnit.MILLISECONDS);
+                    retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+                }
+            }
+        }
+    }
+
+    private void append(Map<Long, Pending> batch) throws IOException {
+        int size = 0;
+        for (Pending entry : batch.values()) {
+            size += recordSize(entry.content.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        List<long[]> slots = new ArrayList<>(batch.size());
+        CRC32 crc = new CRC32();
+        for (Map.Entry<Long, Pending> entry : batch.entrySet()) {
+            long id = entry.getKey();
+            Pending content = entry.getValue();
+            int start = buffer.position();
+            buffer.putInt(EMPTY_BODY_SIZE + content.content.length);
+            buffer.putLong(id);
+            buffer.putLong(content.timestamp);
+            byte[] nonce = cipher.newNonce();
+            buffer.put(nonce);
+            cipher.seal(keys.getOrCreate(id), id, content.timestamp, nonce, content.content, buffer);
+            crc.reset();
+            crc.update(buffer.array(), start, buffer.position() - start);
+            buffer.putInt((int) crc.getValue());
+            slots.add(new long[]{id, logLength + start, content.timestamp, buffer.position() - start});
+        }
+        buffer.flip();
+        keys.force(); //the keys are on the disk before the records they open
+        long position = logLength;
+        while (buffer.hasRemaining()) {
+            position += write(buffer, position);
+        }
+        log.force(false);
+        logLength = position;
+
+        synchronized (index) {
+            for (long[] slot : slots) {
+                index.put(slot[0], slot[1], slot[2], (int) slot[3]);
+            }
+            index.force(); //the slots are on the disk before the header says they are complete
+            index.setIndexedLogLength(logLength);
+            index.setEntryCount(getEntryCount());
+            index.force();
+        }
+    }
+
+    /**
+     * Writes records to the log at {@code position}. Runs on the writer thread.
+     *
+     * @return the number of bytes written
+     */
+    protected int write(ByteBuffer buffer, long position) throws IOException {
+        return log.write(buffer, position);
+    }
+
+    /**
+     * Brings the index up to date with the tail of the log, and cuts off a torn record at its end
+     */
+    private void recover() throws IOException {
+        long size = log.size();
+        if (size < LOG_HEADER_SIZE) {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            log.truncate(0);
+            while (header.hasRemaining()) {
+                log.write(header, LOG_HEADER_SIZE - header.remaining());
+            }
+            log.force(true);
+            size = LOG_HEADER_SIZE;
+            index.clear();
+        } else {
+            ByteBuffer header = ByteBuffer.allocate(LOG_HEADER_SIZE);
+            readFully(header, 0);
+            header.flip();
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a journal of version " + VERSION);
+            }
+        }
+
+        long position = index.getIndexedLogLength();
+        if (!index.isValid() || position < LOG_HEADER_SIZE || position > size) {
+            index.clear(); //the index is missing or ahead of the log: read the whole log again
+            position = LOG_HEADER_SIZE;
+        }
+        long count = index.getEntryCount();
+        ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+        CRC32 crc = new CRC32();
+        while (position + 4 <= size) {
+            lengthBuffer.clear();
+            readFully(lengthBuffer, position);
+            int bodyLength = lengthBuffer.getInt(0);
+            if (bodyLength < EMPTY_BODY_SIZE || bodyLength > MAX_BODY_SIZE || position + bodyLength + 8 > size) {
+                break;
+            }
+            ByteBuffer record = ByteBuffer.allocate(bodyLength + 8);
+            readFully(record, position);
+            crc.reset();
+            crc.update(record.array(), 0, bodyLength + 4);
+            if ((int) crc.getValue() != record.getInt(bodyLength + 4)) {
+                break;
+            }
+            long id = record.getLong(4);
+            index.put(id, position, record.getLong(12), bodyLength + 8);
+            count = Math.max(count, id + 1);
+            position += bodyLength + 8;
+        }
+        if (position < size) {
+            log.truncate(position);
+            log.force(true);
+        }
+        logLength = position;
+        nextId = count;
+        index.setIndexedLogLength(position);
+        index.setEntryCount(count);
+        index.force();
+    }
+
+    private static int recordSize(int contentLength) {
+        return 4 + EMPTY_BODY_SIZE + contentLength + 4;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = log.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the journal at " + position);
+            }
+            position += read;
+        }
+    }
+
+    /**
+     * The content of an entry waiting to be written
+     */
+    private static class Pending {
+        final byte[] content;
+        final long timestamp;
+
+        Pending(byte[] content, long timestamp) {
+            this.content = content;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.artifexiumgames.journal.Storage;
+
+/**
+ * What the list of past entries shows of an entry: its date, title, the start of its text and its
+ * number of words.
+ * <p>
+ *  Summaries are made once, when the entry is saved, and kept in the {@link SummaryTable}, so listing
+ *  the entries never opens them.
+ * </p>
+ */
+public class EntrySummary {
+
+    /**
+     * The most characters kept of the title and of the preview. A row of the {@link SummaryTable} has
+     * room for both in UTF-8, whatever the characters.
+     */
+    public static final int TITLE_CHARS = 40;
+    public static final int PREVIEW_CHARS = 100;
+
+    protected final long id;
+    protected final long timestamp;
+    protected final String title;
+    protected final String preview;
+    protected final int wordCount;
+
+    public EntrySummary(long id, long timestamp, String title, String preview, int wordCount) {
+        this.id = id;
+        this.timestamp = timestamp;
+        this.title = title;
+        this.preview = preview;
+        this.wordCount = wordCount;
+    }
+
+    /**
+     * Summarizes the text of an entry: its first line is the title, and the lines after it, with their
+     * whitespace collapsed, the preview.
+     *
+     * @param id        the id of the entry
+     * @param timestamp the time the entry was saved
+     * @param text      the text of the entry. Its spans are ignored.
+     */
+    public static EntrySummary summarize(long id, long timestamp, CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        int lineEnd = i;
+        while (lineEnd < length && text.charAt(lineEnd) != '\n') {
+            lineEnd++;
+        }
+        String title = collapse(text, i, lineEnd, TITLE_CHARS);
+        String preview = collapse(text, lineEnd, length, PREVIEW_CHARS);
+        return new EntrySummary(id, timestamp, title, preview, countWords(text));
+    }
+
+    /**
+     * @return the words of {@code text}: runs of letters and digits
+     */
+    public static int countWords(CharSequence text) {
+        int count = 0;
+        boolean inWord = false;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            boolean letter = Character.isLetterOrDigit(text.charAt(i));
+            if (letter && !inWord) {
+                count++;
+            }
+            inWord = letter;
+        }
+        return count;
+    }
+
+    /**
+     * @return up to {@code max} characters of {@code text} from {@code start} to {@code end}, every run of
+     * whitespace made a single space, without whitespace at either end
+     */
+    private static String collapse(CharSequence text, int start, int end, int max) {
+        StringBuilder out = new StringBuilder(Math.min(max, end - start));
+        boolean space = false;
+        for (int i = start; i < end && out.length() < max; i++) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = out.length() > 0;
+            } else {
+                if (space) {
+                    out.append(' ');
+                    space = false;
+                }
+                out.append(c);
+            }
+        }
+        int outLength = Math.min(out.length(), max);
+        if (outLength > 0 && Character.isHighSurrogate(out.charAt(outLength - 1))) {
+            outLength--; //do not split a pair
+        }
+        out.setLength(outLength);
+        return out.toString();
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getTitle() {
+        return title;
+    }
+
+    public String getPreview() {
+        return preview;
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+}
@@ -0,0 +1,412 @@
+package com.artifexiumgames.journal.Storage;
+
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import java.nio.CharBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The formats the journal is exported to, see {@link JournalExporter}, and the conversion of the style
+ * runs of an entry to their markup.
+ * <p>
+ *  The runs of the editor overlap freely, where markup nests. A run is opened where it starts, and at
+ *  every boundary the runs opened after a run that ends there are closed with it, then opened again:
+ *  {@code <b>a<i>b</b>c</i>} is written {@code <b>a<i>b</i></b><i>c</i>}. The runs starting together
+ *  are opened longest first, so they are closed and opened again as little as possible.
+ * </p>
+ * <p>
+ *  An entry of {@link #HTML} is an {@code article} with its date in a {@code time} element, so that
+ *  {@link ImportFormat#HTML} reads it back to the millisecond; the other formats only have the heading.
+ * </p>
+ * Styles Markdown has no syntax for (underline, colors, sizes, subscript and superscript) are written as
+ * the inline HTML Markdown allows.
+ */
+public enum ExportFormat {
+    HTML("html") {
+        @Override
+        void beginDocument(StringBuilder out) {
+            out.append("<!DOCTYPE html>\n<html>\n<head>\n<meta charset=\"utf-8\">\n<title>Journal</title>\n</head>\n<body>\n");
+        }
+
+        @Override
+        void endDocument(StringBuilder out) {
+            out.append("</body>\n</html>\n");
+        }
+
+        @Override
+        void beginEntry(StringBuilder out, String heading, long timestamp) {
+            SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+            iso.setTimeZone(TimeZone.getTimeZone("GMT"));
+            out.append("<article>\n<h2><time datetime=\"").append(iso.format(new Date(timestamp))).append("\">");
+            appendEscaped(out, heading, 0, heading.length());
+            out.append("</time></h2>\n<p>");
+        }
+
+        @Override
+        void endEntry(StringBuilder out) {
+            out.append("</p>\n</article>\n");
+        }
+
+        @Override
+        void open(StringBuilder out, int type, int attribute) {
+            appendHtmlOpen(out, type, attribute);
+        }
+
+        @Override
+        void close(StringBuilder out, int type) {
+            appendHtmlClose(out, type);
+        }
+
+        @Override
+        void appendEscaped(StringBuilder out, CharSequence text, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '&':
+                        out.append("&amp;");
+                        break;
+                    case '<':
+                        out.append("&lt;");
+                        break;
+                    case '>':
+                        out.append("&gt;");
+                        break;
+                    case '"':
+                        out.append("&quot;");
+                        break;
+                    case '\n':
+                        out.append("<br>\n");
+                        break;
+                    default:
+                        out.append(c);
+                }
+            }
+        }
+    },
+
+    MARKDOWN("md") {
+        @Override
+        void beginEntry(StringBuilder out, String heading, long timestamp) {
+            out.append("## ");
+            appendEscaped(out, heading, 0, heading.length());
+            out.append("\n\n");
+        }
+
+        @Override
+        void endEntry(StringBuilder out) {
+            out.append("\n\n");
+        }
+
+        @Override
+        void open(StringBuilder out, int type, int attribute) {
+            switch (type) {
+                case RichTextCodec.TYPE_BOLD:
+                    out.append("**");
+                    break;
+                case RichTextCodec.TYPE_ITALIC:
+                    out.append('*');
+                    break;
+                case RichTextCodec.TYPE_STRIKETHROUGH:
+                    out.append("~~");
+                    break;
+                default:
+                    appendHtmlOpen(out, type, attribute);
+            }
+        }
+
+        @Override
+        void close(StringBuilder out, int type) {
+            switch (type) {
+                case RichTextCodec.TYPE_BOLD:
+                    out.append("**");
+                    break;
+                case RichTextCodec.TYPE_ITALIC:
+                    out.append('*');
+                    break;
+                case RichTextCodec.TYPE_STRIKETHROUGH:
+                    out.append("~~");
+                    break;
+                default:
+                    appendHtmlClose(out, type);
+            }
+        }
+
+        @Override
+        void appendEscaped(StringBuilder out, CharSequence text, int start, int end) {
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '\\':
+                    case '*':
+                    case '_':
+                    case '~':
+                    case '`':
+                    case '#':
+                    case '[':
+                    case ']':
+                    case '<':
+                    case '>':
+                        out.append('\\').append(c);
+                        break;
+                    case '\n':
+                        //A line break inside a paragraph, a blank line between paragraphs
+                        boolean betweenLines = i > 0 && text.charAt(i - 1) != '\n'
+                                && i + 1 < text.length() && text.charAt(i + 1) != '\n';
+                        out.append(betweenLines ? "\\\n" : "\n");
+                        break;
+                    default:
+                        out.append(c);
+                }
+            }
+        }
+    },
+
+    TEXT("txt") {
+        @Override
+        void beginEntry(StringBuilder out, String heading, long timestamp) {
+            out.append(heading).append('\n');
+            for (int i = 0; i < heading.length(); i++) {
+                out.append('=');
+            }
+            out.append("\n\n");
+        }
+
+        @Override
+        void endEntry(StringBuilder out) {
+            out.append("\n\n");
+        }
+
+        @Override
+        void open(StringBuilder out, int type, int attribute) {
+            //No styles
+        }
+
+        @Override
+        void close(StringBuilder out, int type) {
+            //No styles
+        }
+
+        @Override
+        void appendEscaped(StringBuilder out, CharSequence text, int start, int end) {
+            out.append(text, start, end);
+        }
+    };
+
+    private final String extension;
+
+    ExportFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * @return the extension of the files of this format, without the dot
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Writes what comes before the first entry
+     */
+    void beginDocument(StringBuilder out) {
+        //Nothing by default
+    }
+
+    /**
+     * Writes what comes after the last entry
+     */
+    void endDocument(StringBuilder out) {
+        //Nothing by default
+    }
+
+    /**
+     * Writes what comes before the text of an entry
+     *
+     * @param heading   the heading of the entry, e.g. its date
+     * @param timestamp the time of the entry, for the formats that write it as well
+     */
+    abstract void beginEntry(StringBuilder out, String heading, long timestamp);
+
+    abstract void endEntry(StringBuilder out);
+
+    /**
+     * Writes the start of a run
+     *
+     * @param type      a type id of {@link RichTextCodec}, e.g. {@link RichTextCodec#TYPE_BOLD}
+     * @param attribute the attribute of the run, e.g. its color
+     */
+    abstract void open(StringBuilder out, int type, int attribute);
+
+    abstract void close(StringBuilder out, int type);
+
+    /**
+     * Writes the characters of {@code text} from {@code start} to {@code end}, escaping what would be
+     * read as markup
+     */
+    abstract void appendEscaped(StringBuilder out, CharSequence text, int start, int end);
+
+    /**
+     * Writes an entry, heading, text and styles
+     *
+     * @param heading   e.g. the date of the entry
+     * @param timestamp the time of the entry
+     * @param runs      the entry, as {@link RichTextCodec#decodeRuns(byte[])} reads it
+     */
+    public void appendEntry(StringBuilder out, String heading, long timestamp, RichTextCodec.Runs runs) {
+        beginEntry(out, heading, timestamp);
+        appendRuns(out, runs);
+        endEntry(out);
+    }
+
+    /**
+     * Writes the text of {@code runs} with the markup of its runs, nested
+     */
+    void appendRuns(StringBuilder out, RichTextCodec.Runs runs) {
+        CharSequence text = CharBuffer.wrap(runs.text);
+        int count = runs.count;
+        int[] boundaries = new int[count * 2 + 1];
+        for (int i = 0; i < count; i++) {
+            boundaries[2 * i] = runs.starts[i];
+            boundaries[2 * i + 1] = runs.ends[i];
+        }
+        boundaries[count * 2] = text.length();
+        Arrays.sort(boundaries);
+
+        int[] open = new int[count]; //the runs open, outermost first
+        int depth = 0;
+        int[] reopened = new int[count]; //the runs to open again, then the runs starting at a boundary
+        int next = 0; //the next run to open, by start
+        int position = 0;
+        for (int b = 0; b < boundaries.length; b++) {
+            int boundary = boundaries[b];
+            if (b > 0 && boundary == boundaries[b - 1]) {
+                continue;
+            }
+            out.ensureCapacity(out.length() + boundary - position);
+            appendEscaped(out, text, position, boundary);
+            position = boundary;
+
+            //Close the runs ending here, and the runs opened after them
+            int lowest = depth;
+            for (int d = depth - 1; d >= 0; d--) {
+                if (runs.ends[open[d]] <= boundary) {
+                    lowest = d;
+                }
+            }
+            int reopenCount = 0;
+            while (depth > lowest) {
+                int run = open[--depth];
+                close(out, runs.types[run]);
+                if (runs.ends[run] > boundary) {
+                    reopened[reopenCount++] = run;
+                }
+            }
+            for (int r = reopenCount - 1; r >= 0; r--) {
+                int run = reopened[r];
+                open(out, runs.types[run], runs.attributes[run]);
+                open[depth++] = run;
+            }
+
+            //Open the runs starting here, longest first
+            int starting = 0;
+            for (; next < count && runs.starts[next] == boundary; next++) {
+                int run = next;
+                int i = starting++;
+                for (; i > 0 && runs.ends[reopened[i - 1]] < runs.ends[run]; i--) {
+                    reopened[i] = reopened[i - 1];
+                }
+                reopened[i] = run;
+            }
+            for (int i = 0; i < starting; i++) {
+                int run = reopened[i];
+                if (runs.ends[run] > boundary) {
+                    open(out, runs.types[run], runs.attributes[run]);
+                    open[depth++] = run;
+                }
+            }
+        }
+        while (depth > 0) {
+            close(out, runs.types[open[--depth]]);
+        }
+    }
+
+    private static void appendHtmlOpen(StringBuilder out, int type, int attribute) {
+        switch (type) {
+            case RichTextCodec.TYPE_BOLD:
+                out.append("<b>");
+                break;
+            case RichTextCodec.TYPE_ITALIC:
+                out.append("<i>");
+                break;
+            case RichTextCodec.TYPE_UNDERLINE:
+                out.append("<u>");
+                break;
+            case RichTextCodec.TYPE_STRIKETHROUGH:
+                out.append("<s>");
+                break;
+            case RichTextCodec.TYPE_FOREGROUND_COLOR:
+                appendCss(out.append("<span style=\"color:"), attribute).append("\">");
+                break;
+            case RichTextCodec.TYPE_BACKGROUND_COLOR:
+                appendCss(out.append("<span style=\"background-color:"), attribute).append("\">");
+                break;
+            case RichTextCodec.TYPE_SUBSCRIPT:
+                out.append("<sub>");
+                break;
+            case RichTextCodec.TYPE_SUPERSCRIPT:
+                out.append("<sup>");
+                break;
+            case RichTextCodec.TYPE_RELATIVE_SIZE:
+                out.append("<span style=\"font-size:").append(Float.intBitsToFloat(attribute)).append("em\">");
+                break;
+            default:
+                out.append("<span>");
+        }
+    }
+
+    private static void appendHtmlClose(StringBuilder out, int type) {
+        switch (type) {
+            case RichTextCodec.TYPE_BOLD:
+                out.append("</b>");
+                break;
+            case RichTextCodec.TYPE_ITALIC:
+                out.append("</i>");
+                break;
+            case RichTextCodec.TYPE_UNDERLINE:
+                out.append("</u>");
+                break;
+            case RichTextCodec.TYPE_STRIKETHROUGH:
+                out.append("</s>");
+                break;
+            case RichTextCodec.TYPE_SUBSCRIPT:
+                out.append("</sub>");
+                break;
+            case RichTextCodec.TYPE_SUPERSCRIPT:
+                out.append("</sup>");
+                break;
+            default:
+                out.append("</span>");
+        }
+    }
+
+    /**
+     * Writes an ARGB color as CSS: {@code #RRGGBB} if opaque, {@code rgba(...)} if not
+     */
+    private static StringBuilder appendCss(StringBuilder out, int color) {
+        int alpha = color >>> 24;
+        if (alpha == 0xFF) {
+            String hex = Integer.toHexString(color & 0xFFFFFF);
+            out.append('#');
+            for (int i = hex.length(); i < 6; i++) {
+                out.append('0');
+            }
+            return out.append(hex);
+        }
+        return out.append("rgba(").append((color >> 16) & 0xFF).append(',').append((color >> 8) & 0xFF).append(',')
+                .append(color & 0xFF).append(',').append(Math.round(alpha / 255f * 100) / 100f).append(')');
+    }
+}
@@ -0,0 +1,587 @@
+package com.artifexiumgames.journal.Storage;
+
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Reads HTML into an {@link EntryBuilder}, a character at a time, without building a tree: what the
+ * parser keeps is the tag being read and the elements open, so a file of any size is read in the memory
+ * of its largest entry.
+ * <p>
+ *  The elements the editor has a style for become runs: {@code b}, {@code strong}, {@code i}, {@code em},
+ *  {@code u}, {@code s}, {@code strike}, {@code del}, {@code sub}, {@code sup}, headings as bold, and the
+ *  colors and sizes of {@code style} and {@code font color} attributes. Blocks become paragraphs. Every
+ *  {@code article} is an entry of its own, as {@link ExportFormat#HTML} writes them; a file without any
+ *  is a single entry.
+ * </p>
+ * <p>
+ *  A heading an entry starts with is its date if it has a {@code time} element with a {@code datetime},
+ *  or if it reads as one, see {@link ImportFormat#parseDate(String)}: it dates the entry rather than
+ *  being part of its text.
+ * </p>
+ * The HTML is taken as it comes: misnested elements become overlapping runs, as a browser shows them, a
+ * closing tag of an element not open is ignored, and unknown elements and entities are dropped or kept
+ * as text.
+ */
+class HtmlImportParser {
+
+    private static final int TEXT = 0;
+    private static final int TAG = 1;
+    private static final int COMMENT = 2;
+    private static final int ENTITY = 3;
+
+    /**
+     * Longer tags are cut, losing their last attributes
+     */
+    private static final int MAX_TAG_LENGTH = 4096;
+    private static final int MAX_ENTITY_LENGTH = 10;
+
+    private final EntryBuilder entry;
+    private final ArrayList<String> openElements = new ArrayList<>();
+    private final ArrayList<int[]> openRuns = new ArrayList<>();
+    private final StringBuilder tag = new StringBuilder();
+    private final StringBuilder entity = new StringBuilder();
+    private String skippedElement;
+    /**
+     * The heading an entry starts with, while it is read, and the date of its {@code time} element
+     */
+    private String leadingHeading;
+    private long headingTimestamp;
+    private boolean preformatted;
+    private boolean entryBoundary;
+
+    HtmlImportParser(EntryBuilder entry) {
+        this.entry = entry;
+    }
+
+    /**
+     * Reads a document, and gives every entry read to {@code sink}
+     *
+     * @param sink where the entries go, or null to read a fragment into the entry being built
+     */
+    void parse(Reader in, ImportFormat.Sink sink) throws IOException {
+        char[] buffer = new char[8192];
+        int state = TEXT;
+        char quote = 0;
+        int dashes = 0;
+        for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+            for (int i = 0; i < n; i++) {
+                char c = buffer[i];
+                switch (state) {
+                    case TAG:
+                        if (quote != 0) {
+                            if (c == quote) {
+                                quote = 0;
+                            }
+                        } else if (c == '"' || c == '\'') {
+                            quote = c;
+                        } else if (c == '>') {
+                            state = TEXT;
+                            handleTag(tag);
+                            if (entryBoundary) {
+                                entryBoundary = false;
+                                if (sink != null) {
+                                    endEntry(sink);
+                                }
+                            }
+                            continue;
+                        }
+                        if (tag.length() < MAX_TAG_LENGTH) {
+                            tag.append(c);
+                        }
+                        if (tag.length() == 3 && tag.charAt(0) == '!' && tag.charAt(1) == '-' && tag.charAt(2) == '-') {
+                            state = COMMENT;
+                            dashes = 0;
+                        }
+                        continue;
+                    case COMMENT:
+                        if (c == '>' && dashes >= 2) {
+                            state = TEXT;
+                        }
+                        dashes = c == '-' ? dashes + 1 : 0;
+                        continue;
+                    case ENTITY:
+                        if (c == ';') {
+                            state = TEXT;
+                            appendEntity(entity);
+                            continue;
+                        }
+                        if (entity.length() < MAX_ENTITY_LENGTH && (Character.isLetterOrDigit(c) || c == '#')) {
+                            entity.append(c);
+                            continue;
+                        }
+                        state = TEXT;
+                        appendText('&');
+                        for (int e = 0; e < entity.length(); e++) {
+                            appendText(entity.charAt(e));
+                        }
+                        //and the character is text
+                        break;
+                    default:
+                        break;
+                }
+                if (c == '<') {
+                    state = TAG;
+                    quote = 0;
+                    tag.setLength(0);
+                } else if (c == '&') {
+                    state = ENTITY;
+                    entity.setLength(0);
+                } else {
+                    appendText(c);
+                }
+            }
+        }
+        if (state == ENTITY) {
+            appendText('&');
+            for (int e = 0; e < entity.length(); e++) {
+                appendText(entity.charAt(e));
+            }
+        }
+        if (sink != null) {
+            endEntry(sink);
+        }
+    }
+
+    /**
+     * Handles a tag, e.g. from inline HTML in Markdown
+     *
+     * @param raw what is between {@code <} and {@code >}
+     */
+    void handleTag(CharSequence raw) {
+        int length = raw.length();
+        if (length == 0 || raw.charAt(0) == '!' || raw.charAt(0) == '?') {
+            return; //doctype, processing instruction
+        }
+        boolean closing = raw.charAt(0) == '/';
+        int nameStart = closing ? 1 : 0;
+        int nameEnd = nameStart;
+        while (nameEnd < length && Character.isLetterOrDigit(raw.charAt(nameEnd))) {
+            nameEnd++;
+        }
+        String name = raw.subSequence(nameStart, nameEnd).toString().toLowerCase(Locale.US);
+        boolean selfClosing = raw.charAt(length - 1) == '/';
+
+        if (skippedElement != null) {
+            if (closing && name.equals(skippedElement)) {
+                skippedElement = null;
+            }
+            return;
+        }
+        switch (name) {
+            case "script":
+            case "style":
+            case "head":
+            case "title":
+                if (!closing && !selfClosing) {
+                    skippedElement = name;
+                }
+                return;
+            case "br":
+                entry.appendLineBreak();
+                return;
+            case "time":
+                String datetime = closing || leadingHeading == null ? null : attribute(raw, "datetime");
+                if (datetime != null) {
+                    headingTimestamp = ImportFormat.parseDate(datetime);
+                }
+                return;
+            case "article":
+                closeAll();
+                entryBoundary = true;
+                return;
+            case "pre":
+                preformatted = !closing;
+                entry.endParagraph();
+                return;
+            case "li":
+                entry.endParagraph();
+                if (!closing) {
+                    entry.append("\u2022 ");
+                }
+                return;
+            case "p":
+            case "div":
+            case "ul":
+            case "ol":
+            case "blockquote":
+            case "table":
+            case "tr":
+            case "section":
+            case "header":
+            case "footer":
+            case "hr":
+            case "body":
+                entry.endParagraph();
+                return;
+            default:
+                break;
+        }
+        boolean heading = name.length() == 2 && name.charAt(0) == 'h' && name.charAt(1) >= '1' && name.charAt(1) <= '6';
+        if (closing) {
+            close(name);
+            if (heading) {
+                if (name.equals(leadingHeading)) {
+                    endLeadingHeading();
+                }
+                entry.endParagraph();
+            }
+            return;
+        }
+        if (heading) {
+            entry.endParagraph();
+            if (entry.isEmpty() && entry.getTimestamp() == 0 && leadingHeading == null && !selfClosing) {
+                leadingHeading = name;
+                headingTimestamp = 0;
+            }
+        }
+        if (selfClosing) {
+            return;
+        }
+        int[] runs;
+        switch (name) {
+            case "b":
+            case "strong":
+                runs = new int[]{entry.open(RichTextCodec.TYPE_BOLD, 0)};
+                break;
+            case "i":
+            case "em":
+            case "cite":
+                runs = new int[]{entry.open(RichTextCodec.TYPE_ITALIC, 0)};
+                break;
+            case "u":
+            case "ins":
+                runs = new int[]{entry.open(RichTextCodec.TYPE_UNDERLINE, 0)};
+                break;
+            case "s":
+            case "strike":
+            case "del":
+                runs = new int[]{entry.open(RichTextCodec.TYPE_STRIKETHROUGH, 0)};
+                break;
+            case "sub":
+                runs = new int[]{entry.open(RichTextCodec.TYPE_SUBSCRIPT, 0)};
+                break;
+            case "sup":
+                runs = new int[]{entry.open(RichTextCodec.TYPE_SUPERSCRIPT, 0)};
+                break;
+            case "span":
+            case "font":
+                runs = openStyles(raw);
+                break;
+            default:
+                runs = heading ? new int[]{entry.open(RichTextCodec.TYPE_BOLD, 0)} : null;
+        }
+        if (runs != null) {
+            openElements.add(name);
+            openRuns.add(runs);
+        }
+    }
+
+    /**
+     * Ends every run still open, e.g. at the end of an entry
+     */
+    void closeAll() {
+        for (int[] runs : openRuns) {
+            for (int run : runs) {
+                entry.close(run);
+            }
+        }
+        openElements.clear();
+        openRuns.clear();
+        leadingHeading = null;
+    }
+
+    /**
+     * Takes the heading an entry starts with as its date, if it is one
+     */
+    private void endLeadingHeading() {
+        leadingHeading = null;
+        long timestamp = headingTimestamp != 0 ? headingTimestamp : ImportFormat.parseDate(entry.substring(0));
+        if (timestamp != 0) {
+            entry.setTimestamp(timestamp);
+            entry.truncate(0);
+        }
+    }
+
+    private void endEntry(ImportFormat.Sink sink) throws IOException {
+        closeAll();
+        if (!entry.isEmpty()) {
+            long timestamp = entry.getTimestamp();
+            RichTextCodec.Runs runs = entry.build();
+            if (runs.text.length > 0) {
+                sink.onEntry(runs, timestamp);
+            }
+        } else {
+            entry.setTimestamp(0); //the date of an entry without text
+        }
+    }
+
+    /**
+     * Closes the last element named {@code name}. The elements opened after it stay open, their runs
+     * overlapping its own.
+     */
+    private void close(String name) {
+        int index = openElements.lastIndexOf(name);
+        if (index < 0) {
+            return;
+        }
+        for (int run : openRuns.get(index)) {
+            entry.close(run);
+        }
+        openElements.remove(index);
+        openRuns.remove(index);
+    }
+
+    /**
+     * Opens the runs of the colors and size of a {@code span} or {@code font} element
+     */
+    private int[] openStyles(CharSequence raw) {
+        int[] runs = new int[3];
+        int count = 0;
+        String color = attribute(raw, "color");
+        Integer parsed = color != null ? parseColor(color) : null;
+        if (parsed != null) {
+            runs[count++] = entry.open(RichTextCodec.TYPE_FOREGROUND_COLOR, parsed);
+        }
+        String style = attribute(raw, "style");
+        if (style != null) {
+            for (String declaration : style.split(";")) {
+                int colon = declaration.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String property = declaration.substring(0, colon).trim().toLowerCase(Locale.US);
+                String value = declaration.substring(colon + 1).trim().toLowerCase(Locale.US);
+                if (property.equals("color") && count < 3 && (parsed = parseColor(value)) != null) {
+                    runs[count++] = entry.open(RichTextCodec.TYPE_FOREGROUND_COLOR, parsed);
+                } else if ((property.equals("background-color") || property.equals("background")) && count < 3
+                        && (parsed = parseColor(value)) != null) {
+                    runs[count++] = entry.open(RichTextCodec.TYPE_BACKGROUND_COLOR, parsed);
+                } else if (property.equals("font-size") && count < 3) {
+                    float size = parseRelativeSize(value);
+                    if (size > 0) {
+                        runs[count++] = entry.open(RichTextCodec.TYPE_RELATIVE_SIZE, Float.floatToIntBits(size));
+                    }
+                }
+            }
+        }
+        int[] opened = new int[count];
+        System.arraycopy(runs, 0, opened, 0, count);
+        return opened;
+    }
+
+    private void appendText(char c) {
+        if (skippedElement != null) {
+            return;
+        }
+        if (c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\f') {
+            if (!preformatted) {
+                entry.appendSpace();
+            } else if (c == '\n') {
+                entry.append('\n');
+            } else if (c != '\r') {
+                entry.append(' ');
+            }
+        } else {
+            entry.append(c);
+        }
+    }
+
+    private void appendEntity(CharSequence name) {
+        int codePoint = decodeEntity(name);
+        if (codePoint < 0) {
+            appendText('&');
+            for (int i = 0; i < name.length(); i++) {
+                appendText(name.charAt(i));
+            }
+            appendText(';');
+        } else if (skippedElement == null) {
+            if (codePoint == 0xA0) {
+                entry.append(' '); //kept, unlike the spaces collapsed
+            } else {
+                entry.append(new String(Character.toChars(codePoint)));
+            }
+        }
+    }
+
+    /**
+     * @return the character of an entity, e.g. {@code amp} or {@code #x41}, or -1 if not known
+     */
+    static int decodeEntity(CharSequence name) {
+        String s = name.toString();
+        if (s.startsWith("#")) {
+            try {
+                int codePoint = s.startsWith("#x") || s.startsWith("#X")
+                        ? Integer.parseInt(s.substring(2), 16) : Integer.parseInt(s.substring(1));
+                return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        switch (s) {
+            case "amp":
+                return '&';
+            case "lt":
+                return '<';
+            case "gt":
+                return '>';
+            case "quot":
+                return '"';
+            case "apos":
+                return '\'';
+            case "nbsp":
+                return 0xA0;
+            case "mdash":
+                return 0x2014;
+            case "ndash":
+                return 0x2013;
+            case "hellip":
+                return 0x2026;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @return the value of attribute {@code name} of a tag, or null if it has none
+     */
+    static String attribute(CharSequence raw, String name) {
+        int length = raw.length();
+        int i = 0;
+        while (i < length && !Character.isWhitespace(raw.charAt(i))) {
+            i++; //the name of the element
+        }
+        while (i < length) {
+            while (i < length && (Character.isWhitespace(raw.charAt(i)) || raw.charAt(i) == '/')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < length && raw.charAt(i) != '=' && !Character.isWhitespace(raw.charAt(i)) && raw.charAt(i) != '/') {
+                i++;
+            }
+            String attribute = raw.subSequence(nameStart, i).toString();
+            while (i < length && Character.isWhitespace(raw.charAt(i))) {
+                i++;
+            }
+            String value = "";
+            if (i < length && raw.charAt(i) == '=') {
+                i++;
+                while (i < length && Character.isWhitespace(raw.charAt(i))) {
+                    i++;
+                }
+                if (i < length && (raw.charAt(i) == '"' || raw.charAt(i) == '\'')) {
+                    char quote = raw.charAt(i++);
+                    int valueStart = i;
+                    while (i < length && raw.charAt(i) != quote) {
+                        i++;
+                    }
+                    value = raw.subSequence(valueStart, i).toString();
+                    i++;
+                } else {
+                    int valueStart = i;
+                    while (i < length && !Character.isWhitespace(raw.charAt(i))) {
+                        i++;
+                    }
+                    value = raw.subSequence(valueStart, i).toString();
+                }
+            }
+            if (attribute.equalsIgnoreCase(name)) {
+                return value;
+            }
+            if (attribute.isEmpty()) {
+                i++;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the ARGB value of a CSS color: {@code #rgb}, {@code #rrggbb}, {@code rgb(...)},
+     * {@code rgba(...)} or a few names; or null if not one of those
+     */
+    static Integer parseColor(String value) {
+        value = value.trim().toLowerCase(Locale.US);
+        try {
+            if (value.startsWith("#")) {
+                String hex = value.substring(1);
+                if (hex.length() == 3) {
+                    int rgb = Integer.parseInt(hex, 16);
+                    int r = (rgb >> 8) & 0xF;
+                    int g = (rgb >> 4) & 0xF;
+                    int b = rgb & 0xF;
+                    return 0xFF000000 | (r * 0x11) << 16 | (g * 0x11) << 8 | b * 0x11;
+                } else if (hex.length() == 6) {
+                    return 0xFF000000 | Integer.parseInt(hex, 16);
+                }
+                return null;
+            }
+            if (value.startsWith("rgb")) {
+                int open = value.indexOf('(');
+                int close = value.indexOf(')');
+                if (open < 0 || close < open) {
+                    return null;
+                }
+                String[] parts = value.substring(open + 1, close).split(",");
+                if (parts.length < 3) {
+                    return null;
+                }
+                int alpha = parts.length > 3 ? Math.round(Float.parseFloat(parts[3].trim()) * 255) : 0xFF;
+                return clamp(alpha) << 24 | clamp(Integer.parseInt(parts[0].trim())) << 16
+                        | clamp(Integer.parseInt(parts[1].trim())) << 8 | clamp(Integer.parseInt(parts[2].trim()));
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        switch (value) {
+            case "black":
+                return 0xFF000000;
+            case "white":
+                return 0xFFFFFFFF;
+            case "red":
+                return 0xFFFF0000;
+            case "green":
+                return 0xFF008000;
+            case "blue":
+                return 0xFF0000FF;
+            case "yellow":
+                return 0xFFFFFF00;
+            case "purple":
+                return 0xFF800080;
+            case "orange":
+                return 0xFFFFA500;
+            case "gray":
+            case "grey":
+                return 0xFF808080;
+            case "brown":
+                return 0xFFA52A2A;
+            case "pink":
+                return 0xFFFFC0CB;
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @return the size of {@code em} or {@code %}, relative to the text around, or 0 if not one of those
+     */
+    static float parseRelativeSize(String value) {
+        try {
+            if (value.endsWith("em")) {
+                return Float.parseFloat(value.substring(0, value.length() - 2).trim());
+            } else if (value.endsWith("%")) {
+                return Float.parseFloat(value.substring(0, value.length() - 1).trim()) / 100;
+            }
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+        return 0;
+    }
+
+    private static int clamp(int component) {
+        return Math.max(0, Math.min(255, component));
+    }
+}
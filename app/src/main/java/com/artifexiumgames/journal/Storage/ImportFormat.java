@@ -0,0 +1,133 @@
+package com.artifexiumgames.journal.Storage;
+
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The formats the journal is imported from, see {@link JournalImporter}, and the parsers reading them.
+ * <p>
+ *  Every parser streams: it reads its file a buffer or a line at a time and gives every entry to a
+ *  {@link Sink} as soon as it is read, so it never holds more than the entry being read.
+ * </p>
+ */
+public enum ImportFormat {
+    /**
+     * An entry by {@code article}, or the whole document if it has none
+     */
+    HTML {
+        @Override
+        void parse(Reader in, Sink sink) throws IOException {
+            new HtmlImportParser(new EntryBuilder()).parse(in, sink);
+        }
+    },
+
+    /**
+     * An entry by heading of level 1 or 2, or the whole document if it has none
+     */
+    MARKDOWN {
+        @Override
+        void parse(Reader in, Sink sink) throws IOException {
+            new MarkdownImportParser(new EntryBuilder()).parse(in, sink);
+        }
+    },
+
+    /**
+     * An entry by object with a {@code text}, {@code markdown} or {@code html} member, wherever the
+     * object is
+     */
+    JSON {
+        @Override
+        void parse(Reader in, Sink sink) throws IOException {
+            new JsonImportParser(in, new EntryBuilder()).parse(sink);
+        }
+    };
+
+    /**
+     * Year, month, day, then the hours, minutes, seconds, fraction and zone if any
+     */
+    private static final Pattern ISO_DATE = Pattern.compile("(\\d{4})-(\\d{2})-(\\d{2})"
+            + "(?:[T ](\\d{2}):(\\d{2})(?::(\\d{2})(?:[.,](\\d+))?)?)?(Z|[+-]\\d{2}:?\\d{2})?");
+
+    /**
+     * Takes the entries as they are read
+     */
+    interface Sink {
+        /**
+         * @param timestamp the time the entry was written, as the file dates it, or 0 if it does not
+         */
+        void onEntry(RichTextCodec.Runs entry, long timestamp) throws IOException;
+    }
+
+    /**
+     * Reads every entry of a file. The reader is not closed.
+     */
+    abstract void parse(Reader in, Sink sink) throws IOException;
+
+    /**
+     * @return the format of a file by its extension, or null if not one of these
+     */
+    public static ImportFormat forFile(String name) {
+        String lowerCase = name.toLowerCase(Locale.US);
+        if (lowerCase.endsWith(".html") || lowerCase.endsWith(".htm")) {
+            return HTML;
+        } else if (lowerCase.endsWith(".md") || lowerCase.endsWith(".markdown")) {
+            return MARKDOWN;
+        } else if (lowerCase.endsWith(".json")) {
+            return JSON;
+        }
+        return null;
+    }
+
+    /**
+     * @return the time of a date as files write them: ISO 8601, e.g. {@code 2017-07-14},
+     * {@code 2017-07-14T02:40} or {@code 2017-07-14T02:40:00.000Z}, in the time zone of the device if it has
+     * none; or a heading of {@link JournalExporter}, e.g. {@code Friday 14 July 2017, 02:40}. 0 if it is
+     * not a date.
+     */
+    static long parseDate(String date) {
+        date = date.trim();
+        Matcher iso = ISO_DATE.matcher(date);
+        if (iso.matches()) {
+            Calendar calendar = Calendar.getInstance();
+            if (iso.group(8) != null) {
+                String zone = iso.group(8).equals("Z") ? "GMT" : "GMT" + iso.group(8);
+                calendar.setTimeZone(TimeZone.getTimeZone(zone));
+            }
+            calendar.clear();
+            calendar.set(Integer.parseInt(iso.group(1)), Integer.parseInt(iso.group(2)) - 1,
+                    Integer.parseInt(iso.group(3)), field(iso.group(4)), field(iso.group(5)), field(iso.group(6)));
+            if (iso.group(7) != null) {
+                String millis = (iso.group(7) + "00").substring(0, 3);
+                calendar.set(Calendar.MILLISECOND, Integer.parseInt(millis));
+            }
+            return calendar.getTimeInMillis();
+        }
+        SimpleDateFormat heading = new SimpleDateFormat(JournalExporter.HEADING_PATTERN, Locale.getDefault());
+        heading.setLenient(false);
+        ParsePosition position = new ParsePosition(0);
+        Date parsed = heading.parse(date, position);
+        return parsed != null && position.getIndex() == date.length() ? parsed.getTime() : 0;
+    }
+
+    /**
+     * @return the time of a date given as a number, e.g. by JSON: seconds since 1970 if it would be
+     * before 1973 as milliseconds, milliseconds otherwise
+     */
+    static long parseDate(double date) {
+        return (long) (Math.abs(date) < 1e11 ? date * 1000 : date);
+    }
+
+    private static int field(String digits) {
+        return digits != null ? Integer.parseInt(digits) : 0;
+    }
+}
@@ -0,0 +1,597 @@
+package com.artifexiumgames.journal.Storage;
+
+import android.content.Context;
+import android.text.Editable;
+import android.text.Spanned;
+import android.util.Log;
+
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+import com.artifexiumgames.journal.RichEditText.RichEditSpanTypes;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.crypto.SecretKey;
+
+/**
+ * The journal opened at login, for the activities and fragments of the app to share.
+ * <p>
+ *  The master key of the journal is kept in a {@link KeyVault}, unlocked by the password once a session.
+ *  The entries have their own keys, wrapped by the master key, and the {@link SummaryTable}, the
+ *  {@link SearchIndex} and the drafts have keys derived from it.
+ * </p>
+ * <p>
+ *  Entries are saved with {@link #saveEntry(long, Spanned)}, which writes their summary and indexes them
+ *  along with them, and read with {@link #loadEntry(long)}. Both are encoded with {@link RichTextCodec}.
+ * </p>
+ * <p>
+ *  Saving an entry also records its counts in the {@link AnalyticsStore}, for the graphs. The entries saved
+ *  before there were analytics are recorded in the background, after the search index.
+ * </p>
+ * <p>
+ *  The entry being edited is saved as a draft by the {@link Autosave}, until it is saved for good.
+ * </p>
+ * <p>
+ *  The search index is opened in the background, and the entries saved before there was one are indexed
+ *  there, by blocks of {@value SearchIndex#BLOCK_SIZE}.
+ * </p>
+ */
+public final class Journal {
+
+    public static final String DIRECTORY = "journal";
+    public static final String SEARCH_DIRECTORY = "search";
+    private static final String TAG = "Journal";
+
+    private static final long CLOSE_POLL_MILLIS = 50;
+
+    private static final RichEditSpanTypes TYPES = new RichEditSpanTypes();
+    private static final RichTextCodec CODEC = new RichTextCodec(TYPES);
+
+    private static EntryStore entryStore;
+    private static SummaryTable summaryTable;
+    private static ExecutorService executor;
+    private static SearchIndex searchIndex;
+    private static Autosave autosave;
+    private static AnalyticsStore analytics;
+    private static KeyVault vault;
+    private static boolean closing;
+
+    private Journal() {
+        //Static holder only
+    }
+
+    /**
+     * Opens the journal of the app, if it is not open yet
+     *
+     * The first time, the vault of the journal is made for {@code password}. Takes about
+     * {@value KeyVault#TARGET_UNLOCK_MILLIS} ms once a session, and little afterwards: better called away
+     * from the UI thread.
+     *
+     * @param context  any context of the app
+     * @param password the password of the user
+     * @throws WrongPasswordException if {@code password} is not the password of the journal
+     */
+    public static synchronized void open(Context context, char[] password) throws IOException {
+        awaitClose();
+        File directory = new File(context.getFilesDir(), DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create the journal directory " + directory);
+        }
+        File vaultFile = new File(directory, KeyVault.FILE);
+        if (vault == null && KeyVault.exists(vaultFile)) {
+            vault = KeyVault.read(vaultFile);
+        }
+        if (entryStore != null) {
+            vault.unlock(password); //only checks the password
+            return;
+        }
+        SecretKey key;
+        if (vault != null) {
+            key = vault.unlock(password);
+            entryStore = EntryStore.open(directory, key);
+        } else {
+            key = KeyVault.newMasterKey();
+            entryStore = EntryStore.open(directory, key);
+            try {
+                vault = KeyVault.create(vaultFile, password, key, KeyVault.calibrate(KeyVault.TARGET_UNLOCK_MILLIS));
+            } catch (IOException e) {
+                entryStore.close();
+                entryStore = null;
+                throw e;
+            }
+        }
+        try {
+            summaryTable = new SummaryTable(new File(directory, SummaryTable.FILE), EntryCipher.deriveKey(key, SummaryTable.FILE));
+            analytics = new AnalyticsStore(new File(directory, AnalyticsStore.DIRECTORY), key);
+            autosave = new Autosave(new DraftLog(new File(directory, DraftLog.DIRECTORY), key, TYPES), TYPES, entryStore);
+        } catch (IOException e) {
+            if (analytics != null) {
+                analytics.close();
+                analytics = null;
+            }
+            if (summaryTable != null) {
+                summaryTable.close();
+                summaryTable = null;
+            }
+            entryStore.close();
+            entryStore = null;
+            throw e;
+        }
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Journal background");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        openSearchIndex(new File(directory, SEARCH_DIRECTORY), key, executor);
+        recordAnalytics(entryStore, analytics, executor);
+    }
+
+    /**
+     * Records the entries the analytics do not have yet on the executor, in the day they were last saved
+     */
+    private static void recordAnalytics(final EntryStore store, final AnalyticsStore table, final ExecutorService background) {
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (long id = 0, count = store.getEntryCount(); id < count && !background.isShutdown(); id++) {
+                    long timestamp = store.getTimestamp(id);
+                    try {
+                        if (timestamp == 0 || table.hasEntry(id)) {
+                            continue;
+                        }
+                        Editable text = loadEntry(id);
+                        if (text != null) {
+                            table.record(id, timestamp, EntrySummary.countWords(text), text.length(), 0);
+                        }
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not record entry " + id + " in the analytics", e);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Opens the search index on the executor, then indexes the entries it does not have yet
+     */
+    private static void openSearchIndex(final File directory, final SecretKey key, final ExecutorService background) {
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                SearchIndex index;
+                try {
+                    index = new SearchIndex(directory, key, EntryStore.DEFAULT_COMMIT_DELAY_MILLIS);
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not open the search index", e);
+                    return;
+                }
+                EntryStore store;
+                synchronized (Journal.class) {
+                    if (executor != background) {
+                        closeQuietly(index); //closed in the meantime
+                        return;
+                    }
+                    searchIndex = index;
+                    store = entryStore;
+                }
+                Map<Long, String> batch = new LinkedHashMap<>();
+                for (long id = 0, count = store.getEntryCount(); id < count && !background.isShutdown(); id++) {
+                    if (store.getTimestamp(id) == 0 || index.isIndexed(id)) {
+                        continue;
+                    }
+                    try {
+                        Editable text = loadEntry(id);
+                        batch.put(id, text == null ? "" : text.toString());
+                        if (batch.size() == SearchIndex.BLOCK_SIZE) {
+                            index.update(batch);
+                            batch.clear();
+                        }
+                    } catch (IOException e) {
+                        Log.e(TAG, "Could not index entry " + id, e);
+                    }
+                }
+                try {
+                    if (!batch.isEmpty()) {
+                        index.update(batch);
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Could not index the entries", e);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the entries of the journal, or null if the journal has not been opened
+     */
+    public static synchronized EntryStore getEntryStore() {
+        return entryStore;
+    }
+
+    /**
+     * @return the summaries of the entries, or null if the journal has not been opened
+     */
+    public static synchronized SummaryTable getSummaryTable() {
+        return summaryTable;
+    }
+
+    /**
+     * @return the thread to read the journal on, away from the UI thread, or null if the journal has not
+     * been opened. Summaries are written on it too, in the order the entries are saved.
+     */
+    public static synchronized ExecutorService getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @return the full-text index of the entries, or null if it is not open yet. Better used on the
+     * {@link #getExecutor() executor}.
+     */
+    public static synchronized SearchIndex getSearchIndex() {
+        return searchIndex;
+    }
+
+    /**
+     * @return the rollups of the entries, or null if the journal has not been opened. Better used on the
+     * {@link #getExecutor() executor}, where the entries are recorded.
+     */
+    public static synchronized AnalyticsStore getAnalytics() {
+        return analytics;
+    }
+
+    /**
+     * Makes the analytics again from the entries, on the calling thread, to be the
+     * {@link #getExecutor() executor}
+     *
+     * @param repair whether to replace the analytics if they differ
+     * @return the differences found, see {@link AnalyticsStore#verify(EntryStore, AnalyticsStore.EntryTexts, boolean)}
+     */
+    public static List<String> verifyAnalytics(boolean repair) throws IOException {
+        EntryStore store;
+        AnalyticsStore table;
+        synchronized (Journal.class) {
+            store = entryStore;
+            table = analytics;
+        }
+        if (table == null) {
+            throw new IOException("The journal is not open");
+        }
+        return table.verify(store, new AnalyticsStore.EntryTexts() {
+            @Override
+            public CharSequence get(long id) throws IOException {
+                return loadEntry(id);
+            }
+        }, repair);
+    }
+
+    /**
+     * @return the autosave of the entry being edited, or null if the journal has not been opened. Used on
+     * the UI thread.
+     */
+    public static synchronized Autosave getAutosave() {
+        return autosave;
+    }
+
+    /**
+     * Saves an entry, see {@link #saveEntry(long, Spanned, long)}, without writing time
+     */
+    public static void saveEntry(long id, Spanned text) {
+        saveEntry(id, text, 0);
+    }
+
+    /**
+     * Queues an entry to be saved, and its summary to be written, its text indexed and its counts recorded
+     * on the {@link #getExecutor() executor}. Only a copy of the text is made on the calling thread: it is
+     * encoded and summarized on the executor.
+     *
+     * @param id            an id from {@link EntryStore#newEntryId()}
+     * @param text          the text of the entry, with its styles
+     * @param writingMillis the time spent writing the entry since it was last saved, for the analytics
+     * @see EntryStore#save(long, byte[])
+     */
+    public static void saveEntry(final long id, Spanned text, final long writingMillis) {
+        final EntryStore store;
+        ExecutorService background;
+        synchronized (Journal.class) {
+            store = entryStore;
+            background = executor;
+        }
+        if (store == null || background == null) {
+            throw new IllegalStateException("The journal is not open");
+        }
+        final Spanned snapshot = new PieceTableEditable(text);
+        final long timestamp = System.currentTimeMillis();
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                store.save(id, CODEC.encode(snapshot), timestamp);
+                recordEntry(EntrySummary.summarize(id, timestamp, snapshot), snapshot.toString(), writingMillis);
+            }
+        });
+    }
+
+    /**
+     * Saves an entry already encoded on the calling thread, and queues the rest of
+     * {@link #saveEntry(long, Spanned, long)} on the executor
+     *
+     * @param content   {@code text}, encoded
+     * @param timestamp the time the entry was written, or 0 for now
+     */
+    private static void saveEncodedEntry(final long id, Spanned text, byte[] content, long timestamp) {
+        EntryStore store = getEntryStore();
+        ExecutorService background = getExecutor();
+        if (store == null || background == null) {
+            throw new IllegalStateException("The journal is not open");
+        }
+        if (timestamp == 0) {
+            timestamp = System.currentTimeMillis();
+        }
+        store.save(id, content, timestamp);
+        final EntrySummary summary = EntrySummary.summarize(id, timestamp, text);
+        final String plainText = text.toString();
+        background.execute(new Runnable() {
+            @Override
+            public void run() {
+                recordEntry(summary, plainText, 0);
+            }
+        });
+    }
+
+    /**
+     * Writes the summary of an entry saved, records its counts and indexes its text, on the executor.
+     * <p>
+     *  A summary that could not be written is removed, so that it is made again from the entry when it is
+     *  next listed rather than listed as it was before the save.
+     * </p>
+     */
+    private static void recordEntry(EntrySummary summary, String plainText, long writingMillis) {
+        SummaryTable table;
+        AnalyticsStore rollups;
+        synchronized (Journal.class) {
+            table = summaryTable;
+            rollups = analytics;
+        }
+        long id = summary.getId();
+        if (table != null) {
+            try {
+                table.put(summary);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not write the summary of entry " + id, e);
+                try {
+                    table.remove(id);
+                } catch (IOException removeError) {
+                    Log.e(TAG, "Could not remove the summary of entry " + id, removeError);
+                }
+            }
+        }
+        if (rollups != null) {
+            try {
+                rollups.record(id, summary.getTimestamp(), summary.getWordCount(), plainText.length(), writingMillis);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not record entry " + id + " in the analytics", e);
+            }
+        }
+        SearchIndex index = getSearchIndex();
+        if (index != null) {
+            try {
+                index.update(id, plainText);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not index entry " + id, e);
+            }
+        }
+    }
+
+    /**
+     * Reads an entry. Better called on the {@link #getExecutor() executor}: the entry is decrypted and
+     * decoded.
+     *
+     * @return the text of entry {@code id}, with its styles, or null if it has never been saved
+     * @throws IOException if the entry could not be read or decrypted
+     */
+    public static Editable loadEntry(long id) throws IOException {
+        EntryStore store = getEntryStore();
+        if (store == null) {
+            throw new IOException("The journal is not open");
+        }
+        byte[] content = store.load(id);
+        if (content == null) {
+            return null;
+        }
+        return CODEC.decode(content, Editable.Factory.getInstance());
+    }
+
+    /**
+     * Makes an exporter of the entries of the journal, on a thread by core.
+     *
+     * @see JournalExporter#exportTo(java.io.OutputStream)
+     */
+    public static JournalExporter newExporter(ExportFormat format) throws IOException {
+        final EntryStore store = getEntryStore();
+        if (store == null) {
+            throw new IOException("The journal is not open");
+        }
+        return new JournalExporter(new JournalExporter.Entries() {
+            @Override
+            public long getEntryCount() {
+                return store.getEntryCount();
+            }
+
+            @Override
+            public byte[] load(long id) throws IOException {
+                return store.load(id);
+            }
+
+            @Override
+            public long getTimestamp(long id) {
+                return store.getTimestamp(id);
+            }
+        }, CODEC, format, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Makes an importer of files as new entries of the journal, on a thread by core. The entries are
+     * saved like {@link #saveEntry(long, Spanned)} saves them, dated as their files date them or with the
+     * time of the import, their summaries, analytics and index written on the {@link #getExecutor()
+     * executor}, which every batch waits for, so that an import never queues more than a batch there.
+     *
+     * @see JournalImporter#importFiles(List)
+     */
+    public static JournalImporter newImporter() throws IOException {
+        final EntryStore store = getEntryStore();
+        if (store == null) {
+            throw new IOException("The journal is not open");
+        }
+        return new JournalImporter(new JournalImporter.Destination() {
+            @Override
+            public void save(byte[] content, long timestamp) throws IOException {
+                saveEncodedEntry(store.newEntryId(), CODEC.decode(content, Editable.Factory.getInstance()), content,
+                        timestamp);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                store.flush();
+                ExecutorService background = getExecutor();
+                if (background == null) {
+                    throw new IOException("The journal is closed");
+                }
+                try {
+                    background.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            //Only waited for
+                        }
+                    }).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Import interrupted");
+                } catch (ExecutionException e) {
+                    throw new IOException("Could not wait for the journal", e);
+                }
+            }
+        }, CODEC, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Closes the journal and forgets its key: the next {@link #open(Context, char[])} derives it from the
+     * password again
+     */
+    public static synchronized void lock() throws IOException {
+        try {
+            close();
+        } finally {
+            if (vault != null) {
+                vault.lock();
+            }
+        }
+    }
+
+    /**
+     * Saves the entries still queued and closes the journal. The key is kept for the session, see
+     * {@link #lock()}.
+     * <p>
+     *  Every task queued on the {@link #getExecutor() executor} is run before the stores are closed,
+     *  however long the saves take. The journal is released while they run, as they use it, but cannot be
+     *  opened or closed again until it is closed.
+     * </p>
+     */
+    public static synchronized void close() throws IOException {
+        awaitClose();
+        if (autosave != null) {
+            autosave.close();
+            autosave = null;
+        }
+        ExecutorService background = executor;
+        executor = null; //nothing more is queued
+        closing = true;
+        try {
+            if (background != null) {
+                background.shutdown();
+                awaitTermination(background);
+            }
+            if (searchIndex != null) {
+                closeQuietly(searchIndex);
+                searchIndex = null;
+            }
+            try {
+                if (analytics != null) {
+                    try {
+                        analytics.close();
+                    } finally {
+                        analytics = null;
+                    }
+                }
+                if (summaryTable != null) {
+                    summaryTable.close();
+                }
+            } finally {
+                summaryTable = null;
+                if (entryStore != null) {
+                    try {
+                        entryStore.close();
+                    } finally {
+                        entryStore = null;
+                    }
+                }
+            }
+        } finally {
+            closing = false;
+            Journal.class.notifyAll();
+        }
+    }
+
+    /**
+     * Waits for another thread closing the journal, releasing the journal meanwhile. Called holding it.
+     */
+    private static void awaitClose() {
+        boolean interrupted = false;
+        while (closing) {
+            try {
+                Journal.class.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Waits for the tasks of an executor shut down, releasing the journal meanwhile for the tasks using it.
+     * Called holding the journal.
+     */
+    private static void awaitTermination(ExecutorService background) {
+        boolean interrupted = false;
+        while (!background.isTerminated()) {
+            try {
+                Journal.class.wait(CLOSE_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(SearchIndex index) {
+        try {
+            index.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not close the search index", e);
+        }
+    }
+}
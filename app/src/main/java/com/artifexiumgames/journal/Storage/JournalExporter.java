@@ -0,0 +1,279 @@
+package com.artifexiumgames.journal.Storage;
+
+import android.os.Build;
+
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Exports every entry of the journal, text and styles, to one of the {@link ExportFormat}s: as a single
+ * document, or as a zip of a document by entry.
+ * <p>
+ *  The entries are read, decrypted and converted on a {@link ForkJoinPool} of a thread by core, and
+ *  written in order by the thread exporting. Entries differ a lot in size: the pool is work-stealing, so a
+ *  thread done with its short entries takes the waiting ones of a thread still converting a long one,
+ *  rather than idling. It runs in FIFO mode, as the entries are never joined but written in the order
+ *  they were queued. Android has no ForkJoinPool before Lollipop, where a fixed pool is used instead.
+ * </p>
+ * <p>
+ *  At most {@value #ENTRIES_BY_THREAD} entries by thread are converted ahead of the one being written, so
+ *  the memory used depends on the number of cores and the size of the entries, never on the number of
+ *  entries. Writing costs little next to the rest, so the throughput should grow with the cores, which
+ *  the export benchmark measures by number of threads.
+ * </p>
+ * <p>
+ *  Progress is reported after every entry written, on the thread exporting, and the export can be
+ *  cancelled from any thread with {@link #cancel()}.
+ * </p>
+ * An exporter exports once.
+ */
+public class JournalExporter {
+
+    /**
+     * The entries converted ahead by thread
+     */
+    public static final int ENTRIES_BY_THREAD = 4;
+    /**
+     * The date at the head of every entry, in the language of the device, which {@link ImportFormat} reads back
+     */
+    static final String HEADING_PATTERN = "EEEE d MMMM yyyy, HH:mm";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Where the entries are read from
+     */
+    public interface Entries {
+        /**
+         * @return the number of entry ids, see {@link EntryStore#getEntryCount()}
+         */
+        long getEntryCount();
+
+        /**
+         * @return the content of an entry, as {@link RichTextCodec#encode} makes it, or null if it has never
+         * been saved
+         */
+        byte[] load(long id) throws IOException;
+
+        /**
+         * @return the time the entry was last saved
+         */
+        long getTimestamp(long id);
+    }
+
+    public interface ProgressListener {
+        /**
+         * @param exported the entry ids done, saved or not
+         * @param total    the entry ids to do
+         */
+        void onProgress(long exported, long total);
+    }
+
+    private final Entries entries;
+    private final RichTextCodec codec;
+    private final ExportFormat format;
+    private final int threads;
+    private ProgressListener listener;
+    private volatile boolean cancelled;
+
+    /**
+     * @param threads the threads converting entries, e.g. {@link Runtime#availableProcessors()}
+     */
+    public JournalExporter(Entries entries, RichTextCodec codec, ExportFormat format, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("No thread to export with");
+        }
+        this.entries = entries;
+        this.codec = codec;
+        this.format = format;
+        this.threads = threads;
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stops the export as soon as possible: it returns false without writing anything more
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Writes the whole journal to {@code out} as one document. The stream is not closed.
+     *
+     * @return false if cancelled
+     * @throws IOException if an entry could not be read, or the document written
+     */
+    public boolean exportTo(OutputStream out) throws IOException {
+        StringBuilder document = new StringBuilder();
+        format.beginDocument(document);
+        out.write(document.toString().getBytes(UTF_8));
+        if (!export(out, null)) {
+            return false;
+        }
+        document.setLength(0);
+        format.endDocument(document);
+        out.write(document.toString().getBytes(UTF_8));
+        out.flush();
+        return true;
+    }
+
+    /**
+     * Writes the journal to {@code out} as a zip of a document by entry, named by entry id. The stream
+     * is finished, not closed.
+     *
+     * @return false if cancelled
+     * @throws IOException if an entry could not be read, or the zip written
+     */
+    public boolean exportZipTo(OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        if (!export(zip, zip)) {
+            return false;
+        }
+        zip.finish();
+        zip.flush();
+        return true;
+    }
+
+    /**
+     * Converts the entries in parallel, and writes them in order
+     *
+     * @param zip the zip {@code out} writes to, if an entry is a document of its own
+     */
+    private boolean export(OutputStream out, ZipOutputStream zip) throws IOException {
+        final long total = entries.getEntryCount();
+        ExecutorService pool = newPool();
+        ArrayDeque<Future<byte[]>> converting = new ArrayDeque<>();
+        try {
+            long next = 0;
+            long written = 0;
+            while (written < total) {
+                while (next < total && converting.size() < threads * ENTRIES_BY_THREAD) {
+                    converting.add(pool.submit(convert(next++, zip != null)));
+                }
+                byte[] converted = take(converting.poll());
+                if (cancelled) {
+                    return false;
+                }
+                if (converted != null) {
+                    if (zip != null) {
+                        zip.putNextEntry(new ZipEntry(written + "." + format.getExtension())); //the id of the entry
+                    }
+                    out.write(converted);
+                    if (zip != null) {
+                        zip.closeEntry();
+                    }
+                }
+                written++;
+                if (listener != null) {
+                    listener.onProgress(written, total);
+                }
+            }
+            return !cancelled;
+        } finally {
+            for (Future<byte[]> future : converting) {
+                future.cancel(true);
+            }
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return a work-stealing pool of {@link #threads} daemon threads, or a fixed pool of them before
+     * Lollipop. The SDK version is 0 off a device, where the tests and benchmarks run.
+     */
+    private ExecutorService newPool() {
+        if (Build.VERSION.SDK_INT == 0 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            return new ForkJoinPool(threads, new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+                @Override
+                public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+                    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName("Export " + thread.getPoolIndex());
+                    return thread;
+                }
+            }, null, true);
+        }
+        return Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Export " + ++count);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @param document true if the entry is a document of its own
+     * @return a task converting entry {@code id} to the bytes to write, or to null if it has never been saved
+     */
+    private Callable<byte[]> convert(final long id, final boolean document) {
+        return new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                if (cancelled) {
+                    return null;
+                }
+                byte[] content = entries.load(id);
+                if (content == null) {
+                    return null;
+                }
+                RichTextCodec.Runs runs = codec.decodeRuns(content);
+                StringBuilder out = new StringBuilder(runs.text.length + runs.count * 16 + 64);
+                if (document) {
+                    format.beginDocument(out);
+                }
+                long timestamp = entries.getTimestamp(id);
+                SimpleDateFormat dateFormat = new SimpleDateFormat(HEADING_PATTERN, Locale.getDefault());
+                format.appendEntry(out, dateFormat.format(new Date(timestamp)), timestamp, runs);
+                if (document) {
+                    format.endDocument(out);
+                }
+                return out.toString().getBytes(UTF_8);
+            }
+        };
+    }
+
+    /**
+     * Waits for the conversion of an entry
+     */
+    private static byte[] take(Future<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not convert an entry", cause);
+        }
+    }
+}
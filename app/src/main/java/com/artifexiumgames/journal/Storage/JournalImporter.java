@@ -0,0 +1,249 @@
+package com.artifexiumgames.journal.Storage;
+
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Imports files of the {@link ImportFormat}s as entries of the journal, text and styles.
+ * <p>
+ *  The files are parsed and their entries encoded on a pool of a thread by core, a file by thread, and
+ *  the entries are saved by the thread importing, by batches of {@value #BATCH_SIZE} after which the
+ *  {@link Destination} is flushed. The parsers stream, and the entries encoded wait for the thread
+ *  importing in a bounded queue, the parsers waiting when it is full: the memory used depends on the
+ *  number of cores and the size of the entries, never on the size of the files.
+ * </p>
+ * <p>
+ *  The entries of a file are saved in the order of the file, the entries of files parsed together
+ *  interleaved, each with the date its file gives it, if any. A file that cannot be read or parsed is reported by {@link #getFailures()}, its entries
+ *  read before the error kept, and does not stop the others.
+ * </p>
+ * An importer imports once.
+ */
+public class JournalImporter {
+
+    /**
+     * The entries saved between two flushes
+     */
+    public static final int BATCH_SIZE = 64;
+    /**
+     * The entries encoded ahead by thread
+     */
+    public static final int ENTRIES_BY_THREAD = 4;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final long POLL_MILLIS = 100;
+
+    /**
+     * Put in the queue after the last entry of a file
+     */
+    private static final Encoded END_OF_FILE = new Encoded(null, 0);
+
+    /**
+     * Where the entries are saved, on the thread importing
+     */
+    public interface Destination {
+        /**
+         * Saves an entry
+         *
+         * @param content   the entry, as {@link RichTextCodec#encode} makes it
+         * @param timestamp the time the entry was written, as its file dates it, or 0 if it does not
+         */
+        void save(byte[] content, long timestamp) throws IOException;
+
+        /**
+         * Commits the entries saved since the last flush
+         */
+        void flush() throws IOException;
+    }
+
+    public interface ProgressListener {
+        /**
+         * @param filesImported the files done, imported or failed
+         * @param files         the files to import
+         * @param entries       the entries saved so far
+         */
+        void onProgress(int filesImported, int files, long entries);
+    }
+
+    private final Destination destination;
+    private final RichTextCodec codec;
+    private final int threads;
+    private final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+    private ProgressListener listener;
+    private volatile boolean cancelled;
+
+    /**
+     * @param threads the threads parsing files, e.g. {@link Runtime#availableProcessors()}
+     */
+    public JournalImporter(Destination destination, RichTextCodec codec, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("No thread to import with");
+        }
+        this.destination = destination;
+        this.codec = codec;
+        this.threads = threads;
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stops the import as soon as possible: the entries saved are kept and flushed, no other is
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return the files that could not be imported, or not entirely, with the reason, e.g.
+     * {@code "notes.json: Unterminated string at character 812"}
+     */
+    public List<String> getFailures() {
+        synchronized (failures) {
+            return new ArrayList<>(failures);
+        }
+    }
+
+    /**
+     * Imports files, each in the format of its extension, see {@link ImportFormat#forFile(String)}
+     *
+     * @return the entries saved
+     * @throws IOException if an entry could not be saved. The files that could not be read are
+     *                     {@link #getFailures() failures}, not errors.
+     */
+    public long importFiles(List<File> files) throws IOException {
+        final BlockingQueue<Encoded> entries = new ArrayBlockingQueue<>(threads * ENTRIES_BY_THREAD);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private int count;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Import " + ++count);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        long saved = 0;
+        try {
+            for (File file : files) {
+                pool.execute(parse(file, entries));
+            }
+            int filesImported = 0;
+            while (filesImported < files.size() && !cancelled) {
+                Encoded entry;
+                try {
+                    entry = entries.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Import interrupted");
+                }
+                if (entry == null) {
+                    continue;
+                }
+                if (entry == END_OF_FILE) {
+                    filesImported++;
+                } else {
+                    destination.save(entry.content, entry.timestamp);
+                    if (++saved % BATCH_SIZE == 0) {
+                        destination.flush();
+                    }
+                }
+                if (listener != null) {
+                    listener.onProgress(filesImported, files.size(), saved);
+                }
+            }
+            return saved;
+        } finally {
+            pool.shutdownNow(); //and the parsers waiting for room
+            if (saved % BATCH_SIZE != 0) {
+                destination.flush();
+            }
+        }
+    }
+
+    /**
+     * @return a task parsing a file and queuing its entries, encoded, then {@link #END_OF_FILE}
+     */
+    private Runnable parse(final File file, final BlockingQueue<Encoded> entries) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!cancelled) {
+                        parse(file, new ImportFormat.Sink() {
+                            @Override
+                            public void onEntry(RichTextCodec.Runs entry, long timestamp) throws IOException {
+                                if (cancelled) {
+                                    throw new InterruptedIOException("Import cancelled");
+                                }
+                                Encoded encoded = new Encoded(codec.encode(entry), timestamp);
+                                try {
+                                    entries.put(encoded);
+                                } catch (InterruptedException e) {
+                                    Thread.currentThread().interrupt();
+                                    throw new InterruptedIOException("Import cancelled");
+                                }
+                            }
+                        });
+                    }
+                } catch (InterruptedIOException e) {
+                    return; //the import is over, nobody waits for the end of the file
+                } catch (IOException | RuntimeException e) {
+                    failures.add(file.getName() + ": " + e.getMessage());
+                }
+                try {
+                    entries.put(END_OF_FILE);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+
+    private static void parse(File file, ImportFormat.Sink sink) throws IOException {
+        ImportFormat format = ImportFormat.forFile(file.getName());
+        if (format == null) {
+            throw new IOException("Unknown format");
+        }
+        Reader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8));
+        try {
+            format.parse(in, sink);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * An entry encoded, waiting to be saved
+     */
+    private static final class Encoded {
+        final byte[] content;
+        final long timestamp;
+
+        Encoded(byte[] content, long timestamp) {
+            this.content = content;
+            this.timestamp = timestamp;
+        }
+    }
+}
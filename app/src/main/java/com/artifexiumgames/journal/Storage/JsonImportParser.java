@@ -0,0 +1,297 @@
+package com.artifexiumgames.journal.Storage;
+
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+
+/**
+ * Reads the entries of a JSON document into an {@link EntryBuilder}, pulling its tokens from the reader a
+ * buffer at a time: only the members of the object being read are kept, never the document.
+ * <p>
+ *  Every object with a {@code text}, {@code content} or {@code body} member (plain text), a
+ *  {@code markdown} member or an {@code html} member is an entry, wherever it is in the document: an
+ *  array of entries, an object with an array of entries, etc. Its {@code title} member, if any, is the
+ *  first line of the entry, in bold. Its {@code date}, {@code created} or {@code timestamp} member, a
+ *  string or a number, dates it, see {@link ImportFormat#parseDate(String)}. Other members are skipped.
+ * </p>
+ */
+class JsonImportParser {
+
+    /**
+     * Deeper documents are refused rather than overflowing the stack
+     */
+    private static final int MAX_DEPTH = 64;
+
+    private final Reader in;
+    private final EntryBuilder entry;
+    private final char[] buffer = new char[8192];
+    private int position;
+    private int limit;
+    private long offset;
+
+    JsonImportParser(Reader in, EntryBuilder entry) {
+        this.in = in;
+        this.entry = entry;
+    }
+
+    /**
+     * Reads the document, and gives every entry read to {@code sink}
+     *
+     * @throws IOException if the document could not be read, or is not JSON
+     */
+    void parse(ImportFormat.Sink sink) throws IOException {
+        skipValue(sink, 0);
+        if (peek() >= 0) {
+            throw syntaxError("End of document expected");
+        }
+    }
+
+    /**
+     * Reads a value, giving the entries among it to {@code sink}
+     *
+     * @return the value if it is a string or a number, null otherwise
+     */
+    private Object skipValue(ImportFormat.Sink sink, int depth) throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw syntaxError("Too deeply nested");
+        }
+        int c = peek();
+        switch (c) {
+            case '{':
+                readObject(sink, depth);
+                return null;
+            case '[':
+                read();
+                if (peek() == ']') {
+                    read();
+                    return null;
+                }
+                do {
+                    skipValue(sink, depth + 1);
+                } while (readSeparator(']'));
+                return null;
+            case '"':
+                read();
+                return readString();
+            case -1:
+                throw syntaxError("Value expected");
+            default:
+                //A number, true, false or null
+                StringBuilder literal = new StringBuilder();
+                while ((c = peekRaw()) >= 0 && (Character.isLetterOrDigit(c) || c == '-' || c == '+' || c == '.')) {
+                    literal.append((char) read());
+                }
+                try {
+                    return Double.valueOf(literal.toString());
+                } catch (NumberFormatException e) {
+                    return null;
+                }
+        }
+    }
+
+    /**
+     * Reads an object, and gives it to {@code sink} if it is an entry
+     */
+    private void readObject(ImportFormat.Sink sink, int depth) throws IOException {
+        read();
+        String title = null;
+        long timestamp = 0;
+        String text = null;
+        String markdown = null;
+        String html = null;
+        if (peek() != '}') {
+            do {
+                if (peek() != '"') {
+                    throw syntaxError("Member name expected");
+                }
+                read();
+                String name = readString();
+                if (peek() != ':') {
+                    throw syntaxError("':' expected");
+                }
+                read();
+                Object member = skipValue(sink, depth + 1);
+                String value = member instanceof String ? (String) member : null;
+                switch (name) {
+                    case "date":
+                    case "created":
+                    case "timestamp":
+                        if (member instanceof Double) {
+                            timestamp = ImportFormat.parseDate((Double) member);
+                        } else if (value != null) {
+                            timestamp = ImportFormat.parseDate(value);
+                        }
+                        break;
+                    case "title":
+                        title = value;
+                        break;
+                    case "text":
+                    case "content":
+                    case "body":
+                        text = value;
+                        break;
+                    case "markdown":
+                        markdown = value;
+                        break;
+                    case "html":
+                        html = value;
+                        break;
+                    default:
+                        break;
+                }
+            } while (readSeparator('}'));
+        } else {
+            read();
+        }
+        if (text == null && markdown == null && html == null) {
+            return;
+        }
+
+        if (title != null && !title.trim().isEmpty()) {
+            int bold = entry.open(RichTextCodec.TYPE_BOLD, 0);
+            entry.append(title.trim());
+            entry.close(bold);
+            entry.endParagraph();
+        }
+        if (html != null) {
+            new HtmlImportParser(entry).parse(new StringReader(html), null);
+        } else if (markdown != null) {
+            new MarkdownImportParser(entry).parse(new StringReader(markdown), null);
+        } else {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c != '\r') {
+                    entry.append(c);
+                }
+            }
+        }
+        if (!entry.isEmpty()) {
+            if (timestamp == 0) {
+                timestamp = entry.getTimestamp(); //of a heading of the markup
+            }
+            RichTextCodec.Runs runs = entry.build();
+            if (runs.text.length > 0) {
+                sink.onEntry(runs, timestamp);
+            }
+        } else {
+            entry.setTimestamp(0);
+        }
+    }
+
+    /**
+     * Reads a {@code ,} or the end of an array or object
+     *
+     * @return true if another value follows
+     */
+    private boolean readSeparator(char end) throws IOException {
+        int c = read();
+        if (c == ',') {
+            return true;
+        } else if (c == end) {
+            return false;
+        }
+        throw syntaxError("',' or '" + end + "' expected");
+    }
+
+    /**
+     * Reads a string, its opening quote read
+     */
+    private String readString() throws IOException {
+        StringBuilder s = new StringBuilder();
+        while (true) {
+            int c = readRaw();
+            if (c < 0) {
+                throw syntaxError("Unterminated string");
+            } else if (c == '"') {
+                return s.toString();
+            } else if (c != '\\') {
+                s.append((char) c);
+                continue;
+            }
+            c = readRaw();
+            switch (c) {
+                case '"':
+                case '\\':
+                case '/':
+                    s.append((char) c);
+                    break;
+                case 'b':
+                    s.append('\b');
+                    break;
+                case 'f':
+                    s.append('\f');
+                    break;
+                case 'n':
+                    s.append('\n');
+                    break;
+                case 'r':
+                    s.append('\r');
+                    break;
+                case 't':
+                    s.append('\t');
+                    break;
+                case 'u':
+                    int value = 0;
+                    for (int i = 0; i < 4; i++) {
+                        int digit = Character.digit(readRaw(), 16);
+                        if (digit < 0) {
+                            throw syntaxError("Malformed \\u escape");
+                        }
+                        value = value << 4 | digit;
+                    }
+                    s.append((char) value);
+                    break;
+                default:
+                    throw syntaxError("Malformed escape");
+            }
+        }
+    }
+
+    /**
+     * @return the next character not a space, not read, or -1 at the end of the document
+     */
+    private int peek() throws IOException {
+        int c;
+        while ((c = peekRaw()) == ' ' || c == '\n' || c == '\r' || c == '\t') {
+            position++;
+        }
+        return c;
+    }
+
+    /**
+     * @return the next character not a space, or -1 at the end of the document
+     */
+    private int read() throws IOException {
+        int c = peek();
+        if (c >= 0) {
+            position++;
+        }
+        return c;
+    }
+
+    private int peekRaw() throws IOException {
+        if (position == limit) {
+            offset += limit;
+            position = 0;
+            limit = Math.max(in.read(buffer), 0);
+            if (limit == 0) {
+                return -1;
+            }
+        }
+        return buffer[position];
+    }
+
+    private int readRaw() throws IOException {
+        int c = peekRaw();
+        if (c >= 0) {
+            position++;
+        }
+        return c;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException(message + " at character " + (offset + position));
+    }
+}
@@ -0,0 +1,293 @@
+package com.artifexiumgames.journal.Storage;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The master key of the journal, wrapped by a key derived from the password.
+ * <p>
+ *  The master key is random; the password only unlocks it. The key derivation is PBKDF2, with as many
+ *  iterations as the device runs in about {@value #TARGET_UNLOCK_MILLIS} ms, measured when the vault is
+ *  made: a guess costs an attacker as much as an unlock costs the user, on that device. A wrong password
+ *  fails the authentication of the wrapped key.
+ * </p>
+ * <p>
+ *  Unlocking costs one derivation and one unwrap, whatever the size of the journal; the entries have
+ *  their own keys, unwrapped as they are read, see {@link EntryKeys}.
+ * </p>
+ * <p>
+ *  <b>Session cache:</b> once unlocked, the vault keeps the master key until {@link #lock()}, with a
+ *  keyed hash of the password under a random key of the session, so the password can be checked again,
+ *  e.g. when the login screen is shown again, without running the derivation again.
+ * </p>
+ * Layout: magic, version (4 bytes each), salt ({@value #SALT_SIZE}), iterations (4), nonce
+ * ({@value EntryCipher#NONCE_SIZE}), then the master key ({@value EntryCipher#KEY_SIZE}) encrypted with its tag.
+ */
+public class KeyVault {
+
+    public static final String FILE = "vault";
+    public static final int MAGIC = 0x4A564C54; //"JVLT"
+    public static final int VERSION = 1;
+    public static final long TARGET_UNLOCK_MILLIS = 500;
+    public static final int MIN_ITERATIONS = 10000;
+    public static final int MAX_ITERATIONS = 10000000;
+    public static final int SALT_SIZE = 16;
+
+    protected static final String KEY_ALGORITHM = "PBKDF2WithHmacSHA1";
+    protected static final String CHECK_ALGORITHM = "HmacSHA256";
+    protected static final int CALIBRATION_ITERATIONS = 2000;
+    protected static final int FILE_SIZE = 4 + 4 + SALT_SIZE + 4 + EntryCipher.NONCE_SIZE
+            + EntryCipher.KEY_SIZE + EntryCipher.TAG_SIZE;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Derives the key wrapping the master key from the password
+     */
+    public interface KeyDerivation {
+        SecretKey deriveKey(char[] password, byte[] salt, int iterations) throws IOException;
+    }
+
+    /**
+     * The derivation of the vaults: PBKDF2 with HMAC-SHA1
+     */
+    public static final KeyDerivation PBKDF2 = new KeyDerivation() {
+        @Override
+        public SecretKey deriveKey(char[] password, byte[] salt, int iterations) throws IOException {
+            return KeyVault.deriveKey(password, salt, iterations);
+        }
+    };
+
+    private final File file;
+    private final byte[] salt;
+    private final int iterations;
+    private final byte[] nonce;
+    private final byte[] wrappedKey;
+    private final KeyDerivation derivation;
+
+    private SecretKey masterKey;
+    private SecretKey sessionKey;
+    private byte[] passwordCheck;
+
+    protected KeyVault(File file, byte[] salt, int iterations, byte[] nonce, byte[] wrappedKey, KeyDerivation derivation) {
+        this.file = file;
+        this.salt = salt;
+        this.iterations = iterations;
+        this.nonce = nonce;
+        this.wrappedKey = wrappedKey;
+        this.derivation = derivation;
+    }
+
+    /**
+     * @return true if there is a vault in {@code file}
+     */
+    public static boolean exists(File file) {
+        return file.length() == FILE_SIZE;
+    }
+
+    /**
+     * Reads a vault, without unlocking it
+     */
+    public static KeyVault read(File file) throws IOException {
+        return read(file, PBKDF2);
+    }
+
+    /**
+     * Reads a vault, without unlocking it
+     *
+     * @param derivation how the vault was made, e.g. {@link #PBKDF2}
+     */
+    public static KeyVault read(File file, KeyDerivation derivation) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(FILE_SIZE);
+        RandomAccessFile vault = new RandomAccessFile(file, "r");
+        try {
+            vault.readFully(in.array());
+        } finally {
+            vault.close();
+        }
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) {
+            throw new IOException("Not a key vault of version " + VERSION);
+        }
+        byte[] salt = new byte[SALT_SIZE];
+        in.get(salt);
+        int iterations = in.getInt();
+        if (iterations < MIN_ITERATIONS || iterations > MAX_ITERATIONS) {
+            throw new IOException("Unexpected key derivation cost " + iterations);
+        }
+        byte[] nonce = new byte[EntryCipher.NONCE_SIZE];
+        in.get(nonce);
+        byte[] wrappedKey = new byte[in.remaining()];
+        in.get(wrappedKey);
+        return new KeyVault(file, salt, iterations, nonce, wrappedKey, derivation);
+    }
+
+    /**
+     * Makes a vault for {@code masterKey} and writes it, atomically, replacing any vault in {@code file}.
+     * The vault is unlocked.
+     *
+     * @param iterations the cost of the key derivation, e.g. from {@link #calibrate(long)}
+     */
+    public static KeyVault create(File file, char[] password, SecretKey masterKey, int iterations) throws IOException {
+        return create(file, password, masterKey, iterations, PBKDF2);
+    }
+
+    /**
+     * Makes a vault as {@link #create(File, char[], SecretKey, int)} does, with another key derivation
+     *
+     * @param derivation derives the key wrapping {@code masterKey}, e.g. {@link #PBKDF2}
+     */
+    public static KeyVault create(File file, char[] password, SecretKey masterKey, int iterations,
+                                  KeyDerivation derivation) throws IOException {
+        byte[] salt = new byte[SALT_SIZE];
+        new SecureRandom().nextBytes(salt);
+        EntryCipher wrapper = new EntryCipher(derivation.deriveKey(password, salt, iterations));
+        byte[] nonce = wrapper.newNonce();
+        ByteBuffer wrapped = ByteBuffer.allocate(EntryCipher.ciphertextSize(EntryCipher.KEY_SIZE));
+        wrapper.seal(MAGIC, iterations, nonce, masterKey.getEncoded(), wrapped);
+
+        ByteBuffer out = ByteBuffer.allocate(FILE_SIZE);
+        out.putInt(MAGIC).putInt(VERSION).put(salt).putInt(iterations).put(nonce).put(wrapped.array());
+        File temporary = new File(file.getPath() + ".tmp");
+        FileOutputStream stream = new FileOutputStream(temporary);
+        try {
+            stream.write(out.array());
+            stream.getFD().sync();
+        } finally {
+            stream.close();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Could not write the key vault " + file);
+        }
+        KeyVault vault = new KeyVault(file, salt, iterations, nonce, wrapped.array(), derivation);
+        vault.remember(password, masterKey);
+        return vault;
+    }
+
+    /**
+     * @return a new random master key
+     */
+    public static SecretKey newMasterKey() {
+        byte[] key = new byte[EntryCipher.KEY_SIZE];
+        new SecureRandom().nextBytes(key);
+        return new SecretKeySpec(key, "AES");
+    }
+
+    /**
+     * @return the number of PBKDF2 iterations this device runs in about {@code targetMillis}, measured
+     * on a short run
+     */
+    public static int calibrate(long targetMillis) throws IOException {
+        byte[] salt = new byte[SALT_SIZE];
+        char[] password = "calibration".toCharArray();
+        deriveKey(password, salt, CALIBRATION_ITERATIONS); //warms the provider up
+        long start = System.nanoTime();
+        deriveKey(password, salt, CALIBRATION_ITERATIONS);
+        long elapsedMicros = Math.max(1, (System.nanoTime() - start) / 1000);
+        long iterations = CALIBRATION_ITERATIONS * targetMillis * 1000 / elapsedMicros;
+        return (int) Math.max(MIN_ITERATIONS, Math.min(MAX_ITERATIONS, iterations));
+    }
+
+    /**
+     * @return the master key
+     * @throws WrongPasswordException if {@code password} is not the password of the vault
+     */
+    public synchronized SecretKey unlock(char[] password) throws IOException {
+        if (masterKey != null) {
+            if (!MessageDigest.isEqual(passwordCheck, check(sessionKey, password))) {
+                throw new WrongPasswordException();
+            }
+            return masterKey; //no derivation more than once a session
+        }
+        EntryCipher wrapper = new EntryCipher(derivation.deriveKey(password, salt, iterations));
+        byte[] key;
+        try {
+            key = wrapper.open(MAGIC, iterations, nonce, ByteBuffer.wrap(wrappedKey));
+        } catch (IOException e) {
+            throw new WrongPasswordException();
+        }
+        SecretKey unlocked = new SecretKeySpec(key, "AES");
+        remember(password, unlocked);
+        return unlocked;
+    }
+
+    /**
+     * @return true if the master key is kept for the session
+     */
+    public synchronized boolean isUnlocked() {
+        return masterKey != null;
+    }
+
+    /**
+     * Forgets the master key: the next unlock derives the key from the password again
+     */
+    public synchronized void lock() {
+        masterKey = null;
+        sessionKey = null;
+        passwordCheck = null;
+    }
+
+    /**
+     * Wraps the master key with a new password, keeping the cost of the derivation
+     *
+     * @return the new vault, written over this one
+     */
+    public KeyVault changePassword(char[] oldPassword, char[] newPassword) throws IOException {
+        SecretKey key = unlock(oldPassword);
+        return create(file, newPassword, key, iterations, derivation);
+    }
+
+    /**
+     * @return the cost of the key derivation of this vault
+     */
+    public int getIterations() {
+        return iterations;
+    }
+
+    protected static SecretKey deriveKey(char[] password, byte[] salt, int iterations) throws IOException {
+        try {
+            PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, EntryCipher.KEY_SIZE * 8);
+            byte[] key = SecretKeyFactory.getInstance(KEY_ALGORITHM).generateSecret(spec).getEncoded();
+            spec.clearPassword();
+            return new SecretKeySpec(key, "AES");
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not derive the key of the password", e);
+        }
+    }
+
+    private synchronized void remember(char[] password, SecretKey key) throws IOException {
+        byte[] random = new byte[EntryCipher.KEY_SIZE];
+        new SecureRandom().nextBytes(random);
+        sessionKey = new SecretKeySpec(random, CHECK_ALGORITHM);
+        passwordCheck = check(sessionKey, password);
+        masterKey = key;
+    }
+
+    private static byte[] check(SecretKey sessionKey, char[] password) throws IOException {
+        ByteBuffer utf8 = UTF_8.encode(CharBuffer.wrap(password));
+        byte[] bytes = new byte[utf8.remaining()];
+        utf8.get(bytes);
+        try {
+            Mac mac = Mac.getInstance(CHECK_ALGORITHM);
+            mac.init(sessionKey);
+            return mac.doFinal(bytes);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not check the password", e);
+        } finally {
+            Arrays.fill(bytes, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package com.artifexiumgames.journal.Storage;
+
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reads Markdown into an {@link EntryBuilder}, a line at a time.
+ * <p>
+ *  {@code **bold**}, {@code __bold__}, {@code *italic*}, {@code _italic_} and {@code ~~strike~~} become
+ *  runs, and so does the inline HTML, as {@link ExportFormat#MARKDOWN} writes the styles Markdown has no
+ *  syntax for. A heading of level 1 or 2 starts an entry, as the export writes them: it is the date of the
+ *  entry if it reads as one, see {@link ImportFormat#parseDate(String)}, and is kept as the first line of
+ *  the entry, in bold, otherwise. Other headings are bold paragraphs. Links keep their text, code its
+ *  characters, list items their bullet.
+ * </p>
+ * Emphasis is not checked ahead: an emphasis not closed by the end of its paragraph ends there.
+ */
+class MarkdownImportParser {
+
+    private final EntryBuilder entry;
+    private final HtmlImportParser html;
+    private int bold = -1;
+    private int italic = -1;
+    private int strikethrough = -1;
+    private boolean lineBreak;
+
+    MarkdownImportParser(EntryBuilder entry) {
+        this.entry = entry;
+        this.html = new HtmlImportParser(entry);
+    }
+
+    /**
+     * Reads a document, and gives every entry read to {@code sink}
+     *
+     * @param sink where the entries go, or null to read a fragment into the entry being built
+     */
+    void parse(Reader in, ImportFormat.Sink sink) throws IOException {
+        BufferedReader lines = in instanceof BufferedReader ? (BufferedReader) in : new BufferedReader(in, 8192);
+        boolean code = false;
+        for (String line = lines.readLine(); line != null; line = lines.readLine()) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("```") || trimmed.startsWith("~~~")) {
+                endParagraph();
+                code = !code;
+                continue;
+            }
+            if (code) {
+                entry.append(line);
+                entry.append('\n');
+                continue;
+            }
+            if (trimmed.isEmpty()) {
+                endParagraph();
+                continue;
+            }
+            int level = 0;
+            while (level < trimmed.length() && trimmed.charAt(level) == '#') {
+                level++;
+            }
+            if (level > 0 && level <= 6 && (level == trimmed.length() || trimmed.charAt(level) == ' ')) {
+                if (level <= 2 && sink != null) {
+                    endEntry(sink);
+                    long timestamp = ImportFormat.parseDate(trimmed.substring(level));
+                    if (timestamp != 0) {
+                        entry.setTimestamp(timestamp);
+                        continue;
+                    }
+                } else {
+                    endParagraph();
+                }
+                int heading = entry.open(RichTextCodec.TYPE_BOLD, 0);
+                appendInline(trimmed, level, trimmed.length());
+                entry.close(heading);
+                endParagraph();
+                continue;
+            }
+            if (trimmed.equals("---") || trimmed.equals("***") || trimmed.equals("___")) {
+                endParagraph();
+                continue;
+            }
+
+            int start = 0;
+            while (start < trimmed.length() && trimmed.charAt(start) == '>') {
+                start++; //quotes are plain paragraphs
+                while (start < trimmed.length() && trimmed.charAt(start) == ' ') {
+                    start++;
+                }
+            }
+            if (trimmed.length() > start + 1 && "-*+".indexOf(trimmed.charAt(start)) >= 0
+                    && trimmed.charAt(start + 1) == ' ') {
+                endParagraph();
+                entry.append("\u2022 ");
+                start += 2;
+            } else if (lineBreak) {
+                entry.appendLineBreak();
+            } else {
+                entry.appendSpace();
+            }
+            int end = trimmed.length();
+            lineBreak = line.endsWith("  ") || trimmed.endsWith("\\") && !trimmed.endsWith("\\\\");
+            if (trimmed.endsWith("\\") && lineBreak) {
+                end--;
+            }
+            appendInline(trimmed, start, end);
+        }
+        if (sink != null) {
+            endEntry(sink);
+        } else {
+            endParagraph();
+            html.closeAll();
+        }
+    }
+
+    /**
+     * Reads the text and emphasis of {@code line} from {@code start} to {@code end}
+     */
+    private void appendInline(String line, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = line.charAt(i);
+            char next = i + 1 < end ? line.charAt(i + 1) : 0;
+            char previous = i > start ? line.charAt(i - 1) : ' ';
+            switch (c) {
+                case '\\':
+                    if (next != 0 && isPunctuation(next)) {
+                        entry.append(next);
+                        i++;
+                        continue;
+                    }
+                    break;
+                case '`':
+                    int closing = line.indexOf('`', i + 1);
+                    if (closing > 0 && closing < end) {
+                        entry.append(line.substring(i + 1, closing));
+                        i = closing;
+                        continue;
+                    }
+                    break;
+                case '*':
+                case '_':
+                    if (next == c) {
+                        if (bold >= 0 && previous != ' ') {
+                            entry.close(bold);
+                            bold = -1;
+                            i++;
+                            continue;
+                        } else if (bold < 0 && i + 2 < end && line.charAt(i + 2) != ' ') {
+                            bold = entry.open(RichTextCodec.TYPE_BOLD, 0);
+                            i++;
+                            continue;
+                        }
+                    } else if (c == '*' || !Character.isLetterOrDigit(italic >= 0 ? next : previous)) {
+                        if (italic >= 0 && previous != ' ') {
+                            entry.close(italic);
+                            italic = -1;
+                            continue;
+                        } else if (italic < 0 && next != 0 && next != ' ') {
+                            italic = entry.open(RichTextCodec.TYPE_ITALIC, 0);
+                            continue;
+                        }
+                    }
+                    break;
+                case '~':
+                    if (next == '~') {
+                        if (strikethrough >= 0) {
+                            entry.close(strikethrough);
+                            strikethrough = -1;
+                        } else {
+                            strikethrough = entry.open(RichTextCodec.TYPE_STRIKETHROUGH, 0);
+                        }
+                        i++;
+                        continue;
+                    }
+                    break;
+                case '!':
+                case '[':
+                    int bracket = c == '!' ? i + 1 : i;
+                    if (bracket < end && line.charAt(bracket) == '[') {
+                        int textEnd = line.indexOf("](", bracket);
+                        int linkEnd = textEnd > 0 ? line.indexOf(')', textEnd) : -1;
+                        if (linkEnd > 0 && linkEnd < end) {
+                            appendInline(line, bracket + 1, textEnd);
+                            i = linkEnd;
+                            continue;
+                        }
+                    }
+                    break;
+                case '<':
+                    int tagEnd = line.indexOf('>', i + 1);
+                    if (tagEnd > 0 && tagEnd < end && (Character.isLetter(next) || next == '/')) {
+                        String tag = line.substring(i + 1, tagEnd);
+                        if (tag.indexOf(':') > 0 && tag.indexOf(' ') < 0) {
+                            entry.append(tag); //an autolink
+                        } else {
+                            html.handleTag(tag);
+                        }
+                        i = tagEnd;
+                        continue;
+                    }
+                    break;
+                case '&':
+                    int semicolon = line.indexOf(';', i + 1);
+                    if (semicolon > 0 && semicolon < end && semicolon - i <= 10) {
+                        int codePoint = HtmlImportParser.decodeEntity(line.substring(i + 1, semicolon));
+                        if (codePoint >= 0) {
+                            entry.append(new String(Character.toChars(codePoint == 0xA0 ? ' ' : codePoint)));
+                            i = semicolon;
+                            continue;
+                        }
+                    }
+                    break;
+                case ' ':
+                case '\t':
+                    entry.appendSpace();
+                    continue;
+                default:
+                    break;
+            }
+            entry.append(c);
+        }
+    }
+
+    private void endParagraph() {
+        closeEmphasis();
+        entry.endParagraph();
+        lineBreak = false;
+    }
+
+    private void endEntry(ImportFormat.Sink sink) throws IOException {
+        endParagraph();
+        html.closeAll();
+        if (!entry.isEmpty()) {
+            long timestamp = entry.getTimestamp();
+            RichTextCodec.Runs runs = entry.build();
+            if (runs.text.length > 0) {
+                sink.onEntry(runs, timestamp);
+            }
+        } else {
+            entry.setTimestamp(0); //the date of an entry without text
+        }
+    }
+
+    private void closeEmphasis() {
+        entry.close(bold);
+        entry.close(italic);
+        entry.close(strikethrough);
+        bold = italic = strikethrough = -1;
+    }
+
+    private static boolean isPunctuation(char c) {
+        return c < 128 && !Character.isLetterOrDigit(c) && !Character.isWhitespace(c);
+    }
+}
@@ -0,0 +1,84 @@
+package com.artifexiumgames.journal.Storage;
+
+/**
+ * What was written in a day, a week, a month or ever: the number of entries started, their words,
+ * characters and writing time.
+ * <p>
+ *  Words and characters are those of the entries as last saved, counted in the period the entry was
+ *  started in: editing an entry moves the counts of its period, not of the day it was edited.
+ * </p>
+ *
+ * @see AnalyticsStore
+ */
+public class Rollup {
+
+    protected long entries;
+    protected long words;
+    protected long characters;
+    protected long writingMillis;
+
+    public Rollup() {
+        //Empty period
+    }
+
+    public Rollup(long entries, long words, long characters, long writingMillis) {
+        this.entries = entries;
+        this.words = words;
+        this.characters = characters;
+        this.writingMillis = writingMillis;
+    }
+
+    /**
+     * Adds {@code other} to this rollup, {@code sign} times
+     */
+    protected void add(Rollup other, int sign) {
+        entries += sign * other.entries;
+        words += sign * other.words;
+        characters += sign * other.characters;
+        writingMillis += sign * other.writingMillis;
+    }
+
+    /**
+     * @return true if nothing was written in the period
+     */
+    public boolean isEmpty() {
+        return entries == 0 && words == 0 && characters == 0 && writingMillis == 0;
+    }
+
+    public long getEntries() {
+        return entries;
+    }
+
+    public long getWords() {
+        return words;
+    }
+
+    public long getCharacters() {
+        return characters;
+    }
+
+    public long getWritingMillis() {
+        return writingMillis;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Rollup)) {
+            return false;
+        }
+        Rollup other = (Rollup) o;
+        return entries == other.entries && words == other.words && characters == other.characters
+                && writingMillis == other.writingMillis;
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (31 * (31 * (31 * entries + words) + characters) + writingMillis);
+    }
+
+    @Override
+    public String toString() {
+        return entries + " entries, " + words + " words, " + characters + " characters, "
+                + writingMillis + " ms";
+    }
+}
@@ -0,0 +1,654 @@
+package com.artifexiumgames.journal.Storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.crypto.SecretKey;
+
+/**
+ * A full-text index of the journal: for every term, the entries it is found in and the positions of its
+ * words there, kept encrypted and updated as entries are saved.
+ * <p>
+ *  The index is kept in three {@link EntryStore}s, each with its own key:
+ * </p>
+ * <ul>
+ *     <li><b>Postings:</b> the posting list of a term is cut into blocks of {@value #BLOCK_SIZE} entry ids,
+ *     a record each, so that saving an entry rewrites only the blocks of its id, never the whole list of
+ *     a common term.</li>
+ *     <li><b>Entry terms:</b> by entry id, the terms of the entry and their positions, as last indexed.
+ *     Saving an entry compares its terms with these, and only the terms whose positions changed are
+ *     indexed again.</li>
+ *     <li><b>Dictionary:</b> which posting records are the blocks of which term. Changes are appended as
+ *     records of their own, and folded into a snapshot, record {@value #SNAPSHOT_ID}, every
+ *     {@value #MAX_DELTAS} changes; opening the index reads the snapshot and the changes after it.</li>
+ * </ul>
+ * <p>
+ *  Numbers are varints, and entry ids and positions are stored as the difference with the previous one,
+ *  so most take a single byte.
+ * </p>
+ * <p>
+ *  <b>Crashes:</b> the terms of an entry are first written with the terms about to change marked dirty,
+ *  and synced; then the postings and the dictionary are written and synced; and only then are the terms
+ *  written again, clean. If the postings are lost to a crash, the dirty terms are indexed again on the
+ *  next save of the entry.
+ * </p>
+ * <p>
+ *  <b>Ranking:</b> an entry scores {@code (1 + ln tf) * ln(1 + N / df)} for every term of the query it
+ *  has, the sum scaled by the share of the terms it has, and doubled for every two consecutive terms of
+ *  the query found next to each other in the entry.
+ * </p>
+ * Methods are synchronized, and can be slow: they are meant for a background thread.
+ */
+public class SearchIndex implements Closeable {
+
+    public static final String POSTINGS_DIRECTORY = "postings";
+    public static final String ENTRY_TERMS_DIRECTORY = "terms";
+    public static final String DICTIONARY_DIRECTORY = "dictionary";
+
+    public static final int BLOCK_SIZE = 256;
+    protected static final int SNAPSHOT_ID = 0;
+    protected static final int MAX_DELTAS = 64;
+    protected static final float PHRASE_BOOST = 2f;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int[] NO_POSITIONS = new int[0];
+
+    private final EntryStore postings;
+    private final EntryStore entryTerms;
+    private final EntryStore dictionary;
+
+    /**
+     * By term, the ids of the posting records of its blocks, by block
+     */
+    private final Map<String, TreeMap<Integer, Long>> blocks = new HashMap<>();
+    private long snapshotCovers;
+
+    /**
+     * A result of {@link #search(CharSequence, int)}
+     */
+    public static class Result {
+        protected final long entryId;
+        protected final float score;
+
+        public Result(long entryId, float score) {
+            this.entryId = entryId;
+            this.score = score;
+        }
+
+        public long getEntryId() {
+            return entryId;
+        }
+
+        public float getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * Opens the index in {@code directory}, creating it if needed
+     *
+     * @param directory         the directory of the index
+     * @param key               the key its keys are derived from
+     * @param commitDelayMillis see {@link EntryStore#EntryStore(File, SecretKey, long)}
+     */
+    public SearchIndex(File directory, SecretKey key, long commitDelayMillis) throws IOException {
+        List<EntryStore> opened = new ArrayList<>(3);
+        try {
+            postings = open(directory, POSTINGS_DIRECTORY, key, commitDelayMillis, opened);
+            entryTerms = open(directory, ENTRY_TERMS_DIRECTORY, key, commitDelayMillis, opened);
+            dictionary = open(directory, DICTIONARY_DIRECTORY, key, commitDelayMillis, opened);
+            if (dictionary.getEntryCount() == 0) {
+                dictionary.newEntryId(); //the snapshot
+            }
+            loadDictionary();
+        } catch (IOException e) {
+            for (EntryStore store : opened) {
+                store.close();
+            }
+            throw e;
+        }
+    }
+
+    private static EntryStore open(File directory, String name, SecretKey key, long commitDelayMillis,
+                                   List<EntryStore> opened) throws IOException {
+        EntryStore store = new EntryStore(new File(directory, name), EntryCipher.deriveKey(key, name), commitDelayMillis);
+        opened.add(store);
+        return store;
+    }
+
+    /**
+     * @return true if entry {@code id} has been indexed
+     */
+    public boolean isIndexed(long id) {
+        return id < entryTerms.getEntryCount() && entryTerms.getTimestamp(id) != 0;
+    }
+
+    /**
+     * Indexes an entry again, after it has been saved
+     *
+     * @return the number of terms indexed again
+     * @see #update(Map)
+     */
+    public int update(long id, CharSequence text) throws IOException {
+        return update(Collections.singletonMap(id, text));
+    }
+
+    /**
+     * Indexes entries again, after they have been saved. Only the terms that changed since the entries
+     * were last indexed are written, with a block of postings written once for all the entries it holds.
+     *
+     * @param texts the text of every entry, by id
+     * @return the number of terms indexed again, over all the entries
+     */
+    public synchronized int update(Map<Long, ? extends CharSequence> texts) throws IOException {
+        //The changes, by term, then by entry id: the new positions, or none for a term no longer there
+        Map<String, Map<Long, int[]>> changes = new HashMap<>();
+        Map<Long, Map<String, int[]>> indexed = new LinkedHashMap<>();
+        int changeCount = 0;
+        for (Map.Entry<Long, ? extends CharSequence> entry : texts.entrySet()) {
+            long id = entry.getKey();
+            Map<String, int[]> terms = SearchTerms.of(entry.getValue());
+            Set<String> changed = changedTerms(readEntryTerms(id), terms);
+            if (changed.isEmpty()) {
+                continue;
+            }
+            for (String term : changed) {
+                Map<Long, int[]> byEntry = changes.get(term);
+                if (byEntry == null) {
+                    byEntry = new HashMap<>();
+                    changes.put(term, byEntry);
+                }
+                int[] positions = terms.get(term);
+                byEntry.put(id, positions == null ? NO_POSITIONS : positions);
+            }
+            changeCount += changed.size();
+            indexed.put(id, terms);
+            entryTerms.reserveEntryId(id);
+            entryTerms.save(id, encodeEntryTerms(terms, changed));
+        }
+        if (changes.isEmpty()) {
+            return 0;
+        }
+        entryTerms.flush();
+
+        Writer delta = new Writer();
+        int mappings = 0;
+        for (Map.Entry<String, Map<Long, int[]>> change : changes.entrySet()) {
+            String term = change.getKey();
+            TreeMap<Integer, Map<Long, int[]>> byBlock = new TreeMap<>();
+            for (Map.Entry<Long, int[]> entry : change.getValue().entrySet()) {
+                int block = (int) (entry.getKey() / BLOCK_SIZE);
+                Map<Long, int[]> inBlock = byBlock.get(block);
+                if (inBlock == null) {
+                    inBlock = new HashMap<>();
+                    byBlock.put(block, inBlock);
+                }
+                inBlock.put(entry.getKey(), entry.getValue());
+            }
+            TreeMap<Integer, Long> termBlocks = blocks.get(term);
+            if (termBlocks == null) {
+                termBlocks = new TreeMap<>();
+                blocks.put(term, termBlocks);
+            }
+            for (Map.Entry<Integer, Map<Long, int[]>> blockChange : byBlock.entrySet()) {
+                int block = blockChange.getKey();
+                Long recordId = termBlocks.get(block);
+                TreeMap<Long, int[]> documents;
+                if (recordId == null) {
+                    recordId = postings.newEntryId();
+                    termBlocks.put(block, recordId);
+                    delta.writeString(term);
+                    delta.writeVarint(block);
+                    delta.writeVarintLong(recordId);
+                    mappings++;
+                    documents = new TreeMap<>();
+                } else {
+                    documents = readBlock(recordId, block);
+                }
+                for (Map.Entry<Long, int[]> entry : blockChange.getValue().entrySet()) {
+                    if (entry.getValue().length == 0) {
+                        documents.remove(entry.getKey());
+                    } else {
+                        documents.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                postings.save(recordId, encodeBlock(documents, block));
+            }
+        }
+        if (mappings > 0) {
+            Writer record = new Writer();
+            record.writeVarint(mappings);
+            record.write(delta);
+            long deltaId = dictionary.newEntryId();
+            dictionary.save(deltaId, record.toByteArray());
+            if (deltaId - snapshotCovers > MAX_DELTAS) {
+                dictionary.save(SNAPSHOT_ID, encodeSnapshot(deltaId));
+                snapshotCovers = deltaId;
+            }
+        }
+        postings.flush();
+        dictionary.flush();
+
+        for (Map.Entry<Long, Map<String, int[]>> entry : indexed.entrySet()) {
+            entryTerms.save(entry.getKey(), encodeEntryTerms(entry.getValue(), Collections.<String>emptySet()));
+        }
+        return changeCount;
+    }
+
+    /**
+     * Finds the entries with the terms of a query
+     *
+     * @param query the words to look for, in any case
+     * @param limit the most results to return
+     * @return the entries with at least one of the terms, best first
+     */
+    public synchronized List<Result> search(CharSequence query, int limit) throws IOException {
+        String[] terms = SearchTerms.ofQuery(query);
+        boolean phrases = terms.length > 1;
+        Map<Long, Candidate> candidates = new HashMap<>();
+        double entryCount = Math.max(1, entryTerms.getEntryCount());
+        for (int t = 0; t < terms.length; t++) {
+            TreeMap<Integer, Long> termBlocks = blocks.get(terms[t]);
+            if (termBlocks == null) {
+                continue;
+            }
+            List<Posting> found = new ArrayList<>();
+            for (Map.Entry<Integer, Long> block : termBlocks.entrySet()) {
+                byte[] record = postings.load(block.getValue());
+                if (record != null) {
+                    readPostings(new Reader(record), block.getKey(), phrases, found);
+                }
+            }
+            double idf = Math.log(1 + entryCount / Math.max(1, found.size()));
+            for (Posting posting : found) {
+                Candidate candidate = candidates.get(posting.entryId);
+                if (candidate == null) {
+                    candidate = new Candidate(posting.entryId, terms.length);
+                    candidates.put(posting.entryId, candidate);
+                }
+                candidate.score += (1 + Math.log(posting.frequency)) * idf;
+                candidate.matched++;
+                candidate.positions[t] = posting.positions;
+            }
+        }
+
+        List<Result> results = new ArrayList<>(candidates.size());
+        for (Candidate candidate : candidates.values()) {
+            double score = candidate.score * candidate.matched / terms.length;
+            for (int t = 0; phrases && t + 1 < terms.length; t++) {
+                if (adjacent(candidate.positions[t], candidate.positions[t + 1])) {
+                    score *= PHRASE_BOOST;
+                }
+            }
+            results.add(new Result(candidate.entryId, (float) score));
+        }
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(Result a, Result b) {
+                if (a.score != b.score) {
+                    return a.score > b.score ? -1 : 1;
+                }
+                return a.entryId > b.entryId ? -1 : (a.entryId == b.entryId ? 0 : 1); //newest first
+            }
+        });
+        return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
+    }
+
+    /**
+     * Saves what is still queued and closes the index
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            postings.close();
+        } finally {
+            try {
+                dictionary.close();
+            } finally {
+                entryTerms.close();
+            }
+        }
+    }
+
+    /**
+     * @return the terms whose positions differ, and the terms left dirty by an update cut short
+     */
+    private static Set<String> changedTerms(EntryTerms before, Map<String, int[]> after) {
+        Set<String> changed = new HashSet<>(before.dirty);
+        for (Map.Entry<String, int[]> term : after.entrySet()) {
+            if (!Arrays.equals(term.getValue(), before.terms.get(term.getKey()))) {
+                changed.add(term.getKey());
+            }
+        }
+        for (String term : before.terms.keySet()) {
+            if (!after.containsKey(term)) {
+                changed.add(term);
+            }
+        }
+        return changed;
+    }
+
+    private static boolean adjacent(int[] first, int[] second) {
+        if (first == null || second == null) {
+            return false;
+        }
+        int j = 0;
+        for (int position : first) {
+            while (j < second.length && second[j] <= position) {
+                j++;
+            }
+            if (j < second.length && second[j] == position + 1) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void loadDictionary() throws IOException {
+        byte[] snapshot = dictionary.load(SNAPSHOT_ID);
+        snapshotCovers = SNAPSHOT_ID;
+        if (snapshot != null) {
+            Reader in = new Reader(snapshot);
+            snapshotCovers = in.readVarintLong();
+            for (int terms = in.readVarint(); terms > 0; terms--) {
+                String term = in.readString();
+                TreeMap<Integer, Long> termBlocks = new TreeMap<>();
+                for (int count = in.readVarint(); count > 0; count--) {
+                    termBlocks.put(in.readVarint(), in.readVarintLong());
+                }
+                blocks.put(term, termBlocks);
+            }
+        }
+        for (long id = snapshotCovers + 1; id < dictionary.getEntryCount(); id++) {
+            byte[] record = dictionary.load(id);
+            if (record == null) {
+                continue;
+            }
+            Reader in = new Reader(record);
+            for (int count = in.readVarint(); count > 0; count--) {
+                String term = in.readString();
+                TreeMap<Integer, Long> termBlocks = blocks.get(term);
+                if (termBlocks == null) {
+                    termBlocks = new TreeMap<>();
+                    blocks.put(term, termBlocks);
+                }
+                termBlocks.put(in.readVarint(), in.readVarintLong());
+            }
+        }
+    }
+
+    /**
+     * Snapshot layout: last change folded in, number of terms; by term: the term, number of blocks, then
+     * by block: block, posting record id
+     */
+    private byte[] encodeSnapshot(long covers) {
+        Writer out = new Writer();
+        out.writeVarintLong(covers);
+        out.writeVarint(blocks.size());
+        for (Map.Entry<String, TreeMap<Integer, Long>> term : blocks.entrySet()) {
+            out.writeString(term.getKey());
+            out.writeVarint(term.getValue().size());
+            for (Map.Entry<Integer, Long> block : term.getValue().entrySet()) {
+                out.writeVarint(block.getKey());
+                out.writeVarintLong(block.getValue());
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Entry terms layout: number of dirty terms, the dirty terms, number of terms; by term: the term,
+     * number of positions, positions as differences
+     */
+    private static byte[] encodeEntryTerms(Map<String, int[]> terms, Set<String> dirty) {
+        Writer out = new Writer();
+        out.writeVarint(dirty.size());
+        for (String term : dirty) {
+            out.writeString(term);
+        }
+        out.writeVarint(terms.size());
+        for (Map.Entry<String, int[]> term : terms.entrySet()) {
+            out.writeString(term.getKey());
+            out.writePositions(term.getValue());
+        }
+        return out.toByteArray();
+    }
+
+    private EntryTerms readEntryTerms(long id) throws IOException {
+        EntryTerms entry = new EntryTerms();
+        byte[] record = id < entryTerms.getEntryCount() ? entryTerms.load(id) : null;
+        if (record == null) {
+            return entry;
+        }
+        Reader in = new Reader(record);
+        for (int count = in.readVarint(); count > 0; count--) {
+            entry.dirty.add(in.readString());
+        }
+        for (int count = in.readVarint(); count > 0; count--) {
+            String term = in.readString();
+            entry.terms.put(term, in.readPositions());
+        }
+        return entry;
+    }
+
+    /**
+     * Block layout: number of entries; by entry id: the id as a difference with the previous one (the
+     * first with the first id of the block), size in bytes of what follows, number of positions, the
+     * positions as differences. The size lets a search skip the positions.
+     */
+    private static byte[] encodeBlock(TreeMap<Long, int[]> documents, int block) {
+        Writer out = new Writer();
+        Writer positions = new Writer();
+        out.writeVarint(documents.size());
+        long previous = (long) block * BLOCK_SIZE;
+        for (Map.Entry<Long, int[]> document : documents.entrySet()) {
+            out.writeVarintLong(document.getKey() - previous);
+            previous = document.getKey();
+            positions.reset();
+            positions.writePositions(document.getValue());
+            out.writeVarint(positions.size);
+            out.write(positions);
+        }
+        return out.toByteArray();
+    }
+
+    private TreeMap<Long, int[]> readBlock(long recordId, int block) throws IOException {
+        TreeMap<Long, int[]> documents = new TreeMap<>();
+        byte[] record = postings.load(recordId);
+        if (record == null) {
+            return documents;
+        }
+        List<Posting> found = new ArrayList<>();
+        readPostings(new Reader(record), block, true, found);
+        for (Posting posting : found) {
+            documents.put(posting.entryId, posting.positions);
+        }
+        return documents;
+    }
+
+    /**
+     * Reads a block of postings into {@code found}, skipping over the positions unless they are needed
+     */
+    private static void readPostings(Reader in, int block, boolean withPositions, List<Posting> found) throws IOException {
+        long entryId = (long) block * BLOCK_SIZE;
+        for (int count = in.readVarint(); count > 0; count--) {
+            entryId += in.readVarintLong();
+            int size = in.readVarint();
+            int end = in.position + size;
+            if (size < 0 || end > in.bytes.length) {
+                throw new IOException("Malformed postings of block " + block);
+            }
+            Posting posting = new Posting(entryId);
+            if (withPositions) {
+                posting.positions = in.readPositions();
+                posting.frequency = posting.positions.length;
+            } else {
+                posting.frequency = in.readVarint();
+            }
+            in.position = end;
+            found.add(posting);
+        }
+    }
+
+    private static class EntryTerms {
+        final Map<String, int[]> terms = new HashMap<>();
+        final Set<String> dirty = new HashSet<>();
+    }
+
+    private static class Posting {
+        final long entryId;
+        int frequency;
+        int[] positions;
+
+        Posting(long entryId) {
+            this.entryId = entryId;
+        }
+    }
+
+    private static class Candidate {
+        final long entryId;
+        final int[][] positions;
+        double score;
+        int matched;
+
+        Candidate(long entryId, int terms) {
+            this.entryId = entryId;
+            this.positions = new int[terms][];
+        }
+    }
+
+    /**
+     * Writes varints and strings to a growing array
+     */
+    private static class Writer {
+        byte[] bytes = new byte[64];
+        int size;
+
+        void write(int b) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, size * 2);
+            }
+            bytes[size++] = (byte) b;
+        }
+
+        void write(Writer other) {
+            if (size + other.size > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + other.size));
+            }
+            System.arraycopy(other.bytes, 0, bytes, size, other.size);
+            size += other.size;
+        }
+
+        void writeVarint(int value) {
+            writeVarintLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarintLong(long value) {
+            while ((value & ~0x7FL) != 0) {
+                write((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            write((int) value);
+        }
+
+        void writeString(String s) {
+            byte[] utf8 = s.getBytes(UTF_8);
+            writeVarint(utf8.length);
+            for (byte b : utf8) {
+                write(b);
+            }
+        }
+
+        /**
+         * Number of positions, then the positions as differences
+         */
+        void writePositions(int[] positions) {
+            writeVarint(positions.length);
+            int previous = 0;
+            for (int position : positions) {
+                writeVarint(position - previous);
+                previous = position;
+            }
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    /**
+     * Reads what {@link Writer} writes
+     */
+    private static class Reader {
+        final byte[] bytes;
+        int position;
+
+        Reader(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int readVarint() throws IOException {
+            long value = readVarintLong();
+            if (value > Integer.MAX_VALUE) {
+                throw new IOException("Malformed search index");
+            }
+            return (int) value;
+        }
+
+        long readVarintLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= bytes.length) {
+                    throw new IOException("Truncated search index");
+                }
+                int b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed search index");
+        }
+
+        String readString() throws IOException {
+            int length = readVarint();
+            if (position + length > bytes.length) {
+                throw new IOException("Truncated search index");
+            }
+            String s = new String(bytes, position, length, UTF_8);
+            position += length;
+            return s;
+        }
+
+        int[] readPositions() throws IOException {
+            int count = readVarint();
+            if (count > bytes.length - position) {
+                throw new IOException("Malformed search index");
+            }
+            int[] positions = new int[count];
+            int previous = 0;
+            for (int i = 0; i < count; i++) {
+                previous += readVarint();
+                positions[i] = previous;
+            }
+            return positions;
+        }
+    }
+}
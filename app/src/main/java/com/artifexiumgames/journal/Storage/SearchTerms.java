@@ -0,0 +1,87 @@
+package com.artifexiumgames.journal.Storage;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Splits a text into the terms of the {@link SearchIndex}: runs of letters and digits, lower-cased, with
+ * the positions of their words.
+ * <p>
+ *  Positions count words, not characters, so that adding to the end of an entry, the usual edit of a
+ *  journal, leaves the positions of every term before it as they were.
+ * </p>
+ */
+public final class SearchTerms {
+
+    /**
+     * Longer terms are cut to this length
+     */
+    public static final int MAX_TERM_LENGTH = 64;
+
+    private SearchTerms() {
+        //Static methods only
+    }
+
+    /**
+     * @return the terms of {@code text}, each with the sorted positions of its words
+     */
+    public static Map<String, int[]> of(CharSequence text) {
+        Map<String, Positions> found = new HashMap<>();
+        StringBuilder term = new StringBuilder(MAX_TERM_LENGTH);
+        int position = 0;
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < MAX_TERM_LENGTH) {
+                    term.append(Character.toLowerCase(c));
+                }
+            } else if (term.length() > 0) {
+                String word = term.toString();
+                Positions positions = found.get(word);
+                if (positions == null) {
+                    positions = new Positions();
+                    found.put(word, positions);
+                }
+                positions.add(position++);
+                term.setLength(0);
+            }
+        }
+        Map<String, int[]> terms = new HashMap<>(found.size() * 2);
+        for (Map.Entry<String, Positions> entry : found.entrySet()) {
+            Positions positions = entry.getValue();
+            terms.put(entry.getKey(), Arrays.copyOf(positions.values, positions.count));
+        }
+        return terms;
+    }
+
+    /**
+     * @return the distinct terms of a query, in the order they are typed
+     */
+    public static String[] ofQuery(CharSequence query) {
+        final Map<String, int[]> terms = of(query);
+        String[] ordered = terms.keySet().toArray(new String[terms.size()]);
+        Arrays.sort(ordered, new Comparator<String>() {
+            @Override
+            public int compare(String a, String b) {
+                int positionA = terms.get(a)[0];
+                int positionB = terms.get(b)[0];
+                return positionA < positionB ? -1 : (positionA == positionB ? 0 : 1);
+            }
+        });
+        return ordered;
+    }
+
+    private static class Positions {
+        int[] values = new int[4];
+        int count;
+
+        void add(int position) {
+            if (count == values.length) {
+                values = Arrays.copyOf(values, count * 2);
+            }
+            values[count++] = position;
+        }
+    }
+}
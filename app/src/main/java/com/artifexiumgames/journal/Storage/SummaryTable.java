@@ -0,0 +1,199 @@
+package com.artifexiumgames.journal.Storage;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+import javax.crypto.SecretKey;
+
+/**
+ * The {@link EntrySummary} of every entry, encrypted, in fixed-size rows by entry id.
+ * <p>
+ *  Entry ids are handed out in sequence, so the row of an entry is found from its id alone, and a page
+ *  of the list of past entries is a single read of consecutive rows, whatever the number of entries.
+ *  A row is written in place every time its entry is saved.
+ * </p>
+ * <p>
+ *  The summaries can always be made again from the entries, so rows are not synced: a row torn by a
+ *  crash fails its authentication and reads as missing, like the row of an entry saved before there were
+ *  summaries. The file itself is made again if it is not a table of this version.
+ * </p>
+ * File layout, after a {@value #HEADER_SIZE} byte header (magic, version, row size):
+ * <ul>
+ *     <li>Row ({@value #ROW_SIZE} bytes, by entry id): time of the save (8 bytes, 0 if there is no
+ *     summary), nonce ({@value EntryCipher#NONCE_SIZE}), then encrypted with its tag: number of words (4),
+ *     length of the title (2), length of the preview (2), the title and the preview in UTF-8, zeros.</li>
+ * </ul>
+ *
+ * @see EntryCipher
+ */
+public class SummaryTable implements Closeable {
+
+    public static final String FILE = "summaries.tbl";
+
+    public static final int MAGIC = 0x4A53554D; //"JSUM"
+    public static final int VERSION = 1;
+    public static final int HEADER_SIZE = 16;
+    public static final int ROW_SIZE = 512;
+
+    protected static final int PLAINTEXT_SIZE = ROW_SIZE - 8 - EntryCipher.NONCE_SIZE - EntryCipher.TAG_SIZE;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final EntryCipher cipher;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    /**
+     * Opens the table, creating it if needed
+     *
+     * @param tableFile the file of the table
+     * @param key       the key the summaries are encrypted with
+     */
+    public SummaryTable(File tableFile, SecretKey key) throws IOException {
+        cipher = new EntryCipher(key);
+        file = new RandomAccessFile(tableFile, "rw");
+        channel = file.getChannel();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (channel.size() >= HEADER_SIZE) {
+            readFully(header, 0);
+            if (header.getInt(0) == MAGIC && header.getInt(4) == VERSION && header.getInt(8) == ROW_SIZE) {
+                return;
+            }
+        }
+        header.clear();
+        header.putInt(MAGIC).putInt(VERSION).putInt(ROW_SIZE).putInt(0).flip();
+        channel.truncate(0);
+        while (header.hasRemaining()) {
+            channel.write(header, HEADER_SIZE - header.remaining());
+        }
+        channel.force(true);
+    }
+
+    /**
+     * Writes the summary of an entry over its previous one. Can be called from any thread.
+     */
+    public void put(EntrySummary summary) throws IOException {
+        byte[] title = summary.title.getBytes(UTF_8);
+        byte[] preview = summary.preview.getBytes(UTF_8);
+        byte[] plaintext = new byte[PLAINTEXT_SIZE];
+        if (8 + title.length + preview.length > PLAINTEXT_SIZE) {
+            throw new IOException("The summary of entry " + summary.id + " does not fit in a row");
+        }
+        ByteBuffer.wrap(plaintext)
+                .putInt(summary.wordCount)
+                .putShort((short) title.length)
+                .putShort((short) preview.length)
+                .put(title)
+                .put(preview);
+
+        ByteBuffer row = ByteBuffer.allocate(ROW_SIZE);
+        byte[] nonce = cipher.newNonce();
+        row.putLong(summary.timestamp);
+        row.put(nonce);
+        cipher.seal(summary.id, summary.timestamp, nonce, plaintext, row);
+        row.flip();
+        long position = rowPosition(summary.id);
+        while (row.hasRemaining()) {
+            position += channel.write(row, position);
+        }
+    }
+
+    /**
+     * Removes the summary of an entry, which then reads as missing and is made again from the entry. Can
+     * be called from any thread.
+     */
+    public void remove(long id) throws IOException {
+        long position = rowPosition(id);
+        if (position >= channel.size()) {
+            return;
+        }
+        ByteBuffer timestamp = ByteBuffer.allocate(8);
+        while (timestamp.hasRemaining()) {
+            position += channel.write(timestamp, position);
+        }
+    }
+
+    /**
+     * Reads the summaries of consecutive entries, in one read. Can be called from any thread.
+     *
+     * @param firstId the id of the first entry
+     * @param count   the number of entries
+     * @return the summaries by id from {@code firstId}, null where an entry has no summary, or its row
+     * could not be decrypted
+     */
+    public EntrySummary[] getRows(long firstId, int count) throws IOException {
+        EntrySummary[] summaries = new EntrySummary[count];
+        long start = rowPosition(firstId);
+        long available = Math.max(0, channel.size() - start) / ROW_SIZE;
+        int rows = (int) Math.min(count, available);
+        if (rows == 0) {
+            return summaries;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(rows * ROW_SIZE);
+        readFully(buffer, start);
+        byte[] nonce = new byte[EntryCipher.NONCE_SIZE];
+        for (int i = 0; i < rows; i++) {
+            int rowStart = i * ROW_SIZE;
+            long timestamp = buffer.getLong(rowStart);
+            if (timestamp == 0) {
+                continue;
+            }
+            buffer.limit(rowStart + ROW_SIZE).position(rowStart + 8);
+            buffer.get(nonce);
+            long id = firstId + i;
+            try {
+                summaries[i] = parse(id, timestamp, cipher.open(id, timestamp, nonce, buffer));
+            } catch (IOException e) {
+                //Torn by a crash: missing, to be made again
+            }
+            buffer.limit(buffer.capacity());
+        }
+        return summaries;
+    }
+
+    /**
+     * @return the summary of entry {@code id}, or null if it has none
+     */
+    public EntrySummary get(long id) throws IOException {
+        return getRows(id, 1)[0];
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    private static EntrySummary parse(long id, long timestamp, byte[] plaintext) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(plaintext);
+        int wordCount = in.getInt();
+        int titleLength = in.getShort();
+        int previewLength = in.getShort();
+        if (titleLength < 0 || previewLength < 0 || 8 + titleLength + previewLength > plaintext.length) {
+            throw new IOException("Malformed summary of entry " + id);
+        }
+        String title = new String(plaintext, 8, titleLength, UTF_8);
+        String preview = new String(plaintext, 8 + titleLength, previewLength, UTF_8);
+        return new EntrySummary(id, timestamp, title, preview, wordCount);
+    }
+
+    private static long rowPosition(long id) {
+        if (id < 0) {
+            throw new IllegalArgumentException("Unknown entry id " + id);
+        }
+        return HEADER_SIZE + id * ROW_SIZE;
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the summaries at " + position);
+            }
+            position += read;
+        }
+    }
+}
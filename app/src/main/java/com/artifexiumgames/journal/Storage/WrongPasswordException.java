@@ -0,0 +1,15 @@
+package com.artifexiumgames.journal.Storage;
+
+import java.io.IOException;
+
+/**
+ * Thrown when the journal is opened with another password than its own
+ */
+public class WrongPasswordException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public WrongPasswordException() {
+        super("Wrong password");
+    }
+}
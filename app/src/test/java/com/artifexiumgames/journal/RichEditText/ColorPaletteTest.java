@@ -0,0 +1,111 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import com.artifexiumgames.journal.RichEditText.RichEditText.ColorString;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ColorPalette}, reading and writing its file on the calling thread.
+ */
+public class ColorPaletteTest {
+
+    private static final Executor NOW = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("palette", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                assertTrue(file.delete());
+            }
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void usedColorsComeFirst() {
+        ColorPalette palette = new ColorPalette(Arrays.asList(color("Black", 0xFF000000),
+                color("White", 0xFFFFFFFF), color("Red", 0xFFFF0000)), NOW);
+        palette.use(palette.get(2));
+        assertEquals(Arrays.asList(0xFFFF0000, 0xFF000000, 0xFFFFFFFF), valuesOf(palette.getColors()));
+
+        palette.use(color("Snow", 0xFFFFFFFF)); //already there, renamed
+        palette.use(color("Teal", 0xFF008080));
+        assertEquals(Arrays.asList(0xFF008080, 0xFFFFFFFF, 0xFFFF0000, 0xFF000000), valuesOf(palette.getColors()));
+        assertEquals("Snow", palette.find(0xFFFFFFFF).getTitle());
+        assertEquals("Snow - #FFFFFF", palette.get(1).toString());
+        assertNull(palette.find(0xFF123456));
+        assertEquals(4, palette.size());
+    }
+
+    @Test
+    public void contrastColorsAreWorkedOutOnce() {
+        assertEquals(0xFF000000, color("Yellow", 0xFFFFFF00).getContrastColor());
+        assertEquals(0xFFFFFFFF, color("Navy", 0xFF000080).getContrastColor());
+        assertEquals("Glass - #80FFFFFF", color("Glass", 0x80FFFFFF).toString());
+    }
+
+    @Test
+    public void paletteIsWrittenAndReadBack() {
+        File file = new File(directory, ColorPalette.FILE);
+        ColorPalette palette = new ColorPalette(Arrays.asList(color("Black", 0xFF000000)), NOW);
+        palette.open(file);
+        assertFalse(file.exists()); //nothing changed yet
+        for (int i = 0; i < 500; i++) {
+            palette.use(color("Custom " + i, 0xFF000000 | (i + 1) * 7919));
+        }
+        palette.use(color("Black again", 0xFF000000));
+        assertTrue(file.exists());
+
+        ColorPalette read = new ColorPalette(new ArrayList<ColorString>(), NOW);
+        read.open(file);
+        assertEquals(valuesOf(palette.getColors()), valuesOf(read.getColors()));
+        assertEquals("Black again", read.get(0).getTitle());
+        assertEquals("Custom 0", read.get(500).getTitle());
+        assertFalse(new File(directory, ColorPalette.FILE + ColorPalette.TEMPORARY_SUFFIX).exists());
+    }
+
+    @Test
+    public void settingTheColorsKeepsTheFirstOfAValue() {
+        ColorPalette palette = new ColorPalette(new ArrayList<ColorString>(), NOW);
+        palette.setColors(Arrays.asList(color("One", 1), color("Two", 2), color("Also one", 1)));
+        assertEquals(Arrays.asList(1, 2), valuesOf(palette.getColors()));
+        assertEquals("One", palette.find(1).getTitle());
+    }
+
+    private static ColorString color(String title, int argb) {
+        return new ColorString(title, argb);
+    }
+
+    private static List<Integer> valuesOf(List<ColorString> colors) {
+        List<Integer> values = new ArrayList<>();
+        for (ColorString color : colors) {
+            values.add(color.getHex());
+        }
+        return values;
+    }
+}
@@ -0,0 +1,153 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+
+import com.artifexiumgames.journal.Storage.EntrySummary;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.artifexiumgames.journal.RichEditText.RandomText.randomText;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link DocumentStatistics}, checked against the text counted again after every
+ * edit.
+ */
+public class DocumentStatisticsTest {
+
+    private static final String ALPHABET = "abcde12  ..!?\n\n,-";
+
+    @Test
+    public void countsWordsSentencesAndParagraphs() {
+        DocumentStatistics statistics = new DocumentStatistics();
+        statistics.reset("First words. And more!\n\n  A second - paragraph\n\n\n? ...");
+
+        assertEquals(54, statistics.getCharacterCount());
+        assertEquals(7, statistics.getWordCount());
+        assertEquals(3, statistics.getSentenceCount());
+        assertEquals(2, statistics.getParagraphCount());
+        assertEquals(7 * 60000L / DocumentStatistics.WORDS_PER_MINUTE, statistics.getReadingMillis());
+
+        statistics.reset("");
+        assertEquals(0, statistics.getWordCount());
+        assertEquals(0, statistics.getParagraphCount());
+    }
+
+    @Test
+    public void editsJoiningAndSplittingWordsAreCounted() {
+        PieceTableEditable text = new PieceTableEditable("one two. three");
+        DocumentStatistics statistics = new DocumentStatistics();
+        statistics.reset(text);
+
+        edit(text, statistics, 3, 4, ""); //onetwo. three
+        assertCounts(text, statistics);
+        assertEquals(2, statistics.getWordCount());
+        edit(text, statistics, 6, 7, "\n"); //onetwo\n three
+        assertCounts(text, statistics);
+        assertEquals(1, statistics.getSentenceCount()); //a line break alone does not end a sentence
+        assertEquals(2, statistics.getParagraphCount());
+        edit(text, statistics, 0, 0, "zero? "); //zero? onetwo\n three
+        assertCounts(text, statistics);
+        assertEquals(2, statistics.getSentenceCount());
+    }
+
+    /**
+     * Typing within a long word, or within a long gap once it has a sentence break and a line break next to
+     * the cursor, only reads the characters around the edit
+     */
+    @Test
+    public void editsReadOnlyAroundThemselves() {
+        StringBuilder builder = new StringBuilder("Start ");
+        for (int i = 0; i < 5000; i++) {
+            builder.append('w');
+        }
+        for (int i = 0; i < 5000; i++) {
+            builder.append(".\n");
+        }
+        builder.append("end");
+        CountingText text = new CountingText(builder);
+        DocumentStatistics statistics = new DocumentStatistics();
+        statistics.reset(text);
+
+        text.reads = 0;
+        edit(text, statistics, 2000, 2000, "x y");
+        assertTrue(text.reads + " reads", text.reads < 20);
+        text.reads = 0;
+        edit(text, statistics, 12000, 12000, "\n");
+        assertTrue(text.reads + " reads", text.reads < 20);
+        assertCounts(text, statistics);
+    }
+
+    @Test
+    public void randomEditsMatchACount() {
+        Random random = new Random(25);
+        PieceTableEditable text = new PieceTableEditable(randomText(random, 2000, ALPHABET));
+        DocumentStatistics statistics = new DocumentStatistics();
+        statistics.reset(text);
+
+        for (int step = 0; step < 5000; step++) {
+            int length = text.length();
+            int start = random.nextInt(length + 1);
+            int end = Math.min(length, start + random.nextInt(random.nextInt(20) == 0 ? 200 : 4));
+            String inserted = randomText(random, random.nextInt(20) == 0 ? 100 : random.nextInt(3), ALPHABET);
+            edit(text, statistics, start, end, inserted);
+            assertCounts(text, statistics);
+        }
+    }
+
+    /**
+     * Edits {@code text} as an editor does, telling {@code statistics} before and after
+     */
+    private static void edit(Editable text, DocumentStatistics statistics, int start, int end, String inserted) {
+        statistics.beforeTextChanged(text, start, end - start, inserted.length());
+        text.replace(start, end, inserted);
+        statistics.onTextChanged(text, start, end - start, inserted.length());
+    }
+
+    private static void assertCounts(CharSequence text, DocumentStatistics statistics) {
+        String s = text.toString();
+        int words = 0;
+        int sentences = 0;
+        int paragraphs = 0;
+        int previousEnd = -1;
+        for (int i = 0; i < s.length(); i++) {
+            if (Character.isLetterOrDigit(s.charAt(i)) && (i == 0 || !Character.isLetterOrDigit(s.charAt(i - 1)))) {
+                String gap = previousEnd < 0 ? null : s.substring(previousEnd, i);
+                words++;
+                if (gap == null || gap.matches("(?s).*[.!?].*")) {
+                    sentences++;
+                }
+                if (gap == null || gap.contains("\n")) {
+                    paragraphs++;
+                }
+            }
+            if (Character.isLetterOrDigit(s.charAt(i))) {
+                previousEnd = i + 1;
+            }
+        }
+        assertEquals(s.length(), statistics.getCharacterCount());
+        assertEquals(EntrySummary.countWords(s), statistics.getWordCount());
+        assertEquals(words, statistics.getWordCount());
+        assertEquals(sentences, statistics.getSentenceCount());
+        assertEquals(paragraphs, statistics.getParagraphCount());
+    }
+
+    /**
+     * An editable text counting the characters read from it
+     */
+    private static class CountingText extends HostSpannable {
+        int reads;
+
+        CountingText(CharSequence source) {
+            super(source);
+        }
+
+        @Override
+        public char charAt(int index) {
+            reads++;
+            return super.charAt(index);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link EditorMetrics}, on a clock of their own.
+ */
+public class EditorMetricsTest {
+
+    @Test
+    public void nothingIsRecordedWhenDisabled() {
+        TestMetrics metrics = new TestMetrics();
+        long started = metrics.begin(EditorMetrics.TEXT_CHANGED);
+        assertEquals(0, started);
+        metrics.end(EditorMetrics.TEXT_CHANGED, started, 10);
+        assertEquals(0, metrics.getStats(EditorMetrics.TEXT_CHANGED).getCount());
+        assertEquals("{\"traceEvents\":[]}", metrics.toTraceJson());
+    }
+
+    @Test
+    public void operationsAreCountedByKind() {
+        TestMetrics metrics = new TestMetrics();
+        metrics.setEnabled(true);
+        for (int i = 0; i < 10; i++) {
+            long started = metrics.begin(EditorMetrics.TEXT_CHANGED);
+            metrics.clock += 100000 * (i + 1);
+            metrics.end(EditorMetrics.TEXT_CHANGED, started, i);
+        }
+        long started = metrics.begin(EditorMetrics.INDENT);
+        metrics.clock += 20000000;
+        metrics.end(EditorMetrics.INDENT, started, -1);
+
+        EditorMetrics.Stats typing = metrics.getStats(EditorMetrics.TEXT_CHANGED);
+        assertEquals(10, typing.getCount());
+        assertEquals(9, typing.getSpanCount());
+        assertEquals(9, typing.getMaxSpanCount());
+        assertEquals(0, typing.getOverBudget());
+        assertEquals(5500000, typing.getTotalNanos());
+        assertEquals(1000000, typing.getMaxNanos());
+        assertEquals(512000, typing.getPercentileNanos(0.5)); //0.5 ms is in the bucket under 512 us
+        EditorMetrics.Stats indent = metrics.getStats(EditorMetrics.INDENT);
+        assertEquals(1, indent.getCount());
+        assertEquals(1, indent.getOverBudget());
+        assertEquals(20000000, indent.getMaxNanos());
+        assertEquals(32768000, indent.getPercentileNanos(0.5)); //the bucket of 20 ms
+        assertEquals(0, metrics.getStats(EditorMetrics.COLOR).getCount());
+
+        String json = metrics.toJson();
+        assertTrue(json.startsWith("{\"enabled\":true,"));
+        assertTrue(json.contains("\"textChanged\":{\"count\":10,"));
+        assertTrue(json.contains("\"indent\":{\"count\":1,"));
+        metrics.reset();
+        assertEquals(0, metrics.getStats(EditorMetrics.TEXT_CHANGED).getCount());
+    }
+
+    @Test
+    public void histogramBucketsArePowersOfTwoMicroseconds() {
+        assertEquals(0, EditorMetrics.bucketOf(999));
+        assertEquals(1, EditorMetrics.bucketOf(1000));
+        assertEquals(2, EditorMetrics.bucketOf(3999));
+        assertEquals(3, EditorMetrics.bucketOf(4000));
+        assertEquals(EditorMetrics.BUCKETS - 1, EditorMetrics.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void allocatedBytesAreCountedWhenAsked() {
+        TestMetrics metrics = new TestMetrics();
+        metrics.setEnabled(true);
+        long started = metrics.begin(EditorMetrics.BUTTON_PRESS);
+        metrics.allocated += 4096;
+        metrics.end(EditorMetrics.BUTTON_PRESS, started, -1);
+        assertEquals(0, metrics.getStats(EditorMetrics.BUTTON_PRESS).getAllocatedBytes());
+
+        metrics.setAllocationCounting(true);
+        started = metrics.begin(EditorMetrics.BUTTON_PRESS);
+        metrics.allocated += 4096;
+        metrics.end(EditorMetrics.BUTTON_PRESS, started, -1);
+        assertEquals(4096, metrics.getStats(EditorMetrics.BUTTON_PRESS).getAllocatedBytes());
+        assertTrue(metrics.toJson().contains("\"allocatedBytes\":4096"));
+    }
+
+    @Test
+    public void traceKeepsTheLastOperations() {
+        TestMetrics metrics = new TestMetrics();
+        metrics.setEnabled(true);
+        for (int i = 0; i < EditorMetrics.TRACE_CAPACITY + 10; i++) {
+            metrics.end(EditorMetrics.SELECTION_CHANGED, metrics.begin(EditorMetrics.SELECTION_CHANGED), i);
+        }
+        String trace = metrics.toTraceJson();
+        assertFalse(trace.contains("\"spans\":9}"));
+        assertTrue(trace.contains("\"spans\":10}"));
+        assertTrue(trace.contains("\"spans\":" + (EditorMetrics.TRACE_CAPACITY + 9) + "}"));
+        assertEquals(EditorMetrics.TRACE_CAPACITY, trace.split("\"ph\":\"X\"").length - 1);
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws Exception {
+        final TestMetrics metrics = new TestMetrics();
+        metrics.setEnabled(true);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int operation = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        metrics.end(operation, metrics.begin(operation), i);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int t = 0; t < threads.length; t++) {
+            EditorMetrics.Stats stats = metrics.getStats(t);
+            assertEquals(10000, stats.getCount());
+            long histogramTotal = 0;
+            for (long bucket : stats.getHistogram()) {
+                histogramTotal += bucket;
+            }
+            assertEquals(10000, histogramTotal);
+            assertEquals(9999, stats.getMaxSpanCount());
+        }
+    }
+
+    /**
+     * Metrics on a clock set by the test, without watching the frames of a UI thread
+     */
+    private static class TestMetrics extends EditorMetrics {
+        volatile long clock = 1000000000;
+        long allocated;
+
+        @Override
+        protected long nanoTime() {
+            return clock;
+        }
+
+        @Override
+        protected long allocatedBytes() {
+            return allocated;
+        }
+
+        @Override
+        protected void watchFrames() {
+            //No UI thread
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static com.artifexiumgames.journal.RichEditText.RandomText.randomText;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FindEngine}, run against {@link HostSpannable}.
+ */
+public class FindEngineTest {
+
+    private static final String ALPHABET = "aAb ";
+
+    private FindEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        engine = new FindEngine();
+    }
+
+    @Test
+    public void findsOverlappingMatchesIgnoringCase() throws Exception {
+        HostSpannable text = new HostSpannable("Banana BANANA ban\u00c1na");
+        engine.setQuery(text, "ANA");
+        while (!engine.scan(text, 3)) {
+            //a few positions at a time
+        }
+        assertArrayEquals(new int[]{1, 3, 8, 10}, matches(engine));
+
+        engine.setQuery(text, "\u00e1na");
+        engine.scan(text, Integer.MAX_VALUE);
+        assertArrayEquals(new int[]{17}, matches(engine));
+        assertEquals(1, engine.indexOfMatch(18));
+    }
+
+    @Test
+    public void extendingTheQueryChecksTheMatchesAgain() throws Exception {
+        HostSpannable text = new HostSpannable("aaab aab ab aaab");
+        engine.setQuery(text, "a");
+        engine.scan(text, 9); //part of the text only
+        engine.setQuery(text, "aa");
+        engine.setQuery(text, "aab");
+        engine.scan(text, Integer.MAX_VALUE);
+        assertArrayEquals(fullScan(text, "aab"), matches(engine));
+
+        engine.setQuery(text, "ab"); //shorter, so searched again
+        engine.scan(text, Integer.MAX_VALUE);
+        assertArrayEquals(new int[]{2, 6, 9, 14}, matches(engine));
+    }
+
+    @Test
+    public void editsKeepTheMatches() throws Exception {
+        Random random = new Random(11);
+        HostSpannable text = new HostSpannable(randomText(random, 300, ALPHABET));
+        text.setSpan(new EngineWatcher(), 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        for (String query : new String[]{"a", "ab", "aBa", "b a"}) {
+            engine.setQuery(text, query);
+            for (int edit = 0; edit < 200; edit++) {
+                engine.scan(text, random.nextInt(4) == 0 ? 20 : Integer.MAX_VALUE);
+                int start = random.nextInt(text.length() + 1);
+                int end = Math.min(text.length(), start + random.nextInt(6));
+                text.replace(start, end, randomText(random, random.nextInt(6), ALPHABET));
+                engine.scan(text, Integer.MAX_VALUE);
+                assertArrayEquals(query + " after edit " + edit, fullScan(text, query), matches(engine));
+            }
+        }
+    }
+
+    @Test
+    public void replaceAllIsOneEditKeepingStyles() throws Exception {
+        HostSpannable text = new HostSpannable("The cat sat. The CAT ran, the cat");
+        Object bold = new HostSpans.Bold();
+        Object italic = new HostSpans.Italic();
+        Object color = new HostSpans.ForegroundColor(1);
+        Object before = new HostSpans.Underline();
+        text.setSpan(before, 0, 4, Spanned.SPAN_EXCLUSIVE_INCLUSIVE); //"The ", grows over text inserted at its end
+        text.setSpan(bold, 4, 11, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);  //"cat sat"
+        text.setSpan(italic, 17, 20, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //"CAT"
+        text.setSpan(color, 6, 24, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //"t sat. The CAT ran"
+        CountingWatcher watcher = new CountingWatcher();
+        text.setSpan(watcher, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+
+        engine.setQuery(text, "cat");
+        assertEquals(3, engine.replaceAll(text, "kitten"));
+        assertEquals("The kitten sat. The kitten ran, the kitten", text.toString());
+        assertEquals(1, watcher.changes);
+        assertEquals(0, text.getSpanStart(before));
+        assertEquals(4, text.getSpanEnd(before));
+        assertEquals("kitten sat", span(text, bold));
+        assertEquals("kitten", span(text, italic));
+        assertEquals("tten sat. The kitten ran", span(text, color)); //starts two letters into the first match
+
+        engine.setQuery(text, "kitten");
+        assertEquals(3, engine.replaceAll(text, ""));
+        assertEquals("The  sat. The  ran, the ", text.toString());
+        assertEquals(-1, text.getSpanStart(italic)); //nothing left to style
+        assertEquals(" sat", span(text, bold));
+    }
+
+    @Test
+    public void replaceAllMovesTheRunsOfAStyledText() throws Exception {
+        PieceTableEditable text = new PieceTableEditable("The cat sat. The CAT ran, the cat", HostSpans.TYPES);
+        text.applyStyle(4, 11, RichTextCodec.TYPE_BOLD, 0);    //"cat sat"
+        text.applyStyle(17, 20, RichTextCodec.TYPE_ITALIC, 0); //"CAT"
+        text.applyStyle(6, 24, RichTextCodec.TYPE_FOREGROUND_COLOR, 1); //"t sat. The CAT ran"
+
+        engine.setQuery(text, "cat");
+        assertEquals(3, engine.replaceAll(text, "kitten"));
+        assertEquals("The kitten sat. The kitten ran, the kitten", text.toString());
+        assertEquals("kitten sat", stretch(text, RichTextCodec.TYPE_BOLD, 4));
+        assertEquals("kitten", stretch(text, RichTextCodec.TYPE_ITALIC, 20));
+        assertEquals("tten sat. The kitten ran", stretch(text, RichTextCodec.TYPE_FOREGROUND_COLOR, 10));
+        assertEquals(-1, text.getStyleRuns().findStyle(RichTextCodec.TYPE_BOLD, 36, text.length()));
+    }
+
+    private static String stretch(PieceTableEditable text, int type, int position) {
+        StyleRunTable styles = text.getStyleRuns();
+        int run = styles.findRun(position);
+        return text.subSequence(styles.getStretchStart(run, type), styles.getStretchEnd(run, type)).toString();
+    }
+
+    private static String span(Spanned text, Object span) {
+        return text.subSequence(text.getSpanStart(span), text.getSpanEnd(span)).toString();
+    }
+
+    private static int[] matches(FindEngine engine) {
+        int[] matches = new int[engine.getMatchCount()];
+        for (int i = 0; i < matches.length; i++) {
+            matches[i] = engine.getMatch(i);
+        }
+        return matches;
+    }
+
+    private static int[] fullScan(CharSequence text, String query) {
+        FindEngine fresh = new FindEngine();
+        fresh.setQuery(text, query);
+        fresh.scan(text, Integer.MAX_VALUE);
+        return matches(fresh);
+    }
+
+    private class EngineWatcher implements TextWatcher {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            engine.onTextChanged(s, start, before, count);
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+        }
+    }
+
+    private static class CountingWatcher implements TextWatcher {
+        int changes;
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            changes++;
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+        }
+    }
+}
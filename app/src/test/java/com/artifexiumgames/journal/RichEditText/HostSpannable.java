@@ -0,0 +1,404 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.InputFilter;
+import android.text.NoCopySpan;
+import android.text.SpanWatcher;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A host-side stand-in for {@link android.text.SpannableStringBuilder}, as the Android classes
+ * cannot be used in local unit tests.
+ * <p>
+ *  Follows the parts of the SpannableStringBuilder contract the editor relies on:
+ *  <ul>
+ *      <li>{@link #getSpans(int, int, Class)} matches spans the same way, including for empty ranges, and
+ *      returns them in the order they were set</li>
+ *      <li>span ends move according to their POINT/MARK/PARAGRAPH flags when text is replaced, and
+ *      {@link Spanned#SPAN_EXCLUSIVE_EXCLUSIVE} spans within a replaced range are removed, as the
+ *      platform's {@code change} and {@code updatedIntervalBound} do, with the gap at the replaced range</li>
+ *      <li>an empty {@link Spanned#SPAN_EXCLUSIVE_EXCLUSIVE} span is not set</li>
+ *      <li>{@link TextWatcher}s and {@link SpanWatcher}s attached as spans are notified in the same order,
+ *      those of a higher {@link Spanned#SPAN_PRIORITY} first</li>
+ *  </ul>
+ *  {@link #getSpanStart(Object)} and {@link #getSpanEnd(Object)} cost O(1), everything else is linear.
+ * </p>
+ */
+public class HostSpannable implements Editable {
+
+    /**
+     * Makes HostSpannables where the editor would make SpannableStringBuilders
+     */
+    public static final Editable.Factory FACTORY = new Editable.Factory() {
+        @Override
+        public Editable newEditable(CharSequence source) {
+            return new HostSpannable(source);
+        }
+    };
+
+    private final StringBuilder text;
+    private final ArrayList<Object> spans = new ArrayList<>();
+    private final ArrayList<int[]> ranges = new ArrayList<>(); //{start, end, flags}
+    private final Map<Object, Integer> slots = new IdentityHashMap<>();
+    private final ArrayList<Object> watcherSpans = new ArrayList<>();
+    private InputFilter[] filters = new InputFilter[0];
+
+    public HostSpannable() {
+        this("");
+    }
+
+    public HostSpannable(CharSequence source) {
+        text = new StringBuilder(source.length());
+        text.append(source);
+        if (source instanceof Spanned) {
+            copySpans((Spanned) source, 0, source.length(), 0, false);
+        }
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        return text.charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        HostSpannable sub = new HostSpannable(text.substring(start, end));
+        sub.copySpans(this, start, end, -start, false);
+        return sub;
+    }
+
+    @Override
+    public String toString() {
+        return text.toString();
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dest, int destoff) {
+        text.getChars(start, end, dest, destoff);
+    }
+
+    @Override
+    public void setSpan(Object what, int start, int end, int flags) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("setSpan (" + start + " ... " + end + ") of length " + length());
+        }
+        if ((flags & Spanned.SPAN_POINT_MARK_MASK) == Spanned.SPAN_EXCLUSIVE_EXCLUSIVE && start == end) {
+            return; //SpannableStringBuilder logs and ignores an empty EXCLUSIVE_EXCLUSIVE span
+        }
+        Integer slot = slots.get(what);
+        if (slot != null) {
+            int[] range = ranges.get(slot);
+            int oldStart = range[0];
+            int oldEnd = range[1];
+            range[0] = start;
+            range[1] = end;
+            range[2] = flags;
+            if (oldStart != start || oldEnd != end) {
+                for (SpanWatcher watcher : watchers(SpanWatcher.class)) {
+                    watcher.onSpanChanged(this, what, oldStart, oldEnd, start, end);
+                }
+            }
+            return;
+        }
+        slots.put(what, spans.size());
+        spans.add(what);
+        ranges.add(new int[]{start, end, flags});
+        if (what instanceof SpanWatcher || what instanceof TextWatcher) {
+            watcherSpans.add(what);
+        }
+        for (SpanWatcher watcher : watchers(SpanWatcher.class)) {
+            watcher.onSpanAdded(this, what, start, end);
+        }
+    }
+
+    @Override
+    public void removeSpan(Object what) {
+        Integer slot = slots.remove(what);
+        if (slot == null) {
+            return;
+        }
+        int[] range = ranges.remove((int) slot);
+        spans.remove((int) slot);
+        for (int i = slot; i < spans.size(); i++) {
+            slots.put(spans.get(i), i); //kept in the order they were set
+        }
+        watcherSpans.remove(what);
+        for (SpanWatcher watcher : watchers(SpanWatcher.class)) {
+            watcher.onSpanRemoved(this, what, range[0], range[1]);
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T[] getSpans(int queryStart, int queryEnd, Class<T> kind) {
+        List<T> found = new ArrayList<>();
+        for (int i = 0; i < spans.size(); i++) {
+            Object span = spans.get(i);
+            if (kind != null && !kind.isInstance(span)) {
+                continue;
+            }
+            int start = ranges.get(i)[0];
+            int end = ranges.get(i)[1];
+            if (start > queryEnd || end < queryStart) {
+                continue;
+            }
+            if (start != end && queryStart != queryEnd && (start == queryEnd || end == queryStart)) {
+                continue;
+            }
+            found.add((T) span);
+        }
+        return found.toArray((T[]) Array.newInstance(kind == null ? Object.class : kind, found.size()));
+    }
+
+    @Override
+    public int getSpanStart(Object tag) {
+        Integer slot = slots.get(tag);
+        return slot == null ? -1 : ranges.get(slot)[0];
+    }
+
+    @Override
+    public int getSpanEnd(Object tag) {
+        Integer slot = slots.get(tag);
+        return slot == null ? -1 : ranges.get(slot)[1];
+    }
+
+    @Override
+    public int getSpanFlags(Object tag) {
+        Integer slot = slots.get(tag);
+        return slot == null ? 0 : ranges.get(slot)[2];
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public int nextSpanTransition(int start, int limit, Class kind) {
+        for (int i = 0; i < spans.size(); i++) {
+            if (kind != null && !kind.isInstance(spans.get(i))) {
+                continue;
+            }
+            int[] range = ranges.get(i);
+            if (range[0] > start && range[0] < limit) {
+                limit = range[0];
+            }
+            if (range[1] > start && range[1] < limit) {
+                limit = range[1];
+            }
+        }
+        return limit;
+    }
+
+    @Override
+    public Editable replace(int st, int en, CharSequence source, int start, int end) {
+        int before = en - st;
+        int after = end - start;
+        List<TextWatcher> textWatchers = watchers(TextWatcher.class);
+        for (TextWatcher watcher : textWatchers) {
+            watcher.beforeTextChanged(this, st, before, after);
+        }
+
+        boolean atEnd = en == text.length();
+        List<Object> moved = new ArrayList<>();
+        List<int[]> movedFrom = new ArrayList<>();
+        for (int i = spans.size() - 1; i >= 0; i--) {
+            int[] range = ranges.get(i);
+            int oldStart = range[0];
+            int oldEnd = range[1];
+            int flags = range[2];
+            int spanStart = oldStart;
+            int spanEnd = oldEnd;
+            if ((flags & Spanned.SPAN_PARAGRAPH) == Spanned.SPAN_PARAGRAPH) {
+                spanStart = nextParagraph(spanStart, st, en);
+                spanEnd = nextParagraph(spanEnd, st, en);
+            }
+            boolean startBehind = isBehindGap(spanStart, flags >> 4 & 0x3, en, atEnd);
+            boolean endBehind = isBehindGap(spanEnd, flags & 0x3, en, atEnd);
+            Object span = spans.get(i);
+            if (before > 0 && (flags & Spanned.SPAN_EXCLUSIVE_EXCLUSIVE) == Spanned.SPAN_EXCLUSIVE_EXCLUSIVE
+                    && spanStart >= st && !startBehind && spanEnd >= st && !endBehind
+                    && (after == 0 || spanStart > st || spanEnd < en)) {
+                removeSpan(span);
+                continue;
+            }
+            range[0] = updatedBound(spanStart, startBehind, flags >> 4 & 0x3, st, en, after, atEnd);
+            range[1] = updatedBound(spanEnd, endBehind, flags & 0x3, st, en, after, atEnd);
+            if (oldStart != range[0] || oldEnd != range[1]) {
+                moved.add(span);
+                movedFrom.add(new int[]{oldStart, oldEnd});
+            }
+        }
+        text.replace(st, en, source.subSequence(start, end).toString());
+        if (source instanceof Spanned) {
+            copySpans((Spanned) source, start, end, st - start, true);
+        }
+
+        for (TextWatcher watcher : textWatchers) {
+            watcher.onTextChanged(this, st, before, after);
+        }
+        for (TextWatcher watcher : textWatchers) {
+            watcher.afterTextChanged(this);
+        }
+        for (SpanWatcher watcher : watchers(SpanWatcher.class)) {
+            for (int i = 0; i < moved.size(); i++) {
+                Object span = moved.get(i);
+                if (span != watcher && slots.containsKey(span)) {
+                    watcher.onSpanChanged(this, span, movedFrom.get(i)[0], movedFrom.get(i)[1], getSpanStart(span), getSpanEnd(span));
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return where an end of a paragraph span within {@code (st, en]} goes before the text is replaced: to
+     * the first paragraph boundary after {@code en}
+     */
+    private int nextParagraph(int position, int st, int en) {
+        if (position <= st || position > en) {
+            return position;
+        }
+        for (position = en; position < text.length(); position++) {
+            if (position > en && text.charAt(position - 1) == '\n') {
+                break;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @return true if a span end is after the gap once it is moved to {@code en}: past it, or at it and a
+     * POINT, or a PARAGRAPH at the end of the text
+     */
+    private static boolean isBehindGap(int position, int flag, int en, boolean atEnd) {
+        return position > en || (position == en && (flag == 2 || (flag == 3 && atEnd)));
+    }
+
+    /**
+     * @return where a span end is once {@code [st, en)} is replaced by {@code inserted} characters
+     */
+    private static int updatedBound(int position, boolean behindGap, int flag, int st, int en, int inserted, boolean atEnd) {
+        if (behindGap) {
+            return position + inserted - (en - st);
+        }
+        if (st == en || position < st) {
+            return position;
+        }
+        boolean textIsRemoved = inserted == 0;
+        if (flag == 2) {
+            return textIsRemoved || position > st ? st + inserted : position;
+        }
+        if (flag == 3) {
+            return atEnd ? st + inserted : position;
+        }
+        return textIsRemoved || position < en ? st : st + inserted;
+    }
+
+    private void copySpans(Spanned source, int start, int end, int offset, boolean notify) {
+        for (Object span : source.getSpans(start, end, Object.class)) {
+            if (span instanceof NoCopySpan) {
+                continue;
+            }
+            int spanStart = Math.max(start, source.getSpanStart(span)) + offset;
+            int spanEnd = Math.min(end, source.getSpanEnd(span)) + offset;
+            if (notify) {
+                setSpan(span, spanStart, spanEnd, source.getSpanFlags(span));
+            } else {
+                slots.put(span, spans.size());
+                spans.add(span);
+                ranges.add(new int[]{spanStart, spanEnd, source.getSpanFlags(span)});
+                if (span instanceof SpanWatcher || span instanceof TextWatcher) {
+                    watcherSpans.add(span);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the watchers of {@code kind}, those of a higher {@link Spanned#SPAN_PRIORITY} first, then in
+     * the order they were set
+     */
+    private <T> List<T> watchers(Class<T> kind) {
+        List<T> watchers = new ArrayList<>();
+        List<Integer> priorities = new ArrayList<>();
+        for (Object span : watcherSpans) {
+            if (kind.isInstance(span)) {
+                int priority = getSpanFlags(span) & Spanned.SPAN_PRIORITY;
+                int at = watchers.size();
+                while (at > 0 && priorities.get(at - 1) < priority) {
+                    at--;
+                }
+                watchers.add(at, kind.cast(span));
+                priorities.add(at, priority);
+            }
+        }
+        return watchers;
+    }
+
+    @Override
+    public Editable replace(int st, int en, CharSequence text) {
+        return replace(st, en, text, 0, text.length());
+    }
+
+    @Override
+    public Editable insert(int where, CharSequence text, int start, int end) {
+        return replace(where, where, text, start, end);
+    }
+
+    @Override
+    public Editable insert(int where, CharSequence text) {
+        return replace(where, where, text, 0, text.length());
+    }
+
+    @Override
+    public Editable delete(int st, int en) {
+        return replace(st, en, "", 0, 0);
+    }
+
+    @Override
+    public Editable append(CharSequence text) {
+        return replace(length(), length(), text, 0, text.length());
+    }
+
+    @Override
+    public Editable append(CharSequence text, int start, int end) {
+        return replace(length(), length(), text, start, end);
+    }
+
+    @Override
+    public Editable append(char text) {
+        return append(String.valueOf(text));
+    }
+
+    @Override
+    public void clear() {
+        replace(0, length(), "", 0, 0);
+    }
+
+    @Override
+    public void clearSpans() {
+        for (Object span : new ArrayList<>(spans)) {
+            removeSpan(span);
+        }
+    }
+
+    @Override
+    public void setFilters(InputFilter[] filters) {
+        this.filters = filters;
+    }
+
+    @Override
+    public InputFilter[] getFilters() {
+        return filters;
+    }
+}
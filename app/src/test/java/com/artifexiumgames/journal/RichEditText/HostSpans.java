@@ -0,0 +1,307 @@
+package com.artifexiumgames.journal.RichEditText;
+
+/**
+ * Host-side stand-ins for the spans of {@link RichEditText} and their {@link SpanFactory}s, as the
+ * Android span classes cannot be instantiated in local unit tests or benchmarks.
+ */
+public final class HostSpans {
+
+    public static class Bold {}
+    public static class Italic {}
+    public static class Underline {}
+    public static class Strikethrough {}
+
+    public static class ForegroundColor {
+        public final int color;
+
+        public ForegroundColor(int color) {
+            this.color = color;
+        }
+    }
+
+    public static class BackgroundColor {
+        public final int color;
+
+        public BackgroundColor(int color) {
+            this.color = color;
+        }
+    }
+
+    public static class Subscript {}
+    public static class Superscript {}
+
+    public static class RelativeSize {
+        public final float size;
+
+        public RelativeSize(float size) {
+            this.size = size;
+        }
+    }
+
+    /**
+     * The stand-in for {@link StyleRunSpan}
+     */
+    public static class Run implements StyleRunTable.RunSpan {
+        public final long style;
+        public final long colors;
+        public final Object version;
+        public final int runStart;
+        public final int runEnd;
+
+        public Run(long style, long colors) {
+            this(style, colors, null, 0, 0);
+        }
+
+        public Run(long style, long colors, Object version, int runStart, int runEnd) {
+            this.style = style;
+            this.colors = colors;
+            this.version = version;
+            this.runStart = runStart;
+            this.runEnd = runEnd;
+        }
+
+        @Override
+        public long getStyle() {
+            return style;
+        }
+
+        @Override
+        public long getColors() {
+            return colors;
+        }
+
+        @Override
+        public Object getVersion() {
+            return version;
+        }
+
+        @Override
+        public int getRunStart() {
+            return runStart;
+        }
+
+        @Override
+        public int getRunEnd() {
+            return runEnd;
+        }
+    }
+
+    public static final Class<?>[] TRACKED_CLASSES = {
+            Bold.class, Italic.class, Underline.class, Strikethrough.class, ForegroundColor.class, BackgroundColor.class
+    };
+
+    public static final SpanFactory<Bold> BOLD = new SimpleFactory<Bold>(Bold.class, RichTextCodec.TYPE_BOLD) {
+        @Override
+        public Bold newSpan() {
+            return new Bold();
+        }
+    };
+
+    public static final SpanFactory<Italic> ITALIC = new SimpleFactory<Italic>(Italic.class, RichTextCodec.TYPE_ITALIC) {
+        @Override
+        public Italic newSpan() {
+            return new Italic();
+        }
+    };
+
+    public static final SpanFactory<Underline> UNDERLINE = new SimpleFactory<Underline>(Underline.class, RichTextCodec.TYPE_UNDERLINE) {
+        @Override
+        public Underline newSpan() {
+            return new Underline();
+        }
+    };
+
+    public static final SpanFactory<Strikethrough> STRIKETHROUGH = new SimpleFactory<Strikethrough>(Strikethrough.class, RichTextCodec.TYPE_STRIKETHROUGH) {
+        @Override
+        public Strikethrough newSpan() {
+            return new Strikethrough();
+        }
+    };
+
+    /**
+     * The type ids of the stand-ins, the same as those of {@link RichEditSpanTypes}
+     */
+    public static final RichTextCodec.SpanTypes TYPES = new RichTextCodec.SpanTypes() {
+        @Override
+        public int typeOf(Object span) {
+            Class<?> c = span.getClass();
+            if (c == Bold.class) {
+                return RichTextCodec.TYPE_BOLD;
+            } else if (c == Italic.class) {
+                return RichTextCodec.TYPE_ITALIC;
+            } else if (c == Underline.class) {
+                return RichTextCodec.TYPE_UNDERLINE;
+            } else if (c == Strikethrough.class) {
+                return RichTextCodec.TYPE_STRIKETHROUGH;
+            } else if (c == ForegroundColor.class) {
+                return RichTextCodec.TYPE_FOREGROUND_COLOR;
+            } else if (c == BackgroundColor.class) {
+                return RichTextCodec.TYPE_BACKGROUND_COLOR;
+            } else if (c == Subscript.class) {
+                return RichTextCodec.TYPE_SUBSCRIPT;
+            } else if (c == Superscript.class) {
+                return RichTextCodec.TYPE_SUPERSCRIPT;
+            } else if (c == RelativeSize.class) {
+                return RichTextCodec.TYPE_RELATIVE_SIZE;
+            }
+            return -1;
+        }
+
+        @Override
+        public boolean hasAttribute(int type) {
+            return type == RichTextCodec.TYPE_FOREGROUND_COLOR || type == RichTextCodec.TYPE_BACKGROUND_COLOR
+                    || type == RichTextCodec.TYPE_RELATIVE_SIZE;
+        }
+
+        @Override
+        public int attributeOf(Object span) {
+            if (span instanceof ForegroundColor) {
+                return ((ForegroundColor) span).color;
+            } else if (span instanceof BackgroundColor) {
+                return ((BackgroundColor) span).color;
+            } else if (span instanceof RelativeSize) {
+                return Float.floatToIntBits(((RelativeSize) span).size);
+            }
+            return 0;
+        }
+
+        @Override
+        public Object newSpan(int type, int attribute) {
+            switch (type) {
+                case RichTextCodec.TYPE_BOLD:
+                    return new Bold();
+                case RichTextCodec.TYPE_ITALIC:
+                    return new Italic();
+                case RichTextCodec.TYPE_UNDERLINE:
+                    return new Underline();
+                case RichTextCodec.TYPE_STRIKETHROUGH:
+                    return new Strikethrough();
+                case RichTextCodec.TYPE_FOREGROUND_COLOR:
+                    return new ForegroundColor(attribute);
+                case RichTextCodec.TYPE_BACKGROUND_COLOR:
+                    return new BackgroundColor(attribute);
+                case RichTextCodec.TYPE_SUBSCRIPT:
+                    return new Subscript();
+                case RichTextCodec.TYPE_SUPERSCRIPT:
+                    return new Superscript();
+                case RichTextCodec.TYPE_RELATIVE_SIZE:
+                    return new RelativeSize(Float.intBitsToFloat(attribute));
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public StyleRunTable.RunSpan newRunSpan(long style, long colors, Object version, int start, int end) {
+            return new Run(style, colors, version, start, end);
+        }
+    };
+
+    private HostSpans() {
+        //Static stand-ins only
+    }
+
+    public static SpanFactory<ForegroundColor> foregroundColor(final int color) {
+        return new SpanFactory<ForegroundColor>() {
+            @Override
+            public Class<ForegroundColor> getSpanClass() {
+                return ForegroundColor.class;
+            }
+
+            @Override
+            public int getType() {
+                return RichTextCodec.TYPE_FOREGROUND_COLOR;
+            }
+
+            @Override
+            public int getAttribute() {
+                return color;
+            }
+
+            @Override
+            public ForegroundColor newSpan() {
+                return new ForegroundColor(color);
+            }
+
+            @Override
+            public ForegroundColor newSpanLike(ForegroundColor span) {
+                return new ForegroundColor(span.color);
+            }
+
+            @Override
+            public boolean isSameStyle(Object span) {
+                return span instanceof ForegroundColor && ((ForegroundColor) span).color == color;
+            }
+        };
+    }
+
+    public static SpanFactory<BackgroundColor> backgroundColor(final int color) {
+        return new SpanFactory<BackgroundColor>() {
+            @Override
+            public Class<BackgroundColor> getSpanClass() {
+                return BackgroundColor.class;
+            }
+
+            @Override
+            public int getType() {
+                return RichTextCodec.TYPE_BACKGROUND_COLOR;
+            }
+
+            @Override
+            public int getAttribute() {
+                return color;
+            }
+
+            @Override
+            public BackgroundColor newSpan() {
+                return new BackgroundColor(color);
+            }
+
+            @Override
+            public BackgroundColor newSpanLike(BackgroundColor span) {
+                return new BackgroundColor(span.color);
+            }
+
+            @Override
+            public boolean isSameStyle(Object span) {
+                return span instanceof BackgroundColor && ((BackgroundColor) span).color == color;
+            }
+        };
+    }
+
+    abstract static class SimpleFactory<T> implements SpanFactory<T> {
+
+        private final Class<T> spanClass;
+        private final int type;
+
+        SimpleFactory(Class<T> spanClass, int type) {
+            this.spanClass = spanClass;
+            this.type = type;
+        }
+
+        @Override
+        public Class<T> getSpanClass() {
+            return spanClass;
+        }
+
+        @Override
+        public int getType() {
+            return type;
+        }
+
+        @Override
+        public int getAttribute() {
+            return 0;
+        }
+
+        @Override
+        public T newSpanLike(T span) {
+            return newSpan();
+        }
+
+        @Override
+        public boolean isSameStyle(Object span) {
+            return span != null && span.getClass() == spanClass;
+        }
+    }
+}
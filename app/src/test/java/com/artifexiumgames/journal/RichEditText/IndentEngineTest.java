@@ -0,0 +1,68 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Spanned;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link IndentEngine}, run against {@link HostSpannable}.
+ */
+public class IndentEngineTest {
+
+    private static final String LINES = "first line\nsecond line\n  third line\nfourth line";
+
+    private HostSpannable text;
+    private IndentEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        text = new HostSpannable(LINES);
+        engine = new IndentEngine();
+    }
+
+    @Test
+    public void cursorInsertsTab() throws Exception {
+        assertEquals(4, engine.indent(text, 6, 6, 4));
+        assertEquals("first     line", text.toString().substring(0, 14));
+        assertEquals(4, engine.unindent(text, 10, 10, 4));
+        assertEquals(LINES, text.toString());
+        assertEquals(0, engine.unindent(text, 3, 3, 4));
+    }
+
+    @Test
+    public void selectionIndentsEveryLineItTouches() throws Exception {
+        assertEquals(8, engine.indent(text, 3, 14, 4)); //"st line\nsec"
+        assertEquals("    first line\n    second line\n  third line\nfourth line", text.toString());
+    }
+
+    @Test
+    public void selectionEndingAtLineStartSkipsThatLine() throws Exception {
+        engine.indent(text, 11, 23, 2); //"second line\n"
+        assertEquals("first line\n  second line\n  third line\nfourth line", text.toString());
+    }
+
+    @Test
+    public void unindentRemovesUpToATab() throws Exception {
+        text.insert(0, "      ");
+        assertEquals(6, engine.unindent(text, 0, text.length(), 4));
+        assertEquals("  first line\nsecond line\nthird line\nfourth line", text.toString());
+    }
+
+    @Test
+    public void spansAreKept() throws Exception {
+        Object second = new Object();
+        Object across = new Object();
+        text.setSpan(second, 11, 17, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //"second"
+        text.setSpan(across, 6, 17, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);  //"line\nsecond"
+        engine.indent(text, 0, text.length(), 4);
+        assertEquals("second", text.subSequence(text.getSpanStart(second), text.getSpanEnd(second)).toString());
+        assertEquals(10, text.getSpanStart(across));
+        engine.unindent(text, 0, text.length(), 4);
+        assertEquals(LINES, text.toString());
+        assertEquals(11, text.getSpanStart(second));
+        assertEquals(17, text.getSpanEnd(second));
+    }
+}
@@ -0,0 +1,116 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.Spanned;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link InputStyler}: a saved entry, loaded as the editor loads it, keeps its colors,
+ * and text typed after it is styled.
+ */
+public class InputStylerTest {
+
+    private static final int FLAGS = Spanned.SPAN_EXCLUSIVE_EXCLUSIVE;
+    private static final int RED = 0xFFFF0000;
+    private static final int BLUE = 0xFF0000FF;
+    private static final int BLACK = 0xFF000000;
+    private static final int WHITE = 0xFFFFFFFF;
+
+    private final InputStyler styler = new InputStyler(new SpanRunEngine(),
+            HostSpans.BOLD, HostSpans.ITALIC, HostSpans.UNDERLINE, HostSpans.STRIKETHROUGH);
+
+    @Test
+    public void loadedEntryKeepsItsColors() throws Exception {
+        HostSpannable saved = new HostSpannable("red text, blue text and a highlight");
+        saved.setSpan(new HostSpans.ForegroundColor(RED), 0, 8, FLAGS);
+        saved.setSpan(new HostSpans.ForegroundColor(BLUE), 10, 19, FLAGS);
+        saved.setSpan(new HostSpans.BackgroundColor(RED), 26, 35, FLAGS);
+        RichTextCodec codec = new RichTextCodec(HostSpans.TYPES);
+        Editable text = codec.decode(codec.encode(saved), PieceTableEditable.FACTORY);
+        List<String> decoded = describe(text);
+
+        //As RichEditText.setText: the new text is changed from nothing to all of it, while loading
+        styler.beginLoad();
+        try {
+            assertFalse(load(text));
+        } finally {
+            styler.endLoad();
+        }
+        assertEquals(decoded, describe(text));
+        assertEquals("[4 " + RED + " 0 8, 4 " + BLUE + " 10 19, 5 " + RED + " 26 35]", decoded.toString());
+
+        //Typed text is styled again once the load is over
+        text.insert(text.length(), "!");
+        assertTrue(style(text, text.length() - 1, 1));
+        assertEquals(1, text.getSpans(0, text.length(), HostSpans.Bold.class).length);
+        HostSpans.ForegroundColor[] colors = text.getSpans(text.length() - 1, text.length(), HostSpans.ForegroundColor.class);
+        assertEquals(1, colors.length);
+        assertEquals(BLACK, colors[0].color);
+        assertEquals(text.length() - 1, text.getSpanStart(colors[0]));
+        assertEquals(describe(text).subList(0, 3), decoded);
+    }
+
+    @Test
+    public void loadWithoutTheGuardWouldHideTheColors() throws Exception {
+        Editable text = PieceTableEditable.FACTORY.newEditable("red");
+        text.setSpan(new HostSpans.ForegroundColor(RED), 0, 3, FLAGS);
+        assertTrue(load(text));
+        HostSpans.ForegroundColor[] colors = text.getSpans(0, 3, HostSpans.ForegroundColor.class);
+        assertEquals(2, colors.length);
+        assertEquals(BLACK, colors[1].color); //set last, so drawn over red
+    }
+
+    @Test
+    public void typedTextOfAStyledTextIsStyledOnItsRuns() throws Exception {
+        HostSpannable saved = new HostSpannable("red text");
+        saved.setSpan(new HostSpans.ForegroundColor(RED), 0, 8, FLAGS);
+        RichTextCodec codec = new RichTextCodec(HostSpans.TYPES);
+        PieceTableEditable text = (PieceTableEditable) codec.decode(codec.encode(saved), PieceTableEditable.factory(HostSpans.TYPES));
+        styler.beginLoad();
+        try {
+            assertFalse(load(text));
+        } finally {
+            styler.endLoad();
+        }
+
+        text.insert(text.length(), "!");
+        assertTrue(style(text, text.length() - 1, 1));
+        StyleRunTable styles = text.getStyleRuns();
+        assertEquals(2, styles.getRunCount());
+        assertEquals(RED, StyleRunTable.foregroundOf(styles.getColors(0)));
+        assertEquals(StyleRunTable.styleOf(RichTextCodec.TYPE_BOLD, 0) | StyleRunTable.styleOf(RichTextCodec.TYPE_FOREGROUND_COLOR, BLACK),
+                styles.getStyle(1));
+        assertEquals(BLACK, StyleRunTable.foregroundOf(styles.getColors(1)));
+        assertEquals(2, text.getSpans(0, text.length(), HostSpans.Run.class).length);
+        assertEquals(0, text.getSpans(0, text.length(), HostSpans.Bold.class).length);
+    }
+
+    private boolean load(Editable text) {
+        return style(text, 0, text.length());
+    }
+
+    private boolean style(Editable text, int start, int count) {
+        return styler.onTextChanged(text, start, 0, count, InputStyler.STYLE_BOLD,
+                HostSpans.foregroundColor(BLACK), HostSpans.backgroundColor(WHITE), false);
+    }
+
+    /**
+     * @return the styles of {@code text}: type, attribute and range of every span, in the order they were set
+     */
+    private static List<String> describe(Spanned text) {
+        List<String> spans = new ArrayList<>();
+        for (Object span : text.getSpans(0, text.length(), Object.class)) {
+            int type = HostSpans.TYPES.typeOf(span);
+            if (type >= 0) {
+                spans.add(type + " " + HostSpans.TYPES.attributeOf(span) + " " + text.getSpanStart(span) + " " + text.getSpanEnd(span));
+            }
+        }
+        return spans;
+    }
+}
@@ -0,0 +1,133 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.artifexiumgames.journal.RichEditText.RandomText.randomText;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ParagraphDocument}, checked against the paragraphs counted again after
+ * every edit.
+ */
+public class ParagraphDocumentTest {
+
+    private static final String ALPHABET = "abcdefghijk\n";
+
+    @Test
+    public void blocksAreSplitOnLineBreaks() {
+        PieceTableEditable text = new PieceTableEditable("one\n\ntwo three\n");
+        ParagraphDocument document = new ParagraphDocument();
+        document.attach(text);
+
+        assertEquals(4, document.getBlockCount());
+        assertBlock(document, 0, 0, 3);
+        assertBlock(document, 1, 4, 4);
+        assertBlock(document, 2, 5, 14);
+        assertBlock(document, 3, 15, 15);
+        assertEquals(0, document.blockAt(3)); //the line break is in the block it ends
+        assertEquals(2, document.blockAt(5));
+        assertEquals(3, document.blockAt(15));
+    }
+
+    @Test
+    public void editsTellWhichBlocksChanged() {
+        PieceTableEditable text = new PieceTableEditable("one\ntwo\nthree");
+        ParagraphDocument document = new ParagraphDocument();
+        document.attach(text);
+        final List<String> changes = new ArrayList<>();
+        document.setOnBlocksChangedListener(new ParagraphDocument.OnBlocksChangedListener() {
+            @Override
+            public void onBlockChanged(int block) {
+                changes.add("changed " + block);
+            }
+
+            @Override
+            public void onBlocksReplaced(int first, int removed, int inserted) {
+                changes.add("replaced " + first + " " + removed + " " + inserted);
+            }
+        });
+
+        text.insert(5, "w");
+        text.insert(6, "\n");
+        text.delete(3, 4);
+        text.replace(0, text.length(), "");
+
+        assertEquals("[changed 1, replaced 1 1 2, replaced 0 2 1, replaced 0 3 1]", changes.toString());
+        assertEquals(1, document.getBlockCount());
+        assertBlock(document, 0, 0, 0);
+    }
+
+    @Test
+    public void randomEditsMatchACount() {
+        Random random = new Random(24);
+        PieceTableEditable text = new PieceTableEditable(randomText(random, 3000, ALPHABET));
+        ParagraphDocument document = new ParagraphDocument();
+        document.attach(text);
+
+        for (int step = 0; step < 3000; step++) {
+            int length = text.length();
+            int start = random.nextInt(length + 1);
+            int end = Math.min(length, start + random.nextInt(random.nextInt(20) == 0 ? 300 : 4));
+            String inserted = randomText(random, random.nextInt(20) == 0 ? 200 : random.nextInt(3), ALPHABET);
+            text.replace(start, end, inserted);
+
+            List<int[]> expected = paragraphs(text.toString());
+            assertEquals("Step " + step, expected.size(), document.getBlockCount());
+            for (int i = 0; i < expected.size(); i++) {
+                assertBlock(document, i, expected.get(i)[0], expected.get(i)[1]);
+            }
+            for (int check = 0; check < 5; check++) {
+                int offset = random.nextInt(text.length() + 1);
+                int block = document.blockAt(offset);
+                assertTrue(document.getBlockStart(block) <= offset && offset <= document.getBlockEnd(block));
+            }
+        }
+        document.detach();
+        assertEquals(0, text.getSpans(0, text.length(), ParagraphDocument.class).length);
+    }
+
+    @Test
+    public void breaksAtBothEndsMoveTheGapAcrossEveryBlock() {
+        PieceTableEditable text = new PieceTableEditable("middle");
+        ParagraphDocument document = new ParagraphDocument();
+        document.attach(text);
+
+        for (int step = 0; step < 500; step++) {
+            text.insert(step % 2 == 0 ? 0 : text.length(), step % 3 == 0 ? "a\n" : "\nbc");
+            if (step % 7 == 0) {
+                int middle = text.toString().indexOf("middle");
+                text.replace(middle, middle + 6, "mid\ndle\n");
+                text.replace(middle, middle + 8, "middle");
+            }
+        }
+
+        List<int[]> expected = paragraphs(text.toString());
+        assertEquals(expected.size(), document.getBlockCount());
+        for (int i = 0; i < expected.size(); i++) {
+            assertBlock(document, i, expected.get(i)[0], expected.get(i)[1]);
+            assertEquals(i, document.blockAt(expected.get(i)[0]));
+            assertEquals(i, document.blockAt(expected.get(i)[1]));
+        }
+    }
+
+    private static void assertBlock(ParagraphDocument document, int block, int start, int end) {
+        assertEquals("Start of block " + block, start, document.getBlockStart(block));
+        assertEquals("End of block " + block, end, document.getBlockEnd(block));
+    }
+
+    private static List<int[]> paragraphs(String text) {
+        List<int[]> paragraphs = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= text.length(); i++) {
+            if (i == text.length() || text.charAt(i) == '\n') {
+                paragraphs.add(new int[]{start, i});
+                start = i + 1;
+            }
+        }
+        return paragraphs;
+    }
+}
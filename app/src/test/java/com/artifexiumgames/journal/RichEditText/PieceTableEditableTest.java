@@ -0,0 +1,427 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.SpanWatcher;
+import android.text.Spannable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static com.artifexiumgames.journal.RichEditText.RandomText.randomText;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PieceTableEditable}, checked against {@link HostSpannable}.
+ */
+public class PieceTableEditableTest {
+
+    private static final String ALPHABET = "ab \n";
+
+    private static final int[] FLAGS = {Spanned.SPAN_EXCLUSIVE_EXCLUSIVE, Spanned.SPAN_EXCLUSIVE_INCLUSIVE,
+            Spanned.SPAN_INCLUSIVE_EXCLUSIVE, Spanned.SPAN_INCLUSIVE_INCLUSIVE};
+
+    @Test
+    public void randomEditsMatchHostSpannable() throws Exception {
+        Random random = new Random(5);
+        HostSpannable expected = new HostSpannable(randomText(random, 2000, ALPHABET));
+        PieceTableEditable actual = new PieceTableEditable(expected.toString());
+        List<Tag> tags = new ArrayList<>();
+
+        for (int step = 0; step < 4000; step++) {
+            int length = expected.length();
+            int start = random.nextInt(length + 1);
+            int end = Math.min(length, start + random.nextInt(random.nextInt(10) == 0 ? 500 : 8));
+            int operation = random.nextInt(10);
+            if (operation < 5) {
+                String inserted = randomText(random, random.nextInt(10) == 0 ? 400 : random.nextInt(4), ALPHABET);
+                expected.replace(start, end, inserted);
+                actual.replace(start, end, inserted);
+            } else if (operation < 8 || tags.isEmpty()) {
+                Tag tag = new Tag(step);
+                int flags = FLAGS[random.nextInt(FLAGS.length)];
+                if (random.nextInt(4) == 0) {
+                    //Over whole paragraphs
+                    flags = Spanned.SPAN_PARAGRAPH;
+                    while (start > 0 && expected.charAt(start - 1) != '\n') {
+                        start--;
+                    }
+                    while (end > 0 && end < length && expected.charAt(end - 1) != '\n') {
+                        end++;
+                    }
+                }
+                expected.setSpan(tag, start, end, flags);
+                actual.setSpan(tag, start, end, flags);
+                tags.add(tag);
+            } else if (operation < 9) {
+                Tag tag = tags.get(random.nextInt(tags.size()));
+                expected.setSpan(tag, start, end, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+                actual.setSpan(tag, start, end, Spanned.SPAN_EXCLUSIVE_INCLUSIVE);
+            } else {
+                Tag tag = tags.remove(random.nextInt(tags.size()));
+                expected.removeSpan(tag);
+                actual.removeSpan(tag);
+            }
+
+            String at = "step " + step;
+            assertEquals(at, expected.toString(), actual.toString());
+            for (Tag tag : tags) {
+                assertEquals(at, expected.getSpanStart(tag), actual.getSpanStart(tag));
+                assertEquals(at, expected.getSpanEnd(tag), actual.getSpanEnd(tag));
+                assertEquals(at, expected.getSpanFlags(tag), actual.getSpanFlags(tag));
+            }
+            int queryStart = random.nextInt(expected.length() + 1);
+            int queryEnd = Math.min(expected.length(), queryStart + random.nextInt(50));
+            assertEquals(at, ids(expected.getSpans(queryStart, queryEnd, Tag.class)), ids(actual.getSpans(queryStart, queryEnd, Tag.class)));
+            assertEquals(at, expected.nextSpanTransition(queryStart, expected.length(), Tag.class),
+                    actual.nextSpanTransition(queryStart, actual.length(), Tag.class));
+            assertEquals(at, expected.subSequence(queryStart, queryEnd).toString(), actual.subSequence(queryStart, queryEnd).toString());
+        }
+        for (int i = 0; i < expected.length(); i++) {
+            assertEquals(expected.charAt(i), actual.charAt(i));
+        }
+    }
+
+    @Test
+    public void spanEndsInAReplacedRangeMoveAsInSpannableStringBuilder() throws Exception {
+        String original = "abcello wabcabbcda fabaaabccababco";
+        int[][] spans = {
+                {3, 3, Spanned.SPAN_EXCLUSIVE_INCLUSIVE}, {5, 10, Spanned.SPAN_INCLUSIVE_EXCLUSIVE},
+                {1, 5, Spanned.SPAN_EXCLUSIVE_INCLUSIVE}, {3, 7, Spanned.SPAN_INCLUSIVE_INCLUSIVE},
+                {4, 6, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE}, {3, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE}
+        };
+        //A POINT at the start of the range stays, one within it goes behind the new text, a MARK goes to
+        //its start but at its end; an EXCLUSIVE_EXCLUSIVE span within the range goes, unless it is the range
+        int[][] moved = {{3, 3}, {3, 8}, {1, 5}, {3, 5}, {-1, -1}, {3, 5}};
+        Editable[] texts = {new HostSpannable(original), new PieceTableEditable(original)};
+        for (Editable text : texts) {
+            Tag[] tags = new Tag[spans.length];
+            for (int i = 0; i < spans.length; i++) {
+                tags[i] = new Tag(i);
+                text.setSpan(tags[i], spans[i][0], spans[i][1], spans[i][2]);
+            }
+            text.replace(3, 7, "ab");
+            for (int i = 0; i < spans.length; i++) {
+                String at = text.getClass().getSimpleName() + ", span " + i;
+                assertEquals(at, moved[i][0], text.getSpanStart(tags[i]));
+                assertEquals(at, moved[i][1], text.getSpanEnd(tags[i]));
+            }
+        }
+    }
+
+    @Test
+    public void spansAreReturnedByPriorityThenInOrder() throws Exception {
+        PieceTableEditable text = new PieceTableEditable("some text to span");
+        Tag first = new Tag(1);
+        Tag second = new Tag(2);
+        Tag third = new Tag(3);
+        Tag urgent = new Tag(4);
+        text.setSpan(first, 10, 12, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(second, 0, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(third, 5, 9, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(urgent, 13, 17, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE | (1 << Spanned.SPAN_PRIORITY_SHIFT));
+        text.setSpan(first, 14, 15, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //moved, keeps its place
+        assertArrayEquals(new Tag[]{urgent, first, second, third}, text.getSpans(0, text.length(), Tag.class));
+        assertArrayEquals(new Tag[]{second}, text.getSpans(0, 5, Tag.class)); //third only touches the range
+
+        CharSequence copy = text.subSequence(2, 16);
+        assertEquals("me text to spa", copy.toString());
+        assertEquals(12, ((Spanned) copy).getSpanStart(first));
+        assertEquals(0, ((Spanned) copy).getSpanStart(second));
+    }
+
+    @Test
+    public void copiedSpansKeepTheirOrderAndFollowEdits() throws Exception {
+        Random random = new Random(11);
+        for (int round = 0; round < 40; round++) {
+            //Spans set by start are copied all at once, the others one by one
+            boolean byStart = round % 2 == 0;
+            HostSpannable expected = new HostSpannable(randomText(random, 300, ALPHABET));
+            List<Tag> tags = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i < 60; i++) {
+                start = byStart ? Math.min(expected.length(), start + random.nextInt(8)) : random.nextInt(expected.length() + 1);
+                Tag tag = new Tag(i);
+                expected.setSpan(tag, start, Math.min(expected.length(), start + random.nextInt(40)), FLAGS[random.nextInt(FLAGS.length)]);
+                tags.add(tag);
+            }
+            PieceTableEditable actual = new PieceTableEditable(expected);
+            String at = "round " + round;
+            assertArrayEquals(at, expected.getSpans(0, expected.length(), Tag.class), actual.getSpans(0, actual.length(), Tag.class));
+
+            for (int step = 0; step < 20; step++) {
+                int editStart = random.nextInt(expected.length() + 1);
+                int editEnd = Math.min(expected.length(), editStart + random.nextInt(6));
+                String inserted = randomText(random, random.nextInt(4), ALPHABET);
+                expected.replace(editStart, editEnd, inserted);
+                actual.replace(editStart, editEnd, inserted);
+                for (Tag tag : tags) {
+                    assertEquals(at, expected.getSpanStart(tag), actual.getSpanStart(tag));
+                    assertEquals(at, expected.getSpanEnd(tag), actual.getSpanEnd(tag));
+                }
+                int queryStart = random.nextInt(expected.length() + 1);
+                int queryEnd = Math.min(expected.length(), queryStart + random.nextInt(50));
+                assertEquals(at, ids(expected.getSpans(queryStart, queryEnd, Tag.class)), ids(actual.getSpans(queryStart, queryEnd, Tag.class)));
+            }
+        }
+    }
+
+    @Test
+    public void watchersAreToldAboutEditsAndMovedSpans() throws Exception {
+        PieceTableEditable text = new PieceTableEditable("one two three");
+        Recorder recorder = new Recorder();
+        text.setSpan(recorder, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        Tag two = new Tag(2);
+        Tag three = new Tag(3);
+        text.setSpan(two, 4, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(three, 8, 13, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        recorder.events.clear();
+
+        text.insert(4, "the ");
+        //two started where the text was inserted, three only shifted along
+        assertEquals(Arrays.asList("before 4 0 4", "on 4 0 4", "after", "changed 2 4 7 8 11"), recorder.events);
+
+        recorder.events.clear();
+        text.delete(8, 11);
+        assertEquals("one the  three", text.toString());
+        assertEquals(Arrays.asList("before 8 3 0", "removed 2 8 11", "on 8 3 0", "after"), recorder.events);
+
+        recorder.events.clear();
+        text.replace(9, 14, "four");
+        //three's text replaced as a whole, it spans the new text, as in SpannableStringBuilder
+        assertEquals(Arrays.asList("before 9 5 4", "on 9 5 4", "after", "changed 3 9 14 9 13"), recorder.events);
+
+        recorder.events.clear();
+        Tag four = new Tag(4);
+        text.setSpan(four, 9, 13, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        text.append("s");
+        assertEquals(Arrays.asList("added 4 9 13", "before 13 0 1", "on 13 0 1", "after", "changed 4 9 13 9 14"), recorder.events);
+    }
+
+    @Test
+    public void longEditedTextStaysConsistent() throws Exception {
+        Random random = new Random(8);
+        StringBuilder expected = new StringBuilder(randomText(random, 100000, ALPHABET));
+        PieceTableEditable actual = new PieceTableEditable(expected);
+        for (int step = 0; step < 20000; step++) {
+            int start = random.nextInt(expected.length() + 1);
+            if (random.nextBoolean()) {
+                String typed = randomText(random, 1 + random.nextInt(3), ALPHABET);
+                expected.insert(start, typed);
+                actual.insert(start, typed);
+            } else {
+                int end = Math.min(expected.length(), start + random.nextInt(random.nextInt(100) == 0 ? 2000 : 4));
+                expected.delete(start, end);
+                actual.delete(start, end);
+            }
+        }
+        assertEquals(expected.toString(), actual.toString());
+        char[] chars = new char[1000];
+        actual.getChars(500, 1500, chars, 0);
+        assertEquals(expected.substring(500, 1500), new String(chars));
+    }
+
+    @Test
+    public void styledTextDrawsEveryRunWithOneSpan() throws Exception {
+        Random random = new Random(17);
+        PieceTableEditable text = new PieceTableEditable(randomText(random, 300, ALPHABET), HostSpans.TYPES);
+        StyleRunTable expected = new StyleRunTable(text.length());
+        for (int step = 0; step < 3000; step++) {
+            int length = text.length();
+            int start = random.nextInt(length + 1);
+            int end = Math.min(length, start + random.nextInt(random.nextInt(20) == 0 ? 100 : 8));
+            int type = random.nextInt(StyleRunTable.MAX_TYPE + 1);
+            int attribute = type == RichTextCodec.TYPE_RELATIVE_SIZE ? Float.floatToIntBits(0.5f) : 0xFF000000 | random.nextInt(3);
+            int choice = random.nextInt(10);
+            if (choice < 4) {
+                String inserted = randomText(random, random.nextInt(4), ALPHABET);
+                text.replace(start, end, inserted);
+                expected.replace(start, end - start, inserted.length());
+            } else if (choice < 6) {
+                text.applyStyle(start, end, type, attribute);
+                expected.apply(start, end, type, attribute);
+            } else if (choice < 8) {
+                //A span of a style of the table is taken in by it
+                text.setSpan(HostSpans.TYPES.newSpan(type, attribute), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                expected.apply(start, end, type, attribute);
+            } else if (choice == 8) {
+                text.removeStyle(start, end, type);
+                expected.remove(start, end, type);
+            } else {
+                text.clearStyles(start, end);
+                expected.clearFormatting(start, end);
+            }
+            String at = "Step " + step;
+            assertSameRuns(at, expected, text.getStyleRuns());
+            assertRendered(at, text);
+        }
+    }
+
+    @Test
+    public void typedTextIsDrawnByTheSpanOfItsRun() throws Exception {
+        PieceTableEditable text = new PieceTableEditable("one two three", HostSpans.TYPES);
+        text.applyStyle(4, 7, RichTextCodec.TYPE_BOLD, 0);
+        HostSpans.Run two = text.getSpans(0, text.length(), HostSpans.Run.class)[0];
+        assertSame(two, text.getSpans(4, 7, HostSpans.Run.class)[0]);
+        Recorder recorder = new Recorder();
+        text.setSpan(recorder, 0, text.length(), Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        recorder.events.clear();
+
+        text.insert(5, "oo");
+        //Typed within the run, the text takes its style, and the run is drawn by a span of the new version
+        HostSpans.Run twoo = text.getSpans(0, text.length(), HostSpans.Run.class)[0];
+        assertEquals(Arrays.asList("before 5 0 2", "on 5 0 2", "after", "added " + twoo + " 4 9"), recorder.events);
+        assertEquals(4, text.getSpanStart(twoo));
+        assertEquals(9, text.getSpanEnd(twoo));
+        assertEquals(-1, text.getSpanStart(two));
+        text.removeSpan(two);
+        assertEquals(1, text.getStyleRuns().findStyle(RichTextCodec.TYPE_BOLD, 0, text.length()));
+
+        //Typed at its end, it does not
+        text.insert(9, "s");
+        assertEquals(9, text.getSpanEnd(text.getSpans(0, text.length(), HostSpans.Run.class)[0]));
+        assertEquals(1, text.getStyleRuns().findStyle(RichTextCodec.TYPE_BOLD, 0, text.length()));
+        assertRendered("After the edits", text);
+    }
+
+    @Test
+    public void pastedTextKeepsItsStyles() throws Exception {
+        PieceTableEditable copied = new PieceTableEditable("bold plain", HostSpans.TYPES);
+        copied.applyStyle(0, 4, RichTextCodec.TYPE_BOLD, 0);
+        HostSpannable spanned = new HostSpannable("italic");
+        spanned.setSpan(new HostSpans.Italic(), 0, 6, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        PieceTableEditable text = new PieceTableEditable("[] ()", HostSpans.TYPES);
+        text.replace(1, 1, copied);
+        text.replace(text.length() - 1, text.length() - 1, spanned);
+        assertEquals("[bold plain] (italic)", text.toString());
+        StyleRunTable styles = text.getStyleRuns();
+        assertEquals(StyleRunTable.styleOf(RichTextCodec.TYPE_BOLD, 0), styles.getStyle(styles.findRun(1)));
+        assertEquals(5, styles.getRunEnd(styles.findRun(1)));
+        assertEquals(StyleRunTable.styleOf(RichTextCodec.TYPE_ITALIC, 0), styles.getStyle(styles.findRun(14)));
+        assertEquals(0, text.getSpans(0, text.length(), HostSpans.Italic.class).length);
+        assertRendered("Pasted", text);
+
+        //A copy keeps the styles too, as does text made from spans
+        PieceTableEditable copy = new PieceTableEditable(text, 1, 5);
+        assertTrue(copy.isStyled());
+        assertSameRuns("Copied", text.getStyleRuns(1, 5), copy.getStyleRuns());
+        assertSameRuns("From spans", StyleRunTable.fromSpans(spanned, 0, 6, HostSpans.TYPES),
+                new PieceTableEditable(spanned, HostSpans.TYPES).getStyleRuns());
+    }
+
+    @Test
+    public void removingTheSpanOfARunClearsItsStyles() throws Exception {
+        PieceTableEditable text = new PieceTableEditable("one two three", HostSpans.TYPES);
+        text.applyStyle(0, 13, RichTextCodec.TYPE_ITALIC, 0);
+        text.applyStyle(4, 7, RichTextCodec.TYPE_BOLD, 0);
+        HostSpans.Run[] runs = text.getSpans(4, 7, HostSpans.Run.class);
+        assertEquals(1, runs.length);
+
+        text.removeSpan(runs[0]);
+        StyleRunTable styles = text.getStyleRuns();
+        assertEquals(3, styles.getRunCount());
+        assertEquals(0, styles.getStyle(1));
+        assertRendered("Removed", text);
+        assertEquals(2, text.getSpans(0, text.length(), HostSpans.Run.class).length);
+    }
+
+    /**
+     * Checks that the text has a span of each run with styles, over it, and no other
+     */
+    private static void assertRendered(String message, PieceTableEditable text) {
+        StyleRunTable styles = text.getStyleRuns();
+        HostSpans.Run[] spans = text.getSpans(0, text.length(), HostSpans.Run.class);
+        int styled = 0;
+        for (int run = 0; run < styles.getRunCount(); run++) {
+            if ((styles.getStyle(run) | styles.getColors(run)) != 0) {
+                styled++;
+            }
+        }
+        assertEquals(message, styled, spans.length);
+        for (HostSpans.Run span : spans) {
+            int run = styles.findRun(text.getSpanStart(span));
+            assertEquals(message, styles.getRunStart(run), text.getSpanStart(span));
+            assertEquals(message, styles.getRunEnd(run), text.getSpanEnd(span));
+            assertEquals(message, styles.getStyle(run), span.getStyle());
+            assertEquals(message, styles.getColors(run), span.getColors());
+        }
+        for (Class<?> kind : HostSpans.TRACKED_CLASSES) {
+            assertEquals(message, 0, text.getSpans(0, text.length(), kind).length);
+        }
+    }
+
+    private static void assertSameRuns(String message, StyleRunTable expected, StyleRunTable actual) {
+        assertEquals(message, expected.getLength(), actual.getLength());
+        assertEquals(message, expected.getRunCount(), actual.getRunCount());
+        for (int i = 0; i < expected.getRunCount(); i++) {
+            assertEquals(message, expected.getRunStart(i), actual.getRunStart(i));
+            assertEquals(message, expected.getStyle(i), actual.getStyle(i));
+            assertEquals(message, expected.getColors(i), actual.getColors(i));
+        }
+    }
+
+    private static List<Integer> ids(Tag[] tags) {
+        List<Integer> ids = new ArrayList<>();
+        for (Tag tag : tags) {
+            ids.add(tag.id);
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    private static class Tag {
+        final int id;
+
+        Tag(int id) {
+            this.id = id;
+        }
+
+        @Override
+        public String toString() {
+            return String.valueOf(id);
+        }
+    }
+
+    private static class Recorder implements TextWatcher, SpanWatcher {
+        final List<String> events = new ArrayList<>();
+
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            events.add("before " + start + " " + count + " " + after);
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            events.add("on " + start + " " + before + " " + count);
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+            events.add("after");
+        }
+
+        @Override
+        public void onSpanAdded(Spannable text, Object what, int start, int end) {
+            events.add("added " + what + " " + start + " " + end);
+        }
+
+        @Override
+        public void onSpanRemoved(Spannable text, Object what, int start, int end) {
+            events.add("removed " + what + " " + start + " " + end);
+        }
+
+        @Override
+        public void onSpanChanged(Spannable text, Object what, int ostart, int oend, int nstart, int nend) {
+            if (what != this) {
+                events.add("changed " + what + " " + ostart + " " + oend + " " + nstart + " " + nend);
+            }
+        }
+    }
+}
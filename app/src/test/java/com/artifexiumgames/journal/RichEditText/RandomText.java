@@ -0,0 +1,25 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import java.util.Random;
+
+/**
+ * Random text for the local unit tests checking the editor against a model, e.g. a string edited the
+ * same way.
+ */
+public final class RandomText {
+
+    private RandomText() {
+    }
+
+    /**
+     * @return {@code length} characters drawn from {@code alphabet}, a character repeated in it being drawn
+     * as many times more often
+     */
+    public static String randomText(Random random, int length, String alphabet) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; i++) {
+            chars[i] = alphabet.charAt(random.nextInt(alphabet.length()));
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,116 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Spanned;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the styling operations of {@link RichEditOperations}, run against {@link HostSpannable}.
+ */
+public class RichEditOperationsTest {
+
+    private HostSpannable text;
+    private RichEditOperations operations;
+
+    @Before
+    public void setUp() throws Exception {
+        text = new HostSpannable("The quick brown fox jumps over the lazy dog");
+        operations = new RichEditOperations();
+    }
+
+    @Test
+    public void selectionIsStyledWithOneSpan() throws Exception {
+        operations.applyStyleToSelection(text, 4, 25, HostSpans.BOLD); //"quick brown fox jumps"
+        HostSpans.Bold[] bold = text.getSpans(0, text.length(), HostSpans.Bold.class);
+        assertEquals(1, bold.length);
+        assertEquals(4, text.getSpanStart(bold[0]));
+        assertEquals(25, text.getSpanEnd(bold[0]));
+    }
+
+    @Test
+    public void selectionIsMergedWithTouchingRuns() throws Exception {
+        text.setSpan(new HostSpans.Bold(), 0, 3, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);   //"The"
+        text.setSpan(new HostSpans.Bold(), 10, 15, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //"brown"
+        text.setSpan(new HostSpans.Bold(), 30, 34, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //"the"
+        operations.applyStyleToSelection(text, 3, 19, HostSpans.BOLD);
+        HostSpans.Bold[] bold = text.getSpans(0, text.length(), HostSpans.Bold.class);
+        assertEquals(2, bold.length);
+        assertEquals(0, text.getSpanStart(bold[0]));
+        assertEquals(19, text.getSpanEnd(bold[0]));
+    }
+
+    @Test
+    public void cursorStylesTheWordItIsIn() throws Exception {
+        operations.applyStyleToSelection(text, 6, 6, HostSpans.BOLD);
+        operations.applyStyleToSelection(text, 43, 43, HostSpans.ITALIC); //end of the text
+        HostSpans.Bold[] bold = text.getSpans(0, text.length(), HostSpans.Bold.class);
+        HostSpans.Italic[] italic = text.getSpans(0, text.length(), HostSpans.Italic.class);
+        assertEquals(1, bold.length);
+        assertEquals(4, text.getSpanStart(bold[0]));
+        assertEquals(9, text.getSpanEnd(bold[0]));
+        assertEquals(1, italic.length);
+        assertEquals(40, text.getSpanStart(italic[0]));
+        assertEquals(43, text.getSpanEnd(italic[0]));
+    }
+
+    @Test
+    public void colorReplacesOtherColorsWithinSelection() throws Exception {
+        text.setSpan(new HostSpans.ForegroundColor(1), 0, 15, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        operations.applyStyleToSelection(text, 4, 9, HostSpans.foregroundColor(2));
+        HostSpans.ForegroundColor[] colors = text.getSpans(0, text.length(), HostSpans.ForegroundColor.class);
+        assertEquals(3, colors.length);
+        for (HostSpans.ForegroundColor color : colors) {
+            int start = text.getSpanStart(color);
+            assertEquals(start == 4 ? 2 : 1, color.color);
+        }
+    }
+
+    @Test
+    public void removingFromSelectionSplitsRun() throws Exception {
+        text.setSpan(new HostSpans.Bold(), 4, 25, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        operations.removeSpansWithinSelection(text, 10, 15, HostSpans.BOLD);
+        HostSpans.Bold[] bold = text.getSpans(0, text.length(), HostSpans.Bold.class);
+        assertEquals(2, bold.length);
+        assertFalse(text.getSpans(10, 15, HostSpans.Bold.class).length > 0);
+        assertEquals(1, text.getSpans(4, 10, HostSpans.Bold.class).length);
+        assertEquals(1, text.getSpans(15, 25, HostSpans.Bold.class).length);
+    }
+
+    @Test
+    public void removingAtCursorTrimsPreviousRun() throws Exception {
+        HostSpans.Bold quick = new HostSpans.Bold();
+        text.setSpan(quick, 4, 10, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);                  //"quick "
+        text.setSpan(new HostSpans.Bold(), 16, 19, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //"fox"
+        text.setSpan(new HostSpans.Italic(), 16, 19, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        operations.removeSpansWithinSelection(text, 17, 17, HostSpans.BOLD);
+        HostSpans.Bold[] bold = text.getSpans(0, text.length(), HostSpans.Bold.class);
+        assertEquals(1, bold.length);
+        assertSame(quick, bold[0]);
+        assertEquals(9, text.getSpanEnd(quick));
+        assertEquals(1, text.getSpans(0, text.length(), HostSpans.Italic.class).length);
+    }
+
+    @Test
+    public void stylesOfAStyledTextAreSetOnItsRuns() throws Exception {
+        PieceTableEditable styled = new PieceTableEditable(text, HostSpans.TYPES);
+        styled.applyStyle(0, 3, RichTextCodec.TYPE_BOLD, 0);   //"The"
+        styled.applyStyle(10, 15, RichTextCodec.TYPE_BOLD, 0); //"brown"
+        styled.applyStyle(16, 19, RichTextCodec.TYPE_ITALIC, 0); //"fox"
+        operations.applyStyleToSelection(styled, 3, 19, HostSpans.BOLD);
+        StyleRunTable styles = styled.getStyleRuns();
+        assertEquals(0, styles.getStretchStart(styles.findRun(0), RichTextCodec.TYPE_BOLD));
+        assertEquals(19, styles.getStretchEnd(styles.findRun(0), RichTextCodec.TYPE_BOLD));
+
+        //At a cursor, the stretch it is in is removed, and the one before loses its trailing space
+        styled.removeStyle(10, 16, RichTextCodec.TYPE_BOLD); //"The quick " and "fox" left
+        operations.removeSpansWithinSelection(styled, 17, 17, HostSpans.BOLD);
+        styles = styled.getStyleRuns();
+        assertEquals(-1, styles.findStyle(RichTextCodec.TYPE_BOLD, 9, styled.length()));
+        assertEquals(9, styles.getStretchEnd(styles.findRun(0), RichTextCodec.TYPE_BOLD));
+        assertEquals(16, styles.getStretchStart(styles.findRun(17), RichTextCodec.TYPE_ITALIC));
+        assertEquals(0, styled.getSpans(0, styled.length(), HostSpans.Bold.class).length);
+    }
+}
@@ -0,0 +1,174 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.Spanned;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RichTextCodec}, run against {@link HostSpannable}.
+ */
+public class RichTextCodecTest {
+
+    private RichTextCodec codec;
+
+    @Before
+    public void setUp() throws Exception {
+        codec = new RichTextCodec(HostSpans.TYPES);
+    }
+
+    @Test
+    public void textAndRunsRoundTrip() throws Exception {
+        HostSpannable text = new HostSpannable("Bold, italic and colored text\nwith two paragraphs");
+        text.setSpan(new HostSpans.Bold(), 0, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.Italic(), 6, 12, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.Underline(), 0, 12, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.Strikethrough(), 30, 34, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.ForegroundColor(0xFFFF0000), 17, 24, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.BackgroundColor(0xA8FFFF00), 25, 49, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new Object(), 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //not serialized
+
+        Editable decoded = codec.decode(codec.encode(text), HostSpannable.FACTORY);
+        assertEquals(text.toString(), decoded.toString());
+        assertEquals(describe(text), describe(decoded));
+        assertEquals(6, decoded.getSpans(0, decoded.length(), Object.class).length);
+    }
+
+    @Test
+    public void unicodeRoundTrips() throws Exception {
+        String s = "caf\u00e9 \u65e5\u8a18 \ud83d\udcd4 lone \ud800 end";
+        HostSpannable text = new HostSpannable(s);
+        text.setSpan(new HostSpans.Bold(), 9, 11, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //the emoji
+        Editable decoded = codec.decode(codec.encode(text), HostSpannable.FACTORY);
+        assertEquals(s, decoded.toString());
+        assertEquals(describe(text), describe(decoded));
+    }
+
+    @Test
+    public void emptyTextRoundTrips() throws Exception {
+        Editable decoded = codec.decode(codec.encode(new HostSpannable("")), HostSpannable.FACTORY);
+        assertEquals(0, decoded.length());
+    }
+
+    @Test
+    public void longTextIsDeflated() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            builder.append("Today I wrote in my journal, entry ").append(i).append(".\n");
+        }
+        HostSpannable text = new HostSpannable(builder);
+        text.setSpan(new HostSpans.Italic(), 100, 4000, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        byte[] encoded = codec.encode(text);
+        assertTrue(encoded.length < text.length() / 4);
+        Editable decoded = codec.decode(encoded, HostSpannable.FACTORY);
+        assertEquals(text.toString(), decoded.toString());
+        assertEquals(describe(text), describe(decoded));
+    }
+
+    @Test
+    public void runsTakeAFewBytes() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append("word ");
+        }
+        HostSpannable text = new HostSpannable(builder);
+        for (int i = 0; i < 100; i += 2) {
+            text.setSpan(new HostSpans.Bold(), i * 5, i * 5 + 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        byte[] encoded = codec.encode(text);
+        assertTrue(encoded.length < text.length() + 50 * 4 + 16);
+    }
+
+    @Test
+    public void runsOnAndOffWordsRoundTrip() throws Exception {
+        Random random = new Random(3);
+        int[] colors = {0xFFFF0000, 0xFF0000FF, 0x80FFFF00};
+        for (int round = 0; round < 200; round++) {
+            StringBuilder builder = new StringBuilder();
+            for (int words = random.nextInt(80); words > 0; words--) {
+                for (int i = random.nextInt(8); i >= 0; i--) {
+                    builder.append((char) ('a' + random.nextInt(26)));
+                }
+                builder.append(random.nextInt(10) == 0 ? "\n" : random.nextInt(10) == 0 ? "  " : " ");
+            }
+            HostSpannable text = new HostSpannable(builder);
+            for (int i = random.nextInt(30); i > 0 && text.length() > 1; i--) {
+                int start = random.nextInt(text.length() - 1);
+                int end = start + 1 + random.nextInt(Math.min(40, text.length() - start));
+                int type = random.nextInt(9);
+                int attribute = type == RichTextCodec.TYPE_RELATIVE_SIZE
+                        ? Float.floatToIntBits(random.nextBoolean() ? 0.5f : 1.5f) : colors[random.nextInt(colors.length)];
+                text.setSpan(HostSpans.TYPES.newSpan(type, attribute), start, Math.min(end, text.length()),
+                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            }
+            byte[] encoded = codec.encode(text);
+            String at = "Round " + round;
+            assertEquals(at, describe(text), describe(codec.decode(encoded, HostSpannable.FACTORY)));
+            Editable loaded = codec.decode(encoded, PieceTableEditable.FACTORY);
+            assertEquals(at, text.toString(), loaded.toString());
+            assertEquals(at, describe(text), describe(loaded));
+        }
+    }
+
+    @Test
+    public void stylesAreStoredOnce() throws Exception {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            builder.append("word ");
+        }
+        HostSpannable shared = new HostSpannable(builder);
+        HostSpannable distinct = new HostSpannable(builder);
+        for (int i = 0; i < 100; i += 2) {
+            shared.setSpan(new HostSpans.ForegroundColor(0xFF123456), i * 5, i * 5 + 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            distinct.setSpan(new HostSpans.ForegroundColor(0xFF123456 + i * 0x10305), i * 5, i * 5 + 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        //Every distinct color takes a type and 4 or 5 bytes, the shared one is stored once
+        assertTrue(codec.encode(shared).length + 50 * 4 < codec.encode(distinct).length);
+    }
+
+    @Test
+    public void corruptDataIsRejected() throws Exception {
+        HostSpannable text = new HostSpannable("Some text");
+        text.setSpan(new HostSpans.Bold(), 0, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        byte[] encoded = codec.encode(text);
+        assertRejected(Arrays.copyOf(encoded, encoded.length - 1));
+        assertRejected(new byte[]{'<', 'p', '>'});
+        byte[] future = encoded.clone();
+        future[2] = (byte) (RichTextCodec.VERSION + 1);
+        assertRejected(future);
+    }
+
+    private void assertRejected(byte[] data) {
+        try {
+            codec.decode(data, HostSpannable.FACTORY);
+            fail("Decoded corrupt data");
+        } catch (IOException expected) {
+            //Not a rich text of this version
+        }
+    }
+
+    /**
+     * @return the runs of {@code text} as sorted strings, to compare texts whatever the order of their spans
+     */
+    private static String describe(Spanned text) {
+        Object[] spans = text.getSpans(0, text.length(), Object.class);
+        String[] runs = new String[spans.length];
+        int n = 0;
+        for (Object span : spans) {
+            int type = HostSpans.TYPES.typeOf(span);
+            if (type >= 0) {
+                runs[n++] = type + "@" + text.getSpanStart(span) + "-" + text.getSpanEnd(span) + ":" + HostSpans.TYPES.attributeOf(span);
+            }
+        }
+        runs = Arrays.copyOf(runs, n);
+        Arrays.sort(runs);
+        return Arrays.toString(runs);
+    }
+}
@@ -0,0 +1,448 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Spanned;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.Arrays;
+import java.util.Random;
+
+import static com.artifexiumgames.journal.RichEditText.RandomText.randomText;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StyleRunTable}, against the styles of every character worked out one by one.
+ */
+public class StyleRunTableTest {
+
+    private static final int FLAGS = Spanned.SPAN_EXCLUSIVE_EXCLUSIVE;
+    private static final int[] COLORS = {0xFFFF0000, 0xFF00FF00, 0x800000FF};
+    private static final int[] SIZES = {Float.floatToIntBits(0.5f), Float.floatToIntBits(2f)};
+
+    @Test
+    public void stylesAreSetAndRemovedByRange() {
+        StyleRunTable table = new StyleRunTable(10);
+        table.apply(2, 6, RichTextCodec.TYPE_BOLD, 0);
+        table.apply(4, 8, RichTextCodec.TYPE_FOREGROUND_COLOR, COLORS[0]);
+        table.apply(6, 8, RichTextCodec.TYPE_BOLD, 0);
+        assertRuns(table, 0, 2, 4, 8);
+
+        table.remove(0, 10, RichTextCodec.TYPE_FOREGROUND_COLOR);
+        assertRuns(table, 0, 2, 8);
+        assertTrue(StyleRunTable.hasStyle(table.getStyle(1), RichTextCodec.TYPE_BOLD));
+        assertEquals(0, table.getColors(1));
+
+        table.apply(0, 10, RichTextCodec.TYPE_BACKGROUND_COLOR, COLORS[2]);
+        assertEquals(COLORS[2], StyleRunTable.backgroundOf(table.getColors(table.findRun(9))));
+        table.clearFormatting(1, 9);
+        assertRuns(table, 0, 1, 9);
+        assertEquals(table.getStyle(0), table.getStyle(2));
+        table.clearFormatting();
+        assertRuns(table, 0);
+        assertEquals(0, table.getStyle(0));
+    }
+
+    @Test
+    public void operationsMatchTheStylesOfEveryCharacter() {
+        Random random = new Random(23);
+        for (int round = 0; round < 200; round++) {
+            int length = 1 + random.nextInt(60);
+            StyleRunTable table = new StyleRunTable(length);
+            long[] styles = new long[length];
+            long[] colors = new long[length];
+            for (int op = 0; op < 40; op++) {
+                int start = random.nextInt(length + 1);
+                int end = start + random.nextInt(length - start + 1);
+                int type = random.nextInt(StyleRunTable.MAX_TYPE + 1);
+                int choice = random.nextInt(10);
+                if (choice == 0) {
+                    table.clearFormatting(start, end);
+                    for (int p = start; p < end; p++) {
+                        styles[p] = 0;
+                        colors[p] = 0;
+                    }
+                } else if (choice < 4) {
+                    table.remove(start, end, type);
+                    for (int p = start; p < end; p++) {
+                        long[] style = set(styles[p], colors[p], type, false, 0);
+                        styles[p] = style[0];
+                        colors[p] = style[1];
+                    }
+                } else {
+                    int attribute = randomAttribute(random, type);
+                    table.apply(start, end, type, attribute);
+                    for (int p = start; p < end; p++) {
+                        long[] style = set(styles[p], colors[p], type, true, attribute);
+                        styles[p] = style[0];
+                        colors[p] = style[1];
+                    }
+                }
+                assertTable("Round " + round + ", operation " + op, table, styles, colors);
+            }
+        }
+    }
+
+    @Test
+    public void spansAreReadAsTheyDraw() {
+        HostSpannable text = new HostSpannable("0123456789");
+        text.setSpan(new HostSpans.Bold(), 0, 4, FLAGS);
+        text.setSpan(new HostSpans.Bold(), 2, 6, FLAGS);
+        text.setSpan(new HostSpans.ForegroundColor(COLORS[0]), 0, 10, FLAGS);
+        text.setSpan(new HostSpans.ForegroundColor(COLORS[1]), 3, 5, FLAGS);
+        text.setSpan(new HostSpans.RelativeSize(0.5f), 4, 8, FLAGS);
+        text.setSpan(new HostSpans.RelativeSize(0.5f), 6, 10, FLAGS);
+        text.setSpan(new Object(), 0, 10, FLAGS);
+
+        StyleRunTable table = StyleRunTable.fromSpans(text, 0, 10, HostSpans.TYPES);
+        assertRuns(table, 0, 3, 4, 5, 6, 8);
+        assertEquals(COLORS[1], StyleRunTable.foregroundOf(table.getColors(table.findRun(4))));
+        assertEquals(COLORS[0], StyleRunTable.foregroundOf(table.getColors(table.findRun(5))));
+        assertEquals(0.25f, StyleRunTable.relativeSizeOf(table.getStyle(table.findRun(7))), 0f);
+        assertEquals(1f, StyleRunTable.relativeSizeOf(table.getStyle(table.findRun(0))), 0f);
+
+        StyleRunTable window = StyleRunTable.fromSpans(text, 4, 7, HostSpans.TYPES);
+        assertEquals(3, window.getLength());
+        assertRuns(window, 0, 1, 2);
+        assertEquals(table.getStyle(table.findRun(4)), window.getStyle(0));
+    }
+
+    @Test
+    public void runSpansAreReadAsTheirRuns() {
+        HostSpannable text = new HostSpannable("0123456789");
+        long bold = StyleRunTable.styleOf(RichTextCodec.TYPE_BOLD, 0);
+        long sizeAndColor = StyleRunTable.styleOf(RichTextCodec.TYPE_RELATIVE_SIZE, SIZES[0])
+                | StyleRunTable.styleOf(RichTextCodec.TYPE_FOREGROUND_COLOR, COLORS[0]);
+        text.setSpan(new HostSpans.Run(bold | sizeAndColor, StyleRunTable.colorsOf(RichTextCodec.TYPE_FOREGROUND_COLOR, COLORS[0])), 0, 4, FLAGS);
+        text.setSpan(new HostSpans.Italic(), 2, 6, FLAGS);
+
+        StyleRunTable table = StyleRunTable.fromSpans(text, 0, 10, HostSpans.TYPES);
+        assertRuns(table, 0, 2, 4, 6);
+        assertEquals(bold | sizeAndColor, table.getStyle(0));
+        assertEquals(COLORS[0], StyleRunTable.foregroundOf(table.getColors(1)));
+        assertTrue(StyleRunTable.hasStyle(table.getStyle(1), RichTextCodec.TYPE_ITALIC));
+        assertEquals(StyleRunTable.styleOf(RichTextCodec.TYPE_ITALIC, 0), table.getStyle(2));
+    }
+
+    @Test
+    public void editsMatchTheStylesOfEveryCharacter() {
+        Random random = new Random(29);
+        for (int round = 0; round < 200; round++) {
+            int length = random.nextInt(40);
+            StyleRunTable table = new StyleRunTable(length);
+            long[] styles = new long[length];
+            long[] colors = new long[length];
+            for (int op = 0; op < 40; op++) {
+                int start = random.nextInt(length + 1);
+                int end = start + random.nextInt(length - start + 1);
+                if (random.nextBoolean() && start < end) {
+                    int type = random.nextInt(StyleRunTable.MAX_TYPE + 1);
+                    int attribute = randomAttribute(random, type);
+                    table.apply(start, end, type, attribute);
+                    for (int p = start; p < end; p++) {
+                        long[] style = set(styles[p], colors[p], type, true, attribute);
+                        styles[p] = style[0];
+                        colors[p] = style[1];
+                    }
+                } else {
+                    int after = random.nextInt(6);
+                    long[] inserted = sharedStyle(styles, colors, start, end);
+                    table.replace(start, end - start, after);
+                    long[] newStyles = new long[length - (end - start) + after];
+                    long[] newColors = new long[newStyles.length];
+                    System.arraycopy(styles, 0, newStyles, 0, start);
+                    System.arraycopy(colors, 0, newColors, 0, start);
+                    Arrays.fill(newStyles, start, start + after, inserted[0]);
+                    Arrays.fill(newColors, start, start + after, inserted[1]);
+                    System.arraycopy(styles, end, newStyles, start + after, length - end);
+                    System.arraycopy(colors, end, newColors, start + after, length - end);
+                    styles = newStyles;
+                    colors = newColors;
+                    length = styles.length;
+                }
+                assertTable("Round " + round + ", operation " + op, table, styles, colors);
+            }
+        }
+    }
+
+    @Test
+    public void editsAtBothEndsMoveTheGapAcrossEveryRun() {
+        //Every other character in bold, then typing at either end and in the middle, as the arrays grow
+        int length = 200;
+        StyleRunTable table = new StyleRunTable(length);
+        long[] styles = new long[length];
+        long bold = StyleRunTable.styleOf(RichTextCodec.TYPE_BOLD, 0);
+        for (int p = 1; p < length; p += 2) {
+            table.apply(p, p + 1, RichTextCodec.TYPE_BOLD, 0);
+            styles[p] = bold;
+        }
+        for (int step = 0; step < 300; step++) {
+            int start = step % 3 == 0 ? 0 : step % 3 == 1 ? length : length / 2;
+            int before = step % 5 == 0 && start < length ? 1 : 0;
+            long[] inserted = sharedStyle(styles, new long[length], start, start + before);
+            table.replace(start, before, 2);
+            long[] newStyles = new long[length - before + 2];
+            System.arraycopy(styles, 0, newStyles, 0, start);
+            Arrays.fill(newStyles, start, start + 2, inserted[0]);
+            System.arraycopy(styles, start + before, newStyles, start + 2, length - start - before);
+            if (step % 4 == 0) {
+                table.apply(start, start + 1, RichTextCodec.TYPE_BOLD, 0);
+                newStyles[start] = bold;
+            }
+            styles = newStyles;
+            length = styles.length;
+        }
+        assertTable("After the edits", table, styles, new long[length]);
+    }
+
+    @Test
+    public void rangesAreCopiedAndSetBack() {
+        Random random = new Random(5);
+        for (int round = 0; round < 200; round++) {
+            HostSpannable text = randomSpannedText(random, 50, 25);
+            StyleRunTable table = StyleRunTable.fromSpans(text, 0, text.length(), HostSpans.TYPES);
+            int start = random.nextInt(51);
+            int end = start + random.nextInt(51 - start);
+            StyleRunTable copy = table.copy(start, end);
+            assertSameTable("Round " + round, StyleRunTable.fromSpans(text, start, end, HostSpans.TYPES), copy);
+
+            //The range is set over another, of the same length, and back
+            int where = random.nextInt(51 - (end - start));
+            StyleRunTable moved = table.copy(0, table.getLength());
+            StyleRunTable replaced = moved.copy(where, where + end - start);
+            moved.set(where, copy);
+            for (int p = 0; p < 50; p++) {
+                int from = p >= where && p < where + end - start ? table.findRun(p - where + start) : table.findRun(p);
+                int run = moved.findRun(p);
+                assertEquals("Round " + round + " at " + p, table.getStyle(from), moved.getStyle(run));
+                assertEquals("Round " + round + " at " + p, table.getColors(from), moved.getColors(run));
+            }
+            moved.set(where, replaced);
+            assertSameTable("Round " + round, table, moved);
+        }
+    }
+
+    @Test
+    public void stylesAreFoundAsTheButtonsShowThem() {
+        StyleRunTable table = new StyleRunTable(10);
+        table.apply(2, 4, RichTextCodec.TYPE_BOLD, 0);
+        table.apply(6, 8, RichTextCodec.TYPE_BOLD, 0);
+        table.apply(3, 9, RichTextCodec.TYPE_FOREGROUND_COLOR, COLORS[0]);
+        table.apply(5, 9, RichTextCodec.TYPE_FOREGROUND_COLOR, COLORS[1]);
+
+        //At a cursor: the run before it, or else the one after it
+        assertEquals(table.findRun(3), table.findStyle(RichTextCodec.TYPE_BOLD, 4, 4));
+        assertEquals(table.findRun(2), table.findStyle(RichTextCodec.TYPE_BOLD, 2, 2));
+        assertEquals(-1, table.findStyle(RichTextCodec.TYPE_BOLD, 5, 5));
+        assertEquals(-1, table.findStyle(RichTextCodec.TYPE_BOLD, 0, 0));
+        //Within a selection: the last run with the style
+        assertEquals(table.findRun(7), table.findStyle(RichTextCodec.TYPE_BOLD, 0, 10));
+        assertEquals(-1, table.findStyle(RichTextCodec.TYPE_BOLD, 4, 6));
+        int color = table.findStyle(RichTextCodec.TYPE_FOREGROUND_COLOR, 0, 5);
+        assertEquals(COLORS[0], StyleRunTable.foregroundOf(table.getColors(color)));
+
+        //A stretch of a style goes over the runs of other styles, but not over another attribute
+        assertEquals(2, table.getStretchStart(table.findRun(3), RichTextCodec.TYPE_BOLD));
+        assertEquals(4, table.getStretchEnd(table.findRun(2), RichTextCodec.TYPE_BOLD));
+        assertEquals(3, table.getStretchStart(table.findRun(4), RichTextCodec.TYPE_FOREGROUND_COLOR));
+        assertEquals(5, table.getStretchEnd(table.findRun(3), RichTextCodec.TYPE_FOREGROUND_COLOR));
+        assertEquals(9, table.getStretchEnd(table.findRun(6), RichTextCodec.TYPE_FOREGROUND_COLOR));
+    }
+
+    @Test
+    public void stylesAreFoundOverThousandsOfRuns() {
+        //Enough runs for the type index to have three levels, the rarer styles far apart
+        Random random = new Random(41);
+        int length = 30000;
+        StyleRunTable table = new StyleRunTable(length);
+        for (int p = 0; p < length; p += 2) {
+            table.apply(p, p + 1, RichTextCodec.TYPE_BOLD, 0);
+        }
+        table.apply(17, 18, RichTextCodec.TYPE_ITALIC, 0);
+        table.apply(length - 9, length - 8, RichTextCodec.TYPE_UNDERLINE, 0);
+        for (int op = 0; op < 300; op++) {
+            int start = random.nextInt(length + 1);
+            int end = Math.min(length, start + random.nextInt(op % 10 == 0 ? length : 100));
+            int type = random.nextInt(StyleRunTable.MAX_TYPE + 1);
+            switch (random.nextInt(4)) {
+                case 0:
+                    table.apply(start, end, type, randomAttribute(random, type));
+                    break;
+                case 1:
+                    table.remove(start, end, type);
+                    break;
+                default:
+                    int before = Math.min(end - start, 3);
+                    int after = random.nextInt(4);
+                    table.replace(start, before, after);
+                    length += after - before;
+            }
+            for (int query = 0; query < 10; query++) {
+                int from = random.nextInt(length);
+                int to = from + 1 + random.nextInt(length - from);
+                int queried = random.nextInt(StyleRunTable.MAX_TYPE + 1);
+                int expected = -1;
+                for (int run = table.findRun(to - 1); run >= table.findRun(from) && expected < 0; run--) {
+                    if (StyleRunTable.hasStyle(table.getStyle(run), queried)) {
+                        expected = run;
+                    }
+                }
+                assertEquals("Operation " + op + ", [" + from + ", " + to + ")", expected, table.findStyle(queried, from, to));
+            }
+        }
+    }
+
+    @Test
+    public void runsRoundTripThroughTheCodec() throws Exception {
+        RichTextCodec codec = new RichTextCodec(HostSpans.TYPES);
+        Random random = new Random(11);
+        for (int round = 0; round < 100; round++) {
+            HostSpannable text = randomSpannedText(random, 80, 30);
+            StyleRunTable table = StyleRunTable.fromSpans(text, 0, text.length(), HostSpans.TYPES);
+            byte[] encoded = codec.encode(table.toRuns(text.toString().toCharArray()));
+
+            assertSameTable("Round " + round, table, StyleRunTable.fromRuns(codec.decodeRuns(encoded)));
+            Spanned decoded = codec.decode(encoded, HostSpannable.FACTORY);
+            assertSameTable("Round " + round, table, StyleRunTable.fromSpans(decoded, 0, decoded.length(), HostSpans.TYPES));
+            PieceTableEditable styled = (PieceTableEditable) codec.decode(encoded, PieceTableEditable.factory(HostSpans.TYPES));
+            assertSameTable("Round " + round, table, styled.getStyleRuns());
+        }
+    }
+
+    @Test
+    public void aStyledTextHoldsNothingPerRunButTheTable() {
+        //Every other word in bold: 100000 runs, drawn once
+        int runs = 100000;
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < runs; i++) {
+            words.append("word ");
+        }
+        StyleRunTable table = new StyleRunTable(words.length());
+        for (int i = 0; i < runs; i += 2) {
+            table.apply(i * 5, i * 5 + 5, RichTextCodec.TYPE_BOLD, 0);
+        }
+        assertEquals(runs, table.getRunCount());
+
+        int copies = 4;
+        PieceTableEditable[] plain = new PieceTableEditable[copies];
+        PieceTableEditable[] styled = new PieceTableEditable[copies];
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long before = usedAfterGc(memory);
+        for (int i = 0; i < copies; i++) {
+            plain[i] = new PieceTableEditable(words);
+        }
+        long textOnly = usedAfterGc(memory);
+        for (int i = 0; i < copies; i++) {
+            styled[i] = new PieceTableEditable(words, table.copy(0, words.length()), HostSpans.TYPES,
+                    new Object[0], new int[0], new int[0], new int[0], 0);
+            assertEquals(runs / 2, styled[i].getSpans(0, words.length(), HostSpans.Run.class).length);
+        }
+        long withStyles = usedAfterGc(memory);
+        assertEquals(plain[copies - 1].length(), styled[copies - 1].length()); //keeps the copies reachable until here
+
+        //The table, and no span nor node per run
+        long tableBytes = styled[0].styles().getMemoryBytes();
+        long styleBytes = (withStyles - textOnly) / copies;
+        assertTrue(styleBytes + " bytes for the styles of " + (textOnly - before) / copies + " bytes of text",
+                styleBytes < tableBytes + runs * 8L);
+        assertTrue(tableBytes + " bytes in the table", tableBytes <= 2L * runs * StyleRunTable.BYTES_PER_RUN);
+    }
+
+    private static long usedAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    private static int randomAttribute(Random random, int type) {
+        if (type == RichTextCodec.TYPE_RELATIVE_SIZE) {
+            return SIZES[random.nextInt(SIZES.length)];
+        }
+        return COLORS[random.nextInt(COLORS.length)];
+    }
+
+    /**
+     * @return the styles and colors of a character once a style is set or removed, one by one
+     */
+    private static long[] set(long style, long colors, int type, boolean on, int attribute) {
+        long flag = 1L << type;
+        style = on ? style | flag : style & ~flag;
+        if (type == RichTextCodec.TYPE_FOREGROUND_COLOR) {
+            colors = (colors & 0xFFFFFFFFL) | (on ? (long) attribute << 32 : 0);
+        } else if (type == RichTextCodec.TYPE_BACKGROUND_COLOR) {
+            colors = (colors & 0xFFFFFFFF00000000L) | (on ? attribute & 0xFFFFFFFFL : 0);
+        } else if (type == RichTextCodec.TYPE_RELATIVE_SIZE) {
+            style = (style & 0xFFFFFFFFL) | (on ? (long) attribute << 32 : 0);
+        }
+        return new long[]{style, colors};
+    }
+
+    /**
+     * @return the styles of the characters replacing {@code [start, end)}: those the characters from
+     * {@code start - 1} to {@code end} all have, with the same attribute, or none at an end of the text
+     */
+    private static long[] sharedStyle(long[] styles, long[] colors, int start, int end) {
+        if (start == 0 || end == styles.length) {
+            return new long[]{0, 0};
+        }
+        long style = styles[start - 1];
+        long color = colors[start - 1];
+        for (int p = start; p <= end; p++) {
+            for (int type = 0; type <= StyleRunTable.MAX_TYPE; type++) {
+                if (StyleRunTable.attributeOf(styles[p], colors[p], type) != StyleRunTable.attributeOf(style, color, type)
+                        || !StyleRunTable.hasStyle(styles[p], type)) {
+                    long[] removed = set(style, color, type, false, 0);
+                    style = removed[0];
+                    color = removed[1];
+                }
+            }
+        }
+        return new long[]{style, color};
+    }
+
+    private static HostSpannable randomSpannedText(Random random, int length, int spanCount) {
+        HostSpannable text = new HostSpannable(randomText(random, length, "abcdefghijklmnopqrstuvwxyz"));
+        for (int i = 0; i < spanCount; i++) {
+            int start = random.nextInt(length + 1);
+            int end = Math.min(length, start + random.nextInt(12));
+            int type = random.nextInt(StyleRunTable.MAX_TYPE + 1);
+            text.setSpan(HostSpans.TYPES.newSpan(type, randomAttribute(random, type)), start, end, FLAGS);
+        }
+        return text;
+    }
+
+    private static void assertRuns(StyleRunTable table, int... starts) {
+        assertEquals(starts.length, table.getRunCount());
+        for (int i = 0; i < starts.length; i++) {
+            assertEquals(starts[i], table.getRunStart(i));
+        }
+    }
+
+    private static void assertTable(String message, StyleRunTable table, long[] styles, long[] colors) {
+        assertEquals(message, styles.length, table.getLength());
+        assertEquals(message, 0, table.getRunStart(0));
+        for (int i = 1; i < table.getRunCount(); i++) {
+            assertTrue(message, table.getRunStart(i) > table.getRunStart(i - 1));
+            assertTrue(message + ": runs " + (i - 1) + " and " + i + " are the same",
+                    table.getStyle(i) != table.getStyle(i - 1) || table.getColors(i) != table.getColors(i - 1));
+        }
+        for (int p = 0; p < styles.length; p++) {
+            int run = table.findRun(p);
+            assertTrue(table.getRunStart(run) <= p && p < table.getRunEnd(run));
+            assertEquals(message + " at " + p, styles[p], table.getStyle(run));
+            assertEquals(message + " at " + p, colors[p], table.getColors(run));
+        }
+    }
+
+    private static void assertSameTable(String message, StyleRunTable expected, StyleRunTable actual) {
+        assertEquals(message, expected.getLength(), actual.getLength());
+        assertEquals(message, expected.getRunCount(), actual.getRunCount());
+        for (int i = 0; i < expected.getRunCount(); i++) {
+            assertEquals(message, expected.getRunStart(i), actual.getRunStart(i));
+            assertEquals(message, expected.getStyle(i), actual.getStyle(i));
+            assertEquals(message, expected.getColors(i), actual.getColors(i));
+        }
+    }
+}
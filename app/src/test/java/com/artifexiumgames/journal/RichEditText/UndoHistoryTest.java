@@ -0,0 +1,305 @@
+package com.artifexiumgames.journal.RichEditText;
+
+import android.text.Editable;
+import android.text.Spanned;
+import android.text.TextWatcher;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link UndoHistory}, run against {@link HostSpannable} with a {@link TextWatcher}
+ * standing in for {@link RichEditText}.
+ */
+public class UndoHistoryTest {
+
+    private long clock;
+    private UndoHistory history;
+    private Editable text;
+    private boolean undoing;
+
+    @Before
+    public void setUp() throws Exception {
+        history = new UndoHistory(HostSpans.TYPES) {
+            @Override
+            protected long now() {
+                return clock;
+            }
+        };
+        text = new HostSpannable();
+        text.setSpan(new Recorder(), 0, 0, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+    }
+
+    @Test
+    public void keystrokesAreOneStep() throws Exception {
+        type(0, "hello");
+        text.delete(4, 5); //backspace
+        type(4, "p");
+        assertEquals("hellp", text.toString());
+        assertEquals(1, history.getUndoCount());
+
+        assertTrue(undo());
+        assertEquals("", text.toString());
+        assertFalse(undo());
+        assertTrue(redo());
+        assertEquals("hellp", text.toString());
+    }
+
+    @Test
+    public void pausesNewLinesAndDeletionsStartSteps() throws Exception {
+        type(0, "one\n");
+        type(4, "two");
+        clock += UndoHistory.MERGE_TIMEOUT_MS + 1;
+        type(7, " three");
+        text.delete(0, 4); //a selection, not a keystroke
+        assertEquals(4, history.getUndoCount());
+
+        undo();
+        assertEquals("one\ntwo three", text.toString());
+        undo();
+        assertEquals("one\ntwo", text.toString());
+        undo();
+        assertEquals("one\n", text.toString());
+    }
+
+    @Test
+    public void deletionsAreUndoneWithTheirStyles() throws Exception {
+        text.append("bold and italic");
+        text.setSpan(new HostSpans.Bold(), 0, 4, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.Italic(), 9, 15, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.ForegroundColor(7), 0, 15, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        history.clear();
+        String styles = styles(text);
+
+        text.delete(2, 11);
+        assertEquals("boalic", text.toString());
+        for (int i = 2; i > 0; i--) { //backspaces, merged
+            text.delete(i - 1, i);
+        }
+        assertEquals("alic", text.toString());
+        assertEquals(2, history.getUndoCount());
+
+        undo();
+        assertEquals("boalic", text.toString());
+        undo();
+        assertEquals("bold and italic", text.toString());
+        assertEquals(styles, styles(text));
+        redo();
+        redo();
+        assertEquals("alic", text.toString());
+        assertEquals("FI,FI,FI,FI", styles(text));
+    }
+
+    @Test
+    public void styleOperationsAreUndone() throws Exception {
+        type(0, "some words here");
+        SpanRunEngine engine = new SpanRunEngine();
+        history.beginStyleEdit(text, 5, 10);
+        engine.applyToRange(text, 5, 10, HostSpans.BOLD);
+        history.endStyleEdit(text);
+        history.beginStyleEdit(text, 7, 7); //the word at the cursor, already bold: nothing changes
+        engine.applyToRange(text, 5, 10, HostSpans.BOLD);
+        history.endStyleEdit(text);
+        assertEquals(2, history.getUndoCount());
+
+        String bold = styles(text);
+        undo();
+        assertEquals(",,,,,,,,,,,,,,", styles(text));
+        redo();
+        assertEquals(bold, styles(text));
+    }
+
+    @Test
+    public void undoingDoesNotSplitRunsCrossingTheRange() throws Exception {
+        type(0, "some words here");
+        text.setSpan(new HostSpans.Bold(), 0, 8, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        HostSpans.ForegroundColor color = new HostSpans.ForegroundColor(0xFF0000FF);
+        text.setSpan(color, 6, 14, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE); //crosses the end of the bold run
+        SpanRunEngine engine = new SpanRunEngine();
+        String before = styles(text);
+        for (int i = 0; i < 3; i++) {
+            history.beginStyleEdit(text, 2, 3);
+            engine.applyToRange(text, 2, 3, HostSpans.ITALIC);
+            history.endStyleEdit(text);
+            undo();
+            redo();
+            undo();
+        }
+
+        assertEquals(before, styles(text));
+        HostSpans.ForegroundColor[] colors = text.getSpans(0, text.length(), HostSpans.ForegroundColor.class);
+        assertEquals(1, colors.length);
+        assertEquals(6, text.getSpanStart(colors[0]));
+        assertEquals(14, text.getSpanEnd(colors[0]));
+        assertEquals(1, text.getSpans(0, text.length(), HostSpans.Bold.class).length);
+    }
+
+    @Test
+    public void stylesOfAStyledTextAreUndone() throws Exception {
+        text = new PieceTableEditable("", HostSpans.TYPES);
+        text.setSpan(new Recorder(), 0, 0, Spanned.SPAN_INCLUSIVE_INCLUSIVE);
+        PieceTableEditable styled = (PieceTableEditable) text;
+        type(0, "some words here");
+        SpanRunEngine engine = new SpanRunEngine();
+        history.beginStyleEdit(text, 5, 10);
+        engine.applyToRange(text, 5, 10, HostSpans.BOLD);
+        history.endStyleEdit(text);
+        history.beginStyleEdit(text, 2, 12);
+        engine.applyToRange(text, 2, 12, HostSpans.foregroundColor(0xFF0000FF));
+        history.endStyleEdit(text);
+        String colored = runs(styled.getStyleRuns());
+
+        text.delete(3, 11);
+        assertEquals("somhere", text.toString());
+        undo();
+        assertEquals(colored, runs(styled.getStyleRuns()));
+        undo();
+        StyleRunTable bold = styled.getStyleRuns();
+        assertEquals(3, bold.getRunCount());
+        assertEquals(5, bold.getRunStart(1));
+        assertEquals(10, bold.getRunEnd(1));
+        assertEquals(StyleRunTable.styleOf(RichTextCodec.TYPE_BOLD, 0), bold.getStyle(1));
+        assertEquals(0, bold.getColors(1));
+        redo();
+        assertEquals(colored, runs(styled.getStyleRuns()));
+        //Every run is drawn by a single span
+        assertEquals(3, text.getSpans(0, text.length(), HostSpans.Run.class).length);
+    }
+
+    @Test
+    public void groupsAreUndoneTogether() throws Exception {
+        type(0, "a\nb\nc");
+        history.beginGroup();
+        text.insert(4, "  ");
+        text.insert(2, "  ");
+        text.insert(0, "  ");
+        history.endGroup();
+        assertEquals("  a\n  b\n  c", text.toString());
+
+        undo();
+        assertEquals("a\nb\nc", text.toString());
+        redo();
+        assertEquals("  a\n  b\n  c", text.toString());
+        undo();
+        undo();
+        assertEquals("a\nb\n", text.toString()); //the group, then the last line typed
+    }
+
+    @Test
+    public void memoryIsCapped() throws Exception {
+        Random random = new Random(3);
+        StringBuilder entry = new StringBuilder();
+        while (entry.length() < 100000) {
+            entry.append("a line of a long entry\n");
+        }
+        text.append(entry);
+        history.clear();
+        history.setMaxBytes(16 * 1024);
+
+        //10k keystrokes, in bursts at places all over the entry
+        for (int burst = 0; burst < 1000; burst++) {
+            clock += UndoHistory.MERGE_TIMEOUT_MS + 1;
+            int at = random.nextInt(text.length());
+            for (int i = 0; i < 10; i++) {
+                if (i == 5) {
+                    text.delete(--at, at + 1); //a typo
+                } else {
+                    text.insert(at++, "x");
+                }
+            }
+        }
+        assertTrue(history.getByteCount() <= 16 * 1024);
+        assertTrue(history.getUndoCount() > 100);
+
+        //The newest step is kept whatever its size
+        String edited = text.toString();
+        text.delete(0, text.length());
+        assertTrue(history.getByteCount() > 16 * 1024);
+        assertEquals(1, history.getUndoCount());
+        undo();
+        assertEquals(edited, text.toString());
+    }
+
+    private void type(int at, String keys) {
+        for (int i = 0; i < keys.length(); i++) {
+            text.insert(at + i, keys.substring(i, i + 1));
+        }
+    }
+
+    private boolean undo() {
+        undoing = true;
+        try {
+            return history.undo(text) >= 0;
+        } finally {
+            undoing = false;
+        }
+    }
+
+    private boolean redo() {
+        undoing = true;
+        try {
+            return history.redo(text) >= 0;
+        } finally {
+            undoing = false;
+        }
+    }
+
+    /**
+     * @return the styles of every character, as the first letters of the style classes, comma separated
+     */
+    private static String styles(Spanned text) {
+        StringBuilder styles = new StringBuilder();
+        for (int i = 0; i < text.length(); i++) {
+            if (i > 0) {
+                styles.append(',');
+            }
+            StringBuilder letters = new StringBuilder();
+            for (Object span : text.getSpans(i, i + 1, Object.class)) {
+                if (HostSpans.TYPES.typeOf(span) >= 0 && text.getSpanStart(span) <= i && text.getSpanEnd(span) > i) {
+                    letters.append(span.getClass().getSimpleName().charAt(0));
+                }
+            }
+            char[] sorted = letters.toString().toCharArray();
+            Arrays.sort(sorted);
+            styles.append(sorted);
+        }
+        return styles.toString();
+    }
+
+    /**
+     * @return the runs of a table, as their starts, styles and colors
+     */
+    private static String runs(StyleRunTable table) {
+        StringBuilder runs = new StringBuilder();
+        for (int run = 0; run < table.getRunCount(); run++) {
+            runs.append(table.getRunStart(run)).append(':').append(table.getStyle(run)).append(':')
+                    .append(table.getColors(run)).append(' ');
+        }
+        return runs.toString();
+    }
+
+    private class Recorder implements TextWatcher {
+        @Override
+        public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            if (!undoing) {
+                history.beforeTextChanged(s, start, count, after);
+            }
+        }
+
+        @Override
+        public void onTextChanged(CharSequence s, int start, int before, int count) {
+            if (!undoing) {
+                history.onTextChanged(s, start, before, count);
+            }
+        }
+
+        @Override
+        public void afterTextChanged(Editable s) {
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package com.artifexiumgames.journal.Storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.TimeZone;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link AnalyticsStore}, in a temporary directory.
+ */
+public class AnalyticsStoreTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File directory;
+    private SecretKey key;
+    private EntryStore store;
+    private AnalyticsStore analytics;
+
+    private final AnalyticsStore.EntryTexts texts = new AnalyticsStore.EntryTexts() {
+        @Override
+        public CharSequence get(long id) throws IOException {
+            byte[] content = store.load(id);
+            return content == null ? null : new String(content, UTF_8);
+        }
+    };
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("journal", "");
+        assertTrue(directory.delete());
+        key = new SecretKeySpec(new byte[32], "AES");
+        store = new EntryStore(directory, key, 0);
+        analytics = new AnalyticsStore(new File(directory, AnalyticsStore.DIRECTORY), key);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        analytics.close();
+        store.close();
+        delete(directory);
+    }
+
+    @Test
+    public void savesAndEditsAreRolledUp() throws Exception {
+        long day = AnalyticsStore.dayOf(System.currentTimeMillis());
+        long first = save("Dear diary", day, 1000);
+        save("Second entry today", day, 2000);
+        save("Yesterday", day - 1, 0);
+        saveAgain(first, "Dear diary, again and again", 500);
+
+        Rollup today = analytics.getRollups(AnalyticsStore.DAY, day, 1)[0];
+        assertEquals(new Rollup(2, 5 + 3, 27 + 18, 3500), today);
+        Rollup[] days = analytics.getRollups(AnalyticsStore.DAY, day, 3);
+        assertTrue(days[0].isEmpty());
+        assertEquals(new Rollup(1, 1, 9, 0), days[1]);
+        assertEquals(new Rollup(3, 9, 54, 3500), analytics.getTotals());
+        Rollup week = analytics.getRollups(AnalyticsStore.WEEK, AnalyticsStore.periodOf(AnalyticsStore.WEEK, day), 1)[0];
+        Rollup month = analytics.getRollups(AnalyticsStore.MONTH, AnalyticsStore.periodOf(AnalyticsStore.MONTH, day), 1)[0];
+        assertTrue(week.getEntries() >= 2 && month.getEntries() >= 2);
+        assertEquals(2, analytics.getCurrentStreak(day));
+        assertEquals(0, analytics.getCurrentStreak(day + 2));
+        assertTrue(analytics.verify(store, texts, false).isEmpty());
+    }
+
+    @Test
+    public void streaksFollowDaysWrittenOutOfOrder() throws Exception {
+        long day = 20000;
+        save("a", day, 0);
+        save("b", day + 1, 0);
+        save("c", day + 4, 0);
+        assertEquals(1, analytics.getCurrentStreak(day + 4));
+        assertEquals(2, analytics.getLongestStreak());
+        save("d", day + 3, 0); //recorded late
+        assertEquals(2, analytics.getCurrentStreak(day + 4));
+        save("e", day + 2, 0);
+        assertEquals(5, analytics.getCurrentStreak(day + 5));
+        assertEquals(5, analytics.getLongestStreak());
+        assertEquals(5, analytics.getDaysWritten());
+        assertTrue(analytics.verify(store, texts, false).isEmpty());
+    }
+
+    @Test
+    public void randomSavesMatchRollupsMadeAgain() throws Exception {
+        Random random = new Random(16);
+        long firstDay = 19000;
+        int entries = 0;
+        for (int i = 0; i < 300; i++) {
+            StringBuilder text = new StringBuilder();
+            for (int words = random.nextInt(30); words > 0; words--) {
+                text.append("word").append(random.nextInt(100)).append(random.nextBoolean() ? ' ' : '\n');
+            }
+            if (entries > 0 && random.nextInt(3) == 0) {
+                saveAgain(random.nextInt(entries), text.toString(), random.nextInt(60000));
+            } else {
+                save(text.toString(), firstDay + random.nextInt(400), random.nextInt(60000));
+                entries++;
+            }
+        }
+        assertTrue(analytics.verify(store, texts, false).isEmpty());
+
+        long total = 0;
+        Rollup[] months = analytics.getRollups(AnalyticsStore.MONTH, AnalyticsStore.periodOf(AnalyticsStore.MONTH, firstDay + 400), 20);
+        for (Rollup month : months) {
+            total += month.getEntries();
+        }
+        assertEquals(entries, total);
+        assertEquals(entries, analytics.getTotals().getEntries());
+    }
+
+    @Test
+    public void verificationRepairsTheRollups() throws Exception {
+        long day = 20000;
+        long id = save("One two three", day, 0);
+        save("Four", day + 7, 0);
+        analytics.record(id, day * AnalyticsStore.DAY_MILLIS, 30, 300, 0); //off, as if torn by a crash
+        assertFalse(analytics.verify(store, texts, true).isEmpty());
+        assertTrue(analytics.verify(store, texts, false).isEmpty());
+        assertEquals(new Rollup(1, 3, 13, 0), analytics.getRollups(AnalyticsStore.DAY, day, 1)[0]);
+
+        analytics.close();
+        analytics = new AnalyticsStore(new File(directory, AnalyticsStore.DIRECTORY), key);
+        assertEquals(new Rollup(2, 4, 17, 0), analytics.getTotals());
+        assertEquals(1, analytics.getLongestStreak());
+    }
+
+    @Test
+    public void periodsStartWhereTheyShould() {
+        long day = 20000; //Friday 4 October 2024
+        assertEquals(day - 4, AnalyticsStore.firstDayOf(AnalyticsStore.WEEK, AnalyticsStore.periodOf(AnalyticsStore.WEEK, day)));
+        assertEquals(day - 3, AnalyticsStore.firstDayOf(AnalyticsStore.MONTH, AnalyticsStore.periodOf(AnalyticsStore.MONTH, day)));
+        assertEquals((2024 - 1970) * 12 + 9, AnalyticsStore.periodOf(AnalyticsStore.MONTH, day));
+    }
+
+    /**
+     * Saves a new entry, as first saved on {@code day}
+     */
+    private long save(String text, long day, long writingMillis) throws IOException {
+        long id = store.newEntryId();
+        store.save(id, text.getBytes(UTF_8));
+        long noon = day * AnalyticsStore.DAY_MILLIS + AnalyticsStore.DAY_MILLIS / 2;
+        analytics.record(id, noon - TimeZone.getDefault().getOffset(noon), EntrySummary.countWords(text), text.length(),
+                writingMillis);
+        return id;
+    }
+
+    private void saveAgain(long id, String text, long writingMillis) throws IOException {
+        store.save(id, text.getBytes(UTF_8));
+        analytics.record(id, System.currentTimeMillis(), EntrySummary.countWords(text), text.length(), writingMillis);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        assertTrue(file.delete());
+    }
+}
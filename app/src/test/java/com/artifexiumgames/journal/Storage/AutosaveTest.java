@@ -0,0 +1,253 @@
+package com.artifexiumgames.journal.Storage;
+
+import android.text.Editable;
+import android.text.Spanned;
+
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+import com.artifexiumgames.journal.RichEditText.StyleRunTable;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static com.artifexiumgames.journal.RichEditText.RandomText.randomText;
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link Autosave} and {@link DraftLog}, in a temporary directory, with the clock and
+ * the UI thread of the autosave driven by hand.
+ */
+public class AutosaveTest {
+
+    private static final RichTextCodec.SpanTypes TYPES = HostSpans.TYPES;
+    private static final String ALPHABET = "ab \n\u00e9";
+    private static final int[] FLAGS = {Spanned.SPAN_EXCLUSIVE_EXCLUSIVE, Spanned.SPAN_EXCLUSIVE_INCLUSIVE,
+            Spanned.SPAN_INCLUSIVE_INCLUSIVE};
+
+    private File directory;
+    private SecretKey key;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("drafts", "");
+        assertTrue(directory.delete());
+        key = new SecretKeySpec(new byte[32], "AES");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void editsAreRecoveredWithTheirStyles() throws Exception {
+        Random random = new Random(14);
+        editAndRecover(random, new PieceTableEditable(randomText(random, 5000, ALPHABET)));
+    }
+
+    @Test
+    public void editsOfAStyledTextAreRecoveredWithTheirStyles() throws Exception {
+        Random random = new Random(16);
+        editAndRecover(random, new PieceTableEditable(randomText(random, 5000, ALPHABET), TYPES));
+    }
+
+    /**
+     * Edits the text at random while it is saved, and checks the draft recovered against it
+     */
+    private void editAndRecover(Random random, Editable text) throws Exception {
+        ManualAutosave autosave = new ManualAutosave(new DraftLog(directory, key, TYPES));
+        autosave.attach(text, 7);
+
+        for (int step = 0; step < 1500; step++) {
+            int length = text.length();
+            int start = random.nextInt(length + 1);
+            int end = Math.min(length, start + random.nextInt(random.nextInt(20) == 0 ? 2000 : 6));
+            int operation = random.nextInt(10);
+            if (operation < 6) {
+                text.replace(start, end, randomText(random, random.nextInt(30) == 0 ? 500 : random.nextInt(4), ALPHABET));
+            } else if (operation < 9) {
+                text.setSpan(randomStyle(random), start, end, FLAGS[random.nextInt(FLAGS.length)]);
+            } else {
+                Object[] spans = text.getSpans(start, end, Object.class);
+                Object span = spans.length > 0 ? spans[random.nextInt(spans.length)] : null;
+                if (span != null && (TYPES.typeOf(span) >= 0 || span instanceof StyleRunTable.RunSpan)) {
+                    text.removeSpan(span);
+                }
+            }
+            autosave.advance(random.nextInt(400)); //sometimes past the debounce delay
+        }
+        autosave.flush();
+        DraftLog.Draft draft = autosave.recover().get(); //once every write queued is done
+        autosave.close();
+        assertEquals(7, draft.entryId);
+        assertEquals(text.toString(), draft.text.toString());
+        assertEquals(styles(text), styles(draft.text));
+    }
+
+    @Test
+    public void deltasAreFoldedIntoSnapshots() throws Exception {
+        Random random = new Random(15);
+        DraftLog log = new DraftLog(directory, key, TYPES);
+        StringBuilder expected = new StringBuilder("start");
+        log.start(-1, new PieceTableEditable(expected));
+        for (int i = 0; i < 300; i++) {
+            String region = randomText(random, 2000, ALPHABET);
+            int start = random.nextInt(expected.length() + 1);
+            int removed = Math.min(expected.length() - start, random.nextInt(1500));
+            expected.replace(start, start + removed, region);
+            log.append(start, removed, new PieceTableEditable(region));
+        }
+        log.close();
+        DraftLog.Draft draft = new DraftLog(directory, key, TYPES).recover();
+        assertEquals(expected.toString(), draft.text.toString());
+        assertTrue(draft.deltaCount < 300);
+        assertTrue(new File(directory, DraftLog.LOG_FILE).length() <= DraftLog.MIN_FOLD_SIZE);
+    }
+
+    @Test
+    public void nothingIsWrittenUntilTheTextChanges() throws Exception {
+        ManualAutosave autosave = new ManualAutosave(new DraftLog(directory, key, TYPES));
+        Editable text = new PieceTableEditable("Dear diary");
+        autosave.attach(text, -1);
+        autosave.markSaved();
+        autosave.advance(Autosave.MAX_DELAY_MILLIS);
+        assertNull(autosave.recover().get());
+
+        text.append(", today");
+        autosave.advance(Autosave.DEBOUNCE_MILLIS / 2);
+        text.append(" I");
+        autosave.advance(Autosave.DEBOUNCE_MILLIS / 2); //still typing
+        assertNull(autosave.recover().get());
+        autosave.advance(Autosave.DEBOUNCE_MILLIS);
+        assertEquals("Dear diary, today I", autosave.recover().get().text.toString());
+
+        autosave.discard();
+        assertNull(autosave.recover().get());
+        autosave.close();
+    }
+
+    @Test
+    public void tornAndStaleRecordsAreIgnored() throws Exception {
+        DraftLog log = new DraftLog(directory, key, TYPES);
+        log.start(3, new PieceTableEditable("one two"));
+        log.append(3, 1, new PieceTableEditable(" and "));
+        log.append(0, 3, new PieceTableEditable("three"));
+        log.close();
+
+        File logFile = new File(directory, DraftLog.LOG_FILE);
+        RandomAccessFile file = new RandomAccessFile(logFile, "rw");
+        try {
+            file.setLength(file.length() - 5); //torn by a crash during the last write
+        } finally {
+            file.close();
+        }
+        DraftLog.Draft draft = new DraftLog(directory, key, TYPES).recover();
+        assertEquals("one and two", draft.text.toString());
+        assertEquals(1, draft.deltaCount);
+
+        //a crash between the rename of a new snapshot and the reset of the log leaves the old log
+        byte[] staleLog = readFile(logFile);
+        log = new DraftLog(directory, key, TYPES);
+        log.start(3, new PieceTableEditable("four"));
+        log.close();
+        RandomAccessFile restored = new RandomAccessFile(logFile, "rw");
+        try {
+            restored.setLength(0);
+            restored.write(staleLog);
+        } finally {
+            restored.close();
+        }
+        assertEquals("four", new DraftLog(directory, key, TYPES).recover().text.toString());
+    }
+
+    /**
+     * The styles of every character: the types and attributes of the styles covering it, drawn by a span
+     * each or by the span of a style run
+     */
+    private static List<TreeSet<String>> styles(Spanned text) {
+        List<TreeSet<String>> styles = new ArrayList<>();
+        for (int i = 0; i < text.length(); i++) {
+            styles.add(new TreeSet<String>());
+        }
+        for (Object span : text.getSpans(0, text.length(), Object.class)) {
+            int type = TYPES.typeOf(span);
+            for (int i = text.getSpanStart(span); i < text.getSpanEnd(span); i++) {
+                if (type >= 0) {
+                    styles.get(i).add(type + ":" + TYPES.attributeOf(span));
+                } else if (span instanceof StyleRunTable.RunSpan) {
+                    StyleRunTable.RunSpan run = (StyleRunTable.RunSpan) span;
+                    for (int runType = 0; runType <= StyleRunTable.MAX_TYPE; runType++) {
+                        if (StyleRunTable.hasStyle(run.getStyle(), runType)) {
+                            styles.get(i).add(runType + ":" + StyleRunTable.attributeOf(run.getStyle(), run.getColors(), runType));
+                        }
+                    }
+                }
+            }
+        }
+        return styles;
+    }
+
+    private static Object randomStyle(Random random) {
+        int type = random.nextInt(RichTextCodec.TYPE_BACKGROUND_COLOR + 1);
+        return TYPES.newSpan(type, random.nextInt(3));
+    }
+
+    private static byte[] readFile(File file) throws Exception {
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return bytes;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * An autosave whose debounce runs when the test moves its clock, on the thread of the test
+     */
+    private static class ManualAutosave extends Autosave {
+        private long time;
+        private long due = -1;
+        private Runnable task;
+
+        ManualAutosave(DraftLog draft) {
+            super(draft, TYPES, null);
+        }
+
+        void advance(long millis) {
+            time += millis;
+            while (task != null && due <= time) {
+                Runnable run = task;
+                task = null;
+                run.run();
+            }
+        }
+
+        @Override
+        protected void schedule(Runnable task, long delayMillis) {
+            this.task = task;
+            this.due = time + delayMillis;
+        }
+
+        @Override
+        protected long now() {
+            return time;
+        }
+    }
+}
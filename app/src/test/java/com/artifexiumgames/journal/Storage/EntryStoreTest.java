@@ -0,0 +1,189 @@
+package com.artifexiumgames.journal.Storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link EntryStore}, in a temporary directory.
+ */
+public class EntryStoreTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private File directory;
+    private SecretKey key;
+    private EntryStore store;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("journal", "");
+        assertTrue(directory.delete());
+        key = new SecretKeySpec(new byte[32], "AES");
+        store = new EntryStore(directory, key, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        for (File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void savedEntriesAreReadBack() throws Exception {
+        long first = store.newEntryId();
+        long second = store.newEntryId();
+        store.save(first, bytes("Dear diary"));
+        assertEquals("Dear diary", string(store.load(first))); //from the queue
+        store.save(second, bytes("Second entry"));
+        store.save(first, bytes("Dear diary, again"));
+        store.flush();
+        assertEquals("Dear diary, again", string(store.load(first)));
+        assertEquals("Second entry", string(store.load(second)));
+        assertNull(store.load(store.newEntryId()));
+    }
+
+    @Test
+    public void entriesSurviveReopening() throws Exception {
+        long id = store.newEntryId();
+        store.save(id, bytes("Kept"));
+        reopen();
+        assertEquals(1, store.getEntryCount());
+        assertEquals("Kept", string(store.load(id)));
+        assertTrue(store.getTimestamp(id) > 0);
+    }
+
+    @Test
+    public void logTailIsRecovered() throws Exception {
+        long id = store.newEntryId();
+        store.save(id, bytes("Indexed"));
+        store.flush();
+        long indexedLength = new File(directory, EntryStore.LOG_FILE).length();
+        long later = store.newEntryId();
+        store.save(later, bytes("Only in the log"));
+        store.close();
+
+        //As if the index had not been synced after the last commit
+        RandomAccessFile index = new RandomAccessFile(new File(directory, EntryStore.INDEX_FILE), "rw");
+        index.seek(8);
+        index.writeLong(indexedLength);
+        index.seek(EntryIndex.HEADER_SIZE + later * EntryIndex.SLOT_SIZE);
+        index.write(new byte[EntryIndex.SLOT_SIZE]);
+        index.close();
+
+        store = new EntryStore(directory, key, 0);
+        assertEquals(2, store.getEntryCount());
+        assertEquals("Only in the log", string(store.load(later)));
+    }
+
+    @Test
+    public void tornRecordIsCutOff() throws Exception {
+        long id = store.newEntryId();
+        store.save(id, bytes("Whole"));
+        store.close();
+
+        //A crash while appending the next record, before the log was synced and the index updated
+        File logFile = new File(directory, EntryStore.LOG_FILE);
+        long length = logFile.length();
+        RandomAccessFile log = new RandomAccessFile(logFile, "rw");
+        log.seek(length);
+        log.writeInt(EntryStore.EMPTY_BODY_SIZE + 100);
+        log.writeLong(id);
+        log.write(new byte[30]);
+        log.close();
+
+        store = new EntryStore(directory, key, 0);
+        assertEquals(length, logFile.length());
+        assertEquals("Whole", string(store.load(id)));
+        store.save(id, bytes("Saved after the crash"));
+        reopen();
+        assertEquals("Saved after the crash", string(store.load(id)));
+    }
+
+    @Test
+    public void tamperedRecordIsRejected() throws Exception {
+        long id = store.newEntryId();
+        store.save(id, bytes("Secret"));
+        store.close();
+        RandomAccessFile log = new RandomAccessFile(new File(directory, EntryStore.LOG_FILE), "rw");
+        long last = log.length() - 5; //within the tag
+        log.seek(last);
+        int b = log.read();
+        log.seek(last);
+        log.write(b ^ 1);
+        log.close();
+
+        store = new EntryStore(directory, key, 0);
+        try {
+            store.load(id);
+            fail("A tampered record was decrypted");
+        } catch (IOException expected) {
+            //The index still points at the record, the tag does not match
+        }
+    }
+
+    @Test
+    public void contentIsEncrypted() throws Exception {
+        long id = store.newEntryId();
+        store.save(id, bytes("plaintext marker"));
+        store.flush();
+        RandomAccessFile log = new RandomAccessFile(new File(directory, EntryStore.LOG_FILE), "r");
+        byte[] all = new byte[(int) log.length()];
+        log.readFully(all);
+        log.close();
+        assertFalse(new String(all, UTF_8).contains("plaintext marker"));
+    }
+
+    @Test
+    public void aFailedWriteIsRetriedWithoutAnotherSave() throws Exception {
+        store.close();
+        final AtomicInteger writes = new AtomicInteger();
+        store = new EntryStore(directory, key, 0) {
+            @Override
+            protected int write(ByteBuffer buffer, long position) throws IOException {
+                if (writes.getAndIncrement() == 0) {
+                    throw new IOException("No space left on device");
+                }
+                return super.write(buffer, position);
+            }
+        };
+        long id = store.newEntryId();
+        store.save(id, bytes("Written on the second try"));
+        File log = new File(directory, EntryStore.LOG_FILE);
+        long deadline = System.currentTimeMillis() + 10 * EntryStore.RETRY_DELAY_MILLIS;
+        while (log.length() <= EntryStore.LOG_HEADER_SIZE && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertTrue(writes.get() >= 2);
+        reopen(); //would throw if the failure had not been made good
+        assertEquals("Written on the second try", string(store.load(id)));
+    }
+
+    private void reopen() throws IOException {
+        store.close();
+        store = new EntryStore(directory, key, 0);
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF_8);
+    }
+
+    private static String string(byte[] b) {
+        return b == null ? null : new String(b, UTF_8);
+    }
+}
@@ -0,0 +1,161 @@
+package com.artifexiumgames.journal.Storage;
+
+import android.text.Spanned;
+
+import com.artifexiumgames.journal.RichEditText.HostSpannable;
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link JournalExporter} and {@link ExportFormat}, with entries in memory.
+ */
+public class JournalExporterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RichTextCodec codec = new RichTextCodec(HostSpans.TYPES);
+
+    @Test
+    public void overlappingRunsAreNested() throws Exception {
+        HostSpannable text = new HostSpannable("one two three");
+        text.setSpan(new HostSpans.Bold(), 0, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.Italic(), 4, 13, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.ForegroundColor(0xFFFF0000), 4, 7, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        assertEquals("<b>one <i><span style=\"color:#ff0000\">two</span></i></b><i> three</i>",
+                convert(ExportFormat.HTML, text));
+    }
+
+    @Test
+    public void formatsEscapeTheirMarkup() throws Exception {
+        HostSpannable text = new HostSpannable("a <b> & *c*\nd");
+        text.setSpan(new HostSpans.Strikethrough(), 0, 1, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.Underline(), 12, 13, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        text.setSpan(new HostSpans.BackgroundColor(0x80FFFF00), 2, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+
+        assertEquals("<s>a</s> <span style=\"background-color:rgba(255,255,0,0.5)\">&lt;b&gt;</span> &amp; *c*<br>\n<u>d</u>",
+                convert(ExportFormat.HTML, text));
+        assertEquals("~~a~~ <span style=\"background-color:rgba(255,255,0,0.5)\">\\<b\\></span> & \\*c\\*\\\n<u>d</u>",
+                convert(ExportFormat.MARKDOWN, text));
+        assertEquals("a <b> & *c*\nd", convert(ExportFormat.TEXT, text));
+    }
+
+    @Test
+    public void entriesAreWrittenInOrder() throws Exception {
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            HostSpannable text = new HostSpannable("Entry " + i);
+            text.setSpan(new HostSpans.Bold(), 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            contents.add(i % 7 == 3 ? null : codec.encode(text));
+        }
+        final long[] progress = new long[2];
+        JournalExporter exporter = new JournalExporter(entries(contents), codec, ExportFormat.MARKDOWN, 4);
+        exporter.setProgressListener(new JournalExporter.ProgressListener() {
+            @Override
+            public void onProgress(long exported, long total) {
+                assertEquals(progress[0] + 1, exported);
+                progress[0] = exported;
+                progress[1] = total;
+            }
+        });
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(exporter.exportTo(out));
+        assertEquals(300, progress[0]);
+        assertEquals(300, progress[1]);
+
+        String document = new String(out.toByteArray(), UTF_8);
+        int position = -1;
+        for (int i = 0; i < 300; i++) {
+            int found = document.indexOf("**Entry** " + i + "\n");
+            if (i % 7 == 3) {
+                assertEquals(-1, found);
+            } else {
+                assertTrue("Entry " + i + " out of order", found > position);
+                position = found;
+            }
+        }
+    }
+
+    @Test
+    public void zipHasADocumentByEntry() throws Exception {
+        List<byte[]> contents = new ArrayList<>();
+        contents.add(codec.encode(new HostSpannable("First")));
+        contents.add(null);
+        contents.add(codec.encode(new HostSpannable("Third")));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(new JournalExporter(entries(contents), codec, ExportFormat.HTML, 2).exportZipTo(out));
+
+        ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()));
+        List<String> names = new ArrayList<>();
+        for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+            names.add(entry.getName());
+            ByteArrayOutputStream document = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int n = zip.read(buffer); n > 0; n = zip.read(buffer)) {
+                document.write(buffer, 0, n);
+            }
+            String html = new String(document.toByteArray(), UTF_8);
+            assertTrue(html.startsWith("<!DOCTYPE html>") && html.endsWith("</html>\n"));
+        }
+        assertEquals("[0.html, 2.html]", names.toString());
+    }
+
+    @Test
+    public void exportCanBeCancelled() throws Exception {
+        List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            contents.add(codec.encode(new HostSpannable("Entry " + i)));
+        }
+        final JournalExporter exporter = new JournalExporter(entries(contents), codec, ExportFormat.TEXT, 3);
+        final long[] exported = new long[1];
+        exporter.setProgressListener(new JournalExporter.ProgressListener() {
+            @Override
+            public void onProgress(long done, long total) {
+                exported[0] = done;
+                if (done == 10) {
+                    exporter.cancel();
+                }
+            }
+        });
+        assertFalse(exporter.exportTo(new ByteArrayOutputStream()));
+        assertEquals(10, exported[0]);
+    }
+
+    private String convert(ExportFormat format, HostSpannable text) throws IOException {
+        StringBuilder out = new StringBuilder();
+        format.appendRuns(out, codec.decodeRuns(codec.encode(text)));
+        return out.toString();
+    }
+
+    private static JournalExporter.Entries entries(final List<byte[]> contents) {
+        return new JournalExporter.Entries() {
+            @Override
+            public long getEntryCount() {
+                return contents.size();
+            }
+
+            @Override
+            public byte[] load(long id) {
+                return contents.get((int) id);
+            }
+
+            @Override
+            public long getTimestamp(long id) {
+                return id * 86400000L;
+            }
+        };
+    }
+}
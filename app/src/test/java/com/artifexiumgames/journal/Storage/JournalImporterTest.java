@@ -0,0 +1,292 @@
+package com.artifexiumgames.journal.Storage;
+
+import android.text.Spanned;
+
+import com.artifexiumgames.journal.RichEditText.HostSpannable;
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link JournalImporter} and the parsers of {@link ImportFormat}, into a
+ * destination in memory.
+ */
+public class JournalImporterTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final RichTextCodec codec = new RichTextCodec(HostSpans.TYPES);
+    private File directory;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("import", "");
+        assertTrue(directory.delete());
+        assertTrue(directory.mkdir());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File file : directory.listFiles()) {
+            assertTrue(file.delete());
+        }
+        assertTrue(directory.delete());
+    }
+
+    @Test
+    public void htmlBecomesRuns() throws Exception {
+        List<RichTextCodec.Runs> entries = parse(ImportFormat.HTML, "<html><head><title>Journal</title></head><body>"
+                + "<p>one <b>two <i>three</b> four</i> &amp; &#x41;&lt;</p><!-- <b>no</b> -->"
+                + "<p><span style=\"color: #f00; background-color: rgba(0, 0, 255, 0.5)\">five</span><br>six</p>"
+                + "<script>var x = '<b>';</script></body></html>");
+
+        assertEquals(1, entries.size());
+        assertEquals("one two three four & A<\nfive\nsix", markup(entries.get(0)));
+        assertEquals("one <b>two <i>three</i></b><i> four</i> &amp; A&lt;<br>\n"
+                + "<span style=\"color:#ff0000\"><span style=\"background-color:rgba(0,0,255,0.5)\">five</span></span><br>\nsix",
+                html(entries.get(0)));
+    }
+
+    @Test
+    public void articlesAreEntries() throws Exception {
+        List<RichTextCodec.Runs> entries = parse(ImportFormat.HTML,
+                "<article><h2>Monday</h2><p>first <u>entry</p></article>\n<article><p>second</p></article>");
+
+        assertEquals(2, entries.size());
+        assertEquals("<b>Monday</b><br>\nfirst <u>entry</u>", html(entries.get(0)));
+        assertEquals("second", html(entries.get(1)));
+    }
+
+    @Test
+    public void markdownBecomesRuns() throws Exception {
+        List<RichTextCodec.Runs> entries = parse(ImportFormat.MARKDOWN, "Before\n\n"
+                + "## Monday\n\n**bold** and *italic* and snake_case_name, ~~gone~~\\\n"
+                + "[a link](http://example.com) `*code*` \\*not\\* <u>under</u>\n"
+                + "continued\n\n- item\n\n# Tuesday\n__strong__ _em_");
+
+        assertEquals(3, entries.size());
+        assertEquals("Before", html(entries.get(0)));
+        assertEquals("<b>Monday</b><br>\n<b>bold</b> and <i>italic</i> and snake_case_name, <s>gone</s><br>\n"
+                + "a link *code* *not* <u>under</u> continued<br>\n\u2022 item", html(entries.get(1)));
+        assertEquals("<b>Tuesday</b><br>\n<b>strong</b> <i>em</i>", html(entries.get(2)));
+    }
+
+    @Test
+    public void exportedMarkdownIsImportedBack() throws Exception {
+        RichTextCodec.Runs exported = parse(ImportFormat.HTML, "<b>a</b> <i>b <s>c</s></i>\nd").get(0);
+        StringBuilder markdown = new StringBuilder();
+        ExportFormat.MARKDOWN.appendRuns(markdown, exported);
+
+        List<RichTextCodec.Runs> entries = parse(ImportFormat.MARKDOWN, markdown.toString());
+        assertEquals(1, entries.size());
+        assertEquals(html(exported), html(entries.get(0)));
+    }
+
+    @Test
+    public void jsonObjectsWithContentAreEntries() throws Exception {
+        List<Long> timestamps = new ArrayList<>();
+        List<RichTextCodec.Runs> entries = parse(ImportFormat.JSON, "{\"version\": 2, \"entries\": ["
+                + "{\"title\": \"First\", \"text\": \"plain \\\"text\\\"\\nline \\u00e9\", \"tags\": [\"a\", 1, true, null]},"
+                + "{\"date\": 1500000000, \"markdown\": \"**bold**\"},"
+                + "{\"html\": \"<i>italic</i>\", \"created\": \"2017-07-14T02:40:00.5Z\", \"meta\": {\"mood\": -1.5e3}},"
+                + "{\"title\": \"No content\"}]}", timestamps);
+
+        assertEquals(3, entries.size());
+        assertEquals(Arrays.asList(0L, 1500000000000L, 1500000000500L), timestamps);
+        assertEquals("<b>First</b><br>\nplain &quot;text&quot;<br>\nline \u00e9", html(entries.get(0)));
+        assertEquals("<b>bold</b>", html(entries.get(1)));
+        assertEquals("<i>italic</i>", html(entries.get(2)));
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedJsonIsRefused() throws Exception {
+        parse(ImportFormat.JSON, "[{\"text\": \"unterminated}]");
+    }
+
+    @Test
+    public void filesAreImportedInBatches() throws Exception {
+        List<File> files = new ArrayList<>();
+        for (int f = 0; f < 6; f++) {
+            StringBuilder markdown = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                markdown.append("## File ").append(f).append(" entry ").append(i).append("\n\n*text*\n\n");
+            }
+            files.add(write("file" + f + ".md", markdown.toString()));
+        }
+        files.add(write("broken.json", "[{\"text\": "));
+        files.add(write("notes.doc", "?"));
+
+        final List<byte[]> saved = Collections.synchronizedList(new ArrayList<byte[]>());
+        final int[] flushes = new int[1];
+        JournalImporter importer = new JournalImporter(new JournalImporter.Destination() {
+            @Override
+            public void save(byte[] content, long timestamp) {
+                saved.add(content);
+            }
+
+            @Override
+            public void flush() {
+                assertTrue(saved.size() % JournalImporter.BATCH_SIZE == 0 || saved.size() == 600);
+                flushes[0]++;
+            }
+        }, codec, 3);
+
+        assertEquals(600, importer.importFiles(files));
+        assertEquals(600, saved.size());
+        assertEquals(600 / JournalImporter.BATCH_SIZE + 1, flushes[0]);
+        List<String> failures = importer.getFailures();
+        Collections.sort(failures);
+        assertEquals(2, failures.size());
+        assertTrue(failures.get(0), failures.get(0).startsWith("broken.json: "));
+        assertEquals("notes.doc: Unknown format", failures.get(1));
+
+        List<String> texts = new ArrayList<>();
+        for (byte[] content : saved) {
+            RichTextCodec.Runs runs = codec.decodeRuns(content);
+            texts.add(new String(runs.text));
+            assertEquals(2, runs.count);
+        }
+        Collections.sort(texts);
+        assertEquals("File 0 entry 0\ntext", texts.get(0));
+        assertEquals(600, texts.size());
+        assertEquals(texts.size(), new HashSet<>(texts).size());
+    }
+
+    @Test
+    public void formatIsTheExtension() {
+        assertEquals(ImportFormat.HTML, ImportFormat.forFile("a.HTM"));
+        assertEquals(ImportFormat.MARKDOWN, ImportFormat.forFile("a.markdown"));
+        assertEquals(ImportFormat.JSON, ImportFormat.forFile("a.b.json"));
+        assertNull(ImportFormat.forFile("json"));
+        assertEquals(Arrays.asList(0xFFFF0000, 0xFF112233, null),
+                Arrays.asList(HtmlImportParser.parseColor("red"), HtmlImportParser.parseColor("#123"),
+                        HtmlImportParser.parseColor("#12")));
+    }
+
+    @Test
+    public void exportedJournalIsImportedWithItsDates() throws Exception {
+        final List<byte[]> contents = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            HostSpannable text = new HostSpannable("Entry " + i + "\nwith a second line");
+            text.setSpan(new HostSpans.Bold(), 0, 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            text.setSpan(new HostSpans.Italic(), text.length() - 11, text.length() - 5, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            contents.add(codec.encode(text));
+        }
+        //HTML dates to the millisecond, the headings of Markdown to the minute
+        roundTrip(ExportFormat.HTML, contents, 1234567);
+        roundTrip(ExportFormat.MARKDOWN, contents, 60000);
+    }
+
+    /**
+     * Exports {@code contents} to a file of {@code format}, dated every {@code step} from July 2017, and
+     * checks the file imports as the same entries with the same dates
+     */
+    private void roundTrip(ExportFormat format, final List<byte[]> contents, final long step) throws Exception {
+        final long first = 1500000000000L;
+        JournalExporter exporter = new JournalExporter(new JournalExporter.Entries() {
+            @Override
+            public long getEntryCount() {
+                return contents.size();
+            }
+
+            @Override
+            public byte[] load(long id) {
+                return contents.get((int) id);
+            }
+
+            @Override
+            public long getTimestamp(long id) {
+                return first + id * (86400000L + step);
+            }
+        }, codec, format, 2);
+        File file = new File(directory, "journal." + format.getExtension());
+        OutputStream out = new FileOutputStream(file);
+        try {
+            assertTrue(exporter.exportTo(out));
+        } finally {
+            out.close();
+        }
+
+        final List<byte[]> saved = new ArrayList<>();
+        final List<Long> timestamps = new ArrayList<>();
+        JournalImporter importer = new JournalImporter(new JournalImporter.Destination() {
+            @Override
+            public void save(byte[] content, long timestamp) {
+                saved.add(content);
+                timestamps.add(timestamp);
+            }
+
+            @Override
+            public void flush() {
+            }
+        }, codec, 1);
+        assertEquals(contents.size(), importer.importFiles(Collections.singletonList(file)));
+        assertEquals(Collections.emptyList(), importer.getFailures());
+        for (int i = 0; i < contents.size(); i++) {
+            assertEquals(format + " entry " + i, html(codec.decodeRuns(contents.get(i))), html(codec.decodeRuns(saved.get(i))));
+            assertEquals(format + " entry " + i, first + i * (86400000L + step), (long) timestamps.get(i));
+        }
+    }
+
+    private static List<RichTextCodec.Runs> parse(ImportFormat format, String document) throws IOException {
+        return parse(format, document, new ArrayList<Long>());
+    }
+
+    /**
+     * @param timestamps where the timestamp of every entry goes
+     */
+    private static List<RichTextCodec.Runs> parse(ImportFormat format, String document, final List<Long> timestamps)
+            throws IOException {
+        final List<RichTextCodec.Runs> entries = new ArrayList<>();
+        format.parse(new StringReader(document), new ImportFormat.Sink() {
+            @Override
+            public void onEntry(RichTextCodec.Runs entry, long timestamp) {
+                entries.add(entry);
+                timestamps.add(timestamp);
+            }
+        });
+        return entries;
+    }
+
+    private static String markup(RichTextCodec.Runs runs) {
+        StringBuilder out = new StringBuilder();
+        ExportFormat.TEXT.appendRuns(out, runs);
+        return out.toString();
+    }
+
+    private static String html(RichTextCodec.Runs runs) {
+        StringBuilder out = new StringBuilder();
+        ExportFormat.HTML.appendRuns(out, runs);
+        return out.toString();
+    }
+
+    private File write(String name, String content) throws IOException {
+        File file = new File(directory, name);
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), UTF_8);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -0,0 +1,117 @@
+package com.artifexiumgames.journal.Storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.crypto.SecretKey;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link KeyVault}, in a temporary file.
+ */
+public class KeyVaultTest {
+
+    private File file;
+    private SecretKey masterKey;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("vault", "");
+        assertTrue(file.delete());
+        masterKey = KeyVault.newMasterKey();
+    }
+
+    @After
+    public void tearDown() {
+        assertTrue(!file.exists() || file.delete());
+    }
+
+    @Test
+    public void rightPasswordUnlocksTheMasterKey() throws Exception {
+        KeyVault.create(file, "secret".toCharArray(), masterKey, KeyVault.MIN_ITERATIONS);
+        assertTrue(KeyVault.exists(file));
+        KeyVault vault = KeyVault.read(file);
+        assertFalse(vault.isUnlocked());
+        assertEquals(KeyVault.MIN_ITERATIONS, vault.getIterations());
+        assertArrayEquals(masterKey.getEncoded(), vault.unlock("secret".toCharArray()).getEncoded());
+        assertTrue(vault.isUnlocked());
+    }
+
+    @Test
+    public void wrongPasswordIsRefused() throws Exception {
+        KeyVault.create(file, "secret".toCharArray(), masterKey, KeyVault.MIN_ITERATIONS);
+        KeyVault vault = KeyVault.read(file);
+        try {
+            vault.unlock("Secret".toCharArray());
+            fail("Unlocked with a wrong password");
+        } catch (WrongPasswordException expected) {
+            assertFalse(vault.isUnlocked());
+        }
+        vault.unlock("secret".toCharArray());
+        try {
+            vault.unlock("".toCharArray()); //checked against the session cache
+            fail("Unlocked with a wrong password");
+        } catch (WrongPasswordException expected) {
+            assertTrue(vault.isUnlocked());
+        }
+    }
+
+    @Test
+    public void unlockedVaultDoesNotDeriveAgain() throws Exception {
+        CountingDerivation derivation = new CountingDerivation();
+        KeyVault created = KeyVault.create(file, "secret".toCharArray(), masterKey, KeyVault.MIN_ITERATIONS, derivation);
+        assertEquals(1, derivation.count);
+        assertArrayEquals(masterKey.getEncoded(), created.unlock("secret".toCharArray()).getEncoded());
+        assertEquals(1, derivation.count); //unlocked once made
+
+        KeyVault vault = KeyVault.read(file, derivation);
+        for (int i = 0; i < 100; i++) {
+            assertArrayEquals(masterKey.getEncoded(), vault.unlock("secret".toCharArray()).getEncoded());
+        }
+        assertEquals(2, derivation.count);
+        vault.lock();
+        assertFalse(vault.isUnlocked());
+        vault.unlock("secret".toCharArray());
+        assertEquals(3, derivation.count);
+    }
+
+    @Test
+    public void changedPasswordKeepsTheMasterKey() throws Exception {
+        KeyVault vault = KeyVault.create(file, "old".toCharArray(), masterKey, KeyVault.MIN_ITERATIONS);
+        vault.changePassword("old".toCharArray(), "new".toCharArray());
+        KeyVault read = KeyVault.read(file);
+        assertArrayEquals(masterKey.getEncoded(), read.unlock("new".toCharArray()).getEncoded());
+        try {
+            KeyVault.read(file).unlock("old".toCharArray());
+            fail("Unlocked with the old password");
+        } catch (WrongPasswordException expected) {
+            //the old password no longer unlocks the vault
+        }
+    }
+
+    @Test
+    public void calibrationStaysInBounds() throws Exception {
+        int iterations = KeyVault.calibrate(KeyVault.TARGET_UNLOCK_MILLIS);
+        assertTrue(iterations >= KeyVault.MIN_ITERATIONS);
+        assertTrue(iterations <= KeyVault.MAX_ITERATIONS);
+        assertEquals(KeyVault.MIN_ITERATIONS, KeyVault.calibrate(0));
+    }
+
+    /**
+     * Derives the keys as the vaults do, counting the derivations
+     */
+    private static class CountingDerivation implements KeyVault.KeyDerivation {
+        int count;
+
+        @Override
+        public SecretKey deriveKey(char[] password, byte[] salt, int iterations) throws IOException {
+            count++;
+            return KeyVault.PBKDF2.deriveKey(password, salt, iterations);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.artifexiumgames.journal.Storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SearchIndex} and {@link SearchTerms}, in a temporary directory.
+ */
+public class SearchIndexTest {
+
+    private File directory;
+    private SecretKey key;
+    private SearchIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = File.createTempFile("search", "");
+        assertTrue(directory.delete());
+        key = new SecretKeySpec(new byte[32], "AES");
+        index = new SearchIndex(directory, key, 0);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        index.close();
+        delete(directory);
+    }
+
+    @Test
+    public void termsAreLowerCasedWithWordPositions() throws Exception {
+        Map<String, int[]> terms = SearchTerms.of("The cat, the HAT; the end.");
+        assertArrayEquals(new int[]{0, 2, 4}, terms.get("the"));
+        assertArrayEquals(new int[]{3}, terms.get("hat"));
+        assertEquals(4, terms.size());
+        assertArrayEquals(new String[]{"hat", "cat"}, SearchTerms.ofQuery("Hat CAT hat"));
+    }
+
+    @Test
+    public void resultsAreRanked() throws Exception {
+        index.update(0, "We walked along the lake and saw a heron.");
+        index.update(1, "Rain all day. Read a book about the sea.");
+        index.update(2, "Lake trip: the lake was calm, a heron came back under a blue sky.");
+        index.update(3, "A blue heron, then a grey one.");
+
+        assertEquals(ids(2, 0), ids(index.search("lake", 10)));
+        //Both terms beat one, and the words next to each other beat the words apart
+        assertEquals(ids(3, 2, 0), ids(index.search("blue heron", 10)));
+        assertTrue(index.search("submarine", 10).isEmpty());
+        assertEquals(1, index.search("lake heron", 1).size());
+    }
+
+    @Test
+    public void onlyChangedTermsAreIndexedAgain() throws Exception {
+        assertEquals(3, index.update(5, "Morning run, cold."));
+        assertEquals(0, index.update(5, "Morning run, cold."));
+        assertEquals(2, index.update(5, "Morning run, cold. Coffee after.")); //added at the end
+        assertEquals(3, index.update(5, "Morning run, Coffee after.")); //cold gone, the words after it moved
+
+        assertTrue(index.search("cold", 10).isEmpty());
+        assertEquals(ids(5), ids(index.search("coffee", 10)));
+    }
+
+    @Test
+    public void indexSurvivesReopening() throws Exception {
+        //Enough updates with new terms for the dictionary to be folded into its snapshot
+        Map<Long, String> texts = new HashMap<>();
+        for (int i = 0; i < SearchIndex.MAX_DELTAS + 10; i++) {
+            index.update(i * 7L, "entry number" + i + " about gardening");
+        }
+        texts.put(1000L, "a later block, about gardening too");
+        index.update(texts);
+        index.close();
+
+        index = new SearchIndex(directory, key, 0);
+        assertEquals(SearchIndex.MAX_DELTAS + 11, index.search("gardening", 1000).size());
+        assertEquals(ids(7 * 42), ids(index.search("number42", 10)));
+        assertEquals(ids(1000), ids(index.search("block", 10)));
+        assertTrue(index.isIndexed(1000));
+        assertFalse(index.isIndexed(1));
+        assertEquals(0, index.update(1000, "a later block, about gardening too"));
+    }
+
+    private static List<Long> ids(long... ids) {
+        List<Long> list = new ArrayList<>();
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static List<Long> ids(List<SearchIndex.Result> results) {
+        List<Long> list = new ArrayList<>();
+        for (SearchIndex.Result result : results) {
+            list.add(result.getEntryId());
+        }
+        return list;
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.artifexiumgames.journal.Storage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SummaryTable} and {@link EntrySummary}, in a temporary file.
+ */
+public class SummaryTableTest {
+
+    private File tableFile;
+    private SecretKey key;
+    private SummaryTable table;
+
+    @Before
+    public void setUp() throws Exception {
+        tableFile = File.createTempFile("summaries", ".tbl");
+        key = new SecretKeySpec(new byte[32], "AES");
+        table = new SummaryTable(tableFile, key);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        table.close();
+        assertTrue(tableFile.delete());
+    }
+
+    @Test
+    public void summaryOfAnEntry() throws Exception {
+        EntrySummary summary = EntrySummary.summarize(3, 1000, "\n  A day at the lake\nWe swam,\n\n   and   then we ate.");
+        assertEquals("A day at the lake", summary.getTitle());
+        assertEquals("We swam, and then we ate.", summary.getPreview());
+        assertEquals(11, summary.getWordCount());
+
+        StringBuilder longLine = new StringBuilder();
+        for (int i = 0; i < EntrySummary.TITLE_CHARS - 1; i++) {
+            longLine.append('x');
+        }
+        longLine.append("\ud83d\udcd4 and more"); //a pair across the limit
+        summary = EntrySummary.summarize(0, 1000, longLine);
+        assertEquals(EntrySummary.TITLE_CHARS - 1, summary.getTitle().length());
+        assertEquals("", summary.getPreview());
+    }
+
+    @Test
+    public void rowsAreReadBack() throws Exception {
+        table.put(new EntrySummary(0, 100, "First", "Preview of the first", 4));
+        table.put(new EntrySummary(2, 300, "Third", "caf\u00e9 \u65e5\u8a18", 2));
+        table.put(new EntrySummary(0, 400, "First, again", "Edited", 1));
+
+        EntrySummary[] rows = table.getRows(0, 5);
+        assertEquals(5, rows.length);
+        assertEquals("First, again", rows[0].getTitle());
+        assertEquals(400, rows[0].getTimestamp());
+        assertNull(rows[1]); //never saved
+        assertEquals("caf\u00e9 \u65e5\u8a18", rows[2].getPreview());
+        assertEquals(2, rows[2].getId());
+        assertNull(rows[3]); //past the end of the table
+        assertNull(table.get(100));
+
+        table.close();
+        table = new SummaryTable(tableFile, key);
+        assertEquals("Third", table.get(2).getTitle());
+    }
+
+    @Test
+    public void longestSummaryFitsInARow() throws Exception {
+        char[] wide = new char[EntrySummary.TITLE_CHARS + EntrySummary.PREVIEW_CHARS + 10];
+        Arrays.fill(wide, '\u65e5');
+        wide[EntrySummary.TITLE_CHARS] = '\n';
+        EntrySummary summary = EntrySummary.summarize(7, 700, new String(wide));
+        table.put(summary);
+        assertEquals(summary.getPreview(), table.get(7).getPreview());
+    }
+
+    @Test
+    public void tornRowReadsAsMissing() throws Exception {
+        table.put(new EntrySummary(0, 100, "Kept", "", 1));
+        table.put(new EntrySummary(1, 200, "Torn", "", 1));
+        RandomAccessFile file = new RandomAccessFile(tableFile, "rw");
+        file.seek(SummaryTable.HEADER_SIZE + SummaryTable.ROW_SIZE + 100);
+        file.write(new byte[50]);
+        file.close();
+
+        EntrySummary[] rows = table.getRows(0, 2);
+        assertEquals("Kept", rows[0].getTitle());
+        assertNull(rows[1]);
+    }
+
+    @Test
+    public void removedRowReadsAsMissing() throws Exception {
+        table.put(new EntrySummary(0, 100, "Kept", "", 1));
+        table.put(new EntrySummary(1, 200, "Stale", "", 1));
+        table.remove(1);
+        table.remove(5); //past the end of the table
+        assertEquals(2 * SummaryTable.ROW_SIZE + SummaryTable.HEADER_SIZE, tableFile.length());
+
+        EntrySummary[] rows = table.getRows(0, 2);
+        assertEquals("Kept", rows[0].getTitle());
+        assertNull(rows[1]);
+    }
+
+    @Test
+    public void tableOfAnotherVersionIsMadeAgain() throws Exception {
+        table.put(new EntrySummary(0, 100, "Old", "", 1));
+        table.close();
+        RandomAccessFile file = new RandomAccessFile(tableFile, "rw");
+        file.seek(4);
+        file.writeInt(SummaryTable.VERSION + 1);
+        file.close();
+
+        table = new SummaryTable(tableFile, key);
+        assertNull(table.get(0));
+        assertEquals(SummaryTable.HEADER_SIZE, tableFile.length());
+    }
+}
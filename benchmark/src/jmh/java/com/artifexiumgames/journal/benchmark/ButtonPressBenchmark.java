@@ -0,0 +1,50 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.RichEditOperations;
+import com.artifexiumgames.journal.RichEditText.UndoHistory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * RichEditText.updateTextStylesOnButtonPress: pressing bold with a selection of {@link #selectionLength}
+ * characters, or with the cursor in a word when it is 0.
+ * <p>
+ *  The press is recorded in an {@link UndoHistory}, as the editor records it, then undone, so the document
+ *  stays the same from one operation to the next without being copied. The score is of the press and its
+ *  undo together.
+ * </p>
+ */
+@State(Scope.Thread)
+public class ButtonPressBenchmark {
+
+    @Param({"0", "100", "100000"})
+    public int selectionLength;
+
+    private final RichEditOperations operations = new RichEditOperations();
+    private final UndoHistory history = new UndoHistory(HostSpans.TYPES);
+    private Editable text;
+
+    @Setup(Level.Iteration)
+    public void copyDocument(DocumentState document) {
+        text = document.fresh();
+    }
+
+    @Benchmark
+    public Editable boldSelection(DocumentState document) {
+        int selStart = SyntheticDocument.wordAt(text, document.nextCursor());
+        int selEnd = Math.min(text.length(), selStart + selectionLength);
+        history.beginStyleEdit(text, selStart, selEnd);
+        operations.applyStyleToSelection(text, selStart, selEnd, HostSpans.BOLD);
+        history.endStyleEdit(text);
+        history.undo(text);
+        return text;
+    }
+}
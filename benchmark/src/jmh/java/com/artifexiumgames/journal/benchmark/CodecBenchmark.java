@@ -0,0 +1,83 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Saving and loading an entry with RichTextCodec, against HTML (see {@link HtmlBaseline}). HTML is decoded
+ * both by a hand-written parser, the fastest it could be, and by TagSoup, as Html.fromHtml decodes it.
+ * <p>
+ *  All the decodes load the entry into a {@link PieceTableEditable}, as the editor does: the time to make the
+ *  spans of the editor is part of loading an entry, whatever it was saved as.
+ * </p>
+ * <p>
+ *  The targets of the codec, output 5 times smaller and decoding 10 times faster than HTML, are for formatted
+ *  entries, at a density of 0.3, and against Html.fromHtml, which {@link #decodeHtmlTagSoup()} stands for.
+ *  A lightly formatted entry is mostly text in both formats.
+ * </p>
+ * <p>
+ *  The documents stop at 100k characters, which is already a very long entry: the HTML of 1M characters
+ *  takes most of a measurement iteration to parse.
+ * </p>
+ */
+@State(Scope.Thread)
+public class CodecBenchmark {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    @Param({"1000", "10000", "100000"})
+    public int length;
+
+    @Param({"0.05", "0.3"})
+    public double spanDensity;
+
+    private final RichTextCodec codec = new RichTextCodec(HostSpans.TYPES);
+    private Editable text;
+    private byte[] binary;
+    private String html;
+
+    @Setup(Level.Trial)
+    public void buildDocument() {
+        text = SyntheticDocument.build(length, spanDensity);
+        binary = codec.encode(text);
+        html = HtmlBaseline.toHtml(text);
+    }
+
+    @Benchmark
+    public byte[] encodeBinary() {
+        return codec.encode(text);
+    }
+
+    @Benchmark
+    public Editable decodeBinary() throws IOException {
+        return codec.decode(binary, PieceTableEditable.FACTORY);
+    }
+
+    @Benchmark
+    public byte[] encodeHtml() {
+        return HtmlBaseline.toHtml(text).getBytes(UTF_8);
+    }
+
+    @Benchmark
+    public Editable decodeHtml() {
+        return HtmlBaseline.fromHtml(new String(html.getBytes(UTF_8), UTF_8));
+    }
+
+    @Benchmark
+    public Editable decodeHtmlTagSoup() {
+        return HtmlBaseline.fromHtmlTagSoup(new String(html.getBytes(UTF_8), UTF_8));
+    }
+}
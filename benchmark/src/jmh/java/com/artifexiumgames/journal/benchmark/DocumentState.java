@@ -0,0 +1,62 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * A synthetic document per benchmark thread, from 1k to 1M characters, lightly or heavily formatted.
+ * <p>
+ *  The document is a {@link PieceTableEditable}, the Editable of the editor, so the benchmarks measure
+ *  the editor's code over the span storage it runs on, where finding, setting and removing a span costs
+ *  O(log n). The HostSpannable of the unit tests looks every span up in a list, and would be measured
+ *  instead of the code under test on long documents.
+ * </p>
+ * <p>
+ *  {@link #template} is built once per trial. Benchmarks that change the document either undo their
+ *  change within the operation, or work on a {@link #fresh()} copy made outside of the measurement.
+ * </p>
+ */
+@State(Scope.Thread)
+public class DocumentState {
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    public int length;
+
+    @Param({"0.05", "0.3"})
+    public double spanDensity;
+
+    public Editable template;
+
+    /**
+     * Moves through the document from one operation to the next, like a cursor would
+     */
+    public int cursor;
+
+    @Setup(Level.Trial)
+    public void buildDocument() {
+        template = SyntheticDocument.build(length, spanDensity);
+        cursor = 0;
+    }
+
+    /**
+     * @return a copy of the document, spans included
+     */
+    public Editable fresh() {
+        return new PieceTableEditable(template);
+    }
+
+    /**
+     * @return the next cursor position, a prime number of characters further
+     */
+    public int nextCursor() {
+        cursor = (cursor + 7919) % length;
+        return cursor;
+    }
+}
@@ -0,0 +1,63 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+
+import com.artifexiumgames.journal.RichEditText.HostSpannable;
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The Editable behind RichEditText: inserting and deleting at positions all over the document, and at
+ * its two ends in turn, as after pageUpAction and pageDownAction.
+ * <p>
+ *  {@link PieceTableEditable} should stay about flat from 1k to 1M characters, growing as O(log n),
+ *  where {@link HostSpannable}, which like SpannableStringBuilder moves characters and goes through
+ *  every span on each edit, grows linearly. Every operation undoes its own edits, so the document stays
+ *  the same from one operation to the next, but for the one-character style runs a deletion removes.
+ * </p>
+ */
+@State(Scope.Thread)
+public class EditableBenchmark {
+
+    @Param({"pieceTable", "hostSpannable"})
+    public String editable;
+
+    private Editable text;
+
+    @Setup(Level.Iteration)
+    public void copyDocument(DocumentState document) {
+        text = editable.equals("pieceTable") ? document.fresh() : new HostSpannable(document.template);
+    }
+
+    @Benchmark
+    public Editable insertAtRandom(DocumentState document) {
+        int at = document.nextCursor();
+        text.insert(at, "a");
+        text.delete(at, at + 1);
+        return text;
+    }
+
+    @Benchmark
+    public Editable deleteAtRandom(DocumentState document) {
+        int at = document.nextCursor();
+        char deleted = text.charAt(at);
+        text.delete(at, at + 1);
+        text.insert(at, String.valueOf(deleted));
+        return text;
+    }
+
+    @Benchmark
+    public Editable insertAtBothEnds() {
+        text.insert(0, "a");
+        text.append("b");
+        text.delete(text.length() - 1, text.length());
+        text.delete(0, 1);
+        return text;
+    }
+}
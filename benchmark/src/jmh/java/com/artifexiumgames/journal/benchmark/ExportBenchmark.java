@@ -0,0 +1,83 @@
+package com.artifexiumgames.journal.benchmark;
+
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+import com.artifexiumgames.journal.Storage.ExportFormat;
+import com.artifexiumgames.journal.Storage.JournalExporter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Exporting a journal of {@value #ENTRIES} entries with JournalExporter, by number of threads: the
+ * throughput should grow with the threads, up to the cores of the machine. The entries are encoded in
+ * memory, so only the conversion and the writing are measured, not the disk or the cipher.
+ */
+@State(Scope.Thread)
+public class ExportBenchmark {
+
+    public static final int ENTRIES = 2000;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"HTML", "MARKDOWN"})
+    public ExportFormat format;
+
+    private final RichTextCodec codec = new RichTextCodec(HostSpans.TYPES);
+    private byte[][] entries;
+
+    @Setup(Level.Trial)
+    public void buildJournal() {
+        entries = new byte[ENTRIES][];
+        for (int i = 0; i < ENTRIES; i++) {
+            entries[i] = codec.encode(SyntheticDocument.build(1000 + i % 7 * 1000, 0.3));
+        }
+    }
+
+    @Benchmark
+    public long export() throws IOException {
+        CountingStream out = new CountingStream();
+        new JournalExporter(new JournalExporter.Entries() {
+            @Override
+            public long getEntryCount() {
+                return ENTRIES;
+            }
+
+            @Override
+            public byte[] load(long id) {
+                return entries[(int) id];
+            }
+
+            @Override
+            public long getTimestamp(long id) {
+                return id * 86400000L;
+            }
+        }, codec, format, threads).exportTo(out);
+        return out.count;
+    }
+
+    /**
+     * Counts the bytes written, and drops them
+     */
+    private static class CountingStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
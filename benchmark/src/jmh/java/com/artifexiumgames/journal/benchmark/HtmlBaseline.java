@@ -0,0 +1,286 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+import android.text.Spanned;
+
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+
+import org.ccil.cowan.tagsoup.HTMLSchema;
+import org.ccil.cowan.tagsoup.Parser;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * A host-side rendition of android.text.Html, the usual way to save a styled text, for comparison with
+ * RichTextCodec.
+ * <p>
+ *  {@link #toHtml(Spanned)} writes what Html.toHtml writes for the editor's spans: a {@code <p dir="ltr">}
+ *  per paragraph, the tags of every span reopened around every stretch of text where the set of spans
+ *  changes, and every non-ASCII character as an entity. The sizes are therefore those of the real thing.
+ *  {@link #fromHtml(String)} is a hand-written parser of that output, much faster than the TagSoup parser
+ *  behind Html.fromHtml, so the decode times on the host flatter HTML. {@link #fromHtmlTagSoup(String)}
+ *  parses it as Html.fromHtml does, with TagSoup and a SAX handler setting a span per element, which is
+ *  what loading an entry saved as HTML costs in the app.
+ * </p>
+ */
+public final class HtmlBaseline {
+
+    //As in Html.fromHtml, the schema is built once: it is the bulk of the cost of a parser
+    private static final HTMLSchema SCHEMA = new HTMLSchema();
+
+    private HtmlBaseline() {
+        //Static methods only
+    }
+
+    public static String toHtml(Spanned text) {
+        StringBuilder out = new StringBuilder(text.length() * 2);
+        int paragraphStart = 0;
+        while (paragraphStart <= text.length()) {
+            int paragraphEnd = indexOf(text, '\n', paragraphStart);
+            out.append("<p dir=\"ltr\">");
+            withinParagraph(out, text, paragraphStart, paragraphEnd);
+            out.append("</p>\n");
+            paragraphStart = paragraphEnd + 1;
+        }
+        return out.toString();
+    }
+
+    private static void withinParagraph(StringBuilder out, Spanned text, int start, int end) {
+        int next;
+        for (int i = start; i < end; i = next) {
+            next = nextTransition(text, i, end);
+            Object[] spans = text.getSpans(i, next, Object.class);
+            for (Object span : spans) {
+                out.append(openTag(span));
+            }
+            for (int j = i; j < next; j++) {
+                char c = text.charAt(j);
+                if (c == '<') {
+                    out.append("&lt;");
+                } else if (c == '>') {
+                    out.append("&gt;");
+                } else if (c == '&') {
+                    out.append("&amp;");
+                } else if (c > 0x7E || c < ' ') {
+                    out.append("&#").append((int) c).append(';');
+                } else if (c == ' ' && j + 1 < next && text.charAt(j + 1) == ' ') {
+                    out.append("&nbsp;");
+                } else {
+                    out.append(c);
+                }
+            }
+            for (int s = spans.length - 1; s >= 0; s--) {
+                out.append(closeTag(spans[s]));
+            }
+        }
+    }
+
+    private static String openTag(Object span) {
+        if (span instanceof HostSpans.Bold) {
+            return "<b>";
+        } else if (span instanceof HostSpans.Italic) {
+            return "<i>";
+        } else if (span instanceof HostSpans.Underline) {
+            return "<u>";
+        } else if (span instanceof HostSpans.Strikethrough) {
+            return "<span style=\"text-decoration:line-through;\">";
+        } else if (span instanceof HostSpans.ForegroundColor) {
+            return String.format(Locale.US, "<span style=\"color:#%06X;\">", ((HostSpans.ForegroundColor) span).color & 0xFFFFFF);
+        } else if (span instanceof HostSpans.BackgroundColor) {
+            return String.format(Locale.US, "<span style=\"background-color:#%06X;\">", ((HostSpans.BackgroundColor) span).color & 0xFFFFFF);
+        }
+        return "";
+    }
+
+    private static String closeTag(Object span) {
+        if (span instanceof HostSpans.Bold) {
+            return "</b>";
+        } else if (span instanceof HostSpans.Italic) {
+            return "</i>";
+        } else if (span instanceof HostSpans.Underline) {
+            return "</u>";
+        } else if (span instanceof HostSpans.Strikethrough || span instanceof HostSpans.ForegroundColor
+                || span instanceof HostSpans.BackgroundColor) {
+            return "</span>";
+        }
+        return "";
+    }
+
+    /**
+     * Parses the output of {@link #toHtml(Spanned)} back into a styled text, in a {@link PieceTableEditable}
+     * as the editor holds it
+     */
+    public static Editable fromHtml(String html) {
+        StringBuilder text = new StringBuilder(html.length());
+        ArrayList<Object[]> open = new ArrayList<>(); //{tag, start}
+        ArrayList<Object[]> runs = new ArrayList<>(); //{span, start, end}
+        int i = 0;
+        while (i < html.length()) {
+            char c = html.charAt(i);
+            if (c == '<') {
+                int close = html.indexOf('>', i);
+                String tag = html.substring(i + 1, close);
+                if (tag.startsWith("/")) {
+                    String name = tag.substring(1);
+                    if (name.equals("p")) {
+                        text.append('\n');
+                    } else {
+                        for (int o = open.size() - 1; o >= 0; o--) {
+                            String openTag = (String) open.get(o)[0];
+                            if (openTag.startsWith(name)) {
+                                Object span = spanOf(openTag);
+                                if (span != null) {
+                                    runs.add(new Object[]{span, open.get(o)[1], text.length()});
+                                }
+                                open.remove(o);
+                                break;
+                            }
+                        }
+                    }
+                } else if (!tag.startsWith("p ")) {
+                    open.add(new Object[]{tag, text.length()});
+                }
+                i = close + 1;
+            } else if (c == '&') {
+                int semicolon = html.indexOf(';', i);
+                String entity = html.substring(i + 1, semicolon);
+                if (entity.equals("lt")) {
+                    text.append('<');
+                } else if (entity.equals("gt")) {
+                    text.append('>');
+                } else if (entity.equals("amp")) {
+                    text.append('&');
+                } else if (entity.equals("nbsp")) {
+                    text.append(' ');
+                } else {
+                    text.append((char) Integer.parseInt(entity.substring(1)));
+                }
+                i = semicolon + 1;
+            } else {
+                if (c != '\n') {
+                    text.append(c);
+                }
+                i++;
+            }
+        }
+        Editable result = new PieceTableEditable(text);
+        for (Object[] run : runs) {
+            result.setSpan(run[0], (Integer) run[1], (Integer) run[2], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return result;
+    }
+
+    /**
+     * Parses the output of {@link #toHtml(Spanned)} as Html.fromHtml does, in a {@link PieceTableEditable} as
+     * the editor holds it
+     */
+    public static Editable fromHtmlTagSoup(String html) {
+        Parser parser = new Parser();
+        TagSoupConverter converter = new TagSoupConverter();
+        try {
+            parser.setProperty(Parser.schemaProperty, SCHEMA);
+            parser.setContentHandler(converter);
+            parser.parse(new InputSource(new StringReader(html)));
+        } catch (IOException | SAXException e) {
+            throw new IllegalStateException(e); //the HTML is in memory, and TagSoup takes any input
+        }
+        Editable result = new PieceTableEditable(converter.text);
+        for (Object[] run : converter.runs) {
+            result.setSpan(run[0], (Integer) run[1], (Integer) run[2], Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        return result;
+    }
+
+    /**
+     * The SAX handler of {@link #fromHtmlTagSoup(String)}: keeps the text, collapsing whitespace as
+     * Html.fromHtml does, and makes a span of every styling element when it is closed
+     */
+    private static class TagSoupConverter extends DefaultHandler {
+        private final StringBuilder text = new StringBuilder();
+        private final ArrayList<Object[]> open = new ArrayList<>(); //{tag, start}
+        private final ArrayList<Object[]> runs = new ArrayList<>(); //{span, start, end}
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            String style = attributes.getValue("style");
+            open.add(new Object[]{style != null ? style : localName, text.length()});
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            Object[] tag = open.remove(open.size() - 1);
+            if (localName.equals("p")) {
+                text.append('\n');
+                return;
+            }
+            Object span = spanOf((String) tag[0]);
+            if (span != null) {
+                runs.add(new Object[]{span, tag[1], text.length()});
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            for (int i = start; i < start + length; i++) {
+                char c = ch[i];
+                if (c == ' ' || c == '\n') {
+                    int last = text.length() - 1;
+                    if (last >= 0 && text.charAt(last) != ' ' && text.charAt(last) != '\n') {
+                        text.append(' ');
+                    }
+                } else {
+                    text.append(c == '\u00A0' ? ' ' : c);
+                }
+            }
+        }
+    }
+
+    private static Object spanOf(String tag) {
+        if (tag.equals("b")) {
+            return new HostSpans.Bold();
+        } else if (tag.equals("i")) {
+            return new HostSpans.Italic();
+        } else if (tag.equals("u")) {
+            return new HostSpans.Underline();
+        } else if (tag.contains("line-through")) {
+            return new HostSpans.Strikethrough();
+        } else if (tag.contains("background-color:#")) {
+            return new HostSpans.BackgroundColor(0xFF000000 | Integer.parseInt(tag.substring(tag.indexOf('#') + 1, tag.indexOf('#') + 7), 16));
+        } else if (tag.contains("color:#")) {
+            return new HostSpans.ForegroundColor(0xFF000000 | Integer.parseInt(tag.substring(tag.indexOf('#') + 1, tag.indexOf('#') + 7), 16));
+        }
+        return null;
+    }
+
+    private static int nextTransition(Spanned text, int start, int limit) {
+        int next = limit;
+        for (Object span : text.getSpans(start, limit, Object.class)) {
+            int spanStart = text.getSpanStart(span);
+            int spanEnd = text.getSpanEnd(span);
+            if (spanStart > start && spanStart < next) {
+                next = spanStart;
+            }
+            if (spanEnd > start && spanEnd < next) {
+                next = spanEnd;
+            }
+        }
+        return next;
+    }
+
+    private static int indexOf(CharSequence text, char c, int from) {
+        for (int i = from; i < text.length(); i++) {
+            if (text.charAt(i) == c) {
+                return i;
+            }
+        }
+        return text.length();
+    }
+}
@@ -0,0 +1,57 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+
+import com.artifexiumgames.journal.RichEditText.IndentEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * RichEditText.indentAction and unindentAction: indenting a selection of {@link #lines} lines, or at the
+ * cursor when it is 0, and unindenting again, so the document stays the same from one operation to the
+ * next. The layout of the paragraphs on the device cannot be measured on the host.
+ */
+@State(Scope.Thread)
+public class IndentBenchmark {
+
+    private static final int NUM_TABS = 4;
+
+    @Param({"0", "1", "500"})
+    public int lines;
+
+    private final IndentEngine engine = new IndentEngine();
+    private Editable text;
+    private int selStart;
+    private int selEnd;
+
+    @Setup(Level.Iteration)
+    public void copyDocument(DocumentState document) {
+        text = document.fresh();
+        selStart = document.nextCursor();
+        selEnd = selStart;
+        for (int line = 0; line < lines && selEnd < text.length(); selEnd++) {
+            if (text.charAt(selEnd) == '\n') {
+                line++;
+            }
+        }
+        if (lines > 0 && selEnd == selStart) {
+            selEnd = text.length();
+        }
+    }
+
+    @Benchmark
+    public Editable indentAndUnindent() {
+        int inserted = engine.indent(text, selStart, selEnd, NUM_TABS);
+        if (selStart == selEnd) {
+            engine.unindent(text, selStart + inserted, selEnd + inserted, NUM_TABS);
+        } else {
+            engine.unindent(text, selStart, selEnd + inserted, NUM_TABS);
+        }
+        return text;
+    }
+}
@@ -0,0 +1,64 @@
+package com.artifexiumgames.journal.benchmark;
+
+import com.artifexiumgames.journal.Storage.EntrySummary;
+import com.artifexiumgames.journal.Storage.SummaryTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The list of past entries: reading a page of summaries from a table of {@link #entries} entries, as
+ * PastEntriesAdapter does in the background ahead of scrolling, and summarizing an entry when it is saved.
+ */
+@State(Scope.Thread)
+public class PastEntriesBenchmark {
+
+    private static final int PAGE_SIZE = 50;
+
+    @Param({"10000"})
+    public int entries;
+
+    private File tableFile;
+    private SummaryTable table;
+    private CharSequence entry;
+    private final Random random = new Random(SyntheticDocument.SEED);
+
+    @Setup(Level.Trial)
+    public void fillTable() throws IOException {
+        tableFile = File.createTempFile("summaries", ".tbl");
+        table = new SummaryTable(tableFile, new SecretKeySpec(new byte[32], "AES"));
+        entry = SyntheticDocument.build(5000, 0.05);
+        for (int id = 0; id < entries; id++) {
+            table.put(EntrySummary.summarize(id, 1000 + id, entry));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTable() throws IOException {
+        table.close();
+        if (!tableFile.delete()) {
+            throw new IOException("Could not delete " + tableFile);
+        }
+    }
+
+    @Benchmark
+    public EntrySummary[] readPage() throws IOException {
+        return table.getRows(random.nextInt(entries - PAGE_SIZE), PAGE_SIZE);
+    }
+
+    @Benchmark
+    public EntrySummary summarizeOnSave() {
+        return EntrySummary.summarize(0, 1000, entry);
+    }
+}
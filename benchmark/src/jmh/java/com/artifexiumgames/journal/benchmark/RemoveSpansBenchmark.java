@@ -0,0 +1,73 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.RichEditOperations;
+import com.artifexiumgames.journal.RichEditText.UndoHistory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * RichEditText.removeSpansWithinSelection: un-bolding with the cursor in a bold word, and un-bolding a
+ * selection of 1000 characters.
+ * <p>
+ *  The un-styling is recorded in an {@link UndoHistory}, as the editor records it, then undone, so the
+ *  document stays the same from one operation to the next without being copied. The score is of the
+ *  un-styling and its undo together.
+ * </p>
+ */
+@State(Scope.Thread)
+public class RemoveSpansBenchmark {
+
+    private final RichEditOperations operations = new RichEditOperations();
+    private final UndoHistory history = new UndoHistory(HostSpans.TYPES);
+    private Editable text;
+    private int[] boldWords;
+    private int nextWord;
+
+    @Setup(Level.Iteration)
+    public void copyDocument(DocumentState document) {
+        text = document.fresh();
+        HostSpans.Bold[] bold = text.getSpans(0, text.length(), HostSpans.Bold.class);
+        boldWords = new int[Math.max(1, bold.length)];
+        for (int i = 0; i < bold.length; i++) {
+            boldWords[i] = text.getSpanStart(bold[i]) + 1;
+        }
+    }
+
+    @Benchmark
+    public Editable atCursor() {
+        int boldWord = nextBoldWord();
+        history.beginStyleEdit(text, boldWord, boldWord);
+        operations.removeSpansWithinSelection(text, boldWord, boldWord, HostSpans.BOLD);
+        return undo();
+    }
+
+    @Benchmark
+    public Editable withinSelection() {
+        int boldWord = nextBoldWord();
+        int end = Math.min(text.length(), boldWord + 1000);
+        history.beginStyleEdit(text, boldWord, end);
+        operations.removeSpansWithinSelection(text, boldWord, end, HostSpans.BOLD);
+        return undo();
+    }
+
+    /**
+     * @return a position within a bold run, a different one every time
+     */
+    private int nextBoldWord() {
+        nextWord = (nextWord + 7919) % boldWords.length;
+        return boldWords[nextWord];
+    }
+
+    private Editable undo() {
+        history.endStyleEdit(text);
+        history.undo(text);
+        return text;
+    }
+}
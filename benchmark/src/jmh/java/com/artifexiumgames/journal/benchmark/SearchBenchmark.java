@@ -0,0 +1,142 @@
+package com.artifexiumgames.journal.benchmark;
+
+import com.artifexiumgames.journal.Storage.SearchIndex;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Journal-wide search: ranked queries over {@link #entries} entries of {@link #words} words, drawn from a
+ * vocabulary with the frequencies of a natural language (Zipf's law), so that the most common term is in
+ * every entry and most terms are in a few. Also saving an entry with a sentence added at its end, which
+ * indexes only the terms of the sentence again.
+ */
+@State(Scope.Thread)
+public class SearchBenchmark {
+
+    private static final int VOCABULARY = 20000;
+
+    @Param({"10000"})
+    public int entries;
+
+    @Param({"300"})
+    public int words;
+
+    private File directory;
+    private SearchIndex index;
+    private String[] vocabulary;
+    private double[] cumulative;
+    private Random random;
+    private String savedText;
+    private String commonTerm;
+    private String phrase;
+    private String rareTerm;
+
+    @Setup(Level.Trial)
+    public void buildIndex() throws IOException {
+        random = new Random(SyntheticDocument.SEED);
+        vocabulary = new String[VOCABULARY];
+        cumulative = new double[VOCABULARY];
+        double sum = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            StringBuilder word = new StringBuilder();
+            for (int length = 2 + random.nextInt(8); length > 0; length--) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            vocabulary[i] = word.toString() + i;
+            sum += 1.0 / (i + 1);
+            cumulative[i] = sum;
+        }
+        for (int i = 0; i < VOCABULARY; i++) {
+            cumulative[i] /= sum;
+        }
+
+        directory = File.createTempFile("search", "");
+        if (!directory.delete()) {
+            throw new IOException("Could not make " + directory);
+        }
+        index = new SearchIndex(directory, new SecretKeySpec(new byte[32], "AES"), 0); //no commit delay: every update waits for its syncs anyway
+        Map<Long, String> batch = new LinkedHashMap<>();
+        for (long id = 0; id < entries; id++) {
+            batch.put(id, text(words));
+            if (batch.size() == SearchIndex.BLOCK_SIZE) {
+                index.update(batch);
+                batch.clear();
+            }
+        }
+        index.update(batch);
+        savedText = text(words);
+        index.update(entries - 1, savedText);
+
+        commonTerm = vocabulary[0];
+        phrase = vocabulary[3] + " " + vocabulary[40];
+        rareTerm = vocabulary[5000];
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteIndex() throws IOException {
+        index.close();
+        delete(directory);
+    }
+
+    @Benchmark
+    public List<SearchIndex.Result> searchCommonTerm() throws IOException {
+        return index.search(commonTerm, 20);
+    }
+
+    @Benchmark
+    public List<SearchIndex.Result> searchTwoTerms() throws IOException {
+        return index.search(phrase, 20);
+    }
+
+    @Benchmark
+    public List<SearchIndex.Result> searchRareTerm() throws IOException {
+        return index.search(rareTerm, 20);
+    }
+
+    @Benchmark
+    public int saveWithSentenceAdded() throws IOException {
+        savedText = savedText + ". " + text(12);
+        if (savedText.length() > words * 20) {
+            savedText = text(words);
+        }
+        return index.update(entries - 1, savedText);
+    }
+
+    private String text(int wordCount) {
+        StringBuilder text = new StringBuilder(wordCount * 8);
+        for (int i = 0; i < wordCount; i++) {
+            int word = Arrays.binarySearch(cumulative, random.nextDouble());
+            text.append(vocabulary[word < 0 ? Math.min(-word - 1, VOCABULARY - 1) : word]).append(' ');
+        }
+        return text.toString();
+    }
+
+    private static void delete(File file) throws IOException {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        if (!file.delete()) {
+            throw new IOException("Could not delete " + file);
+        }
+    }
+
+}
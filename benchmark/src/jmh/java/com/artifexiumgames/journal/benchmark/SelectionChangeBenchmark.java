@@ -0,0 +1,73 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+import android.text.Spanned;
+
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+import com.artifexiumgames.journal.RichEditText.StyleRunTable;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * RichEditText.updateTextStylesOnSelectionChange: resolving the state of the toolbar while a cursor
+ * is dragged through the document, and while a selection handle is dragged. A text color is also set
+ * over every few paragraphs, over the colors of the runs, before the document is styled.
+ * <p>
+ *  The cost per operation should not depend on the length of the document: the score at 1M characters
+ *  should stay within a few times the score at 1k, where scanning the runs would be about 1000 times
+ *  slower. Compare the {@code length} params of a run, or a run against a baseline with jmhCompare.
+ * </p>
+ */
+@State(Scope.Thread)
+public class SelectionChangeBenchmark {
+
+    private static final int OVERLAP_LENGTH = 400;
+
+    private StyleRunTable styles;
+    private int length;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void styleDocument(DocumentState document) {
+        Editable text = document.fresh();
+        for (int start = 0; start + OVERLAP_LENGTH < text.length(); start += 2 * OVERLAP_LENGTH) {
+            text.setSpan(new HostSpans.ForegroundColor(0xFF808080), start, start + OVERLAP_LENGTH, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        }
+        styles = new PieceTableEditable(text, HostSpans.TYPES).getStyleRuns();
+        length = text.length();
+        cursor = 0;
+    }
+
+    @Benchmark
+    public void dragCursor(Blackhole blackhole) {
+        cursor = (cursor + 3) % length;
+        updateToolbar(cursor, cursor, blackhole);
+    }
+
+    @Benchmark
+    public void dragSelectionHandle(Blackhole blackhole) {
+        cursor = (cursor + 3) % length;
+        updateToolbar(cursor / 2, cursor, blackhole);
+    }
+
+    /**
+     * The queries of RichEditText.updateTextStylesOnSelectionChange
+     */
+    private void updateToolbar(int selStart, int selEnd, Blackhole blackhole) {
+        blackhole.consume(styles.findStyle(RichTextCodec.TYPE_BOLD, selStart, selEnd) >= 0);
+        blackhole.consume(styles.findStyle(RichTextCodec.TYPE_ITALIC, selStart, selEnd) >= 0);
+        blackhole.consume(styles.findStyle(RichTextCodec.TYPE_UNDERLINE, selStart, selEnd) >= 0);
+        blackhole.consume(styles.findStyle(RichTextCodec.TYPE_STRIKETHROUGH, selStart, selEnd) >= 0);
+        int textColor = styles.findStyle(RichTextCodec.TYPE_FOREGROUND_COLOR, selStart, selEnd);
+        blackhole.consume(textColor >= 0 ? StyleRunTable.foregroundOf(styles.getColors(textColor)) : 0);
+        int highlightColor = styles.findStyle(RichTextCodec.TYPE_BACKGROUND_COLOR, selStart, selEnd);
+        blackhole.consume(highlightColor >= 0 ? StyleRunTable.backgroundOf(styles.getColors(highlightColor)) : 0);
+    }
+}
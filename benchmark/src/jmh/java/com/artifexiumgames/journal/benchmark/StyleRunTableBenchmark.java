@@ -0,0 +1,225 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+import com.artifexiumgames.journal.RichEditText.RichTextCodec;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * The styles of the editor as a StyleRunTable, drawn by spans of its runs made when asked for, against a
+ * span per style and stretch of text: loading a document, decoding it, clearing its formatting, within a
+ * selection of 1000 characters or all of it, and typing into it.
+ * <p>
+ *  {@link #footprint(Footprint)} reports what either model holds, as the counters of {@link Footprint}.
+ *  Its score means nothing.
+ * </p>
+ * <p>
+ *  Clearing works on fresh {@link Copies} made outside of the measurement. The time to make them is not
+ *  measured, but the gc profiler counts what they allocate. Typing works on {@link Typing} copies made once
+ *  per iteration, a character being typed and deleted again at a cursor, as when typing in one place.
+ * </p>
+ */
+@State(Scope.Thread)
+public class StyleRunTableBenchmark {
+
+    /**
+     * The documents decoded at once to measure how much of the heap they hold, about 4M characters in all
+     */
+    private static final int FOOTPRINT_CHARACTERS = 4000000;
+
+    private final RichTextCodec codec = new RichTextCodec(HostSpans.TYPES);
+    private final PieceTableEditable.Factory styledFactory = PieceTableEditable.factory(HostSpans.TYPES);
+    private byte[] encoded;
+    private long runs;
+    private long styleSpans;
+    private long spanBytes;
+    private long styledBytes;
+
+    /**
+     * A copy of the document in either model, and a cursor, per operation
+     */
+    @State(Scope.Thread)
+    public static class Copies {
+        Editable spans;
+        PieceTableEditable styled;
+        int cursor;
+
+        @Setup(Level.Invocation)
+        public void copyDocument(DocumentState document) {
+            spans = document.fresh();
+            styled = new PieceTableEditable(document.template, HostSpans.TYPES);
+            cursor = document.nextCursor();
+        }
+    }
+
+    /**
+     * A copy of the document in either model, and a cursor, per iteration
+     */
+    @State(Scope.Thread)
+    public static class Typing {
+        Editable spans;
+        PieceTableEditable styled;
+        int cursor;
+
+        @Setup(Level.Iteration)
+        public void copyDocument(DocumentState document) {
+            spans = document.fresh();
+            styled = new PieceTableEditable(document.template, HostSpans.TYPES);
+            cursor = document.nextCursor();
+        }
+    }
+
+    /**
+     * What the styles of the document hold in either model: the runs of the table and the spans per
+     * style, and the bytes of the heap a decoded document holds on top of its text alone, with a span per
+     * style ({@code spanBytes}) or as a table ({@code styledBytes}), once every span of it was asked for
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long runs;
+        public long styleSpans;
+        public long spanBytes;
+        public long styledBytes;
+    }
+
+    @Setup(Level.Trial)
+    public void encodeDocument(DocumentState document) throws Exception {
+        encoded = codec.encode(document.template);
+        PieceTableEditable styled = new PieceTableEditable(document.template, HostSpans.TYPES);
+        runs = styled.getStyleRuns().getRunCount();
+        styleSpans = document.template.getSpans(0, document.length, Object.class).length;
+
+        int copies = Math.max(1, FOOTPRINT_CHARACTERS / document.length);
+        long textBytes = heldBytes(codec.encode(new PieceTableEditable(document.template.toString())), PieceTableEditable.FACTORY, copies);
+        spanBytes = heldBytes(encoded, PieceTableEditable.FACTORY, copies) - textBytes;
+        styledBytes = heldBytes(encoded, styledFactory, copies) - textBytes;
+    }
+
+    /**
+     * @return the bytes of the heap a document decoded from {@code data} holds, from {@code copies} of it
+     * held at once, every span of which was asked for, as a layout does
+     */
+    private long heldBytes(byte[] data, Editable.Factory factory, int copies) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        Editable[] held = new Editable[copies];
+        long before = usedAfterGc(memory);
+        for (int i = 0; i < copies; i++) {
+            held[i] = codec.decode(data, factory);
+            held[i].getSpans(0, held[i].length(), Object.class);
+        }
+        long after = usedAfterGc(memory);
+        if (held[copies - 1].length() < 0) {
+            throw new AssertionError(); //keeps the copies reachable until here
+        }
+        return (after - before) / copies;
+    }
+
+    private static long usedAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    @Benchmark
+    public long footprint(Footprint footprint) {
+        footprint.runs = runs;
+        footprint.styleSpans = styleSpans;
+        footprint.spanBytes = spanBytes;
+        footprint.styledBytes = styledBytes;
+        return styledBytes;
+    }
+
+    @Benchmark
+    public Editable loadSpans(DocumentState document) {
+        return new PieceTableEditable(document.template);
+    }
+
+    @Benchmark
+    public Editable loadStyled(DocumentState document) {
+        return new PieceTableEditable(document.template, HostSpans.TYPES);
+    }
+
+    @Benchmark
+    public Editable decodeSpans() throws Exception {
+        return codec.decode(encoded, PieceTableEditable.FACTORY);
+    }
+
+    @Benchmark
+    public Editable decodeStyled() throws Exception {
+        return codec.decode(encoded, styledFactory);
+    }
+
+    @Benchmark
+    public Editable clearAllSpans(Copies copies) {
+        for (Object span : copies.spans.getSpans(0, copies.spans.length(), Object.class)) {
+            if (HostSpans.TYPES.typeOf(span) >= 0) {
+                copies.spans.removeSpan(span);
+            }
+        }
+        return copies.spans;
+    }
+
+    @Benchmark
+    public Editable clearAllStyled(Copies copies) {
+        copies.styled.clearStyles(0, copies.styled.length());
+        return copies.styled;
+    }
+
+    @Benchmark
+    public Editable clearSelectionSpans(Copies copies) {
+        Editable text = copies.spans;
+        int start = copies.cursor;
+        int end = Math.min(text.length(), start + 1000);
+        for (Object span : text.getSpans(start, end, Object.class)) {
+            int type = HostSpans.TYPES.typeOf(span);
+            if (type < 0) {
+                continue;
+            }
+            int spanStart = text.getSpanStart(span);
+            int spanEnd = text.getSpanEnd(span);
+            int flags = text.getSpanFlags(span);
+            if (spanStart < start && spanEnd > end) {
+                text.setSpan(HostSpans.TYPES.newSpan(type, HostSpans.TYPES.attributeOf(span)), end, spanEnd, flags);
+                text.setSpan(span, spanStart, start, flags);
+            } else if (spanStart < start) {
+                text.setSpan(span, spanStart, start, flags);
+            } else if (spanEnd > end) {
+                text.setSpan(span, end, spanEnd, flags);
+            } else {
+                text.removeSpan(span);
+            }
+        }
+        return text;
+    }
+
+    @Benchmark
+    public Editable clearSelectionStyled(Copies copies) {
+        copies.styled.clearStyles(copies.cursor, Math.min(copies.styled.length(), copies.cursor + 1000));
+        return copies.styled;
+    }
+
+    @Benchmark
+    public Editable typeSpans(Typing typing) {
+        typing.spans.insert(typing.cursor, "x");
+        return typing.spans.delete(typing.cursor, typing.cursor + 1);
+    }
+
+    @Benchmark
+    public Editable typeStyled(Typing typing) {
+        typing.styled.insert(typing.cursor, "x");
+        return typing.styled.delete(typing.cursor, typing.cursor + 1);
+    }
+}
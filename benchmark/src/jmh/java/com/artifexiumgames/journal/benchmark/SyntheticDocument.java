@@ -0,0 +1,101 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+import android.text.Spanned;
+
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.PieceTableEditable;
+
+import java.util.Random;
+
+/**
+ * Builds journal-like documents for the benchmarks: words of 1 to 10 letters, paragraphs of a few
+ * lines, and style runs over a few words at a time, the way they are left by the editor.
+ * The same length, density and seed always give the same document, in a {@link PieceTableEditable} as
+ * the editor holds it.
+ */
+public final class SyntheticDocument {
+
+    public static final long SEED = 0x6A6F75726E616CL;
+
+    private static final int[] COLORS = {0xFF000000, 0xFF008000, 0xFF0000FF, 0xFFFF0000, 0xFFFFA500};
+
+    private SyntheticDocument() {
+        //Static builder only
+    }
+
+    /**
+     * @param length      the number of characters of the document
+     * @param spanDensity the chance, per word, that a style run starts at it (e.g. 0.05 for a lightly
+     *                    formatted entry, 0.3 for a heavily formatted one)
+     */
+    public static Editable build(int length, double spanDensity) {
+        Random random = new Random(SEED);
+        StringBuilder builder = new StringBuilder(length + 16);
+        while (builder.length() < length) {
+            int wordLength = 1 + random.nextInt(10);
+            for (int i = 0; i < wordLength; i++) {
+                builder.append((char) ('a' + random.nextInt(26)));
+            }
+            builder.append(random.nextInt(40) == 0 ? '\n' : ' ');
+        }
+        builder.setLength(length);
+        Editable text = new PieceTableEditable(builder);
+
+        //Runs of the same class never overlap, as in the editor
+        int[] freeFrom = new int[HostSpans.TRACKED_CLASSES.length];
+        int wordStart = 0;
+        while (wordStart < length) {
+            int wordEnd = nextSpace(builder, wordStart);
+            if (random.nextDouble() < spanDensity) {
+                int style = random.nextInt(freeFrom.length);
+                int runEnd = wordEnd;
+                for (int words = random.nextInt(8); words > 0 && runEnd < length; words--) {
+                    runEnd = nextSpace(builder, runEnd + 1);
+                }
+                if (wordStart >= freeFrom[style] && runEnd > wordStart) {
+                    text.setSpan(newSpan(style, random), wordStart, runEnd, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+                    freeFrom[style] = runEnd + 1;
+                }
+            }
+            wordStart = wordEnd + 1;
+        }
+        return text;
+    }
+
+    /**
+     * @return the position of a word in the middle of {@code text}, at least {@code from}
+     */
+    public static int wordAt(CharSequence text, int from) {
+        int i = Math.min(from, text.length() - 1);
+        while (i < text.length() - 1 && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int nextSpace(CharSequence text, int from) {
+        int i = from;
+        while (i < text.length() && !Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static Object newSpan(int style, Random random) {
+        switch (style) {
+            case 0:
+                return new HostSpans.Bold();
+            case 1:
+                return new HostSpans.Italic();
+            case 2:
+                return new HostSpans.Underline();
+            case 3:
+                return new HostSpans.Strikethrough();
+            case 4:
+                return new HostSpans.ForegroundColor(COLORS[random.nextInt(COLORS.length)]);
+            default:
+                return new HostSpans.BackgroundColor(COLORS[random.nextInt(COLORS.length)] & 0xA8FFFFFF);
+        }
+    }
+}
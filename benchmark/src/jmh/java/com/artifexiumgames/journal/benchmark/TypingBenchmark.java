@@ -0,0 +1,67 @@
+package com.artifexiumgames.journal.benchmark;
+
+import android.text.Editable;
+
+import com.artifexiumgames.journal.RichEditText.HostSpans;
+import com.artifexiumgames.journal.RichEditText.InputStyler;
+import com.artifexiumgames.journal.RichEditText.SpanFactory;
+import com.artifexiumgames.journal.RichEditText.SpanRunEngine;
+import com.artifexiumgames.journal.RichEditText.UndoHistory;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * RichEditText.onTextChanged: styling one typed character, with bold and a text color turned on, through
+ * the {@link InputStyler} the editor styles its input with.
+ * <p>
+ *  {@link #typeAndDelete(DocumentState)} types a character and deletes it again, and includes the cost of
+ *  the edit in the document. {@link #styleInput(DocumentState)} measures the styling alone, on a character
+ *  already in the text. Both record the styling in an {@link UndoHistory} and undo it, so the runs do not
+ *  pile up over an iteration and the document stays the same from one operation to the next. The scores
+ *  include the undo.
+ * </p>
+ */
+@State(Scope.Thread)
+public class TypingBenchmark {
+
+    private final InputStyler styler = new InputStyler(new SpanRunEngine(),
+            HostSpans.BOLD, HostSpans.ITALIC, HostSpans.UNDERLINE, HostSpans.STRIKETHROUGH);
+    private final SpanFactory<HostSpans.ForegroundColor> textColor = HostSpans.foregroundColor(0xFF0000FF);
+    private final SpanFactory<HostSpans.BackgroundColor> highlightColor = HostSpans.backgroundColor(0xA8FFFF00);
+    private final UndoHistory history = new UndoHistory(HostSpans.TYPES);
+    private Editable text;
+
+    @Setup(Level.Iteration)
+    public void copyDocument(DocumentState document) {
+        text = document.fresh();
+    }
+
+    @Benchmark
+    public Editable typeAndDelete(DocumentState document) {
+        int start = document.nextCursor();
+        text.insert(start, "a");
+        styleAndUndo(start);
+        text.delete(start, start + 1);
+        return text;
+    }
+
+    @Benchmark
+    public Editable styleInput(DocumentState document) {
+        styleAndUndo(document.nextCursor());
+        return text;
+    }
+
+    /**
+     * Styles the character typed at {@code start}, as RichEditText.onTextChanged does, then undoes it
+     */
+    private void styleAndUndo(int start) {
+        history.beginStyleEdit(text, start, start + 1);
+        styler.onTextChanged(text, start, 0, 1, InputStyler.STYLE_BOLD, textColor, highlightColor, false);
+        history.endStyleEdit(text);
+        history.undo(text);
+    }
+}